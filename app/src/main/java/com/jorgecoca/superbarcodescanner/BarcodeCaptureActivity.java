@@ -16,20 +16,33 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeConsensus;
 import com.jorgecoca.superbarcodescanner.barcode.BarcodeGraphic;
 import com.jorgecoca.superbarcodescanner.barcode.BarcodeTrackerFactory;
+import com.jorgecoca.superbarcodescanner.bus.ResultBus;
 import com.jorgecoca.superbarcodescanner.camera.CameraSource;
 import com.jorgecoca.superbarcodescanner.camera.CameraSourcePreview;
 import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
-
+import com.jorgecoca.superbarcodescanner.catalog.CatalogIndex;
+import com.jorgecoca.superbarcodescanner.catalog.CatalogLookup;
+import com.jorgecoca.superbarcodescanner.filter.BarcodeFilter;
+import com.jorgecoca.superbarcodescanner.filter.BloomFilter;
+import com.jorgecoca.superbarcodescanner.filter.PrefixTrie;
+import com.jorgecoca.superbarcodescanner.push.ScanPushServer;
+
+import java.io.File;
 import java.io.IOException;
 
 public class BarcodeCaptureActivity extends AppCompatActivity {
@@ -42,10 +55,25 @@ public class BarcodeCaptureActivity extends AppCompatActivity {
     public static final String AutoFocus = "AutoFocus";
     public static final String UseFlash = "UseFlash";
     public static final String BarcodeObject = "Barcode";
+    // boolean, for views full of codes: the overlay culls labels that would overlap, see GraphicOverlay
+    public static final String DenseScene = "DenseScene";
+    private static final int DENSE_SCENE_CELL_SIZE = 160;
+    // port to push scans to point-of-sale terminals on, see ScanPushServer; off when absent
+    public static final String PushPort = "PushPort";
+    // product catalog written by CatalogIndexWriter, looked up when present in the files directory
+    private static final String CATALOG_FILE = "catalog.idx";
+    // when either is present in the files directory, only codes they match are tracked: numeric
+    // prefixes one per line, or a BloomFilter written with BloomFilter.write()
+    private static final String ALLOWED_PREFIXES_FILE = "allowed-prefixes.txt";
+    private static final String ALLOWED_BLOOM_FILE = "allowed.bloom";
 
     private CameraSource cameraSource;
     private CameraSourcePreview preview;
     private GraphicOverlay<BarcodeGraphic> graphicOverlay;
+    private CatalogLookup catalogLookup;
+    // accepted barcodes for other components, which read it through their own subscriptions
+    private final ResultBus resultBus = new ResultBus.Builder(64).build();
+    private ScanPushServer pushServer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,6 +88,9 @@ public class BarcodeCaptureActivity extends AppCompatActivity {
         // read parameters from the intent used to launch the activity.
         boolean autoFocus = getIntent().getBooleanExtra(AutoFocus, false);
         boolean useFlash = getIntent().getBooleanExtra(UseFlash, false);
+        int pushPort = getIntent().getIntExtra(PushPort, 0);
+        if (pushPort > 0) startPushServer(pushPort);
+        graphicOverlay.setDenseScene(getIntent().getBooleanExtra(DenseScene, false), DENSE_SCENE_CELL_SIZE);
 
         // Check for the camera permission before accessing the camera.  If the
         // permission is not granted yet, request permission.
@@ -81,6 +112,25 @@ public class BarcodeCaptureActivity extends AppCompatActivity {
         });
     }
 
+    // Returns the barcode tapped on to the caller.
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (event.getAction() == MotionEvent.ACTION_UP) {
+            int[] location = new int[2];
+            graphicOverlay.getLocationOnScreen(location);
+            BarcodeGraphic graphic = graphicOverlay.getGraphicAt(event.getRawX() - location[0], event.getRawY() - location[1]);
+            Barcode barcode = graphic != null ? graphic.getBarcode() : null;
+            if (barcode != null) {
+                Intent data = new Intent();
+                data.putExtra(BarcodeObject, barcode);
+                setResult(CommonStatusCodes.SUCCESS, data);
+                finish();
+                return true;
+            }
+        }
+        return super.onTouchEvent(event);
+    }
+
     private void requestCameraPermission() {
         Log.w(TAG, "Camera permission is not granted. Requesting permission");
         final String[] permissions = new String[]{ Manifest.permission.CAMERA };
@@ -106,8 +156,15 @@ public class BarcodeCaptureActivity extends AppCompatActivity {
         Context context = getApplicationContext();
 
         BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(context).build();
-        BarcodeTrackerFactory barcodeTrackerFactory = new BarcodeTrackerFactory(graphicOverlay);
-        barcodeDetector.setProcessor(new MultiProcessor.Builder<>(barcodeTrackerFactory).build());
+        if (catalogLookup == null) catalogLookup = openCatalog();
+        BarcodeTrackerFactory barcodeTrackerFactory = new BarcodeTrackerFactory(graphicOverlay, catalogLookup,
+                new BarcodeConsensus.Builder().build(), resultBus);
+        Detector.Processor<Barcode> processor = new MultiProcessor.Builder<>(barcodeTrackerFactory).build();
+        BarcodeFilter.Matcher allowed = openAllowedCodes();
+        if (allowed != null) {
+            processor = new BarcodeFilter.Builder(processor, allowed).build();
+        }
+        barcodeDetector.setProcessor(processor);
 
         if (! barcodeDetector.isOperational()) {
             // Note: The first time that an app using the barcode or face API is installed on a
@@ -167,6 +224,43 @@ public class BarcodeCaptureActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         if (preview != null) preview.release();
+        if (catalogLookup != null) catalogLookup.release();
+        if (pushServer != null) pushServer.stop();
+    }
+
+    public ResultBus getResultBus() {
+        return resultBus;
+    }
+
+    private void startPushServer(int port) {
+        try {
+            pushServer = new ScanPushServer.Builder(resultBus).setPort(port).build().start();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start scan push server on port " + port, e);
+        }
+    }
+
+    private BarcodeFilter.Matcher openAllowedCodes() {
+        File prefixes = new File(getFilesDir(), ALLOWED_PREFIXES_FILE);
+        File bloom = new File(getFilesDir(), ALLOWED_BLOOM_FILE);
+        try {
+            if (prefixes.exists()) return PrefixTrie.load(prefixes);
+            if (bloom.exists()) return BloomFilter.read(bloom);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Unable to load allowed codes, tracking every code", e);
+        }
+        return null;
+    }
+
+    private CatalogLookup openCatalog() {
+        File file = new File(getFilesDir(), CATALOG_FILE);
+        if (!file.exists()) return null;
+        try {
+            return new CatalogLookup(CatalogIndex.open(file));
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open product catalog " + file, e);
+            return null;
+        }
     }
 
     @Override
@@ -0,0 +1,145 @@
+package com.jorgecoca.superbarcodescanner.barcode;
+
+import android.util.SparseIntArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// Holds a tracked barcode back from the tracker behind it until the same value has been read a
+// number of times within a window of frames, so a single misread of a damaged code never reaches
+// the user.  How many agreeing reads are needed depends on how well the symbology guards against
+// misreads: one for 2D codes with Reed-Solomon error correction, two for 1D codes with a check
+// digit, three for those without.
+//
+// Each wrapped tracker keeps the reads of its window in fixed-size ring buffers, allocated when
+// the tracker is created; the tracker callbacks themselves allocate nothing and take no locks.
+public class BarcodeConsensus {
+
+    private int windowFrames = 10;
+    private int defaultRequiredReads = 2;
+    private final SparseIntArray requiredReads = new SparseIntArray();
+
+    // allow only creation via builder class
+    private BarcodeConsensus() { }
+
+    public static class Builder {
+        private BarcodeConsensus consensus = new BarcodeConsensus();
+
+        public Builder() {
+            for (int format : new int[] { Barcode.QR_CODE, Barcode.DATA_MATRIX, Barcode.PDF417, Barcode.AZTEC }) {
+                consensus.requiredReads.put(format, 1);
+            }
+            for (int format : new int[] { Barcode.EAN_13, Barcode.EAN_8, Barcode.UPC_A, Barcode.UPC_E,
+                    Barcode.CODE_128, Barcode.CODE_93 }) {
+                consensus.requiredReads.put(format, 2);
+            }
+            for (int format : new int[] { Barcode.CODE_39, Barcode.CODABAR, Barcode.ITF }) {
+                consensus.requiredReads.put(format, 3);
+            }
+        }
+
+        // Number of most recent frames in which agreeing reads are counted.
+        public Builder setWindowFrames(int windowFrames) {
+            if (windowFrames <= 0) throw new IllegalArgumentException("Invalid window: " + windowFrames);
+            consensus.windowFrames = windowFrames;
+            return this;
+        }
+
+        // Agreeing reads needed before a value of format is accepted.
+        public Builder setRequiredReads(int format, int reads) {
+            if (reads <= 0) throw new IllegalArgumentException("Invalid required reads: " + reads);
+            consensus.requiredReads.put(format, reads);
+            return this;
+        }
+
+        // Agreeing reads needed for formats without a setting of their own.
+        public Builder setDefaultRequiredReads(int reads) {
+            if (reads <= 0) throw new IllegalArgumentException("Invalid required reads: " + reads);
+            consensus.defaultRequiredReads = reads;
+            return this;
+        }
+
+        public BarcodeConsensus build() {
+            for (int i = 0; i < consensus.requiredReads.size(); i++) {
+                if (consensus.requiredReads.valueAt(i) > consensus.windowFrames) {
+                    throw new IllegalArgumentException("Required reads " + consensus.requiredReads.valueAt(i)
+                            + " exceed the window of " + consensus.windowFrames + " frames");
+                }
+            }
+            if (consensus.defaultRequiredReads > consensus.windowFrames) {
+                throw new IllegalArgumentException("Required reads " + consensus.defaultRequiredReads
+                        + " exceed the window of " + consensus.windowFrames + " frames");
+            }
+            return consensus;
+        }
+    }
+
+    public int getRequiredReads(int format) {
+        return requiredReads.get(format, defaultRequiredReads);
+    }
+
+    public Tracker<Barcode> wrap(Tracker<Barcode> delegate) {
+        return new ConsensusTracker(delegate);
+    }
+
+    private class ConsensusTracker extends Tracker<Barcode> {
+        private final Tracker<Barcode> delegate;
+        // the last windowFrames reads of this track, oldest overwritten first
+        private final String[] values = new String[windowFrames];
+        private final int[] frameIds = new int[windowFrames];
+        private int head = 0;
+        private int reads = 0;
+
+        private int id;
+        // value the delegate currently shows, null until one has been agreed on
+        private String accepted;
+
+        ConsensusTracker(Tracker<Barcode> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onNewItem(int id, Barcode item) {
+            // the delegate hears about the item once its value has been agreed on
+            this.id = id;
+        }
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            String value = item.rawValue;
+            int frameId = detections.getFrameMetadata().getId();
+            values[head] = value;
+            frameIds[head] = frameId;
+            head = (head + 1) % values.length;
+            if (reads < values.length) reads++;
+
+            if (accepted != null && accepted.equals(value)) {
+                delegate.onUpdate(detections, item);
+            } else if (value != null && agreeingReads(value, frameId) >= getRequiredReads(item.format)) {
+                if (accepted == null) delegate.onNewItem(id, item);
+                accepted = value;
+                delegate.onUpdate(detections, item);
+            }
+            // otherwise a disagreeing read: the delegate keeps showing what it had
+        }
+
+        @Override
+        public void onMissing(Detector.Detections<Barcode> detections) {
+            if (accepted != null) delegate.onMissing(detections);
+        }
+
+        @Override
+        public void onDone() {
+            if (accepted != null) delegate.onDone();
+        }
+
+        private int agreeingReads(String value, int frameId) {
+            int agreeing = 0;
+            for (int i = 0; i < reads; i++) {
+                if (frameId - frameIds[i] < windowFrames && value.equals(values[i])) agreeing++;
+            }
+            return agreeing;
+        }
+    }
+}
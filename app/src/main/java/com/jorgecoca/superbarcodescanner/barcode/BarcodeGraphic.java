@@ -4,18 +4,24 @@ package com.jorgecoca.superbarcodescanner.barcode;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Point;
 import android.graphics.RectF;
 
 import com.google.android.gms.vision.barcode.Barcode;
 import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+import com.jorgecoca.superbarcodescanner.payload.BarcodePayload;
 
 public class BarcodeGraphic extends GraphicOverlay.Graphic {
 
-    private int ID;
+    private volatile int ID;
     private static int currentColorIndex = 0;
     private Paint rectPaint;
     private Paint textPaint;
     private volatile Barcode barcode;
+    private volatile String catalogRecord;
+    private volatile BarcodePayload payload;
+    // only touched while drawing
+    private final RectF rect = new RectF();
 
     private static final int COLOR_CHOICES[] = {
             Color.BLUE,
@@ -23,19 +29,39 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
             Color.GREEN
     };
 
+    // one pair per color, shared by every graphic and only read while drawing
+    private static final Paint RECT_PAINTS[] = new Paint[COLOR_CHOICES.length];
+    private static final Paint TEXT_PAINTS[] = new Paint[COLOR_CHOICES.length];
+
+    static {
+        for (int i = 0; i < COLOR_CHOICES.length; i++) {
+            RECT_PAINTS[i] = new Paint();
+            RECT_PAINTS[i].setColor(COLOR_CHOICES[i]);
+            RECT_PAINTS[i].setStyle(Paint.Style.STROKE);
+            RECT_PAINTS[i].setStrokeWidth(4.0f);
+
+            TEXT_PAINTS[i] = new Paint();
+            TEXT_PAINTS[i].setColor(COLOR_CHOICES[i]);
+            TEXT_PAINTS[i].setTextSize(36.0f);
+        }
+    }
+
     BarcodeGraphic(GraphicOverlay overlay) {
         super(overlay);
-        currentColorIndex = (currentColorIndex + 1) % COLOR_CHOICES.length;
-        final int selectedColor = COLOR_CHOICES[currentColorIndex];
-
-        rectPaint = new Paint();
-        rectPaint.setColor(selectedColor);
-        rectPaint.setStyle(Paint.Style.STROKE);
-        rectPaint.setStrokeWidth(4.0f);
+        reset();
+    }
 
-        textPaint = new Paint();
-        textPaint.setColor(selectedColor);
-        textPaint.setTextSize(36.0f);
+    // Clears the graphic for another barcode, in the next color.
+    void reset() {
+        ID = 0;
+        barcode = null;
+        catalogRecord = null;
+        payload = null;
+        synchronized (BarcodeGraphic.class) {
+            currentColorIndex = (currentColorIndex + 1) % COLOR_CHOICES.length;
+            rectPaint = RECT_PAINTS[currentColorIndex];
+            textPaint = TEXT_PAINTS[currentColorIndex];
+        }
     }
 
     public int getID() {
@@ -50,8 +76,24 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
         return barcode;
     }
 
-    void updateItem(Barcode barcode) {
+    // The parsed value of the barcode, e.g. its GS1 batch and expiry.  Parsing happens on the first
+    // read of a field, not on the detection thread.
+    public BarcodePayload getPayload() {
+        return payload;
+    }
+
+    public String getCatalogRecord() {
+        return catalogRecord;
+    }
+
+    void setCatalogRecord(String catalogRecord) {
+        this.catalogRecord = catalogRecord;
+        postInvalidate();
+    }
+
+    void updateItem(Barcode barcode, BarcodePayload payload) {
         this.barcode = barcode;
+        this.payload = payload;
         postInvalidate();
     }
 
@@ -61,14 +103,39 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
         if (tmpBarcode == null) return;
 
         // draws the bouding box around the barcode
-        RectF rect = new RectF(barcode.getBoundingBox());
-        rect.left = translateX(rect.left);
-        rect.top = translateY(rect.top);
-        rect.right = translateX(rect.right);
-        rect.bottom = translateY(rect.bottom);
+        if (!getBounds(tmpBarcode, rect)) return;
         canvas.drawRect(rect, rectPaint);
 
-        // draws the label with the value detected
-        canvas.drawText(barcode.rawValue, rect.left, rect.bottom, textPaint);
+        // draws the label with the catalog record, or the value detected until one is found
+        String record = catalogRecord;
+        canvas.drawText(record != null ? record : tmpBarcode.rawValue, rect.left, rect.bottom, textPaint);
+    }
+
+    @Override
+    public boolean getBounds(RectF bounds) {
+        Barcode tmpBarcode = barcode;
+        return tmpBarcode != null && getBounds(tmpBarcode, bounds);
+    }
+
+    // The bounding box in view coordinates, from the corners rather than getBoundingBox() which
+    // allocates a Rect.
+    private boolean getBounds(Barcode barcode, RectF bounds) {
+        Point[] corners = barcode.cornerPoints;
+        if (corners == null || corners.length == 0) return false;
+        int left = corners[0].x;
+        int top = corners[0].y;
+        int right = left;
+        int bottom = top;
+        for (int i = 1; i < corners.length; i++) {
+            left = Math.min(left, corners[i].x);
+            top = Math.min(top, corners[i].y);
+            right = Math.max(right, corners[i].x);
+            bottom = Math.max(bottom, corners[i].y);
+        }
+        // sorted, as the front camera mirrors x
+        float x0 = translateX(left);
+        float x1 = translateX(right);
+        bounds.set(Math.min(x0, x1), translateY(top), Math.max(x0, x1), translateY(bottom));
+        return true;
     }
 }
@@ -4,34 +4,75 @@ import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+import com.jorgecoca.superbarcodescanner.catalog.CatalogLookup;
+import com.jorgecoca.superbarcodescanner.payload.PayloadCache;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
 
 public class BarcodeGraphicTracker extends Tracker<Barcode> {
+    private BarcodeTrackerFactory factory;
     private GraphicOverlay<BarcodeGraphic> overlay;
     private BarcodeGraphic graphic;
+    private CatalogLookup catalogLookup;
+    private PayloadCache payloadCache;
 
-    BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> overlay, BarcodeGraphic graphic) {
+    BarcodeGraphicTracker(BarcodeTrackerFactory factory, GraphicOverlay<BarcodeGraphic> overlay, BarcodeGraphic graphic,
+                          CatalogLookup catalogLookup, PayloadCache payloadCache) {
+        this.factory = factory;
         this.overlay = overlay;
         this.graphic = graphic;
+        this.catalogLookup = catalogLookup;
+        this.payloadCache = payloadCache;
     }
 
     @Override
-    public void onNewItem(int id, Barcode item) {
-        graphic.setID(id);
+    public void onNewItem(final int id, Barcode item) {
+        ScanTrace.begin(ScanTrace.TRACKER_NEW_ITEM);
+        try {
+            graphic.setID(id);
+            if (catalogLookup != null) {
+                catalogLookup.lookup(item.rawValue, new CatalogLookup.Callback() {
+                    @Override
+                    public void onLookup(String value, String record) {
+                        // the graphic may have moved on to another barcode by now
+                        if (record != null && graphic.getID() == id) graphic.setCatalogRecord(record);
+                    }
+                });
+            }
+        } finally {
+            ScanTrace.end();
+        }
     }
 
     @Override
     public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
-        overlay.add(graphic);
-        graphic.updateItem(item);
+        ScanTrace.begin(ScanTrace.TRACKER_UPDATE);
+        try {
+            // updated first, so the overlay places the graphic by its new bounds
+            graphic.updateItem(item, payloadCache.get(item.rawValue));
+            overlay.add(graphic);
+        } finally {
+            ScanTrace.end();
+        }
     }
 
     @Override
     public void onMissing(Detector.Detections<Barcode> detections) {
-        overlay.remove(graphic);
+        ScanTrace.begin(ScanTrace.TRACKER_MISSING);
+        try {
+            overlay.remove(graphic);
+        } finally {
+            ScanTrace.end();
+        }
     }
 
     @Override
     public void onDone() {
-        overlay.remove(graphic);
+        ScanTrace.begin(ScanTrace.TRACKER_DONE);
+        try {
+            overlay.remove(graphic);
+            factory.recycleGraphic(graphic);
+        } finally {
+            ScanTrace.end();
+        }
     }
 }
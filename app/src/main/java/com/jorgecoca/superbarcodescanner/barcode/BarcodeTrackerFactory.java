@@ -3,19 +3,80 @@ package com.jorgecoca.superbarcodescanner.barcode;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.bus.ResultBus;
 import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+import com.jorgecoca.superbarcodescanner.catalog.CatalogLookup;
+import com.jorgecoca.superbarcodescanner.payload.PayloadCache;
+
+import java.util.ArrayDeque;
 
 public class BarcodeTrackerFactory implements MultiProcessor.Factory<Barcode> {
 
+    private static final int MAX_POOLED_GRAPHICS = 16;
+
     private GraphicOverlay<BarcodeGraphic> graphicOverlay;
+    private CatalogLookup catalogLookup;
+    private BarcodeConsensus consensus;
+    private ResultBus resultBus;
+    // shared by all trackers, as the same value is usually tracked again after it is lost
+    private final PayloadCache payloadCache = new PayloadCache(64);
+    // graphics of barcodes no longer tracked, reused for new ones
+    private final ArrayDeque<BarcodeGraphic> freeGraphics = new ArrayDeque<>(MAX_POOLED_GRAPHICS);
+    private int createdGraphics;
 
     public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> graphicOverlay) {
+        this(graphicOverlay, null);
+    }
+
+    // Every newly tracked barcode is also looked up in the catalog, and the graphic labelled with
+    // its record once the lookup returns.
+    public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> graphicOverlay, CatalogLookup catalogLookup) {
+        this(graphicOverlay, catalogLookup, null);
+    }
+
+    // With a consensus, a barcode only gets a graphic and a catalog lookup once its value has been
+    // read often enough to be trusted.
+    public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> graphicOverlay, CatalogLookup catalogLookup,
+                                 BarcodeConsensus consensus) {
+        this(graphicOverlay, catalogLookup, consensus, null);
+    }
+
+    // With a result bus, every barcode that gets a graphic is also published to the bus.
+    public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> graphicOverlay, CatalogLookup catalogLookup,
+                                 BarcodeConsensus consensus, ResultBus resultBus) {
         this.graphicOverlay = graphicOverlay;
+        this.catalogLookup = catalogLookup;
+        this.consensus = consensus;
+        this.resultBus = resultBus;
+    }
+
+    public PayloadCache getPayloadCache() {
+        return payloadCache;
+    }
+
+    // Graphics created so far; barcodes tracked one after another share them.
+    public synchronized int getCreatedGraphicCount() {
+        return createdGraphics;
     }
 
     @Override
     public Tracker<Barcode> create(Barcode barcode) {
-        BarcodeGraphic graphic = new BarcodeGraphic(graphicOverlay);
-        return new BarcodeGraphicTracker(graphicOverlay, graphic);
+        Tracker<Barcode> tracker = new BarcodeGraphicTracker(this, graphicOverlay, obtainGraphic(), catalogLookup, payloadCache);
+        if (resultBus != null) tracker = resultBus.wrap(tracker);
+        return consensus != null ? consensus.wrap(tracker) : tracker;
+    }
+
+    private synchronized BarcodeGraphic obtainGraphic() {
+        BarcodeGraphic graphic = freeGraphics.poll();
+        if (graphic != null) return graphic;
+        createdGraphics++;
+        return new BarcodeGraphic(graphicOverlay);
+    }
+
+    // Called once the graphic is off the overlay for good.
+    synchronized void recycleGraphic(BarcodeGraphic graphic) {
+        if (freeGraphics.size() >= MAX_POOLED_GRAPHICS) return;
+        graphic.reset();
+        freeGraphics.offer(graphic);
     }
 }
@@ -0,0 +1,94 @@
+package com.jorgecoca.superbarcodescanner.batch;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line entry point for offline decoding, e.g.:
+//
+//   adb shell am startservice -n com.jorgecoca.superbarcodescanner/.batch.BatchDecodeService \
+//       --esa paths /sdcard/DCIM/notes,/sdcard/label.png --ei parallelism 4
+//
+// Results and the final images/sec figure are written to logcat.
+public class BatchDecodeService extends IntentService {
+
+    public static final String Paths = "paths";
+    public static final String Parallelism = "parallelism";
+    public static final String MaxImageDimension = "maxImageDimension";
+    public static final String LumaOnly = "lumaOnly";
+
+    public BatchDecodeService() {
+        super("BatchDecodeService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String[] paths = intent.getStringArrayExtra(Paths);
+        if (paths == null || paths.length == 0) {
+            Log.e("BARCODER", "No paths supplied, use --esa " + Paths + " <file-or-dir>[,...]");
+            return;
+        }
+
+        // one detector per worker, as each detector decodes one image at a time
+        int parallelism = intent.getIntExtra(Parallelism, 0);
+        if (parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors();
+        BatchDecoder.Builder builder = new BatchDecoder.Builder(createDetector())
+                .setMaxImageDimension(intent.getIntExtra(MaxImageDimension, 0))
+                .setLumaOnly(intent.getBooleanExtra(LumaOnly, false));
+        for (int i = 1; i < parallelism; i++) {
+            builder.addDetector(createDetector());
+        }
+        BatchDecoder decoder = builder.build();
+
+        List<File> inputs = new ArrayList<>();
+        for (String path : paths) {
+            inputs.add(new File(path));
+        }
+
+        try {
+            decoder.decode(inputs, new LoggingListener());
+        } finally {
+            decoder.release();
+        }
+    }
+
+    private BarcodeDetector createDetector() {
+        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(getApplicationContext()).build();
+        if (!barcodeDetector.isOperational()) {
+            Log.w("BARCODER", "Detector dependencies are not yet available.");
+        }
+        return barcodeDetector;
+    }
+
+    private static class LoggingListener implements BatchDecoder.Listener {
+        @Override
+        public void onResult(BatchDecoder.Result result) {
+            if (!result.isSuccessful()) {
+                Log.w("BARCODER", result.getFile() + ": " + result.getError());
+                return;
+            }
+
+            SparseArray<Barcode> barcodes = result.getBarcodes();
+            if (barcodes.size() == 0) {
+                Log.i("BARCODER", result.getFile() + ": no barcode found");
+            }
+            for (int i = 0; i < barcodes.size(); i++) {
+                Barcode barcode = barcodes.valueAt(i);
+                Log.i("BARCODER", result.getFile() + ": " + barcode.format + " " + barcode.rawValue);
+            }
+        }
+
+        @Override
+        public void onFinished(BatchDecoder.Stats stats) {
+            Log.i("BARCODER", "Batch decode finished: " + stats);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.jorgecoca.superbarcodescanner.batch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.camera.DetectorPool;
+import com.jorgecoca.superbarcodescanner.camera.LumaBufferPool;
+import com.jorgecoca.superbarcodescanner.camera.LumaConverter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decodes image files on a DetectorPool, one image at a time per detector.
+public class BatchDecoder {
+
+    private static final String[] IMAGE_EXTENSIONS = { ".jpg", ".jpeg", ".png" };
+
+    private int maxImageDimension = 0;
+    private boolean recursive = true;
+    private boolean lumaOnly = false;
+
+    private DetectorPool detectors;
+    private LumaBufferPool bufferPool;
+    private final ThreadLocal<int[]> rowBuffers = new ThreadLocal<>();
+
+    // allow only creation via builder class
+    private BatchDecoder() { }
+
+    public static class Builder {
+        private BatchDecoder batchDecoder = new BatchDecoder();
+        private final List<Detector<Barcode>> detectors = new ArrayList<>();
+
+        public Builder(Detector<Barcode> detector) {
+            addDetector(detector);
+        }
+
+        // Each additional detector lets one more image decode at the same time.
+        public Builder addDetector(Detector<Barcode> detector) {
+            if (detector == null) throw new IllegalArgumentException("No detector supplied");
+            detectors.add(detector);
+            return this;
+        }
+
+        // Images whose longest side exceeds this value are subsampled by a power of two while
+        // decoding.  Zero keeps the full resolution.
+        public Builder setMaxImageDimension(int maxImageDimension) {
+            if (maxImageDimension < 0) throw new IllegalArgumentException("Invalid max image dimension: " + maxImageDimension);
+            batchDecoder.maxImageDimension = maxImageDimension;
+            return this;
+        }
+
+        public Builder setRecursive(boolean recursive) {
+            batchDecoder.recursive = recursive;
+            return this;
+        }
+
+        // Hands the detector only the Y plane, skipping the neutral chroma planes otherwise
+        // written for every image.
+        public Builder setLumaOnly(boolean lumaOnly) {
+            batchDecoder.lumaOnly = lumaOnly;
+            return this;
+        }
+
+        public BatchDecoder build() {
+            batchDecoder.detectors = new DetectorPool(detectors);
+            // one buffer per worker plus one so a finishing task never waits on an allocation
+            batchDecoder.bufferPool = new LumaBufferPool(detectors.size() + 1);
+            return batchDecoder;
+        }
+    }
+
+    public interface Listener {
+        // Called from a pool thread as soon as each image has been decoded.
+        void onResult(Result result);
+
+        void onFinished(Stats stats);
+    }
+
+    public static class Result {
+        private final File file;
+        private final SparseArray<Barcode> barcodes;
+        private final long decodeTimeNanos;
+        private final String error;
+
+        Result(File file, SparseArray<Barcode> barcodes, long decodeTimeNanos, String error) {
+            this.file = file;
+            this.barcodes = barcodes;
+            this.decodeTimeNanos = decodeTimeNanos;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public SparseArray<Barcode> getBarcodes() {
+            return barcodes;
+        }
+
+        public long getDecodeTimeNanos() {
+            return decodeTimeNanos;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    public static class Stats {
+        private final int imageCount;
+        private final AtomicInteger failedCount = new AtomicInteger();
+        private final AtomicInteger barcodeCount = new AtomicInteger();
+        private final long startTimeNanos = System.nanoTime();
+        private long elapsedNanos;
+
+        Stats(int imageCount) {
+            this.imageCount = imageCount;
+        }
+
+        void record(Result result) {
+            if (!result.isSuccessful()) {
+                failedCount.incrementAndGet();
+            } else if (result.getBarcodes() != null) {
+                barcodeCount.addAndGet(result.getBarcodes().size());
+            }
+        }
+
+        void finish() {
+            elapsedNanos = System.nanoTime() - startTimeNanos;
+        }
+
+        public int getImageCount() {
+            return imageCount;
+        }
+
+        public int getFailedCount() {
+            return failedCount.get();
+        }
+
+        public int getBarcodeCount() {
+            return barcodeCount.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000L;
+        }
+
+        public double getImagesPerSecond() {
+            if (elapsedNanos == 0) return 0;
+            return imageCount * 1e9d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d images (%d failed, %d barcodes) in %d ms: %.1f images/sec",
+                    imageCount, getFailedCount(), getBarcodeCount(), getElapsedMillis(), getImagesPerSecond());
+        }
+    }
+
+    public int getParallelism() {
+        return detectors.getParallelism();
+    }
+
+    public void release() {
+        detectors.release();
+    }
+
+    // Decodes every JPEG/PNG found in the given files and directories, blocking until all of
+    // them have been processed.  Results are streamed to the listener in completion order.
+    public Stats decode(List<File> inputs, Listener listener) {
+        List<File> images = new ArrayList<>();
+        for (File input : inputs) {
+            collectImages(input, images, true);
+        }
+
+        Stats stats = new Stats(images.size());
+        if (!images.isEmpty()) {
+            detectors.invoke(new DecodeTask(images, 0, images.size(), listener, stats));
+        }
+        stats.finish();
+        listener.onFinished(stats);
+        return stats;
+    }
+
+    private void collectImages(File file, List<File> images, boolean topLevel) {
+        if (file.isDirectory()) {
+            if (!topLevel && !recursive) return;
+            File[] children = file.listFiles();
+            if (children == null) {
+                Log.w("BARCODER", "Unable to list directory " + file);
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                collectImages(child, images, false);
+            }
+        } else if (file.isFile() && isImage(file)) {
+            images.add(file);
+        } else if (topLevel) {
+            Log.w("BARCODER", "Skipping " + file + ": not a JPEG/PNG file or directory");
+        }
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    private Result decodeImage(File file, int frameId) {
+        long startTime = System.nanoTime();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = computeSampleSize(file);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            return new Result(file, null, System.nanoTime() - startTime, "Unable to decode image");
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int imageSize = lumaOnly ? width * height : nv21Size(width, height);
+        byte[] nv21 = bufferPool.acquire(imageSize);
+        try {
+            // the detector only looks at the Y plane; chroma, when passed on, is neutral grey
+            LumaConverter.fromBitmap(bitmap, nv21, 0, rowBuffer(width));
+            if (!lumaOnly) {
+                Arrays.fill(nv21, width * height, imageSize, (byte) 128);
+            }
+
+            Frame frame = new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(nv21, 0, imageSize).slice(), width, height, ImageFormat.NV21)
+                    .setId(frameId)
+                    .build();
+            SparseArray<Barcode> barcodes = detectors.detect(frame);
+            return new Result(file, barcodes, System.nanoTime() - startTime, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(file, null, System.nanoTime() - startTime, "Interrupted");
+        } catch (Throwable t) {
+            Log.e("BARCODER", "Exception thrown while decoding " + file, t);
+            return new Result(file, null, System.nanoTime() - startTime, t.toString());
+        } finally {
+            bitmap.recycle();
+            bufferPool.release(nv21);
+        }
+    }
+
+    private int computeSampleSize(File file) {
+        if (maxImageDimension == 0) return 1;
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        int longestSide = Math.max(bounds.outWidth, bounds.outHeight);
+
+        int sampleSize = 1;
+        while (longestSide / sampleSize > maxImageDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private int[] rowBuffer(int width) {
+        int[] row = rowBuffers.get();
+        if (row == null || row.length < width) {
+            row = new int[width];
+            rowBuffers.set(row);
+        }
+        return row;
+    }
+
+    private static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    private class DecodeTask extends RecursiveAction {
+        private final List<File> images;
+        private final int start;
+        private final int end;
+        private final Listener listener;
+        private final Stats stats;
+
+        DecodeTask(List<File> images, int start, int end, Listener listener, Stats stats) {
+            this.images = images;
+            this.start = start;
+            this.end = end;
+            this.listener = listener;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new DecodeTask(images, start, middle, listener, stats),
+                        new DecodeTask(images, middle, end, listener, stats));
+                return;
+            }
+
+            Result result = decodeImage(images.get(start), start);
+            stats.record(result);
+            try {
+                listener.onResult(result);
+            } catch (Throwable t) {
+                Log.e("BARCODER", "Exception thrown from listener", t);
+            }
+        }
+    }
+}
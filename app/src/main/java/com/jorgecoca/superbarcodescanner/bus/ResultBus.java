@@ -0,0 +1,482 @@
+package com.jorgecoca.superbarcodescanner.bus;
+
+import android.graphics.Point;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Publish/subscribe stream of tracking events.  Trackers wrapped with wrap() publish into a ring
+// of events allocated up front, and every Subscription reads it with its own cursor, so a slow
+// subscriber never delays a fast one.  What happens when a subscriber falls a whole ring behind
+// depends on the overflow policy:
+//
+//   OVERFLOW_DROP_OLDEST  the publisher overwrites; the subscriber skips to the oldest event left
+//   OVERFLOW_SAMPLE       the publisher overwrites; the subscriber skips to the newest event
+//   OVERFLOW_BLOCK        the publisher waits up to maxBlockMillis for it, then drops the event
+//
+// Publishing copies the barcode into a ring slot and allocates nothing.
+public class ResultBus {
+
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    public static final int OVERFLOW_SAMPLE = 1;
+    public static final int OVERFLOW_BLOCK = 2;
+
+    public static final int EVENT_NEW = 0;
+    public static final int EVENT_UPDATE = 1;
+    public static final int EVENT_MISSING = 2;
+    public static final int EVENT_DONE = 3;
+
+    private Event[] ring;
+    private int mask;
+    private int overflowPolicy = OVERFLOW_DROP_OLDEST;
+    private long maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private boolean publishUpdates = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final Condition consumed = lock.newCondition();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // sequence of the next event to publish
+    private long nextSequence;
+    private long droppedCount;
+    private long blockedNanos;
+
+    // allow only creation via builder class
+    private ResultBus() { }
+
+    public static class Builder {
+        private ResultBus bus = new ResultBus();
+        private int capacity;
+
+        // capacity is rounded up to a power of two.
+        public Builder(int capacity) {
+            if (capacity <= 0 || capacity > (1 << 20)) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            this.capacity = 1;
+            while (this.capacity < capacity) this.capacity <<= 1;
+        }
+
+        public Builder setOverflowPolicy(int overflowPolicy) {
+            if (overflowPolicy < OVERFLOW_DROP_OLDEST || overflowPolicy > OVERFLOW_BLOCK) {
+                throw new IllegalArgumentException("Invalid overflow policy: " + overflowPolicy);
+            }
+            bus.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        // Longest the publisher waits for the slowest subscriber under OVERFLOW_BLOCK.
+        public Builder setMaxBlockMillis(long maxBlockMillis) {
+            if (maxBlockMillis < 0) throw new IllegalArgumentException("Invalid block time: " + maxBlockMillis);
+            bus.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+            return this;
+        }
+
+        // Also publish an event for every frame a barcode is seen or missed in, not just when it is
+        // first seen and when it is gone.
+        public Builder setPublishUpdates(boolean publishUpdates) {
+            bus.publishUpdates = publishUpdates;
+            return this;
+        }
+
+        public ResultBus build() {
+            bus.ring = new Event[capacity];
+            for (int i = 0; i < capacity; i++) {
+                bus.ring[i] = new Event();
+            }
+            bus.mask = capacity - 1;
+            return bus;
+        }
+    }
+
+    // One tracking event, reused: the bus copies into its ring slots and subscribers copy out of
+    // them into their own.
+    public static class Event {
+        long sequence;
+        int type;
+        int trackId;
+        int format;
+        String rawValue;
+        int frameId;
+        long timestampMillis;
+        long publishTimeNanos;
+        int left;
+        int top;
+        int right;
+        int bottom;
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getTrackId() {
+            return trackId;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public String getRawValue() {
+            return rawValue;
+        }
+
+        // -1 for EVENT_DONE, which is not tied to a frame.
+        public int getFrameId() {
+            return frameId;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        // System.nanoTime() when the event was published.
+        public long getPublishTimeNanos() {
+            return publishTimeNanos;
+        }
+
+        // Bounding box in frame coordinates.
+        public int getLeft() {
+            return left;
+        }
+
+        public int getTop() {
+            return top;
+        }
+
+        public int getRight() {
+            return right;
+        }
+
+        public int getBottom() {
+            return bottom;
+        }
+
+        void copyFrom(Event event) {
+            sequence = event.sequence;
+            type = event.type;
+            trackId = event.trackId;
+            format = event.format;
+            rawValue = event.rawValue;
+            frameId = event.frameId;
+            timestampMillis = event.timestampMillis;
+            publishTimeNanos = event.publishTimeNanos;
+            left = event.left;
+            top = event.top;
+            right = event.right;
+            bottom = event.bottom;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d %d track %d: %d %s (frame %d)",
+                    sequence, type, trackId, format, rawValue, frameId);
+        }
+    }
+
+    // A reader of every event published from now on.
+    public class Subscription {
+        private long cursor;
+        private long receivedCount;
+        private long missedCount;
+        private long maxLag;
+        private boolean closed;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        // Copies the next event into event, waiting up to timeout for one.  Returns false on
+        // timeout or once the subscription is closed.
+        public boolean poll(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+            long remaining = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (!closed && cursor == nextSequence) {
+                    if (remaining <= 0) return false;
+                    remaining = published.awaitNanos(remaining);
+                }
+                if (closed) return false;
+
+                long lag = nextSequence - cursor;
+                if (lag > maxLag) maxLag = lag;
+                if (lag > ring.length) {
+                    // overrun: the events between cursor and the ring's oldest are gone
+                    long skipTo = overflowPolicy == OVERFLOW_SAMPLE ? nextSequence - 1 : nextSequence - ring.length;
+                    missedCount += skipTo - cursor;
+                    cursor = skipTo;
+                }
+                event.copyFrom(ring[(int) cursor & mask]);
+                cursor++;
+                receivedCount++;
+                if (overflowPolicy == OVERFLOW_BLOCK) consumed.signalAll();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Events published but not yet read.
+        public long getLag() {
+            lock.lock();
+            try {
+                return closed ? 0 : nextSequence - cursor;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getMaxLag() {
+            lock.lock();
+            try {
+                return maxLag;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Events this subscriber never saw because it fell a whole ring behind.
+        public long getMissedCount() {
+            lock.lock();
+            try {
+                return missedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getReceivedCount() {
+            lock.lock();
+            try {
+                return receivedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // True when the subscriber is more than half a ring behind or has missed events.
+        public boolean isLagging() {
+            lock.lock();
+            try {
+                return !closed && (nextSequence - cursor > ring.length / 2 || missedCount > 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                published.signalAll();
+                consumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public String toString() {
+            lock.lock();
+            try {
+                return String.format(Locale.US, "%d received, lag %d (max %d), %d missed",
+                        receivedCount, nextSequence - cursor, maxLag, missedCount);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Subscription subscribe() {
+        lock.lock();
+        try {
+            Subscription subscription = new Subscription(nextSequence);
+            subscriptions.add(subscription);
+            return subscription;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Publishes the tracking events of tracker's barcode, then passes them on to tracker.
+    public Tracker<Barcode> wrap(Tracker<Barcode> tracker) {
+        return new PublishingTracker(tracker);
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public long getPublishedCount() {
+        lock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Events dropped under OVERFLOW_BLOCK because a subscriber did not catch up in time.
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBlockedMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lag of the subscriber furthest behind.
+    public long getMaxLag() {
+        long maxLag = 0;
+        for (Subscription subscription : subscriptions) {
+            maxLag = Math.max(maxLag, subscription.getLag());
+        }
+        return maxLag;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d published, %d dropped, blocked %d ms, %d subscribers, max lag %d",
+                getPublishedCount(), getDroppedCount(), getBlockedMillis(), subscriptions.size(), getMaxLag());
+    }
+
+    boolean publish(int type, int trackId, Barcode barcode, Frame.Metadata metadata) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (overflowPolicy == OVERFLOW_BLOCK && !awaitSlowestSubscriber()) {
+                droppedCount++;
+                return false;
+            }
+            Event event = ring[(int) nextSequence & mask];
+            event.sequence = nextSequence;
+            event.type = type;
+            event.trackId = trackId;
+            event.format = barcode.format;
+            event.rawValue = barcode.rawValue;
+            event.frameId = metadata != null ? metadata.getId() : -1;
+            event.timestampMillis = metadata != null ? metadata.getTimestampMillis() : 0;
+            setBounds(event, barcode.cornerPoints);
+            event.publishTimeNanos = System.nanoTime();
+            nextSequence++;
+            published.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until every subscriber has a free slot, up to maxBlockNanos.  Called with the lock held.
+    private boolean awaitSlowestSubscriber() throws InterruptedException {
+        long start = 0;
+        long remaining = maxBlockNanos;
+        while (slowestCursor() <= nextSequence - ring.length) {
+            if (start == 0) start = System.nanoTime();
+            if (remaining <= 0) break;
+            remaining = consumed.awaitNanos(remaining);
+        }
+        if (start != 0) blockedNanos += System.nanoTime() - start;
+        return slowestCursor() > nextSequence - ring.length;
+    }
+
+    private long slowestCursor() {
+        long slowest = nextSequence;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.closed && subscription.cursor < slowest) slowest = subscription.cursor;
+        }
+        return slowest;
+    }
+
+    private static void setBounds(Event event, Point[] corners) {
+        if (corners == null || corners.length == 0) {
+            event.left = event.top = event.right = event.bottom = 0;
+            return;
+        }
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (Point corner : corners) {
+            left = Math.min(left, corner.x);
+            top = Math.min(top, corner.y);
+            right = Math.max(right, corner.x);
+            bottom = Math.max(bottom, corner.y);
+        }
+        event.left = left;
+        event.top = top;
+        event.right = right;
+        event.bottom = bottom;
+    }
+
+    private class PublishingTracker extends Tracker<Barcode> {
+        private final Tracker<Barcode> delegate;
+        private int id;
+        private Barcode lastItem;
+        private boolean announced;
+
+        PublishingTracker(Tracker<Barcode> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onNewItem(int id, Barcode item) {
+            this.id = id;
+            delegate.onNewItem(id, item);
+        }
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            lastItem = item;
+            // the first update carries the frame the barcode was first seen in
+            if (!announced) {
+                announced = true;
+                publishQuietly(EVENT_NEW, item, detections.getFrameMetadata());
+            } else if (publishUpdates) {
+                publishQuietly(EVENT_UPDATE, item, detections.getFrameMetadata());
+            }
+            delegate.onUpdate(detections, item);
+        }
+
+        @Override
+        public void onMissing(Detector.Detections<Barcode> detections) {
+            if (publishUpdates && lastItem != null) {
+                publishQuietly(EVENT_MISSING, lastItem, detections.getFrameMetadata());
+            }
+            delegate.onMissing(detections);
+        }
+
+        @Override
+        public void onDone() {
+            if (lastItem != null) publishQuietly(EVENT_DONE, lastItem, null);
+            delegate.onDone();
+        }
+
+        private void publishQuietly(int type, Barcode item, Frame.Metadata metadata) {
+            try {
+                publish(type, id, item, metadata);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -6,11 +6,17 @@ import android.content.Context;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.hardware.display.DisplayManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.os.SystemClock;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
 import android.util.Log;
+import android.view.Display;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -19,7 +25,9 @@ import android.view.WindowManager;
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -28,6 +36,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class CameraSource {
 
@@ -37,6 +48,12 @@ public class CameraSource {
     private static final int DUMMY_TEXTURE_NAME = 100;
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    // How the detection thread waits for the next preview frame: parking right away, or spinning
+    // briefly first to pick up a frame that is about to arrive without a wake-up.
+    public static final int FRAME_HANDOFF_PARK = 0;
+    public static final int FRAME_HANDOFF_SPIN_THEN_PARK = 1;
+    private static final long FRAME_HANDOFF_SPIN_NANOS = 50000L;
+
     @Retention(RetentionPolicy.SOURCE)
     @StringDef({
             Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
@@ -63,20 +80,43 @@ public class CameraSource {
     private final Object cameraLock = new Object();
     private Camera camera;
     private int facing = CAMERA_FACING_BACK;
-    private int rotation;
+    // written on the camera thread, read for every frame on the processing thread
+    private volatile int rotation;
+    private int displayRotation;
+    private int cameraId = -1;
     private Size previewSize;
+    // preview fps ranges selected for the open camera, only touched by the camera thread
+    private int[] activeFpsRange;
+    private int[] idleFpsRange;
     private float requestedFps = 30.0f;
     private int requestedPreviewWidth = 1024;
     private int requestedPreviewHeight = 768;
-    private String focusMode = null;
-    private String flashMode = null;
+    // may be changed while the camera runs, see setFocusMode and setFlashMode
+    private volatile String focusMode = null;
+    private volatile String flashMode = null;
+    private long parameterUpdateIntervalMillis = 33;
+    private int processingThreadPriority = Process.THREAD_PRIORITY_DISPLAY;
+    private int frameHandoff = FRAME_HANDOFF_PARK;
+    private boolean lumaOnly = false;
+    private LowLightPreprocessor preprocessor;
+    private StillCaptureFallback stillCaptureFallback;
+    private PowerPolicy powerPolicy;
 
     private SurfaceView dummySurfaceView;
     private SurfaceTexture dummySurfaceTexture;
-    private Thread processingThread;
+    private WorkerThread processingThread;
+    // The camera is opened, configured and released on this looper thread, so the platform
+    // delivers preview callbacks on it instead of the main looper.
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
     private FrameProcessingRunnable frameProcessor;
+    private ParameterUpdater parameterUpdater;
+    private DisplayManager.DisplayListener displayListener;
+    private volatile FrameRecorder frameRecorder;
 
-    private Map<byte[], ByteBuffer> bytesToByteBuffer = new HashMap<>();
+    private Map<byte[], PendingFrame> bytesToPendingFrame = new HashMap<>();
+    // size of bytesToPendingFrame, which only the camera thread touches, for any thread to read
+    private volatile int previewBufferCount;
 
     // allow only creation via builder class
     private CameraSource() { }
@@ -109,6 +149,15 @@ public class CameraSource {
             return this;
         }
 
+        // Shortest time between two updates of the camera parameters for zoom, focus, flash and
+        // rotation changes made while the camera runs.  Changes made in between are merged into
+        // the next update.
+        public Builder setParameterUpdateInterval(long millis) {
+            if (millis < 0) throw new IllegalArgumentException("Invalid update interval: " + millis);
+            cameraSource.parameterUpdateIntervalMillis = millis;
+            return this;
+        }
+
         public Builder setRequestedPreviewSize(int width, int height) {
             final int MAX = 1000000;
             if ((width <= 0) || (width > MAX) || (height <= 0) || (height > MAX)) {
@@ -119,6 +168,52 @@ public class CameraSource {
             return this;
         }
 
+        // Android thread priority (nice value, -20 to 19) of the thread running detection.  The
+        // default keeps detection ahead of ordinary background work without competing with the
+        // UI and render threads.
+        public Builder setProcessingThreadPriority(int priority) {
+            if (priority < Process.THREAD_PRIORITY_URGENT_AUDIO || priority > Process.THREAD_PRIORITY_LOWEST) {
+                throw new IllegalArgumentException("Invalid thread priority: " + priority);
+            }
+            cameraSource.processingThreadPriority = priority;
+            return this;
+        }
+
+        public Builder setFrameHandoff(int frameHandoff) {
+            if ((frameHandoff != FRAME_HANDOFF_PARK) && (frameHandoff != FRAME_HANDOFF_SPIN_THEN_PARK)) {
+                throw new IllegalArgumentException("Invalid frame handoff: " + frameHandoff);
+            }
+            cameraSource.frameHandoff = frameHandoff;
+            return this;
+        }
+
+        // Hands detectors a view of just the Y plane of each preview frame instead of the whole NV21
+        // buffer.  Barcode detection only looks at luminance, so nothing is lost and the detector
+        // touches a third less memory per frame.  The camera still fills whole NV21 buffers.
+        public Builder setLumaOnly(boolean lumaOnly) {
+            cameraSource.lumaOnly = lumaOnly;
+            return this;
+        }
+
+        // Runs preprocessor on the Y plane of every frame before detection.  The detector then gets
+        // the processed Y plane whenever the preprocessor decides to act on a frame.
+        public Builder setPreprocessor(LowLightPreprocessor preprocessor) {
+            cameraSource.preprocessor = preprocessor;
+            return this;
+        }
+
+        // Lets fallback take a full-resolution still when the preview keeps failing to decode.
+        public Builder setStillCaptureFallback(StillCaptureFallback fallback) {
+            cameraSource.stillCaptureFallback = fallback;
+            return this;
+        }
+
+        // Lets policy idle the camera while no barcodes are seen.
+        public Builder setPowerPolicy(PowerPolicy policy) {
+            cameraSource.powerPolicy = policy;
+            return this;
+        }
+
         public Builder setFacing(int facing) {
             if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
                 throw  new IllegalArgumentException("Invalid facing camera: " + facing);
@@ -129,6 +224,14 @@ public class CameraSource {
 
         public CameraSource build() {
             cameraSource.frameProcessor = cameraSource.new FrameProcessingRunnable(detector);
+            cameraSource.processingThread = new WorkerThread("CameraSource-Detection",
+                    cameraSource.processingThreadPriority);
+            cameraSource.cameraThread = new HandlerThread("CameraSource-Camera", Process.THREAD_PRIORITY_DISPLAY);
+            cameraSource.cameraThread.start();
+            cameraSource.cameraHandler = new Handler(cameraSource.cameraThread.getLooper());
+            cameraSource.parameterUpdater = cameraSource.new ParameterUpdater();
+            if (cameraSource.stillCaptureFallback != null) cameraSource.stillCaptureFallback.attach(cameraSource);
+            if (cameraSource.powerPolicy != null) cameraSource.powerPolicy.attach(cameraSource);
             return cameraSource;
         }
 
@@ -137,7 +240,18 @@ public class CameraSource {
     public void release() {
         synchronized (cameraLock) {
             stop();
+            stopRecording();
             frameProcessor.release();
+            processingThread.quit();
+            if (stillCaptureFallback != null) stillCaptureFallback.release();
+            cameraThread.quitSafely();
+        }
+        // waited for outside the lock, so a released source leaves no thread behind it
+        if (Looper.myLooper() == cameraThread.getLooper()) return;
+        try {
+            cameraThread.join();
+        } catch (InterruptedException e) {
+            Log.d("BARCODER", "Interrupted while waiting for the camera thread to quit.");
         }
     }
 
@@ -146,69 +260,226 @@ public class CameraSource {
         synchronized (cameraLock) {
             if (camera != null) return this;
 
-            camera = createCamera();
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-                camera.setPreviewTexture(dummySurfaceTexture);
-            } else {
-                dummySurfaceView = new SurfaceView(context);
-                camera.setPreviewDisplay(dummySurfaceView.getHolder());
-            }
+            if (powerPolicy != null) powerPolicy.start();
+            camera = callOnCameraThread(new Callable<Camera>() {
+                @Override
+                public Camera call() throws IOException {
+                    Camera camera = createCamera();
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                        dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                        camera.setPreviewTexture(dummySurfaceTexture);
+                    } else {
+                        dummySurfaceView = new SurfaceView(context);
+                        camera.setPreviewDisplay(dummySurfaceView.getHolder());
+                    }
+                    camera.startPreview();
+                    return camera;
+                }
+            });
 
-            camera.startPreview();
-            processingThread = new Thread(frameProcessor);
             frameProcessor.setActive(true);
-            processingThread.start();
+            processingThread.execute(frameProcessor);
+            listenForRotation();
         }
         return this;
     }
 
     @RequiresPermission(Manifest.permission.CAMERA)
-    public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
+    public CameraSource start(final SurfaceHolder surfaceHolder) throws IOException {
         synchronized (cameraLock) {
             if (camera != null)  return this;
 
-            camera = createCamera();
-            camera.setPreviewDisplay(surfaceHolder);
-            camera.startPreview();
+            if (powerPolicy != null) powerPolicy.start();
+            camera = callOnCameraThread(new Callable<Camera>() {
+                @Override
+                public Camera call() throws IOException {
+                    Camera camera = createCamera();
+                    camera.setPreviewDisplay(surfaceHolder);
+                    camera.startPreview();
+                    return camera;
+                }
+            });
 
-            processingThread = new Thread(frameProcessor);
             frameProcessor.setActive(true);
-            processingThread.start();
+            processingThread.execute(frameProcessor);
+            listenForRotation();
         }
         return this;
     }
 
     public void stop() {
         synchronized (cameraLock) {
+            if (displayListener != null) {
+                DisplayManager displayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+                displayManager.unregisterDisplayListener(displayListener);
+                displayListener = null;
+            }
+            if (powerPolicy != null) powerPolicy.stop();
             frameProcessor.setActive(false);
-            if (processingThread != null) {
+            try {
+                processingThread.awaitIdle();
+            } catch (InterruptedException e) {
+                Log.d("BARCODER", "Frame processing thread interrupted on release.");
+            }
+            if (camera != null) {
+                final Camera releasing = camera;
+                camera = null;
+                try {
+                    callOnCameraThread(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            releaseCamera(releasing);
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // releaseCamera does not throw checked exceptions
+                }
+            }
+            // the camera that delivered it is gone, so its buffer must not be handed to the next one
+            frameProcessor.clearPendingFrame();
+        }
+    }
+
+    private void releaseCamera(Camera camera) {
+        parameterUpdater.detach(camera);
+        camera.stopPreview();
+        camera.setPreviewCallbackWithBuffer(null);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                camera.setPreviewTexture(null);
+            } else {
+                camera.setPreviewDisplay(null);
+            }
+        } catch (Exception e) {
+            Log.e("BARCODER", "Failed to clear camera preview: " + e);
+        }
+        camera.release();
+        // the next camera allocates buffers of its own
+        bytesToPendingFrame.clear();
+        previewBufferCount = 0;
+    }
+
+    // Runs task on the camera thread and waits for it.  Waiting is not interruptible: the camera
+    // must never be left half opened or half released.
+    private <T> T callOnCameraThread(Callable<T> task) throws IOException {
+        if (Looper.myLooper() == cameraThread.getLooper()) {
+            try {
+                return task.call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        FutureTask<T> future = new FutureTask<>(task);
+        if (!cameraHandler.post(future)) throw new IllegalStateException("Camera thread has quit");
+
+        boolean interrupted = false;
+        try {
+            while (true) {
                 try {
-                    processingThread.join();
+                    return future.get();
                 } catch (InterruptedException e) {
-                    Log.d("BARCODER", "Frame processing thread interrupted on release.");
+                    interrupted = true;
                 }
-                processingThread = null;
             }
-            if (camera != null) {
-                camera.stopPreview();
-                camera.setPreviewCallbackWithBuffer(null);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    // Takes a picture at the picture size matching the preview's aspect ratio, then resumes the
+    // preview.  Callbacks run on the camera thread.  Does not wait for the camera, so it may be
+    // called from the detection thread; nothing happens if the camera is stopped by then.
+    public void takePicture(final ShutterCallback shutter, final PictureCallback jpeg) {
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Camera current = camera;
+                if (current == null) return;
+                PictureStartCallback startCallback = new PictureStartCallback();
+                startCallback.delegate = shutter;
+                PictureDoneCallback doneCallback = new PictureDoneCallback();
+                doneCallback.delegate = jpeg;
                 try {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                        camera.setPreviewTexture(null);
-                    } else {
-                        camera.setPreviewDisplay(null);
-                    }
-                } catch (Exception e) {
-                    Log.e("BARCODER", "Failed to clear camera preview: " + e);
+                    current.takePicture(startCallback, null, null, doneCallback);
+                } catch (RuntimeException e) {
+                    Log.e("BARCODER", "Failed to take picture: " + e);
                 }
-                camera.release();
-                camera = null;
             }
+        });
+    }
+
+    // Turns the preview, and the rotation reported with frames and stills, to the current display
+    // rotation without restarting the camera.  Called by itself whenever the display rotates while
+    // the camera is started, so the activity can handle orientation changes instead of being
+    // recreated.  Does not wait for the camera; nothing happens if it is stopped by then.
+    public void updateRotation() {
+        parameterUpdater.request(ParameterUpdater.CHANGE_ROTATION);
+    }
+
+    private void listenForRotation() {
+        if (displayListener != null) return;
+        displayListener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) { }
+
+            @Override
+            public void onDisplayRemoved(int displayId) { }
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                if (displayId == Display.DEFAULT_DISPLAY) updateRotation();
+            }
+        };
+        DisplayManager displayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.registerDisplayListener(displayListener, cameraHandler);
+    }
+
+    // Tees the Y plane of every processed frame to a capture file readable with
+    // FrameRecordingReader.  Frames are dropped rather than delaying detection when the disk
+    // cannot keep up.
+    public void startRecording(File file, boolean compress) throws IOException {
+        synchronized (cameraLock) {
+            stopRecording();
+            frameRecorder = new FrameRecorder(file, compress);
+        }
+    }
+
+    public void stopRecording() {
+        synchronized (cameraLock) {
+            FrameRecorder recorder = frameRecorder;
+            frameRecorder = null;
+            if (recorder != null) recorder.close();
         }
     }
 
+    public FrameRecorder getFrameRecorder() {
+        return frameRecorder;
+    }
+
+    // CPU time consumed by each thread CameraSource owns, keyed by thread name.  Values are -1 where
+    // the platform does not expose per-thread CPU time.
+    public Map<String, Long> getThreadCpuTimeNanos() {
+        Map<String, Long> cpuTimes = new HashMap<>();
+        cpuTimes.put(processingThread.getName(), processingThread.getCpuTimeNanos());
+        cpuTimes.put(cameraThread.getName(), WorkerThread.getCpuTimeNanos(cameraThread.getThreadId()));
+        return cpuTimes;
+    }
+
+    // Preview buffers currently registered for the camera, 0 while stopped and after release().
+    public int getPreviewBufferCount() {
+        return previewBufferCount;
+    }
+
     public int getCameraFacing() {
         return facing;
     }
@@ -218,42 +489,74 @@ public class CameraSource {
     }
 
 
+    // Zoom, focus and flash may be changed while the camera runs.  None of these wait for the
+    // camera: they record the change and return, and the camera thread applies what has changed
+    // since its last update, see Builder.setParameterUpdateInterval.  Pinch gestures can call
+    // doZoom for every touch event.
+
+    // Scales the requested zoom by a pinch gesture's scale factor and returns the new zoom, 0 while
+    // the camera has not been opened.
     public int doZoom(float scale) {
-        synchronized (cameraLock) {
-            if (camera == null) {
-                return 0;
-            }
-            int currentZoom = 0;
-            int maxZoom;
-            Camera.Parameters parameters = camera.getParameters();
-            if (!parameters.isZoomSupported()) {
-                Log.w("BARCODER", "Zoom is not supported on this device");
-                return currentZoom;
-            }
-            maxZoom = parameters.getMaxZoom();
-
-            currentZoom = parameters.getZoom() + 1;
-            float newZoom;
-            if (scale > 1) {
-                newZoom = currentZoom + scale * (maxZoom / 10);
-            } else {
-                newZoom = currentZoom * scale;
-            }
-            currentZoom = Math.round(newZoom) - 1;
-            if (currentZoom < 0) {
-                currentZoom = 0;
-            } else if (currentZoom > maxZoom) {
-                currentZoom = maxZoom;
-            }
-            parameters.setZoom(currentZoom);
-            camera.setParameters(parameters);
-            return currentZoom;
+        int maxZoom = parameterUpdater.getMaxZoom();
+        if (maxZoom == 0) return 0;
+
+        int currentZoom = parameterUpdater.getRequestedZoom() + 1;
+        float newZoom;
+        if (scale > 1) {
+            newZoom = currentZoom + scale * (maxZoom / 10);
+        } else {
+            newZoom = currentZoom * scale;
         }
+        currentZoom = Math.round(newZoom) - 1;
+        if (currentZoom < 0) {
+            currentZoom = 0;
+        } else if (currentZoom > maxZoom) {
+            currentZoom = maxZoom;
+        }
+        parameterUpdater.requestZoom(currentZoom);
+        return currentZoom;
+    }
+
+    // Zoom index between 0 and getMaxZoom().  Kept across restarts of the camera.
+    public void setZoom(int zoom) {
+        if (zoom < 0) throw new IllegalArgumentException("Invalid zoom: " + zoom);
+        parameterUpdater.requestZoom(zoom);
+    }
+
+    public int getZoom() {
+        return parameterUpdater.getRequestedZoom();
+    }
+
+    // 0 when the camera cannot zoom or has not been opened yet.
+    public int getMaxZoom() {
+        return parameterUpdater.getMaxZoom();
+    }
+
+    public void setFocusMode(@FocusMode String mode) {
+        focusMode = mode;
+        parameterUpdater.request(ParameterUpdater.CHANGE_FOCUS);
+    }
+
+    public void setFlashMode(@FlashMode String mode) {
+        flashMode = mode;
+        parameterUpdater.request(ParameterUpdater.CHANGE_FLASH);
+    }
+
+    // Switches the preview between the requested and the idle frame rate as the power policy
+    // idles and wakes.
+    void updateFrameRate() {
+        parameterUpdater.request(ParameterUpdater.CHANGE_FPS);
+    }
+
+    // Calls to Camera.setParameters made for changes requested while the camera ran.
+    public long getParameterUpdateCount() {
+        return parameterUpdater.getUpdateCount();
     }
 
     private Camera createCamera() {
         int requestedCameraID = getIDForRequestedCamera(facing);
         if (requestedCameraID == -1) throw new RuntimeException("Could not find request camera");
+        cameraId = requestedCameraID;
 
         Camera camera = Camera.open(requestedCameraID);
         SizePair sizePair = selectSizePair(camera, requestedPreviewWidth, requestedPreviewHeight);
@@ -264,9 +567,13 @@ public class CameraSource {
 
         int[] previewFpsRange = selectPreviewFpsRange(camera, requestedFps);
         if (previewFpsRange == null) throw new RuntimeException("Could not find suitable preview frames per second range");
+        activeFpsRange = previewFpsRange;
+        idleFpsRange = powerPolicy != null ? selectIdleFpsRange(camera, powerPolicy.getIdleFps()) : previewFpsRange;
 
         Camera.Parameters parameters = camera.getParameters();
-        parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        if (pictureSize != null) {
+            parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        }
         parameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
         parameters.setPreviewFpsRange(
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
@@ -274,22 +581,7 @@ public class CameraSource {
         parameters.setPreviewFormat(ImageFormat.NV21);
 
         setRotation(camera, parameters, requestedCameraID);
-
-        if (focusMode != null) {
-            if (parameters.getSupportedFlashModes().contains(focusMode)) {
-                parameters.setFlashMode(focusMode);
-            } else {
-                Log.d("BARCODER", "Camera focus mode: " + focusMode + " is not supported");
-            }
-        }
-
-        if (flashMode != null) {
-            if (parameters.getSupportedFlashModes().contains(flashMode)) {
-                parameters.setFlashMode(flashMode);
-            } else {
-                Log.i("BARCODER", "Camera flash mode: " + flashMode + " is not supported on this device.");
-            }
-        }
+        parameterUpdater.attach(camera, parameters);
 
         camera.setParameters(parameters);
 
@@ -398,11 +690,43 @@ public class CameraSource {
         return selectedFpsRange;
     }
 
-    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+    // The range with the lowest upper bound that still reaches idleFps, or the highest upper bound
+    // when none does.  A lower lower bound is preferred between equal upper bounds, letting
+    // the camera slow down further in the dark.
+    private int[] selectIdleFpsRange(Camera camera, float idleFps) {
+        int idleFpsScaled = (int) (idleFps * 1000.0f);
+        int[] selectedFpsRange = null;
+        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        for (int[] range : previewFpsRangeList) {
+            if (selectedFpsRange == null) {
+                selectedFpsRange = range;
+                continue;
+            }
+            int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            int selectedMax = selectedFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            boolean reaches = max >= idleFpsScaled;
+            boolean selectedReaches = selectedMax >= idleFpsScaled;
+            if (reaches != selectedReaches) {
+                if (reaches) selectedFpsRange = range;
+            } else if (max != selectedMax) {
+                if (reaches ? max < selectedMax : max > selectedMax) selectedFpsRange = range;
+            } else if (range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] < selectedFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]) {
+                selectedFpsRange = range;
+            }
+        }
+        return selectedFpsRange;
+    }
+
+    private int getDisplayRotation() {
         WindowManager windowManager =
                 (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        return windowManager.getDefaultDisplay().getRotation();
+    }
+
+    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
         int degrees = 0;
-        int rotation = windowManager.getDefaultDisplay().getRotation();
+        int rotation = getDisplayRotation();
+        displayRotation = rotation;
         switch (rotation) {
             case Surface.ROTATION_0:
                 degrees = 0;
@@ -459,7 +783,9 @@ public class CameraSource {
             throw new IllegalStateException("Failed to create valid buffer for camera source.");
         }
 
-        bytesToByteBuffer.put(byteArray, buffer);
+        ByteBuffer luma = ByteBuffer.wrap(byteArray, 0, previewSize.getWidth() * previewSize.getHeight()).slice();
+        bytesToPendingFrame.put(byteArray, new PendingFrame(buffer, luma));
+        previewBufferCount = bytesToPendingFrame.size();
         return byteArray;
     }
 
@@ -472,10 +798,250 @@ public class CameraSource {
         void onPictureTaken(byte[] data);
     }
 
+    private class PictureStartCallback implements Camera.ShutterCallback {
+        private ShutterCallback delegate;
+
+        @Override
+        public void onShutter() {
+            if (delegate != null) delegate.onShutter();
+        }
+    }
+
+    private class PictureDoneCallback implements Camera.PictureCallback {
+        private PictureCallback delegate;
+
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            // the platform stops the preview to take a picture; resume it before handing the data on
+            if (camera == CameraSource.this.camera) camera.startPreview();
+            if (delegate != null) delegate.onPictureTaken(data);
+        }
+    }
+
+    // Applies the parameter changes requested while the camera runs on the camera thread.  Callers
+    // only record what changed and post an update unless one is pending, running or held back, so
+    // everything requested in the meantime is merged into a single setParameters.  After each
+    // update the next one is held back for parameterUpdateIntervalMillis.  Where the camera
+    // supports it, zoom is driven with startSmoothZoom instead and retargeted as requests move.
+    private class ParameterUpdater implements Camera.OnZoomChangeListener {
+        static final int CHANGE_ZOOM = 1;
+        static final int CHANGE_FOCUS = 2;
+        static final int CHANGE_FLASH = 4;
+        static final int CHANGE_ROTATION = 8;
+        static final int CHANGE_FPS = 16;
+        static final int CHANGE_ALL = CHANGE_ZOOM | CHANGE_FOCUS | CHANGE_FLASH | CHANGE_ROTATION | CHANGE_FPS;
+
+        private final Object lock = new Object();
+        // guarded by lock
+        private int pendingChanges;
+        private boolean updatePosted;
+        private boolean holdingBack;
+
+        private volatile int requestedZoom;
+        // capabilities of the open camera
+        private volatile int maxZoom;
+        private volatile long updateCount;
+
+        // only touched by the camera thread
+        private Camera attachedCamera;
+        private boolean smoothZoomSupported;
+        private boolean smoothZooming;
+        private int smoothZoomTarget;
+        private int currentZoom;
+
+        private final Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        };
+
+        private final Runnable endHoldBack = new Runnable() {
+            @Override
+            public void run() {
+                endHoldBack();
+            }
+        };
+
+        int getRequestedZoom() {
+            return requestedZoom;
+        }
+
+        int getMaxZoom() {
+            return maxZoom;
+        }
+
+        long getUpdateCount() {
+            return updateCount;
+        }
+
+        void requestZoom(int zoom) {
+            requestedZoom = zoom;
+            request(CHANGE_ZOOM);
+        }
+
+        void request(int changes) {
+            synchronized (lock) {
+                pendingChanges |= changes;
+                if (updatePosted || holdingBack) return;
+                updatePosted = true;
+            }
+            cameraHandler.post(update);
+        }
+
+        // Called on the camera thread with the parameters a newly opened camera is configured
+        // with, which take everything requested so far.
+        void attach(Camera camera, Camera.Parameters parameters) {
+            synchronized (lock) {
+                pendingChanges = 0;
+            }
+            maxZoom = parameters.isZoomSupported() ? parameters.getMaxZoom() : 0;
+            smoothZoomSupported = maxZoom > 0 && parameters.isSmoothZoomSupported();
+            smoothZooming = false;
+            apply(parameters, CHANGE_ALL & ~CHANGE_ROTATION);
+            currentZoom = maxZoom > 0 ? parameters.getZoom() : 0;
+            if (smoothZoomSupported) camera.setZoomChangeListener(this);
+            attachedCamera = camera;
+        }
+
+        // Called on the camera thread before camera is released.
+        void detach(Camera camera) {
+            if (camera != attachedCamera) return;
+            if (smoothZoomSupported) camera.setZoomChangeListener(null);
+            attachedCamera = null;
+            smoothZooming = false;
+        }
+
+        private void update() {
+            int changes;
+            synchronized (lock) {
+                updatePosted = false;
+                changes = pendingChanges;
+                pendingChanges = 0;
+                holdingBack = true;
+            }
+            // with no camera, whatever was requested is applied when the next one is opened
+            Camera camera = attachedCamera;
+            if (camera == null || changes == 0) {
+                endHoldBack();
+                return;
+            }
+
+            if ((changes & CHANGE_ROTATION) != 0 && getDisplayRotation() == displayRotation) {
+                changes &= ~CHANGE_ROTATION;
+            }
+            if ((changes & CHANGE_ZOOM) != 0 && smoothZoomSupported) {
+                smoothZoomTo(camera, Math.min(requestedZoom, maxZoom));
+                changes &= ~CHANGE_ZOOM;
+            }
+            if (changes != 0) {
+                try {
+                    Camera.Parameters parameters = camera.getParameters();
+                    if ((changes & CHANGE_ROTATION) != 0) setRotation(camera, parameters, cameraId);
+                    apply(parameters, changes);
+                    camera.setParameters(parameters);
+                    updateCount++;
+                } catch (RuntimeException e) {
+                    Log.e("BARCODER", "Failed to update camera parameters: " + e);
+                }
+            }
+
+            cameraHandler.postDelayed(endHoldBack, parameterUpdateIntervalMillis);
+        }
+
+        private void endHoldBack() {
+            synchronized (lock) {
+                holdingBack = false;
+                if (pendingChanges == 0 || updatePosted) return;
+                updatePosted = true;
+            }
+            cameraHandler.post(update);
+        }
+
+        private void apply(Camera.Parameters parameters, int changes) {
+            if ((changes & CHANGE_ZOOM) != 0 && maxZoom > 0) {
+                parameters.setZoom(Math.min(requestedZoom, maxZoom));
+            }
+
+            if ((changes & CHANGE_FPS) != 0) {
+                int[] range = powerPolicy != null && powerPolicy.isIdle() ? idleFpsRange : activeFpsRange;
+                parameters.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            }
+
+            String focusMode = CameraSource.this.focusMode;
+            if ((changes & CHANGE_FOCUS) != 0 && focusMode != null) {
+                List<String> supported = parameters.getSupportedFocusModes();
+                if (supported != null && supported.contains(focusMode)) {
+                    parameters.setFocusMode(focusMode);
+                } else {
+                    Log.d("BARCODER", "Camera focus mode: " + focusMode + " is not supported");
+                }
+            }
+
+            String flashMode = CameraSource.this.flashMode;
+            if ((changes & CHANGE_FLASH) != 0 && flashMode != null) {
+                List<String> supported = parameters.getSupportedFlashModes();
+                if (supported != null && supported.contains(flashMode)) {
+                    parameters.setFlashMode(flashMode);
+                } else {
+                    Log.i("BARCODER", "Camera flash mode: " + flashMode + " is not supported on this device.");
+                }
+            }
+        }
+
+        private void smoothZoomTo(Camera camera, int zoom) {
+            if (smoothZooming) {
+                // a zoom heading the same way just continues to the new target once it finishes
+                boolean reversing = (zoom - currentZoom) * (smoothZoomTarget - currentZoom) < 0;
+                smoothZoomTarget = zoom;
+                if (reversing) camera.stopSmoothZoom();
+                return;
+            }
+            if (zoom == currentZoom) return;
+            try {
+                camera.startSmoothZoom(zoom);
+                smoothZooming = true;
+                smoothZoomTarget = zoom;
+            } catch (RuntimeException e) {
+                Log.e("BARCODER", "Failed to start smooth zoom: " + e);
+            }
+        }
+
+        @Override
+        public void onZoomChange(int zoomValue, boolean stopped, Camera camera) {
+            if (camera != attachedCamera) return;
+            currentZoom = zoomValue;
+            if (!stopped) return;
+            smoothZooming = false;
+            if (smoothZoomTarget != zoomValue) smoothZoomTo(camera, smoothZoomTarget);
+        }
+    }
+
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            frameProcessor.setNextFrame(data, camera);
+            ScanTrace.begin(ScanTrace.PREVIEW_FRAME);
+            try {
+                frameProcessor.setNextFrame(data, camera);
+            } finally {
+                ScanTrace.end();
+            }
+        }
+    }
+
+    // A preview buffer together with the metadata it was delivered with.  One per buffer, owned by
+    // whichever of the camera, the frame exchange or the detection thread holds the buffer.
+    private static class PendingFrame {
+        final ByteBuffer data;
+        // the Y plane of data, sharing its array
+        final ByteBuffer luma;
+        int id;
+        long timestampMillis;
+
+        PendingFrame(ByteBuffer data, ByteBuffer luma) {
+            this.data = data;
+            this.luma = luma;
         }
     }
 
@@ -485,7 +1051,9 @@ public class CameraSource {
 
         public SizePair(android.hardware.Camera.Size previewSize, android.hardware.Camera.Size pictureSize) {
             preview = new Size(previewSize.width, previewSize.height);
-            picture = new Size(pictureSize.width, pictureSize.height);
+            if (pictureSize != null) {
+                picture = new Size(pictureSize.width, pictureSize.height);
+            }
         }
 
         public Size previewSize() {
@@ -500,40 +1068,55 @@ public class CameraSource {
     private class FrameProcessingRunnable implements Runnable {
         private Detector<?> detector;
         private long startTimeMillis = SystemClock.elapsedRealtime();
-        private final Object lock = new Object();
-        private boolean active = true;
+        private final FrameExchange<PendingFrame> exchange;
+
+        // only touched by the camera thread
+        private int nextFrameID = 0;
+        private int droppedFrames = 0;
 
-        private long pendingTimeMillis;
-        private int pendingFrameID = 0;
-        private ByteBuffer pendingFrameData;
+        // only touched by the processing thread.  Frame.Builder fills in and returns the same Frame
+        // on every build(), and detectors copy the metadata they keep, so one builder serves every
+        // frame without allocating.
+        private final Frame.Builder frameBuilder = new Frame.Builder();
+        private byte[] wrappedArray;
+        private ByteBuffer wrappedBuffer;
 
         FrameProcessingRunnable(Detector<?> detector) {
             this.detector = detector;
+            exchange = new FrameExchange<>(frameHandoff == FRAME_HANDOFF_SPIN_THEN_PARK ? FRAME_HANDOFF_SPIN_NANOS : 0);
         }
 
         void release() {
-            assert(processingThread.getState() == Thread.State.TERMINATED);
+            assert(!processingThread.isBusy());
             detector.release();
             detector = null;
+            if (preprocessor != null) preprocessor.release();
         }
 
         void setActive(boolean active) {
-            synchronized (lock) {
-                this.active = active;
-                lock.notifyAll();
-            }
+            exchange.setActive(active);
+        }
+
+        void clearPendingFrame() {
+            exchange.clear();
         }
 
         void setNextFrame(byte[] data, Camera camera) {
-            synchronized (lock) {
-                if (pendingFrameData != null) {
-                    camera.addCallbackBuffer(pendingFrameData.array());
-                    pendingFrameData = null;
+            PendingFrame frame = bytesToPendingFrame.get(data);
+            if (frame == null) return;
+            ScanTrace.begin(ScanTrace.SET_NEXT_FRAME);
+            try {
+                frame.id = ++nextFrameID;
+                frame.timestampMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+
+                PendingFrame displaced = exchange.offer(frame);
+                if (displaced != null) {
+                    camera.addCallbackBuffer(displaced.data.array());
+                    ScanTrace.counter(ScanTrace.COUNTER_DROPPED_FRAMES, ++droppedFrames);
                 }
-                pendingTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
-                pendingFrameID++;
-                pendingFrameData = bytesToByteBuffer.get(data);
-                lock.notifyAll();
+                ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, 1);
+            } finally {
+                ScanTrace.end();
             }
         }
 
@@ -543,38 +1126,70 @@ public class CameraSource {
             ByteBuffer data;
 
             while (true) {
-                synchronized (lock) {
-                    if (active && (pendingFrameData == null)) {
-                        try {
-                            lock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d("BARCODER", e.getMessage());
-                            return;
-                        }
-                    }
-                    if (! active) {
-                        return;
-                    }
+                PendingFrame frame;
+                try {
+                    frame = exchange.take();
+                } catch (InterruptedException e) {
+                    Log.d("BARCODER", "Frame processing interrupted");
+                    return;
+                }
+                if (frame == null) {
+                    return;
+                }
+                ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, 0);
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(pendingFrameData, previewSize.getWidth(), previewSize.getHeight(), ImageFormat.NV21)
-                            .setId(pendingFrameID)
-                            .setTimestampMillis(pendingTimeMillis)
+                data = frame.data;
+                if (powerPolicy != null && !powerPolicy.shouldDetect(data.array(), previewSize.getWidth(), previewSize.getHeight())) {
+                    camera.addCallbackBuffer(data.array());
+                    continue;
+                }
+                byte[] processed = null;
+                if (preprocessor != null) {
+                    ScanTrace.begin(ScanTrace.PREPROCESS);
+                    try {
+                        processed = preprocessor.process(data.array(), previewSize.getWidth(), previewSize.getHeight(), frame.id);
+                    } finally {
+                        ScanTrace.end();
+                    }
+                }
+                ByteBuffer imageData = processed != null ? wrap(processed) : lumaOnly ? frame.luma : data;
+                ScanTrace.begin(ScanTrace.BUILD_FRAME);
+                try {
+                    outputFrame = frameBuilder
+                            .setImageData(imageData, previewSize.getWidth(), previewSize.getHeight(), ImageFormat.NV21)
+                            .setId(frame.id)
+                            .setTimestampMillis(frame.timestampMillis)
                             .setRotation(rotation)
                             .build();
+                } finally {
+                    ScanTrace.end();
+                }
 
-                    data = pendingFrameData;
-                    pendingFrameData = null;
+                FrameRecorder recorder = frameRecorder;
+                if (recorder != null) {
+                    recorder.record(data.array(), outputFrame.getMetadata());
                 }
 
+                ScanTrace.begin(ScanTrace.RECEIVE_FRAME);
                 try {
                     detector.receiveFrame(outputFrame);
                 } catch (Throwable t) {
                     Log.e("BARCODER", "Exception thrown from receiver", t);
                 } finally {
+                    ScanTrace.end();
                     camera.addCallbackBuffer(data.array());
+                    if (processed != null) preprocessor.recycle(processed);
                 }
             }
         }
+
+        // The preprocessor hands back the same few pooled buffers, so the last wrapper is reused.
+        private ByteBuffer wrap(byte[] processed) {
+            if (processed != wrappedArray) {
+                wrappedArray = processed;
+                wrappedBuffer = ByteBuffer.wrap(processed);
+            }
+            return wrappedBuffer;
+        }
     }
 }
@@ -11,6 +11,7 @@ import android.view.SurfaceView;
 import android.view.ViewGroup;
 
 import com.google.android.gms.common.images.Size;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
 
 import java.io.IOException;
 
@@ -48,7 +49,7 @@ public class CameraSourcePreview extends ViewGroup {
 
     @RequiresPermission(Manifest.permission.CAMERA)
     public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException, SecurityException {
-        overlay = overlay;
+        this.overlay = overlay;
         start(cameraSource);
     }
 
@@ -68,27 +69,32 @@ public class CameraSourcePreview extends ViewGroup {
         if (startRequested && surfaceAvailable) {
             cameraSource.start(surfaceView.getHolder());
             if (overlay != null) {
-                Size size = cameraSource.getPreviewSize();
-                int min = Math.min(size.getWidth(), size.getHeight());
-                int max = Math.max(size.getWidth(), size.getHeight());
-                if (isPortraitMode()) {
-                    // swap width and height sizes when in protrait, since it will be rotated by 90 degrees
-                    overlay.setCameraInfo(min, max, cameraSource.getCameraFacing());
-                } else {
-                    overlay.setCameraInfo(max, min, cameraSource.getCameraFacing());
-                }
+                updateOverlayCameraInfo();
                 overlay.clear();
             }
             startRequested = false;
         }
     }
 
+    private void updateOverlayCameraInfo() {
+        Size size = cameraSource.getPreviewSize();
+        if (size == null) return;
+        int min = Math.min(size.getWidth(), size.getHeight());
+        int max = Math.max(size.getWidth(), size.getHeight());
+        if (isPortraitMode()) {
+            // swap width and height sizes when in protrait, since it will be rotated by 90 degrees
+            overlay.setCameraInfo(min, max, cameraSource.getCameraFacing());
+        } else {
+            overlay.setCameraInfo(max, min, cameraSource.getCameraFacing());
+        }
+    }
+
     private boolean isPortraitMode() {
         int orientation = context.getResources().getConfiguration().orientation;
         if (orientation == Configuration.ORIENTATION_LANDSCAPE) return false;
         if (orientation == Configuration.ORIENTATION_PORTRAIT) return true;
 
-        Log.d(TAG, "isPortraitMode is returning false by default");
+        if (ScanTrace.LOG_HOT_PATH) Log.d(TAG, "isPortraitMode is returning false by default");
         return false;
     }
 
@@ -129,6 +135,12 @@ public class CameraSourcePreview extends ViewGroup {
             getChildAt(i).layout(0, 0, childWidth, childHeight);
         }
 
+        // the activity handles orientation changes itself, so a rotation only lays the running
+        // preview out again; the camera rotates its output on its own, see CameraSource.updateRotation
+        if (!startRequested && cameraSource != null && overlay != null) {
+            updateOverlayCameraInfo();
+        }
+
         try {
             startIfReady();
         } catch (SecurityException se) {
@@ -0,0 +1,66 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// A fork-join pool with a worker per detector, for decoders that split one job over many detect()
+// calls.  A native detector serializes its own calls, so detect() only runs concurrently when the
+// pool is given one detector per worker: each call checks out an idle detector and hands it back
+// when it returns.
+public class DetectorPool {
+
+    private final List<Detector<Barcode>> detectors;
+    private final ForkJoinPool pool;
+    private final LinkedBlockingQueue<Detector<Barcode>> idleDetectors;
+
+    public DetectorPool(List<Detector<Barcode>> detectors) {
+        if (detectors.isEmpty()) throw new IllegalArgumentException("No detector supplied");
+        this.detectors = new ArrayList<>(detectors);
+        pool = new ForkJoinPool(detectors.size());
+        idleDetectors = new LinkedBlockingQueue<>(detectors);
+    }
+
+    public int getParallelism() {
+        return detectors.size();
+    }
+
+    public boolean isOperational() {
+        for (Detector<Barcode> detector : detectors) {
+            if (!detector.isOperational()) return false;
+        }
+        return !detectors.isEmpty();
+    }
+
+    // Runs the task on the pool and blocks until it is done.
+    public void invoke(ForkJoinTask<?> task) {
+        pool.invoke(task);
+    }
+
+    // Detects on an idle detector.  There is one for every worker, so a task running on the pool
+    // never waits here.
+    public SparseArray<Barcode> detect(Frame frame) throws InterruptedException {
+        Detector<Barcode> detector = idleDetectors.take();
+        try {
+            return detector.detect(frame);
+        } finally {
+            idleDetectors.offer(detector);
+        }
+    }
+
+    public void release() {
+        pool.shutdownNow();
+        for (Detector<Barcode> detector : detectors) {
+            detector.release();
+        }
+        detectors.clear();
+    }
+}
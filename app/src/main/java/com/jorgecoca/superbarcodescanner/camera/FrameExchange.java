@@ -0,0 +1,67 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Hands the newest frame from a single producer to a single consumer through one atomic slot.
+// Offering a frame while the slot is full displaces the older frame, which goes back to the
+// producer so it can recycle it; every frame therefore has exactly one owner at a time: the
+// producer, the slot or the consumer.
+//
+// A consumer that finds the slot empty either parks right away, or first spins (yielding) for
+// spinNanos to catch a frame that is about to arrive without paying for a wake-up.
+class FrameExchange<T> {
+
+    private final AtomicReference<T> slot = new AtomicReference<>();
+    private final long spinNanos;
+
+    private volatile boolean active = true;
+    private volatile Thread waiter;
+
+    FrameExchange(long spinNanos) {
+        if (spinNanos < 0) throw new IllegalArgumentException("Invalid spin time: " + spinNanos);
+        this.spinNanos = spinNanos;
+    }
+
+    // Publishes frame and returns the frame it displaced, if any.  Producer thread only.
+    T offer(T frame) {
+        T displaced = slot.getAndSet(frame);
+        Thread consumer = waiter;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return displaced;
+    }
+
+    // Waits for the next frame.  Returns null once the exchange is deactivated, leaving any pending
+    // frame in the slot for clear().  Consumer thread only.
+    T take() throws InterruptedException {
+        long spinDeadline = spinNanos > 0 ? System.nanoTime() + spinNanos : 0;
+        while (true) {
+            if (!active) return null;
+            T frame = slot.getAndSet(null);
+            if (frame != null) return frame;
+
+            if (spinDeadline != 0 && System.nanoTime() < spinDeadline) {
+                // give the core away in case the producer is waiting for it
+                Thread.yield();
+                continue;
+            }
+
+            waiter = Thread.currentThread();
+            // re-check after announcing ourselves so an offer racing with us always unparks
+            if (active && slot.get() == null) LockSupport.park(this);
+            waiter = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    void setActive(boolean active) {
+        this.active = active;
+        Thread consumer = waiter;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    // Takes back a frame left pending in the slot, once neither side is running.
+    T clear() {
+        return slot.getAndSet(null);
+    }
+}
@@ -0,0 +1,210 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.util.Log;
+
+import com.google.android.gms.vision.Frame;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// Writes the Y plane of every frame handed to record() into a capture file that can be read back
+// with FrameRecordingReader.  The layout is:
+//
+//   header:  magic, version, flags
+//   frames:  Y plane of each frame, raw or deflated
+//   index:   per frame offset, length, id, timestamp, rotation, width and height
+//   footer:  index offset, frame count, magic
+//
+// Copies are made into a fixed set of buffers and handed to a writer thread.  When all of them are
+// waiting to be written the frame is dropped, so a slow disk never stalls detection.
+public class FrameRecorder {
+
+    static final int MAGIC = 0x53425343; // "SBSC"
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATE = 1;
+    static final int HEADER_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 36;
+    static final int FOOTER_SIZE = 16;
+
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+    private static final RecordedFrame STOP = new RecordedFrame();
+
+    private final File file;
+    private final boolean compress;
+    private final BlockingQueue<RecordedFrame> freeFrames;
+    private final BlockingQueue<RecordedFrame> pendingFrames;
+    private final Thread writerThread;
+    private final AtomicInteger recordedCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public FrameRecorder(File file, boolean compress) throws IOException {
+        this(file, compress, DEFAULT_BUFFER_COUNT);
+    }
+
+    public FrameRecorder(File file, boolean compress, int bufferCount) throws IOException {
+        if (bufferCount <= 0) throw new IllegalArgumentException("Invalid buffer count: " + bufferCount);
+        this.file = file;
+        this.compress = compress;
+
+        freeFrames = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            freeFrames.add(new RecordedFrame());
+        }
+        // one extra slot so that the stop marker always fits behind the pending frames
+        pendingFrames = new ArrayBlockingQueue<>(bufferCount + 1);
+
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(compress ? FLAG_DEFLATE : 0);
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames(output);
+            }
+        }, "FrameRecorder");
+        writerThread.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRecordedFrameCount() {
+        return recordedCount.get();
+    }
+
+    public int getDroppedFrameCount() {
+        return droppedCount.get();
+    }
+
+    // Called from the frame processing thread.  Never blocks.
+    void record(byte[] data, Frame.Metadata metadata) {
+        if (closed) return;
+
+        RecordedFrame frame = freeFrames.poll();
+        if (frame == null) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+
+        int lumaSize = metadata.getWidth() * metadata.getHeight();
+        if (frame.luma == null || frame.luma.length < lumaSize) {
+            frame.luma = new byte[lumaSize];
+        }
+        System.arraycopy(data, 0, frame.luma, 0, lumaSize);
+        frame.width = metadata.getWidth();
+        frame.height = metadata.getHeight();
+        frame.id = metadata.getId();
+        frame.timestampMillis = metadata.getTimestampMillis();
+        frame.rotation = metadata.getRotation();
+        pendingFrames.offer(frame);
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        pendingFrames.offer(STOP);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Log.d("BARCODER", "Frame recorder interrupted on close.");
+        }
+        Log.i("BARCODER", "Recorded " + recordedCount.get() + " frames to " + file +
+                " (" + droppedCount.get() + " dropped)");
+    }
+
+    private void writeFrames(DataOutputStream output) {
+        ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBuffer);
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        byte[] compressed = new byte[0];
+        long offset = HEADER_SIZE;
+        boolean failed = false;
+
+        try {
+            while (true) {
+                RecordedFrame frame = pendingFrames.take();
+                if (frame == STOP) break;
+
+                try {
+                    if (failed) continue;
+
+                    int lumaSize = frame.width * frame.height;
+                    int length;
+                    if (deflater != null) {
+                        if (compressed.length < lumaSize + 64) {
+                            compressed = new byte[lumaSize + lumaSize / 16 + 64];
+                        }
+                        deflater.reset();
+                        deflater.setInput(frame.luma, 0, lumaSize);
+                        deflater.finish();
+                        length = 0;
+                        while (!deflater.finished()) {
+                            if (length == compressed.length) {
+                                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                            }
+                            length += deflater.deflate(compressed, length, compressed.length - length);
+                        }
+                        output.write(compressed, 0, length);
+                    } else {
+                        length = lumaSize;
+                        output.write(frame.luma, 0, lumaSize);
+                    }
+
+                    index.writeLong(offset);
+                    index.writeInt(length);
+                    index.writeInt(frame.id);
+                    index.writeLong(frame.timestampMillis);
+                    index.writeInt(frame.rotation);
+                    index.writeInt(frame.width);
+                    index.writeInt(frame.height);
+                    offset += length;
+                    recordedCount.incrementAndGet();
+                } catch (IOException e) {
+                    Log.e("BARCODER", "Failed to write frame to " + file, e);
+                    failed = true;
+                } finally {
+                    freeFrames.offer(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d("BARCODER", "Frame recorder writer interrupted.");
+        }
+
+        try {
+            if (!failed) {
+                indexBuffer.writeTo(output);
+                output.writeLong(offset);
+                output.writeInt(recordedCount.get());
+                output.writeInt(MAGIC);
+            }
+            output.close();
+        } catch (IOException e) {
+            Log.e("BARCODER", "Failed to finish recording " + file, e);
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    private static class RecordedFrame {
+        byte[] luma;
+        int width;
+        int height;
+        int id;
+        long timestampMillis;
+        int rotation;
+    }
+}
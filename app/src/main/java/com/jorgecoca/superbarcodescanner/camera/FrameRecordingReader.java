@@ -0,0 +1,185 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Random access to a capture written by FrameRecorder.  The file is memory-mapped in segments of
+// at most MAX_SEGMENT_SIZE bytes that always start on a frame boundary, so every frame can be
+// returned as a slice of a single mapping.
+public class FrameRecordingReader implements Closeable {
+
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private final RandomAccessFile file;
+    private final boolean compressed;
+    private final int frameCount;
+
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] ids;
+    private final long[] timestamps;
+    private final int[] rotations;
+    private final int[] widths;
+    private final int[] heights;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final long[] segmentStarts;
+    private final int[] frameSegments;
+
+    private Inflater inflater;
+    private byte[] compressedScratch = new byte[0];
+
+    public FrameRecordingReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < FrameRecorder.HEADER_SIZE + FrameRecorder.FOOTER_SIZE) {
+                throw new IOException("Not a frame recording: " + path);
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FrameRecorder.HEADER_SIZE);
+            if (header.getInt() != FrameRecorder.MAGIC) throw new IOException("Not a frame recording: " + path);
+            int version = header.getInt();
+            if (version != FrameRecorder.VERSION) throw new IOException("Unsupported recording version: " + version);
+            compressed = (header.getInt() & FrameRecorder.FLAG_DEFLATE) != 0;
+
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    size - FrameRecorder.FOOTER_SIZE, FrameRecorder.FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            frameCount = footer.getInt();
+            if (footer.getInt() != FrameRecorder.MAGIC) {
+                throw new IOException("Recording was not closed properly: " + path);
+            }
+
+            offsets = new long[frameCount];
+            lengths = new int[frameCount];
+            ids = new int[frameCount];
+            timestamps = new long[frameCount];
+            rotations = new int[frameCount];
+            widths = new int[frameCount];
+            heights = new int[frameCount];
+            frameSegments = new int[frameCount];
+
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY,
+                    indexOffset, (long) frameCount * FrameRecorder.INDEX_ENTRY_SIZE);
+            for (int i = 0; i < frameCount; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                ids[i] = index.getInt();
+                timestamps[i] = index.getLong();
+                rotations[i] = index.getInt();
+                widths[i] = index.getInt();
+                heights[i] = index.getInt();
+            }
+
+            List<Long> starts = new ArrayList<>();
+            long segmentStart = FrameRecorder.HEADER_SIZE;
+            long segmentEnd = segmentStart;
+            for (int i = 0; i < frameCount; i++) {
+                long frameEnd = offsets[i] + lengths[i];
+                if (frameEnd - segmentStart > MAX_SEGMENT_SIZE && segmentEnd > segmentStart) {
+                    starts.add(segmentStart);
+                    segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+                    segmentStart = offsets[i];
+                }
+                segmentEnd = frameEnd;
+                frameSegments[i] = segments.size();
+            }
+            starts.add(segmentStart);
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+
+            segmentStarts = new long[starts.size()];
+            for (int i = 0; i < segmentStarts.length; i++) {
+                segmentStarts[i] = starts.get(i);
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public int getFrameId(int index) {
+        return ids[index];
+    }
+
+    public long getTimestampMillis(int index) {
+        return timestamps[index];
+    }
+
+    public int getRotation(int index) {
+        return rotations[index];
+    }
+
+    public int getWidth(int index) {
+        return widths[index];
+    }
+
+    public int getHeight(int index) {
+        return heights[index];
+    }
+
+    // Returns the stored bytes of a frame without copying them: the Y plane itself for raw
+    // recordings, or the deflate stream for compressed ones.
+    public ByteBuffer getStoredFrame(int index) {
+        int segment = frameSegments[index];
+        ByteBuffer buffer = segments.get(segment).duplicate();
+        int position = (int) (offsets[index] - segmentStarts[segment]);
+        buffer.limit(position + lengths[index]);
+        buffer.position(position);
+        return buffer.slice();
+    }
+
+    // Copies the Y plane of a frame into the given buffer, which must hold width * height bytes.
+    // Not thread safe for compressed recordings.
+    public void readLuma(int index, byte[] luma) throws IOException {
+        int lumaSize = widths[index] * heights[index];
+        if (luma.length < lumaSize) throw new IllegalArgumentException("Buffer too small for frame " + index);
+
+        ByteBuffer stored = getStoredFrame(index);
+        if (!compressed) {
+            stored.get(luma, 0, lumaSize);
+            return;
+        }
+
+        if (inflater == null) inflater = new Inflater();
+        if (compressedScratch.length < lengths[index]) compressedScratch = new byte[lengths[index]];
+        stored.get(compressedScratch, 0, lengths[index]);
+        inflater.reset();
+        inflater.setInput(compressedScratch, 0, lengths[index]);
+        try {
+            int read = 0;
+            while (read < lumaSize && !inflater.finished()) {
+                int count = inflater.inflate(luma, read, lumaSize - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += count;
+            }
+            if (read != lumaSize) throw new IOException("Truncated frame " + index);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt frame " + index, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) inflater.end();
+        file.close();
+    }
+}
@@ -3,46 +3,115 @@ package com.jorgecoca.superbarcodescanner.camera;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
-import java.util.HashSet;
-import java.util.Set;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
 
+import java.util.ArrayList;
+import java.util.List;
+
+// In dense-scene mode, for views full of codes such as a pallet face, graphics are also kept in a
+// uniform grid of square cells by the centre of their bounds in view coordinates.  A graphic moves
+// between cells only when it is added or updated, and drawing visits the cells instead of the
+// graphics: each cell draws the graphic that entered it last, so labels that would pile up on top
+// of each other are culled, graphics off the view are skipped, and draw time is bounded by the
+// number of cells however many codes are tracked.  getGraphicAt() only looks at the cells around
+// the point.
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
+    private static final int NO_CELL = -1;
+    private static final int NOT_ADDED = -1;
+
     private final Object lock = new Object();
     private int previewWidth;
     private float widthScaleFactor = 1.0f;
     private int previewHeight;
     private float heightScaleFactor = 1.0f;
     private int facing = CameraSource.CAMERA_FACING_BACK;
-    private Set<T> graphics = new HashSet<>();
+    // A list drawn by index, so drawing does not allocate an iterator every frame.  Each graphic
+    // knows its place in it, and a removed graphic's place is taken by the last one, so adding and
+    // removing do not search or shift the list.
+    private final List<T> graphics = new ArrayList<>();
     private T firstGraphic;
 
+    // dense-scene grid, guarded by lock
+    private boolean denseScene;
+    private int cellSize = 128;
+    private int gridWidth;
+    private int gridHeight;
+    private int columns;
+    private int rows;
+    private Graphic[] cells = new Graphic[0];
+    // how many cells around a point getGraphicAt() has to look, from the largest graphic indexed
+    private int searchRadius;
+    private boolean gridStale = true;
+    private final RectF bounds = new RectF();
+
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
     }
 
+    // Turns dense-scene mode on or off.  cellSize, in view pixels, is about the size of a label:
+    // at most one graphic is drawn per cell.
+    public void setDenseScene(boolean denseScene, int cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        synchronized (lock) {
+            this.denseScene = denseScene;
+            this.cellSize = cellSize;
+            gridStale = true;
+        }
+        postInvalidate();
+    }
+
+    public boolean isDenseScene() {
+        synchronized (lock) {
+            return denseScene;
+        }
+    }
+
     public void clear() {
         synchronized (lock) {
+            for (int i = 0; i < graphics.size(); i++) {
+                Graphic graphic = graphics.get(i);
+                unlink(graphic);
+                graphic.index = NOT_ADDED;
+            }
             graphics.clear();
             firstGraphic = null;
+            searchRadius = 0;
         }
         postInvalidate();
     }
 
+    // Adds the graphic, or refreshes its place in the grid when it has already been added.  Call it
+    // again whenever a graphic's bounds change.
     public void add(T graphic) {
         synchronized (lock) {
-            graphics.add(graphic);
+            Graphic added = graphic;
+            if (added.index == NOT_ADDED) {
+                added.index = graphics.size();
+                graphics.add(graphic);
+            }
             if (firstGraphic == null) firstGraphic = graphic;
+            if (denseScene && !gridStale) index(graphic);
         }
         postInvalidate();
     }
 
     public void remove(T graphic) {
         synchronized (lock) {
-            graphics.remove(graphic);
+            Graphic removed = graphic;
+            if (removed.index != NOT_ADDED) {
+                T last = graphics.remove(graphics.size() - 1);
+                if (last != graphic) {
+                    graphics.set(removed.index, last);
+                    ((Graphic) last).index = removed.index;
+                }
+                removed.index = NOT_ADDED;
+            }
+            unlink(graphic);
             if ((firstGraphic != null) && (firstGraphic.equals(graphic))) firstGraphic = null;
         }
         postInvalidate();
@@ -54,11 +123,47 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         }
     }
 
+    // The graphic whose bounds contain the point, in view coordinates, nearest to its centre when
+    // there are several, or null.  For tap selection.
+    @SuppressWarnings("unchecked")
+    public T getGraphicAt(float x, float y) {
+        synchronized (lock) {
+            Graphic nearest = null;
+            float nearestDistance = Float.MAX_VALUE;
+            if (denseScene && !gridStale) {
+                if (x < 0 || y < 0 || x >= gridWidth || y >= gridHeight) return null;
+                int column = (int) (x / cellSize);
+                int row = (int) (y / cellSize);
+                for (int r = Math.max(0, row - searchRadius); r <= Math.min(rows - 1, row + searchRadius); r++) {
+                    for (int c = Math.max(0, column - searchRadius); c <= Math.min(columns - 1, column + searchRadius); c++) {
+                        for (Graphic graphic = cells[r * columns + c]; graphic != null; graphic = graphic.nextInCell) {
+                            float distance = distance(graphic, x, y);
+                            if (distance < nearestDistance) {
+                                nearest = graphic;
+                                nearestDistance = distance;
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < graphics.size(); i++) {
+                    float distance = distance(graphics.get(i), x, y);
+                    if (distance < nearestDistance) {
+                        nearest = graphics.get(i);
+                        nearestDistance = distance;
+                    }
+                }
+            }
+            return (T) nearest;
+        }
+    }
+
     public void setCameraInfo(int previewWidth, int previewHeight, int facing) {
         synchronized (lock) {
             this.previewWidth = previewWidth;
             this.previewHeight = previewHeight;
             this.facing = facing;
+            gridStale = true;
         }
         postInvalidate();
     }
@@ -66,19 +171,113 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        synchronized (lock) {
-            if ((previewWidth != 0) && (previewHeight != 0)) {
-                widthScaleFactor = (float) canvas.getWidth() / (float) previewWidth;
-                heightScaleFactor = (float) canvas.getHeight() / (float) previewHeight;
+        ScanTrace.begin(ScanTrace.OVERLAY_DRAW);
+        try {
+            synchronized (lock) {
+                if ((previewWidth != 0) && (previewHeight != 0)) {
+                    float widthScale = (float) canvas.getWidth() / (float) previewWidth;
+                    float heightScale = (float) canvas.getHeight() / (float) previewHeight;
+                    if (widthScale != widthScaleFactor || heightScale != heightScaleFactor) gridStale = true;
+                    widthScaleFactor = widthScale;
+                    heightScaleFactor = heightScale;
+                }
+                ScanTrace.counter(ScanTrace.COUNTER_GRAPHICS, graphics.size());
+                if (denseScene) {
+                    if (gridStale || canvas.getWidth() != gridWidth || canvas.getHeight() != gridHeight) {
+                        rebuildGrid(canvas.getWidth(), canvas.getHeight());
+                    }
+                    for (int i = 0; i < cells.length; i++) {
+                        if (cells[i] != null) cells[i].draw(canvas);
+                    }
+                } else {
+                    for (int i = 0; i < graphics.size(); i++) {
+                        graphics.get(i).draw(canvas);
+                    }
+                }
             }
-            for (Graphic graphic : graphics) {
-                graphic.draw(canvas);
+        } finally {
+            ScanTrace.end();
+        }
+    }
+
+    private void rebuildGrid(int width, int height) {
+        gridWidth = width;
+        gridHeight = height;
+        columns = (width + cellSize - 1) / cellSize;
+        rows = (height + cellSize - 1) / cellSize;
+        if (cells.length != columns * rows) {
+            cells = new Graphic[columns * rows];
+        } else {
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = null;
             }
         }
+        searchRadius = 0;
+        gridStale = false;
+        for (int i = 0; i < graphics.size(); i++) {
+            Graphic graphic = graphics.get(i);
+            graphic.cell = NO_CELL;
+            graphic.nextInCell = null;
+            graphic.previousInCell = null;
+            index(graphic);
+        }
+    }
+
+    // Moves the graphic to the cell of its centre, or out of the grid when it has no bounds yet or
+    // they are entirely off the view.
+    private void index(Graphic graphic) {
+        int cell = NO_CELL;
+        if (graphic.getBounds(bounds) && bounds.right >= 0 && bounds.bottom >= 0
+                && bounds.left < gridWidth && bounds.top < gridHeight) {
+            int column = clamp((int) (bounds.centerX() / cellSize), columns);
+            int row = clamp((int) (bounds.centerY() / cellSize), rows);
+            cell = row * columns + column;
+            int radius = (int) Math.ceil(Math.max(bounds.width(), bounds.height()) / 2 / cellSize);
+            if (radius > searchRadius) searchRadius = radius;
+        }
+        if (cell == graphic.cell) return;
+        unlink(graphic);
+        if (cell == NO_CELL) return;
+        graphic.cell = cell;
+        graphic.nextInCell = cells[cell];
+        if (cells[cell] != null) cells[cell].previousInCell = graphic;
+        cells[cell] = graphic;
+    }
+
+    private void unlink(Graphic graphic) {
+        if (graphic.cell == NO_CELL) return;
+        if (graphic.previousInCell != null) {
+            graphic.previousInCell.nextInCell = graphic.nextInCell;
+        } else if (graphic.cell < cells.length && cells[graphic.cell] == graphic) {
+            cells[graphic.cell] = graphic.nextInCell;
+        }
+        if (graphic.nextInCell != null) graphic.nextInCell.previousInCell = graphic.previousInCell;
+        graphic.cell = NO_CELL;
+        graphic.nextInCell = null;
+        graphic.previousInCell = null;
+    }
+
+    // Squared distance from the point to the centre of the graphic, or MAX_VALUE when the point is
+    // outside it.
+    private float distance(Graphic graphic, float x, float y) {
+        if (!graphic.getBounds(bounds) || !bounds.contains(x, y)) return Float.MAX_VALUE;
+        float dx = x - bounds.centerX();
+        float dy = y - bounds.centerY();
+        return dx * dx + dy * dy;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
     }
 
     public static abstract class Graphic {
         private GraphicOverlay overlay;
+        // place in the overlay's list and in the dense-scene grid, only touched by the overlay under
+        // its lock
+        private int index = NOT_ADDED;
+        private int cell = NO_CELL;
+        private Graphic nextInCell;
+        private Graphic previousInCell;
 
         public Graphic(GraphicOverlay overlay) {
             this.overlay = overlay;
@@ -86,6 +285,13 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
         public abstract void draw(Canvas canvas);
 
+        // Fills in the area the graphic covers in view coordinates, or returns false when it has
+        // nothing to show.  Graphics without bounds cannot be tapped and are not drawn in
+        // dense-scene mode.
+        public boolean getBounds(RectF bounds) {
+            return false;
+        }
+
         public float scaleX(float horizontal) {
             return horizontal * overlay.widthScaleFactor;
         }
@@ -103,7 +309,7 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         }
 
         public float translateY(float y) {
-            return scaleX(y);
+            return scaleY(y);
         }
 
         public void postInvalidate() {
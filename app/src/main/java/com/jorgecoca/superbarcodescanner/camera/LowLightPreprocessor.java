@@ -0,0 +1,529 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import com.google.android.gms.vision.Detector;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Optional stage that CameraSource runs on the Y plane of a frame before handing it to the
+// detector, for scenes too dark or too flat for the detector to decode as they are.
+//
+// The frame is cut into tiles.  For every tile the 1st and 99th luma percentiles and the mean are
+// taken from every other pixel of every other row, and every pixel is then stretched to the full
+// range between the percentiles of its neighbourhood, interpolated bilinearly between tile centres
+// so tile edges do not show.  With binarisation on, pixels are instead thresholded against the
+// interpolated local mean.  Both passes can be split across a pool by bands of rows.
+//
+// In MODE_AUTO a sparse luma histogram of every frame decides whether the frame needs the stage
+// at all.  Among the frames that do, every probeInterval-th one goes the other way (raw while the
+// stage is preferred, processed while it is not) so the success rate of both paths stays known,
+// and every window the preferred path is switched to whichever found barcodes more often.  The
+// detector's results are fed back through a processor wrapped with trackOutcomes().
+public class LowLightPreprocessor {
+
+    public static final int MODE_OFF = 0;
+    public static final int MODE_AUTO = 1;
+    public static final int MODE_ALWAYS = 2;
+
+    private static final int HISTOGRAM_STEP = 4;
+    private static final int TILE_SAMPLE_STEP = 2;
+    private static final int MIN_RANGE = 24;
+    private static final int OUTCOME_HISTORY = 64;
+    private static final int DECISION_WINDOW = 128;
+
+    private static final byte OUTCOME_NONE = 0;
+    private static final byte OUTCOME_PROCESSED = 1;
+    private static final byte OUTCOME_RAW = 2;
+
+    private int mode = MODE_AUTO;
+    private int tileSize = 32;
+    private boolean binarize = false;
+    private int thresholdBias = 8;
+    private int parallelism = 1;
+    private int darkThreshold = 64;
+    private int minContrast = 64;
+    private int probeInterval = 8;
+
+    private LumaBufferPool bufferPool;
+    private ForkJoinPool pool;
+
+    // layout for the current frame size, rebuilt when it changes
+    private int width;
+    private int height;
+    private int tilesX;
+    private int tilesY;
+    private int[] tileLo;
+    private int[] tileScale;
+    private int[] tileMean;
+    private int[] xTile0;
+    private int[] xTile1;
+    private int[] xWeight;
+    private int[] yTile0;
+    private int[] yTile1;
+    private int[] yWeight;
+    private Band[] bands;
+    private Pass statsPass;
+    private Pass applyPass;
+    private final int[] histogram = new int[256];
+
+    // frame being processed, only valid during process()
+    private byte[] input;
+    private byte[] output;
+
+    // only touched by the processing thread
+    private final int[] outcomeFrameIds = new int[OUTCOME_HISTORY];
+    private final byte[] outcomeKinds = new byte[OUTCOME_HISTORY];
+    private boolean preferProcessed = true;
+    private int gatedCount;
+    private int windowProcessed;
+    private int windowProcessedFound;
+    private int windowRaw;
+    private int windowRawFound;
+
+    private volatile long framesSeen;
+    private volatile long framesGated;
+    private volatile long framesProcessed;
+    private volatile long processedFound;
+    private volatile long rawGatedFrames;
+    private volatile long rawGatedFound;
+    private volatile long processingNanos;
+
+    // allow only creation via builder class
+    private LowLightPreprocessor() { }
+
+    public static class Builder {
+        private LowLightPreprocessor preprocessor = new LowLightPreprocessor();
+
+        public Builder setMode(int mode) {
+            if ((mode != MODE_OFF) && (mode != MODE_AUTO) && (mode != MODE_ALWAYS)) {
+                throw new IllegalArgumentException("Invalid mode: " + mode);
+            }
+            preprocessor.mode = mode;
+            return this;
+        }
+
+        public Builder setTileSize(int tileSize) {
+            if (tileSize < 8) throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+            preprocessor.tileSize = tileSize;
+            return this;
+        }
+
+        // Outputs black and white instead of the stretched grey levels.  bias (0-255) is how far
+        // below its local mean a pixel has to be to turn black.
+        public Builder setBinarize(boolean binarize, int bias) {
+            if (bias < 0 || bias > 255) throw new IllegalArgumentException("Invalid threshold bias: " + bias);
+            preprocessor.binarize = binarize;
+            preprocessor.thresholdBias = bias;
+            return this;
+        }
+
+        // Number of row bands processed concurrently.  One keeps everything on the calling thread.
+        public Builder setParallelism(int parallelism) {
+            if (parallelism <= 0) throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            preprocessor.parallelism = parallelism;
+            return this;
+        }
+
+        // Frames whose mean luma is below darkThreshold, or whose 5th to 95th percentile spread is
+        // below minContrast, are considered to need the stage in MODE_AUTO.
+        public Builder setAutoThresholds(int darkThreshold, int minContrast) {
+            if (darkThreshold < 0 || darkThreshold > 255) throw new IllegalArgumentException("Invalid dark threshold: " + darkThreshold);
+            if (minContrast < 0 || minContrast > 255) throw new IllegalArgumentException("Invalid minimum contrast: " + minContrast);
+            preprocessor.darkThreshold = darkThreshold;
+            preprocessor.minContrast = minContrast;
+            return this;
+        }
+
+        public Builder setProbeInterval(int probeInterval) {
+            if (probeInterval < 2) throw new IllegalArgumentException("Invalid probe interval: " + probeInterval);
+            preprocessor.probeInterval = probeInterval;
+            return this;
+        }
+
+        public LowLightPreprocessor build() {
+            preprocessor.bufferPool = new LumaBufferPool(2);
+            if (preprocessor.parallelism > 1) {
+                preprocessor.pool = new ForkJoinPool(preprocessor.parallelism);
+            }
+            return preprocessor;
+        }
+    }
+
+    public static class Stats {
+        private final long framesSeen;
+        private final long framesGated;
+        private final long framesProcessed;
+        private final long processedFound;
+        private final long rawGatedFrames;
+        private final long rawGatedFound;
+        private final long processingNanos;
+
+        Stats(long framesSeen, long framesGated, long framesProcessed, long processedFound,
+              long rawGatedFrames, long rawGatedFound, long processingNanos) {
+            this.framesSeen = framesSeen;
+            this.framesGated = framesGated;
+            this.framesProcessed = framesProcessed;
+            this.processedFound = processedFound;
+            this.rawGatedFrames = rawGatedFrames;
+            this.rawGatedFound = rawGatedFound;
+            this.processingNanos = processingNanos;
+        }
+
+        public long getFramesSeen() {
+            return framesSeen;
+        }
+
+        // Frames whose histogram called for the stage.
+        public long getFramesGated() {
+            return framesGated;
+        }
+
+        public long getFramesProcessed() {
+            return framesProcessed;
+        }
+
+        // Fraction of processed frames in which the detector found something.
+        public double getProcessedSuccessRate() {
+            return framesProcessed == 0 ? 0 : processedFound / (double) framesProcessed;
+        }
+
+        // Fraction of frames that called for the stage but went to the detector unprocessed and
+        // still yielded a result.
+        public double getRawSuccessRate() {
+            return rawGatedFrames == 0 ? 0 : rawGatedFound / (double) rawGatedFrames;
+        }
+
+        public double getMeanProcessingMillis() {
+            return framesProcessed == 0 ? 0 : processingNanos / 1e6d / framesProcessed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d frames, %d dark or flat, %d processed (%.2f ms each), success %.0f%% processed vs %.0f%% raw",
+                    framesSeen, framesGated, framesProcessed, getMeanProcessingMillis(),
+                    100 * getProcessedSuccessRate(), 100 * getRawSuccessRate());
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(framesSeen, framesGated, framesProcessed, processedFound,
+                rawGatedFrames, rawGatedFound, processingNanos);
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    // Wraps the processor receiving the detector's results so the stage learns which frames
+    // yielded barcodes.  Install it on the detector CameraSource feeds.
+    public <T> Detector.Processor<T> trackOutcomes(final Detector.Processor<T> delegate) {
+        return new Detector.Processor<T>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<T> detections) {
+                recordOutcome(detections.getFrameMetadata().getId(), detections.getDetectedItems().size() > 0);
+                delegate.receiveDetections(detections);
+            }
+        };
+    }
+
+    // Returns a pooled buffer holding the processed Y plane, or null when the frame should go to
+    // the detector as it is.  Buffers must be handed back with recycle().  Processing thread only.
+    byte[] process(byte[] data, int width, int height, int frameId) {
+        framesSeen++;
+        if (mode == MODE_OFF) return null;
+
+        if (mode == MODE_AUTO) {
+            if (!needsProcessing(data, width, height)) return null;
+            framesGated++;
+            boolean probe = (++gatedCount % probeInterval) == 0;
+            if (preferProcessed == probe) {
+                rawGatedFrames++;
+                setOutcomeKind(frameId, OUTCOME_RAW);
+                return null;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        byte[] processed = bufferPool.acquire(width * height);
+        apply(data, processed, width, height);
+        processingNanos += System.nanoTime() - startTime;
+        framesProcessed++;
+        setOutcomeKind(frameId, OUTCOME_PROCESSED);
+        return processed;
+    }
+
+    void recycle(byte[] processed) {
+        bufferPool.release(processed);
+    }
+
+    void release() {
+        if (pool != null) pool.shutdown();
+    }
+
+    // Runs the stage on the Y plane of data unconditionally, writing width * height bytes to out.
+    void apply(byte[] data, byte[] out, int width, int height) {
+        prepareLayout(width, height);
+        input = data;
+        output = out;
+        try {
+            if (pool == null) {
+                computeTileStats(bands[0], 0, tilesY);
+                applyRows(bands[0], 0, height);
+            } else {
+                statsPass.reinitialize();
+                pool.invoke(statsPass);
+                applyPass.reinitialize();
+                pool.invoke(applyPass);
+            }
+        } finally {
+            input = null;
+            output = null;
+        }
+    }
+
+    private boolean needsProcessing(byte[] data, int width, int height) {
+        int[] histogram = this.histogram;
+        Arrays.fill(histogram, 0);
+        long sum = 0;
+        int count = 0;
+        for (int y = 0; y < height; y += HISTOGRAM_STEP) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x += HISTOGRAM_STEP) {
+                int value = data[rowStart + x] & 0xff;
+                histogram[value]++;
+                sum += value;
+            }
+            count += (width + HISTOGRAM_STEP - 1) / HISTOGRAM_STEP;
+        }
+        if (count == 0) return false;
+        if (sum / count < darkThreshold) return true;
+        return percentile(histogram, count, 95) - percentile(histogram, count, 5) < minContrast;
+    }
+
+    private void setOutcomeKind(int frameId, byte kind) {
+        int slot = frameId & (OUTCOME_HISTORY - 1);
+        outcomeFrameIds[slot] = frameId;
+        outcomeKinds[slot] = kind;
+    }
+
+    private void recordOutcome(int frameId, boolean found) {
+        int slot = frameId & (OUTCOME_HISTORY - 1);
+        if (outcomeFrameIds[slot] != frameId) return;
+        byte kind = outcomeKinds[slot];
+        outcomeKinds[slot] = OUTCOME_NONE;
+
+        if (kind == OUTCOME_PROCESSED) {
+            windowProcessed++;
+            if (found) {
+                windowProcessedFound++;
+                processedFound++;
+            }
+        } else if (kind == OUTCOME_RAW) {
+            windowRaw++;
+            if (found) {
+                windowRawFound++;
+                rawGatedFound++;
+            }
+        } else {
+            return;
+        }
+
+        if (mode == MODE_AUTO && windowProcessed + windowRaw >= DECISION_WINDOW) {
+            // compare success rates without dividing: p/n >= r/m  <=>  p*m >= r*n
+            preferProcessed = windowProcessedFound * windowRaw >= windowRawFound * windowProcessed;
+            windowProcessed = windowProcessedFound = windowRaw = windowRawFound = 0;
+        }
+    }
+
+    private void prepareLayout(int width, int height) {
+        if (width == this.width && height == this.height) return;
+        this.width = width;
+        this.height = height;
+        tilesX = Math.max(1, width / tileSize);
+        tilesY = Math.max(1, height / tileSize);
+        tileLo = new int[tilesX * tilesY];
+        tileScale = new int[tilesX * tilesY];
+        tileMean = new int[tilesX * tilesY];
+
+        xTile0 = new int[width];
+        xTile1 = new int[width];
+        xWeight = new int[width];
+        interpolationTable(width, tilesX, xTile0, xTile1, xWeight);
+        yTile0 = new int[height];
+        yTile1 = new int[height];
+        yWeight = new int[height];
+        interpolationTable(height, tilesY, yTile0, yTile1, yWeight);
+
+        bands = new Band[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            bands[i] = new Band(i, tilesX);
+        }
+        statsPass = new Pass(false);
+        applyPass = new Pass(true);
+    }
+
+    // For every pixel along an axis, the two tiles whose centres surround it and the weight
+    // (0-256) of the second one.
+    private static void interpolationTable(int size, int tiles, int[] tile0, int[] tile1, int[] weight) {
+        float tileExtent = size / (float) tiles;
+        for (int i = 0; i < size; i++) {
+            float position = (i + 0.5f) / tileExtent - 0.5f;
+            int first = (int) Math.floor(position);
+            int fraction = Math.round((position - first) * 256);
+            if (first < 0) {
+                first = 0;
+                fraction = 0;
+            } else if (first >= tiles - 1) {
+                first = tiles - 1;
+                fraction = 0;
+            }
+            tile0[i] = first;
+            tile1[i] = Math.min(first + 1, tiles - 1);
+            weight[i] = fraction;
+        }
+    }
+
+    private void computeTileStats(Band band, int firstTileRow, int endTileRow) {
+        int[] histogram = band.histogram;
+        byte[] data = input;
+        int width = this.width;
+        for (int tileY = firstTileRow; tileY < endTileRow; tileY++) {
+            int y0 = tileY * height / tilesY;
+            int y1 = (tileY + 1) * height / tilesY;
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                int x0 = tileX * width / tilesX;
+                int x1 = (tileX + 1) * width / tilesX;
+
+                Arrays.fill(histogram, 0);
+                long sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1; y += TILE_SAMPLE_STEP) {
+                    int rowStart = y * width;
+                    for (int x = x0; x < x1; x += TILE_SAMPLE_STEP) {
+                        int value = data[rowStart + x] & 0xff;
+                        histogram[value]++;
+                        sum += value;
+                        count++;
+                    }
+                }
+
+                int lo = percentile(histogram, count, 1);
+                int hi = percentile(histogram, count, 99);
+                int tile = tileY * tilesX + tileX;
+                tileLo[tile] = lo;
+                // gain that maps lo..hi onto 0..255, fixed point with 8 bits
+                tileScale[tile] = (255 << 8) / Math.max(MIN_RANGE, hi - lo);
+                tileMean[tile] = (int) (sum / count);
+            }
+        }
+    }
+
+    private void applyRows(Band band, int firstRow, int endRow) {
+        byte[] data = input;
+        byte[] out = output;
+        int width = this.width;
+        int tilesX = this.tilesX;
+        int[] xTile0 = this.xTile0;
+        int[] xTile1 = this.xTile1;
+        int[] xWeight = this.xWeight;
+        int[] rowLo = band.rowLo;
+        int[] rowScale = band.rowScale;
+        int[] rowMean = band.rowMean;
+        boolean binarize = this.binarize;
+        int bias = thresholdBias;
+
+        for (int y = firstRow; y < endRow; y++) {
+            // interpolate the tile statistics vertically for this row, fixed point with 8 bits
+            int top = yTile0[y] * tilesX;
+            int bottom = yTile1[y] * tilesX;
+            int wy = yWeight[y];
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                rowLo[tileX] = tileLo[top + tileX] * (256 - wy) + tileLo[bottom + tileX] * wy;
+                rowScale[tileX] = tileScale[top + tileX] * (256 - wy) + tileScale[bottom + tileX] * wy;
+                rowMean[tileX] = tileMean[top + tileX] * (256 - wy) + tileMean[bottom + tileX] * wy;
+            }
+
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int c0 = xTile0[x];
+                int c1 = xTile1[x];
+                int wx = xWeight[x];
+                int value = data[rowStart + x] & 0xff;
+                int result;
+                if (binarize) {
+                    int mean = (rowMean[c0] * (256 - wx) + rowMean[c1] * wx) >> 16;
+                    result = value < mean - bias ? 0 : 255;
+                } else {
+                    int lo = (rowLo[c0] * (256 - wx) + rowLo[c1] * wx) >> 16;
+                    int scale = (rowScale[c0] * (256 - wx) + rowScale[c1] * wx) >> 16;
+                    result = ((value - lo) * scale) >> 8;
+                    if (result < 0) result = 0;
+                    else if (result > 255) result = 255;
+                }
+                out[rowStart + x] = (byte) result;
+            }
+        }
+    }
+
+    private static int percentile(int[] histogram, int count, int percent) {
+        int target = (int) ((long) count * percent / 100);
+        int seen = 0;
+        for (int value = 0; value < 256; value++) {
+            seen += histogram[value];
+            if (seen > target) return value;
+        }
+        return 255;
+    }
+
+    // One pass of the stage, fanned out over the bands.
+    private class Pass extends RecursiveAction {
+        private final boolean applyPass;
+
+        Pass(boolean applyPass) {
+            this.applyPass = applyPass;
+        }
+
+        @Override
+        protected void compute() {
+            for (Band band : bands) {
+                band.applyPass = applyPass;
+                band.reinitialize();
+            }
+            invokeAll(bands);
+        }
+    }
+
+    // A band of rows plus the scratch space for working on it.
+    private class Band extends RecursiveAction {
+        private final int index;
+        final int[] histogram = new int[256];
+        final int[] rowLo;
+        final int[] rowScale;
+        final int[] rowMean;
+        boolean applyPass;
+
+        Band(int index, int tilesX) {
+            this.index = index;
+            rowLo = new int[tilesX];
+            rowScale = new int[tilesX];
+            rowMean = new int[tilesX];
+        }
+
+        @Override
+        protected void compute() {
+            if (applyPass) {
+                applyRows(this, index * height / bands.length, (index + 1) * height / bands.length);
+            } else {
+                computeTileStats(this, index * tilesY / bands.length, (index + 1) * tilesY / bands.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LumaBufferPool {
+
+    // an array-backed queue, so handing a buffer back does not allocate a node for it
+    private final ArrayBlockingQueue<byte[]> buffers;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public LumaBufferPool(int maxPooled) {
+        if (maxPooled <= 0) throw new IllegalArgumentException("Invalid pool size: " + maxPooled);
+        buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    // Returns a buffer of at least minSize bytes.  Buffers that are too small for the request
+    // are dropped, so the pool settles on the largest size it is asked for.
+    public byte[] acquire(int minSize) {
+        byte[] buffer;
+        while ((buffer = buffers.poll()) != null) {
+            if (buffer.length >= minSize) return buffer;
+        }
+        allocated.incrementAndGet();
+        return new byte[minSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer == null) return;
+        // dropped when the pool is full
+        buffers.offer(buffer);
+    }
+
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public int getPooledCount() {
+        return buffers.size();
+    }
+}
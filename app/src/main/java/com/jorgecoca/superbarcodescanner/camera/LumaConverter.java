@@ -0,0 +1,25 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.Bitmap;
+
+public class LumaConverter {
+
+    private LumaConverter() { }
+
+    // Writes the BT.601 luma of every pixel of bitmap into luma, row after row starting at offset.
+    // row must hold at least one bitmap row.
+    public static void fromBitmap(Bitmap bitmap, byte[] luma, int offset, int[] row) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int r = (argb >> 16) & 0xff;
+                int g = (argb >> 8) & 0xff;
+                int b = argb & 0xff;
+                luma[offset++] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
+
+import java.util.Locale;
+
+// Lets a scanner left running on a cradle idle.  Once no barcode has been seen for the idle
+// timeout, the preview drops to the camera's lowest frame rate at or above idleFps and frames stop
+// reaching the detector.  Each idle frame is only compared with the scene the camera saw when it
+// went idle, on a coarse grid of average luma, so an item held up in any part of the view counts
+// as a change while sensor noise averages out.  A changed scene, motion reported by the motion
+// sensor or a call to wake() brings back the requested frame rate and detection; the frame that
+// showed the change is detected right away, so the first scan after idling is not delayed.
+//
+// Feed the detector's results through a processor wrapped with wrap() and hand the policy to
+// CameraSource.Builder.setPowerPolicy().
+public class PowerPolicy {
+
+    private static final int GRID_SIZE = 8;
+    // pixels sampled along each side of a grid cell
+    private static final int CELL_SAMPLES = 8;
+    private static final int WAKE_CALL = 0;
+    private static final int WAKE_MOTION = 1;
+    private static final int WAKE_SCENE = 2;
+
+    private long idleTimeoutNanos = 30000000000L;
+    private float idleFps = 5.0f;
+    private int sceneChangeThreshold = 24;
+    private MotionSensor motionSensor;
+
+    private CameraSource cameraSource;
+    private final Object lock = new Object();
+    private volatile boolean idle;
+    private volatile long lastActivityNanos;
+
+    // only touched by the detection thread
+    private final int[] referenceCells = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] cells = new int[GRID_SIZE * GRID_SIZE];
+
+    // guarded by lock
+    private long idleStartNanos;
+    private long idleNanos;
+    private int idleCount;
+    private int sceneWakeCount;
+    private int motionWakeCount;
+
+    // A source of motion events, such as the device's accelerometer.
+    public interface MotionSensor {
+        void start(MotionListener listener);
+
+        void stop();
+    }
+
+    public interface MotionListener {
+        void onMotion();
+    }
+
+    // allow only creation via builder class
+    private PowerPolicy() { }
+
+    public static class Builder {
+        private PowerPolicy policy = new PowerPolicy();
+
+        // How long without a barcode before the camera idles.
+        public Builder setIdleTimeout(long millis) {
+            if (millis <= 0) throw new IllegalArgumentException("Invalid idle timeout: " + millis);
+            policy.idleTimeoutNanos = millis * 1000000L;
+            return this;
+        }
+
+        public Builder setIdleFps(float fps) {
+            if (fps <= 0) throw new IllegalArgumentException("Invalid idle fps: " + fps);
+            policy.idleFps = fps;
+            return this;
+        }
+
+        // Change in the average luma (0-255) of any grid cell that counts as a changed scene.
+        public Builder setSceneChangeThreshold(int threshold) {
+            if (threshold <= 0 || threshold > 255) throw new IllegalArgumentException("Invalid scene change threshold: " + threshold);
+            policy.sceneChangeThreshold = threshold;
+            return this;
+        }
+
+        public Builder setMotionSensor(MotionSensor sensor) {
+            policy.motionSensor = sensor;
+            return this;
+        }
+
+        public PowerPolicy build() {
+            return policy;
+        }
+    }
+
+    // A motion sensor reporting any change in acceleration above threshold, in m/s^2, between two
+    // accelerometer samples.  Reports nothing on devices without an accelerometer.
+    public static MotionSensor accelerometer(Context context, float threshold) {
+        if (context == null) throw new IllegalArgumentException("No context supplied");
+        if (threshold <= 0) throw new IllegalArgumentException("Invalid motion threshold: " + threshold);
+        return new Accelerometer((SensorManager) context.getSystemService(Context.SENSOR_SERVICE), threshold);
+    }
+
+    public Detector.Processor<Barcode> wrap(final Detector.Processor<Barcode> delegate) {
+        return new Detector.Processor<Barcode>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<Barcode> detections) {
+                if (detections.getDetectedItems().size() > 0) lastActivityNanos = System.nanoTime();
+                delegate.receiveDetections(detections);
+            }
+        };
+    }
+
+    // Leaves idle, or restarts the idle timeout when not idle.  May be called from any thread, e.g.
+    // on a user's touch.
+    public void wake() {
+        leaveIdle(WAKE_CALL);
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    public int getIdleCount() {
+        synchronized (lock) {
+            return idleCount;
+        }
+    }
+
+    public int getSceneWakeCount() {
+        synchronized (lock) {
+            return sceneWakeCount;
+        }
+    }
+
+    public int getMotionWakeCount() {
+        synchronized (lock) {
+            return motionWakeCount;
+        }
+    }
+
+    // Total time spent idle, including the current idle period.
+    public long getIdleMillis() {
+        synchronized (lock) {
+            long total = idleNanos;
+            if (idle) total += System.nanoTime() - idleStartNanos;
+            return total / 1000000L;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "idle %d times for %d ms, woken by %d scene changes and %d motions",
+                getIdleCount(), getIdleMillis(), getSceneWakeCount(), getMotionWakeCount());
+    }
+
+    float getIdleFps() {
+        return idleFps;
+    }
+
+    void attach(CameraSource cameraSource) {
+        this.cameraSource = cameraSource;
+    }
+
+    // Called when the camera starts: scanning starts at the requested frame rate.
+    void start() {
+        synchronized (lock) {
+            if (idle) {
+                idle = false;
+                idleNanos += System.nanoTime() - idleStartNanos;
+            }
+        }
+        lastActivityNanos = System.nanoTime();
+        if (motionSensor != null) {
+            motionSensor.start(new MotionListener() {
+                @Override
+                public void onMotion() {
+                    leaveIdle(WAKE_MOTION);
+                }
+            });
+        }
+    }
+
+    void stop() {
+        if (motionSensor != null) motionSensor.stop();
+    }
+
+    // Called on the detection thread with the Y plane of every frame; false skips detection.
+    boolean shouldDetect(byte[] luma, int width, int height) {
+        if (idle) {
+            sample(luma, width, height, cells);
+            if (difference(cells, referenceCells) < sceneChangeThreshold) return false;
+            leaveIdle(WAKE_SCENE);
+            return true;
+        }
+
+        if (System.nanoTime() - lastActivityNanos < idleTimeoutNanos) return true;
+        sample(luma, width, height, referenceCells);
+        synchronized (lock) {
+            // woken while the scene was being sampled
+            if (System.nanoTime() - lastActivityNanos < idleTimeoutNanos) return true;
+            idle = true;
+            idleStartNanos = System.nanoTime();
+            idleCount++;
+        }
+        if (ScanTrace.LOG_HOT_PATH) Log.d("BARCODER", "No barcodes for " + idleTimeoutNanos / 1000000L + " ms, camera idling");
+        if (cameraSource != null) cameraSource.updateFrameRate();
+        return false;
+    }
+
+    private void leaveIdle(int cause) {
+        synchronized (lock) {
+            lastActivityNanos = System.nanoTime();
+            if (!idle) return;
+            idle = false;
+            idleNanos += lastActivityNanos - idleStartNanos;
+            if (cause == WAKE_MOTION) motionWakeCount++;
+            if (cause == WAKE_SCENE) sceneWakeCount++;
+        }
+        if (cameraSource != null) cameraSource.updateFrameRate();
+    }
+
+    // Average luma of each grid cell, from CELL_SAMPLES x CELL_SAMPLES pixels spread over the cell.
+    private static void sample(byte[] luma, int width, int height, int[] cells) {
+        int cellWidth = width / GRID_SIZE;
+        int cellHeight = height / GRID_SIZE;
+        int stepX = Math.max(1, cellWidth / CELL_SAMPLES);
+        int stepY = Math.max(1, cellHeight / CELL_SAMPLES);
+        for (int cellY = 0; cellY < GRID_SIZE; cellY++) {
+            for (int cellX = 0; cellX < GRID_SIZE; cellX++) {
+                int sum = 0;
+                int count = 0;
+                for (int y = cellY * cellHeight + stepY / 2; y < (cellY + 1) * cellHeight; y += stepY) {
+                    int row = y * width;
+                    for (int x = cellX * cellWidth + stepX / 2; x < (cellX + 1) * cellWidth; x += stepX) {
+                        sum += luma[row + x] & 0xff;
+                        count++;
+                    }
+                }
+                cells[cellY * GRID_SIZE + cellX] = count == 0 ? 0 : sum / count;
+            }
+        }
+    }
+
+    private static int difference(int[] cells, int[] reference) {
+        int max = 0;
+        for (int i = 0; i < cells.length; i++) {
+            max = Math.max(max, Math.abs(cells[i] - reference[i]));
+        }
+        return max;
+    }
+
+    private static class Accelerometer implements MotionSensor, SensorEventListener {
+        private final SensorManager sensorManager;
+        private final float threshold;
+        private volatile MotionListener listener;
+
+        // only touched by the thread delivering sensor events
+        private boolean hasSample;
+        private float lastX;
+        private float lastY;
+        private float lastZ;
+
+        Accelerometer(SensorManager sensorManager, float threshold) {
+            this.sensorManager = sensorManager;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void start(MotionListener listener) {
+            Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            if (sensor == null) {
+                Log.w("BARCODER", "No accelerometer, camera only wakes on scene changes");
+                return;
+            }
+            this.listener = listener;
+            hasSample = false;
+            sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+        }
+
+        @Override
+        public void stop() {
+            sensorManager.unregisterListener(this);
+            listener = null;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            float x = event.values[0];
+            float y = event.values[1];
+            float z = event.values[2];
+            MotionListener current = listener;
+            if (hasSample && current != null
+                    && Math.abs(x - lastX) + Math.abs(y - lastY) + Math.abs(z - lastZ) > threshold) {
+                current.onMotion();
+            }
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+            hasSample = true;
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) { }
+    }
+}
@@ -0,0 +1,271 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.trace.ScanTrace;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Takes a full-resolution still when the preview has gone a number of frames without a decode,
+// for codes too small for the preview resolution to resolve.  The JPEG is decoded in tiles by a
+// TiledBarcodeDecoder off the camera and detection threads, and what it finds is merged into the
+// next preview detections, scaled to preview coordinates, so trackers and graphics handle it like
+// any other result.  The preview pauses while the still is being taken.
+//
+// Feed the preview detector's results through a processor wrapped with wrap() and hand the
+// fallback to CameraSource.Builder.setStillCaptureFallback().
+public class StillCaptureFallback {
+
+    // a capture whose JPEG never arrives, e.g. because the camera was stopped, is given up on
+    private static final long CAPTURE_TIMEOUT_MILLIS = 10000;
+    private static final int STRIP_HEIGHT = 256;
+
+    private TiledBarcodeDecoder decoder;
+    private int triggerFrames = 45;
+
+    private CameraSource cameraSource;
+    private WorkerThread decodeThread;
+    private final AtomicReference<SparseArray<Barcode>> stillResult = new AtomicReference<>();
+    private volatile long captureStartMillis;
+
+    // only touched by the detection thread
+    private int emptyFrames;
+    private int previewWidth;
+    private int previewHeight;
+    private int previewRotation;
+
+    // only touched by the decode thread
+    private byte[] luma;
+    private int[] row;
+
+    private volatile int captureCount;
+    private volatile int decodedCount;
+    private volatile int barcodeCount;
+    private volatile long lastDecodeMillis;
+
+    // allow only creation via builder class
+    private StillCaptureFallback() { }
+
+    public static class Builder {
+        private StillCaptureFallback fallback = new StillCaptureFallback();
+
+        public Builder(TiledBarcodeDecoder decoder) {
+            if (decoder == null) throw new IllegalArgumentException("No decoder supplied");
+            fallback.decoder = decoder;
+        }
+
+        // Consecutive preview frames without a decode that trigger a still.  The count starts over
+        // after every still.
+        public Builder setTriggerFrames(int triggerFrames) {
+            if (triggerFrames <= 0) throw new IllegalArgumentException("Invalid trigger frame count: " + triggerFrames);
+            fallback.triggerFrames = triggerFrames;
+            return this;
+        }
+
+        public StillCaptureFallback build() {
+            fallback.decodeThread = new WorkerThread("CameraSource-Still", Process.THREAD_PRIORITY_BACKGROUND);
+            return fallback;
+        }
+    }
+
+    public Detector.Processor<Barcode> wrap(final Detector.Processor<Barcode> delegate) {
+        return new Detector.Processor<Barcode>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<Barcode> detections) {
+                delegate.receiveDetections(onDetections(detections));
+            }
+        };
+    }
+
+    public int getCaptureCount() {
+        return captureCount;
+    }
+
+    // Stills in which at least one barcode was found.
+    public int getDecodedCount() {
+        return decodedCount;
+    }
+
+    public int getBarcodeCount() {
+        return barcodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d stills, %d decoded, %d barcodes, last decode %d ms",
+                captureCount, decodedCount, barcodeCount, lastDecodeMillis);
+    }
+
+    void attach(CameraSource cameraSource) {
+        this.cameraSource = cameraSource;
+    }
+
+    void release() {
+        decodeThread.quit();
+        decoder.release();
+        stillResult.set(null);
+        luma = null;
+    }
+
+    private Detector.Detections<Barcode> onDetections(Detector.Detections<Barcode> detections) {
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        previewWidth = metadata.getWidth();
+        previewHeight = metadata.getHeight();
+        previewRotation = metadata.getRotation();
+
+        SparseArray<Barcode> still = stillResult.getAndSet(null);
+        if (still != null) {
+            detections = merge(detections, still);
+        }
+
+        // frames while a still is on its way do not count towards the next one
+        if (detections.getDetectedItems().size() > 0) {
+            emptyFrames = 0;
+        } else if (cameraSource != null && !isCapturing() && ++emptyFrames >= triggerFrames) {
+            emptyFrames = 0;
+            capture();
+        }
+        return detections;
+    }
+
+    private boolean isCapturing() {
+        long started = captureStartMillis;
+        return started != 0 && SystemClock.elapsedRealtime() - started < CAPTURE_TIMEOUT_MILLIS;
+    }
+
+    private void capture() {
+        captureStartMillis = SystemClock.elapsedRealtime();
+        captureCount++;
+        final int width = previewWidth;
+        final int height = previewHeight;
+        final int rotation = previewRotation;
+        cameraSource.takePicture(null, new CameraSource.PictureCallback() {
+            @Override
+            public void onPictureTaken(final byte[] jpeg) {
+                if (decodeThread.isBusy()) {
+                    // dropped, so the next still need not wait out the capture timeout
+                    captureStartMillis = 0;
+                    return;
+                }
+                decodeThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            decodeStill(jpeg, width, height, rotation);
+                        } finally {
+                            captureStartMillis = 0;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void decodeStill(byte[] jpeg, int previewWidth, int previewHeight, int previewRotation) {
+        long startTime = SystemClock.elapsedRealtime();
+        BitmapRegionDecoder regionDecoder;
+        try {
+            regionDecoder = BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, false);
+        } catch (IOException e) {
+            Log.e("BARCODER", "Unable to decode still: " + e);
+            return;
+        }
+
+        int width = regionDecoder.getWidth();
+        int height = regionDecoder.getHeight();
+        try {
+            // converting strip by strip keeps a single full-size ARGB bitmap out of memory
+            if (luma == null || luma.length < width * height) luma = new byte[width * height];
+            if (row == null || row.length < width) row = new int[width];
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Rect strip = new Rect();
+            for (int top = 0; top < height; top += STRIP_HEIGHT) {
+                strip.set(0, top, width, Math.min(height, top + STRIP_HEIGHT));
+                Bitmap bitmap = regionDecoder.decodeRegion(strip, options);
+                if (bitmap == null) {
+                    Log.e("BARCODER", "Unable to decode still rows " + strip.top + "-" + strip.bottom);
+                    return;
+                }
+                LumaConverter.fromBitmap(bitmap, luma, top * width, row);
+                bitmap.recycle();
+            }
+        } finally {
+            regionDecoder.recycle();
+        }
+
+        // Some cameras rotate the JPEG itself rather than tagging it, in which case it is upright
+        // already and its long side no longer runs along the preview's.
+        boolean upright = (width > height) != (previewWidth > previewHeight);
+        int rotation = upright ? Frame.ROTATION_0 : previewRotation;
+        SparseArray<Barcode> barcodes = decoder.decode(luma, width, height, rotation);
+
+        // the still has the preview's aspect ratio, so one factor scales both axes
+        boolean rotated = (previewRotation & 1) == 1;
+        int previewUprightWidth = rotated ? previewHeight : previewWidth;
+        int stillUprightWidth = ((rotation & 1) == 1) ? height : width;
+        float scale = (float) previewUprightWidth / stillUprightWidth;
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.valueAt(i);
+            if (barcode.cornerPoints == null) continue;
+            for (Point point : barcode.cornerPoints) {
+                point.set(Math.round(point.x * scale), Math.round(point.y * scale));
+            }
+        }
+
+        lastDecodeMillis = SystemClock.elapsedRealtime() - startTime;
+        if (barcodes.size() > 0) {
+            decodedCount++;
+            barcodeCount += barcodes.size();
+            stillResult.set(barcodes);
+        }
+        if (ScanTrace.LOG_HOT_PATH) Log.d("BARCODER", "Still " + width + "x" + height + ": " + barcodes.size() + " barcodes in "
+                + lastDecodeMillis + " ms");
+    }
+
+    // Adds still results the preview frame did not find itself.
+    private static Detector.Detections<Barcode> merge(Detector.Detections<Barcode> detections, SparseArray<Barcode> still) {
+        SparseArray<Barcode> items = detections.getDetectedItems();
+        SparseArray<Barcode> merged = items.clone();
+        for (int i = 0; i < still.size(); i++) {
+            Barcode barcode = still.valueAt(i);
+            if (!contains(items, barcode)) {
+                int id = still.keyAt(i);
+                while (merged.indexOfKey(id) >= 0) {
+                    id = (id + 1) & 0x7fffffff;
+                }
+                merged.put(id, barcode);
+            }
+        }
+        return new Detector.Detections<>(merged, detections.getFrameMetadata(), detections.detectorIsOperational());
+    }
+
+    private static boolean contains(SparseArray<Barcode> items, Barcode barcode) {
+        for (int i = 0; i < items.size(); i++) {
+            Barcode item = items.valueAt(i);
+            if (item.format == barcode.format
+                    && (item.rawValue == null ? barcode.rawValue == null : item.rawValue.equals(barcode.rawValue))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,238 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+// Decodes a large luma image as a grid of overlapping tiles on a fork-join pool, so each detector
+// call sees modules at full resolution instead of an image it has to shrink first.  Codes found in
+// more than one tile are reported once, with corner points mapped back to full-image coordinates
+// in the upright orientation given by the frame rotation, the way detectors report them.  Tiles
+// decode on a DetectorPool, one at a time per detector.
+public class TiledBarcodeDecoder {
+
+    private int tileSize = 1024;
+    private int overlap = 128;
+
+    private DetectorPool detectors;
+    private LumaBufferPool bufferPool;
+
+    // allow only creation via builder class
+    private TiledBarcodeDecoder() { }
+
+    public static class Builder {
+        private TiledBarcodeDecoder tiledDecoder = new TiledBarcodeDecoder();
+        private final List<Detector<Barcode>> detectors = new ArrayList<>();
+
+        public Builder(Detector<Barcode> detector) {
+            addDetector(detector);
+        }
+
+        // Each additional detector lets one more tile decode at the same time.
+        public Builder addDetector(Detector<Barcode> detector) {
+            if (detector == null) throw new IllegalArgumentException("No detector supplied");
+            detectors.add(detector);
+            return this;
+        }
+
+        public Builder setTileSize(int tileSize) {
+            if (tileSize < 64) throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+            tiledDecoder.tileSize = tileSize;
+            return this;
+        }
+
+        // Pixels shared by neighbouring tiles.  A code is always decoded whole when it is no
+        // larger than the overlap.
+        public Builder setOverlap(int overlap) {
+            if (overlap < 0) throw new IllegalArgumentException("Invalid tile overlap: " + overlap);
+            tiledDecoder.overlap = overlap;
+            return this;
+        }
+
+        public TiledBarcodeDecoder build() {
+            if (tiledDecoder.overlap >= tiledDecoder.tileSize / 2) {
+                throw new IllegalArgumentException("Tile overlap " + tiledDecoder.overlap
+                        + " must be less than half the tile size " + tiledDecoder.tileSize);
+            }
+            tiledDecoder.detectors = new DetectorPool(detectors);
+            tiledDecoder.bufferPool = new LumaBufferPool(detectors.size());
+            return tiledDecoder;
+        }
+    }
+
+    public int getParallelism() {
+        return detectors.getParallelism();
+    }
+
+    public boolean isOperational() {
+        return detectors.isOperational();
+    }
+
+    public void release() {
+        detectors.release();
+    }
+
+    // Decodes the width x height Y plane in luma.  rotation is one of the Frame rotation constants
+    // and only affects the coordinate space of the results.  Blocks until every tile is done.
+    public SparseArray<Barcode> decode(byte[] luma, int width, int height, int rotation) {
+        int[] xs = tileOrigins(width);
+        int[] ys = tileOrigins(height);
+        Tile[] tiles = new Tile[xs.length * ys.length];
+        for (int row = 0; row < ys.length; row++) {
+            for (int column = 0; column < xs.length; column++) {
+                tiles[row * xs.length + column] = new Tile(luma, width, xs[column], ys[row],
+                        Math.min(tileSize, width - xs[column]), Math.min(tileSize, height - ys[row]));
+            }
+        }
+        detectors.invoke(new TileTask(tiles, 0, tiles.length));
+
+        // merge in grid order so the same image always yields the same result; ids are the order
+        // codes were found in, so equal codes in different places each keep one of their own
+        SparseArray<Barcode> barcodes = new SparseArray<>();
+        List<Rect> bounds = new ArrayList<>();
+        for (Tile tile : tiles) {
+            if (tile.barcodes == null) continue;
+            for (int i = 0; i < tile.barcodes.size(); i++) {
+                Barcode barcode = tile.barcodes.valueAt(i);
+                Rect box = null;
+                if (barcode.cornerPoints != null && barcode.cornerPoints.length > 0) {
+                    for (Point point : barcode.cornerPoints) {
+                        mapToFrame(point, tile.x, tile.y, width, height, rotation);
+                    }
+                    box = boundsOf(barcode.cornerPoints);
+                }
+                if (isDuplicate(barcodes, bounds, barcode, box)) continue;
+                bounds.add(box);
+                barcodes.put(barcodes.size(), barcode);
+            }
+        }
+        return barcodes;
+    }
+
+    // A code decoded in more than one tile of an overlap has the same value and lands in the same
+    // place; the same value elsewhere in the image is another code.  Codes without corner points
+    // can only be told apart by value.
+    private static boolean isDuplicate(SparseArray<Barcode> barcodes, List<Rect> bounds, Barcode barcode, Rect box) {
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode other = barcodes.valueAt(i);
+            if (other.format != barcode.format) continue;
+            if (other.rawValue == null ? barcode.rawValue != null : !other.rawValue.equals(barcode.rawValue)) continue;
+            Rect otherBox = bounds.get(i);
+            if (box == null || otherBox == null || Rect.intersects(box, otherBox)) return true;
+        }
+        return false;
+    }
+
+    private static Rect boundsOf(Point[] points) {
+        Rect box = new Rect(points[0].x, points[0].y, points[0].x, points[0].y);
+        for (Point point : points) {
+            box.union(point.x, point.y);
+        }
+        return box;
+    }
+
+    // Evenly spaced tile origins along one axis, the last tile ending on the image edge and
+    // neighbours sharing at least overlap pixels.
+    private int[] tileOrigins(int length) {
+        if (length <= tileSize) return new int[] { 0 };
+        int step = tileSize - overlap;
+        int count = (length - overlap + step - 1) / step;
+        int[] origins = new int[count];
+        for (int i = 0; i < count; i++) {
+            origins[i] = (int) ((long) i * (length - tileSize) / (count - 1));
+        }
+        return origins;
+    }
+
+    // Moves a tile point into the full image, then into the upright orientation for rotation.
+    private static void mapToFrame(Point point, int tileX, int tileY, int width, int height, int rotation) {
+        int x = point.x + tileX;
+        int y = point.y + tileY;
+        switch (rotation) {
+            case Frame.ROTATION_90:
+                point.set(height - y, x);
+                break;
+            case Frame.ROTATION_180:
+                point.set(width - x, height - y);
+                break;
+            case Frame.ROTATION_270:
+                point.set(y, width - x);
+                break;
+            default:
+                point.set(x, y);
+        }
+    }
+
+    private void decodeTile(Tile tile) {
+        byte[] buffer = bufferPool.acquire(tile.width * tile.height);
+        try {
+            for (int row = 0; row < tile.height; row++) {
+                System.arraycopy(tile.luma, (tile.y + row) * tile.stride + tile.x, buffer, row * tile.width, tile.width);
+            }
+            // tiles are decoded unrotated; mapToFrame applies the rotation to the results
+            Frame frame = new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(buffer, 0, tile.width * tile.height).slice(),
+                            tile.width, tile.height, ImageFormat.NV21)
+                    .build();
+            tile.barcodes = detectors.detect(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            Log.e("BARCODER", "Exception thrown while decoding tile at " + tile.x + "," + tile.y, t);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static class Tile {
+        final byte[] luma;
+        final int stride;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        SparseArray<Barcode> barcodes;
+
+        Tile(byte[] luma, int stride, int x, int y, int width, int height) {
+            this.luma = luma;
+            this.stride = stride;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final Tile[] tiles;
+        private final int start;
+        private final int end;
+
+        TileTask(Tile[] tiles, int start, int end) {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TileTask(tiles, start, middle), new TileTask(tiles, middle, end));
+                return;
+            }
+            decodeTile(tiles[start]);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+
+// Detects barcodes in every frame as overlapping tiles decoded in parallel by decoder, for preview
+// sizes at which a single detector call takes most of the frame budget.  Results are in full-frame
+// coordinates, like the wrapped detectors', so it can stand in for them in front of CameraSource,
+// processors and BarcodeGraphic.
+public class TiledBarcodeDetector extends Detector<Barcode> {
+
+    private final TiledBarcodeDecoder decoder;
+    // only used for frames whose Y plane is not at the start of an array
+    private byte[] copy;
+
+    public TiledBarcodeDetector(TiledBarcodeDecoder decoder) {
+        if (decoder == null) throw new IllegalArgumentException("No decoder supplied");
+        this.decoder = decoder;
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+
+        ByteBuffer data = frame.getGrayscaleImageData();
+        byte[] luma;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            luma = data.array();
+        } else {
+            if (copy == null || copy.length < width * height) copy = new byte[width * height];
+            ByteBuffer source = data.duplicate();
+            source.position(0);
+            source.get(copy, 0, width * height);
+            luma = copy;
+        }
+        return decoder.decode(luma, width, height, metadata.getRotation());
+    }
+
+    @Override
+    public boolean isOperational() {
+        return decoder.isOperational();
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        decoder.release();
+    }
+}
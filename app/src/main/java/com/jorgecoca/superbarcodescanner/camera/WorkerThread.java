@@ -0,0 +1,140 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+// A named, long-lived thread that runs one task at a time.  CameraSource keeps one per worker for
+// its whole lifetime instead of creating a thread on every start(), so the thread keeps its name
+// and scheduling priority across start/stop cycles.
+class WorkerThread {
+
+    private final String name;
+    private final int priority;
+    private final Object lock = new Object();
+
+    private Thread thread;
+    private Runnable task;
+    private boolean quit = false;
+    private volatile int tid = 0;
+
+    WorkerThread(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void execute(Runnable task) {
+        synchronized (lock) {
+            if (quit) throw new IllegalStateException("Worker " + name + " has quit");
+            if (this.task != null) throw new IllegalStateException("Worker " + name + " is busy");
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                }, name);
+                thread.start();
+            }
+            this.task = task;
+            lock.notifyAll();
+        }
+    }
+
+    boolean isBusy() {
+        synchronized (lock) {
+            return task != null;
+        }
+    }
+
+    // Waits for the current task to return.  The task has to be told to finish beforehand.
+    void awaitIdle() throws InterruptedException {
+        synchronized (lock) {
+            while (task != null) {
+                lock.wait();
+            }
+        }
+    }
+
+    void quit() {
+        Thread quitting;
+        synchronized (lock) {
+            quit = true;
+            lock.notifyAll();
+            quitting = thread;
+        }
+        if (quitting == null) return;
+        try {
+            quitting.join();
+        } catch (InterruptedException e) {
+            Log.d("BARCODER", "Interrupted while waiting for " + name + " to quit.");
+        }
+    }
+
+    // CPU time the thread has consumed so far, read from the kernel's scheduler statistics so it
+    // can be sampled from any thread at no cost to the worker.  Returns -1 when unavailable.
+    long getCpuTimeNanos() {
+        return getCpuTimeNanos(tid);
+    }
+
+    static long getCpuTimeNanos(int threadId) {
+        if (threadId <= 0) return -1;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/task/" + threadId + "/schedstat"));
+            String line = reader.readLine();
+            if (line == null) return -1;
+            int end = line.indexOf(' ');
+            return Long.parseLong(end < 0 ? line : line.substring(0, end));
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }
+        }
+    }
+
+    private void loop() {
+        Process.setThreadPriority(priority);
+        tid = Process.myTid();
+
+        while (true) {
+            Runnable next;
+            synchronized (lock) {
+                while (task == null && !quit) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Log.d("BARCODER", name + " interrupted while idle.");
+                    }
+                }
+                if (task == null) return;
+                next = task;
+            }
+
+            try {
+                next.run();
+            } catch (Throwable t) {
+                Log.e("BARCODER", "Exception thrown from " + name, t);
+            } finally {
+                synchronized (lock) {
+                    task = null;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+}
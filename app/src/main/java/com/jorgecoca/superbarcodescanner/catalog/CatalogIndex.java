@@ -0,0 +1,145 @@
+package com.jorgecoca.superbarcodescanner.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+// Read-only view of a catalog index written by CatalogIndexWriter, mapped into memory instead of
+// loaded, so opening an index of millions of barcodes is cheap and the OS pages in only what
+// lookups touch.  find() is a binary search over fixed-width keys that compares bytes in place and
+// allocates nothing, and every method may be called from any number of threads.
+//
+// Layout, big-endian:
+//
+//   header   int magic, int version, int keyWidth, int count, int recordsStart
+//   entries  count x (keyWidth bytes of ASCII barcode value, zero padded; int record offset),
+//            sorted by value
+//   records  int length, length bytes of UTF-8, at recordsStart + record offset
+public class CatalogIndex {
+
+    static final int MAGIC = 0x53424349;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buffer;
+    private final int keyWidth;
+    private final int entryWidth;
+    private final int count;
+    private final int recordsStart;
+
+    private CatalogIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog index");
+        }
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported catalog index version " + buffer.getInt(4));
+        keyWidth = buffer.getInt(8);
+        count = buffer.getInt(12);
+        recordsStart = buffer.getInt(16);
+        entryWidth = keyWidth + 4;
+        if (keyWidth <= 0 || count < 0 || recordsStart != HEADER_SIZE + (long) count * entryWidth
+                || recordsStart > buffer.capacity()) {
+            throw new IOException("Corrupt catalog index header");
+        }
+    }
+
+    public static CatalogIndex open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            // the mapping stays valid after the channel is closed
+            return new CatalogIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Longest barcode value the index can hold.
+    public int getKeyWidth() {
+        return keyWidth;
+    }
+
+    // Returns the entry for value, or -1 when it is not in the catalog.
+    public int find(CharSequence value) {
+        int length = value.length();
+        if (length == 0 || length > keyWidth) return -1;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == 0 || c > 0x7f) return -1;
+        }
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, value, length);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int getRecordLength(int entry) {
+        return buffer.getInt(recordPosition(entry));
+    }
+
+    // Copies the record of entry into destination, as much as fits, and returns its full length.
+    public int readRecord(int entry, byte[] destination) {
+        int position = recordPosition(entry);
+        int length = buffer.getInt(position);
+        int copied = Math.min(length, destination.length);
+        position += 4;
+        for (int i = 0; i < copied; i++) {
+            destination[i] = buffer.get(position + i);
+        }
+        return length;
+    }
+
+    public String getRecord(int entry) {
+        byte[] record = new byte[getRecordLength(entry)];
+        readRecord(entry, record);
+        return new String(record, UTF_8);
+    }
+
+    // Compares the key of entry with value, like the value strings themselves would compare.
+    private int compare(int entry, CharSequence value, int length) {
+        int position = HEADER_SIZE + entry * entryWidth;
+        for (int i = 0; i < keyWidth; i++) {
+            int key = buffer.get(position + i);
+            int wanted = i < length ? value.charAt(i) : 0;
+            if (key != wanted) return key - wanted;
+            if (key == 0) break;
+        }
+        return 0;
+    }
+
+    private int recordPosition(int entry) {
+        if (entry < 0 || entry >= count) throw new IndexOutOfBoundsException("No catalog entry " + entry);
+        int offset = buffer.getInt(HEADER_SIZE + entry * entryWidth + keyWidth);
+        return recordsStart + offset;
+    }
+
+    static ByteBuffer header(int keyWidth, int count, int recordsStart) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(keyWidth).putInt(count).putInt(recordsStart);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,134 @@
+package com.jorgecoca.superbarcodescanner.catalog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Builds the index CatalogIndex reads.  Meant to run offline, e.g. on a build machine, from a
+// tab-separated export of the product table with one "barcode<TAB>record" line per product:
+//
+//   java -cp <app classes> com.jorgecoca.superbarcodescanner.catalog.CatalogIndexWriter products.tsv catalog.idx
+//
+// Barcode values must be printable ASCII; records are stored as UTF-8 and returned as they were.
+public class CatalogIndexWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int keyWidth = 0;
+    private long recordBytes = 0;
+
+    public CatalogIndexWriter add(String value, String record) {
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("No barcode value supplied");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e) throw new IllegalArgumentException("Barcode value is not printable ASCII: " + value);
+        }
+        if (record == null) throw new IllegalArgumentException("No record supplied for " + value);
+
+        byte[] recordData = record.getBytes(UTF_8);
+        entries.add(new Entry(value, recordData));
+        keyWidth = Math.max(keyWidth, value.length());
+        recordBytes += 4 + recordData.length;
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void write(File file) throws IOException {
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.value.compareTo(b.value);
+            }
+        });
+        for (int i = 1; i < entries.size(); i++) {
+            if (entries.get(i).value.equals(entries.get(i - 1).value)) {
+                throw new IllegalArgumentException("Duplicate barcode value: " + entries.get(i).value);
+            }
+        }
+
+        int width = Math.max(keyWidth, 1);
+        long recordsStart = CatalogIndex.HEADER_SIZE + (long) entries.size() * (width + 4);
+        if (recordsStart + recordBytes > Integer.MAX_VALUE) throw new IOException("Catalog too large for one index");
+
+        OutputStream output = new FileOutputStream(file);
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+            data.write(CatalogIndex.header(width, entries.size(), (int) recordsStart).array());
+            int recordOffset = 0;
+            byte[] key = new byte[width];
+            for (Entry entry : entries) {
+                for (int i = 0; i < width; i++) {
+                    key[i] = i < entry.value.length() ? (byte) entry.value.charAt(i) : 0;
+                }
+                data.write(key);
+                data.writeInt(recordOffset);
+                recordOffset += 4 + entry.record.length;
+            }
+            for (Entry entry : entries) {
+                data.writeInt(entry.record.length);
+                data.write(entry.record);
+            }
+            data.flush();
+        } finally {
+            output.close();
+        }
+    }
+
+    // Adds every "barcode<TAB>record" line of a UTF-8 file.  Blank lines are skipped.
+    public CatalogIndexWriter addAll(File tsv) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new BufferedInputStream(new FileInputStream(tsv)), UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) continue;
+                int tab = line.indexOf('\t');
+                if (tab < 0) throw new IOException(tsv + ":" + lineNumber + ": expected barcode<TAB>record");
+                add(line.substring(0, tab), line.substring(tab + 1));
+            }
+        } finally {
+            reader.close();
+        }
+        return this;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CatalogIndexWriter <products.tsv> <catalog.idx>");
+            System.exit(2);
+        }
+        long startTime = System.nanoTime();
+        CatalogIndexWriter writer = new CatalogIndexWriter().addAll(new File(args[0]));
+        writer.write(new File(args[1]));
+        System.out.println("Wrote " + writer.size() + " products to " + args[1] + " in "
+                + (System.nanoTime() - startTime) / 1000000L + " ms");
+    }
+
+    private static class Entry {
+        final String value;
+        final byte[] record;
+
+        Entry(String value, byte[] record) {
+            this.value = value;
+            this.record = record;
+        }
+    }
+}
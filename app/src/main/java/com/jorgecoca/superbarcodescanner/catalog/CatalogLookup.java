@@ -0,0 +1,69 @@
+package com.jorgecoca.superbarcodescanner.catalog;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Looks barcodes up in a CatalogIndex on a background thread, so the tracker callbacks that ask
+// for them never wait on the index pages being read in.  When scans arrive faster than lookups
+// finish, the oldest pending lookup is dropped.
+public class CatalogLookup {
+
+    private static final int MAX_PENDING = 64;
+
+    public interface Callback {
+        // Called on the lookup thread.  record is null when value is not in the catalog.
+        void onLookup(String value, String record);
+    }
+
+    private final CatalogIndex index;
+    private final ThreadPoolExecutor executor;
+
+    public CatalogLookup(CatalogIndex index) {
+        if (index == null) throw new IllegalArgumentException("No catalog index supplied");
+        this.index = index;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "CatalogLookup");
+                    }
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    public CatalogIndex getIndex() {
+        return index;
+    }
+
+    public void lookup(final String value, final Callback callback) {
+        if (value == null || executor.isShutdown()) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int entry = index.find(value);
+                String record = entry >= 0 ? index.getRecord(entry) : null;
+                try {
+                    callback.onLookup(value, record);
+                } catch (Throwable t) {
+                    Log.e("BARCODER", "Exception thrown from catalog callback", t);
+                }
+            }
+        });
+    }
+
+    public void release() {
+        executor.shutdownNow();
+    }
+}
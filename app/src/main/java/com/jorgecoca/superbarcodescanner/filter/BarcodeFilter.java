@@ -0,0 +1,99 @@
+package com.jorgecoca.superbarcodescanner.filter;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Processor stage that drops barcodes before they reach the processor behind it, so codes the app
+// does not care about never get a tracker or a graphic.  Each code costs one matcher call, which
+// for the matchers in this package does not depend on how many values or prefixes they hold.
+public class BarcodeFilter implements Detector.Processor<Barcode> {
+
+    // pass only the codes the matcher matches
+    public static final int MODE_ALLOW = 0;
+    // pass every code except those the matcher matches
+    public static final int MODE_DENY = 1;
+
+    public interface Matcher {
+        boolean matches(CharSequence value);
+    }
+
+    private Detector.Processor<Barcode> delegate;
+    private Matcher matcher;
+    private int mode = MODE_ALLOW;
+
+    private final AtomicLong passedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // allow only creation via builder class
+    private BarcodeFilter() { }
+
+    public static class Builder {
+        private BarcodeFilter barcodeFilter = new BarcodeFilter();
+
+        public Builder(Detector.Processor<Barcode> delegate, Matcher matcher) {
+            if (delegate == null) throw new IllegalArgumentException("No processor supplied");
+            if (matcher == null) throw new IllegalArgumentException("No matcher supplied");
+            barcodeFilter.delegate = delegate;
+            barcodeFilter.matcher = matcher;
+        }
+
+        public Builder setMode(int mode) {
+            if ((mode != MODE_ALLOW) && (mode != MODE_DENY)) {
+                throw new IllegalArgumentException("Invalid filter mode: " + mode);
+            }
+            barcodeFilter.mode = mode;
+            return this;
+        }
+
+        public BarcodeFilter build() {
+            return barcodeFilter;
+        }
+    }
+
+    public long getPassedCount() {
+        return passedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+    @Override
+    public void receiveDetections(Detector.Detections<Barcode> detections) {
+        SparseArray<Barcode> items = detections.getDetectedItems();
+        SparseArray<Barcode> passed = null;
+        for (int i = 0; i < items.size(); i++) {
+            if (accepts(items.valueAt(i))) {
+                if (passed != null) passed.append(items.keyAt(i), items.valueAt(i));
+            } else if (passed == null) {
+                // copy only once something is actually rejected
+                passed = new SparseArray<>(items.size());
+                for (int j = 0; j < i; j++) {
+                    passed.append(items.keyAt(j), items.valueAt(j));
+                }
+            }
+        }
+
+        int rejected = passed == null ? 0 : items.size() - passed.size();
+        passedCount.addAndGet(items.size() - rejected);
+        rejectedCount.addAndGet(rejected);
+        if (passed != null) {
+            detections = new Detector.Detections<>(passed, detections.getFrameMetadata(), detections.detectorIsOperational());
+        }
+        delegate.receiveDetections(detections);
+    }
+
+    private boolean accepts(Barcode barcode) {
+        boolean matches = barcode.rawValue != null && matcher.matches(barcode.rawValue);
+        return matches == (mode == MODE_ALLOW);
+    }
+}
@@ -0,0 +1,213 @@
+package com.jorgecoca.superbarcodescanner.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+// Compact probabilistic set of barcode values or value prefixes.  A lookup hashes the value once
+// and tests a fixed number of bits, so its cost does not depend on how many entries the filter
+// holds, and it allocates nothing.  Values that were added always match; others match with
+// roughly the false-positive rate the filter was sized for.
+//
+// A filter built with a prefix length range matches a value when any of its prefixes in that range
+// was added, e.g. 6 to 10 for GS1 company prefixes, at one set of probes per length.  Without a
+// range, whole values are matched.
+public class BloomFilter implements BarcodeFilter.Matcher {
+
+    private static final int MAGIC = 0x53424246;
+    private static final int VERSION = 1;
+    private static final double LN2 = Math.log(2);
+
+    private long[] bits;
+    private long bitCount;
+    private int hashCount;
+    private int minPrefixLength;
+    private int maxPrefixLength;
+    private int entryCount;
+
+    // allow only creation via builder class or read()
+    private BloomFilter() { }
+
+    public static class Builder {
+        private final int expectedEntries;
+        private double falsePositiveRate = 0.01;
+        private long maxBytes = 0;
+        private int minPrefixLength = 0;
+        private int maxPrefixLength = 0;
+
+        public Builder(int expectedEntries) {
+            if (expectedEntries <= 0) throw new IllegalArgumentException("Invalid expected entries: " + expectedEntries);
+            this.expectedEntries = expectedEntries;
+        }
+
+        // Rate at which a value that was never added matches, once expectedEntries are added.
+        public Builder setFalsePositiveRate(float falsePositiveRate) {
+            if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+            }
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        // Caps the memory the filter takes, raising its false-positive rate if needed.  Zero
+        // sizes the filter for the false-positive rate alone.
+        public Builder setMaxBytes(long maxBytes) {
+            if (maxBytes < 0) throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder setPrefixLengths(int min, int max) {
+            if (min <= 0 || max < min) throw new IllegalArgumentException("Invalid prefix lengths: " + min + "-" + max);
+            minPrefixLength = min;
+            maxPrefixLength = max;
+            return this;
+        }
+
+        public BloomFilter build() {
+            long bitCount = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (LN2 * LN2));
+            if (maxBytes > 0) bitCount = Math.min(bitCount, maxBytes * 8);
+            bitCount = Math.max(64, (bitCount + 63) & ~63L);
+            if (bitCount / 64 > Integer.MAX_VALUE) throw new IllegalArgumentException("Filter too large");
+
+            BloomFilter filter = new BloomFilter();
+            filter.bits = new long[(int) (bitCount / 64)];
+            filter.bitCount = bitCount;
+            filter.hashCount = (int) Math.max(1, Math.min(30, Math.round((double) bitCount / expectedEntries * LN2)));
+            filter.minPrefixLength = minPrefixLength;
+            filter.maxPrefixLength = maxPrefixLength;
+            return filter;
+        }
+    }
+
+    public BloomFilter add(CharSequence value) {
+        if (value.length() == 0) throw new IllegalArgumentException("Empty value");
+        long hash = hash(value, value.length());
+        long step = step(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash + i * step);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        entryCount++;
+        return this;
+    }
+
+    @Override
+    public boolean matches(CharSequence value) {
+        if (maxPrefixLength == 0) return mightContain(value, value.length());
+        int longest = Math.min(maxPrefixLength, value.length());
+        for (int length = minPrefixLength; length <= longest; length++) {
+            if (mightContain(value, length)) return true;
+        }
+        return false;
+    }
+
+    // Whether the first length characters of value may have been added.
+    public boolean mightContain(CharSequence value, int length) {
+        long hash = hash(value, length);
+        long step = step(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash + i * step);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getSizeBytes() {
+        return bitCount / 8;
+    }
+
+    // False-positive rate of a single lookup given the entries added so far.
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * entryCount / bitCount), hashCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d entries in %d KB, %d hashes, %.4f%% false positives",
+                entryCount, getSizeBytes() / 1024, hashCount, getExpectedFalsePositiveRate() * 100);
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(bitCount);
+            output.writeInt(hashCount);
+            output.writeInt(minPrefixLength);
+            output.writeInt(maxPrefixLength);
+            output.writeInt(entryCount);
+            for (long word : bits) {
+                output.writeLong(word);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    public static BloomFilter read(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (input.readInt() != MAGIC) throw new IOException("Not a bloom filter: " + file);
+            int version = input.readInt();
+            if (version != VERSION) throw new IOException("Unsupported bloom filter version " + version);
+
+            BloomFilter filter = new BloomFilter();
+            filter.bitCount = input.readLong();
+            filter.hashCount = input.readInt();
+            filter.minPrefixLength = input.readInt();
+            filter.maxPrefixLength = input.readInt();
+            filter.entryCount = input.readInt();
+            if (filter.bitCount <= 0 || filter.bitCount % 64 != 0 || filter.bitCount / 64 > Integer.MAX_VALUE
+                    || filter.hashCount <= 0) {
+                throw new IOException("Corrupt bloom filter header: " + file);
+            }
+            filter.bits = new long[(int) (filter.bitCount / 64)];
+            for (int i = 0; i < filter.bits.length; i++) {
+                filter.bits[i] = input.readLong();
+            }
+            return filter;
+        } finally {
+            input.close();
+        }
+    }
+
+    private long index(long hash) {
+        return (hash & Long.MAX_VALUE) % bitCount;
+    }
+
+    // FNV-1a over the characters, finished with the MurmurHash3 mixer.
+    private static long hash(CharSequence value, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    // Second hash for double hashing, odd so successive probes never repeat a bit early.
+    private static long step(long hash) {
+        return Long.rotateLeft(hash, 32) * 0x9E3779B97F4A7C15L | 1;
+    }
+}
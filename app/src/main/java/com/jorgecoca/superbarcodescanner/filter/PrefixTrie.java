@@ -0,0 +1,91 @@
+package com.jorgecoca.superbarcodescanner.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Exact set of numeric prefixes, such as GS1 company prefixes, as a digit trie in flat int arrays.
+// matches() walks at most one node per digit of the longest prefix, allocates nothing and never
+// reports a false positive; a prefix range like 7612340-7612349 is just the shorter prefix 761234.
+public class PrefixTrie implements BarcodeFilter.Matcher {
+
+    private static final int RADIX = 10;
+    private static final int NO_CHILD = 0;
+
+    // children[node * RADIX + digit] is the child node, or NO_CHILD; node 0 is the root
+    private int[] children = new int[RADIX * 16];
+    private boolean[] terminal = new boolean[16];
+    private int nodeCount = 1;
+    private int prefixCount = 0;
+
+    public PrefixTrie add(CharSequence prefix) {
+        if (prefix.length() == 0) throw new IllegalArgumentException("Empty prefix");
+        int node = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            int digit = prefix.charAt(i) - '0';
+            if (digit < 0 || digit >= RADIX) throw new IllegalArgumentException("Prefix is not numeric: " + prefix);
+            int child = children[node * RADIX + digit];
+            if (child == NO_CHILD) {
+                child = newNode();
+                children[node * RADIX + digit] = child;
+            }
+            node = child;
+        }
+        if (!terminal[node]) {
+            terminal[node] = true;
+            prefixCount++;
+        }
+        return this;
+    }
+
+    // Reads one prefix per line; blank lines and lines starting with # are skipped.
+    public static PrefixTrie load(File file) throws IOException {
+        PrefixTrie trie = new PrefixTrie();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                trie.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return trie;
+    }
+
+    // Whether value starts with any of the prefixes.
+    @Override
+    public boolean matches(CharSequence value) {
+        int node = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit >= RADIX) return false;
+            node = children[node * RADIX + digit];
+            if (node == NO_CHILD) return false;
+            if (terminal[node]) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return prefixCount;
+    }
+
+    public long getSizeBytes() {
+        return 4L * children.length + terminal.length;
+    }
+
+    private int newNode() {
+        if (nodeCount == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodeCount * 2);
+            children = Arrays.copyOf(children, nodeCount * 2 * RADIX);
+        }
+        return nodeCount++;
+    }
+}
@@ -0,0 +1,134 @@
+package com.jorgecoca.superbarcodescanner.kiosk;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.hardware.Camera;
+import android.os.Binder;
+import android.os.IBinder;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+import com.jorgecoca.superbarcodescanner.R;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeConsensus;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+import com.jorgecoca.superbarcodescanner.camera.PowerPolicy;
+
+import java.io.IOException;
+
+// Foreground service that scans with no UI, for fixed-mount kiosks.  The camera previews into a
+// texture nobody draws, the detector reads only the Y plane, and accepted barcodes go to the
+// ResultChannel of every bound client instead of to graphics:
+//
+//   ResultChannel channel = ((KioskScanService.LocalBinder) binder).getService().subscribe(16, 50);
+//   for (ScanResult result; (result = channel.take()) != null; ) { ... }
+//
+// Scanning runs from the first bind or start until the service is destroyed.  The camera
+// permission must have been granted beforehand, e.g. by BarcodeCaptureActivity.  A kiosk spends
+// most of its time with nothing in front of it, so after a minute without a barcode the camera
+// idles until the scene changes or the device is moved.
+public class KioskScanService extends Service {
+
+    private static final int NOTIFICATION_ID = 0x5343;
+    private static final long IDLE_TIMEOUT_MILLIS = 60000;
+    // change in m/s^2 between accelerometer samples that wakes the camera
+    private static final float MOTION_THRESHOLD = 0.8f;
+
+    private final IBinder binder = new LocalBinder();
+    private final ResultPublisher publisher = new ResultPublisher(new BarcodeConsensus.Builder().build());
+    private CameraSource cameraSource;
+
+    public class LocalBinder extends Binder {
+        public KioskScanService getService() {
+            return KioskScanService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Notification notification = new Notification.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.kiosk_scanning))
+                .setOngoing(true)
+                .build();
+        startForeground(NOTIFICATION_ID, notification);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            Log.e("BARCODER", "Camera permission is not granted, kiosk scanning not started");
+            stopSelf();
+            return;
+        }
+
+        PowerPolicy powerPolicy = new PowerPolicy.Builder()
+                .setIdleTimeout(IDLE_TIMEOUT_MILLIS)
+                .setMotionSensor(PowerPolicy.accelerometer(getApplicationContext(), MOTION_THRESHOLD))
+                .build();
+        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(getApplicationContext()).build();
+        barcodeDetector.setProcessor(powerPolicy.wrap(new MultiProcessor.Builder<>(publisher).build()));
+        if (!barcodeDetector.isOperational()) {
+            Log.w("BARCODER", "Detector dependencies are not yet available.");
+        }
+
+        cameraSource = new CameraSource.Builder(getApplicationContext(), barcodeDetector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(1600, 1024)
+                .setRequestedFps(15.0f)
+                .setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                .setLumaOnly(true)
+                .setPowerPolicy(powerPolicy)
+                .build();
+        try {
+            // no SurfaceHolder: the preview goes to a dummy texture and is never rendered
+            cameraSource.start();
+        } catch (IOException | RuntimeException e) {
+            Log.e("BARCODER", "Unable to start camera source.", e);
+            cameraSource.release();
+            cameraSource = null;
+            stopSelf();
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    // A new channel receiving every barcode accepted from now on.  The detection thread waits up
+    // to maxBlockMillis for a full channel before dropping a result for it.
+    public ResultChannel subscribe(int capacity, long maxBlockMillis) {
+        ResultChannel channel = new ResultChannel(capacity, maxBlockMillis);
+        publisher.subscribe(channel);
+        return channel;
+    }
+
+    // Stops publishing to channel and wakes its reader.
+    public void unsubscribe(ResultChannel channel) {
+        publisher.unsubscribe(channel);
+    }
+
+    public boolean isScanning() {
+        return cameraSource != null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (cameraSource != null) {
+            cameraSource.release();
+            cameraSource = null;
+        }
+        publisher.close();
+        stopForeground(true);
+    }
+}
@@ -0,0 +1,166 @@
+package com.jorgecoca.superbarcodescanner.kiosk;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded queue of scan results from the detection thread to one client.  A full channel holds
+// the detection thread back for up to maxBlockMillis, during which the camera keeps only its newest
+// frame, so a slow client slows detection down rather than piling up results; a result that still
+// does not fit after that is dropped and counted.
+public class ResultChannel {
+
+    private final ScanResult[] results;
+    private final long maxBlockNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head;
+    private int count;
+    private boolean closed;
+
+    private long publishedCount;
+    private long droppedCount;
+    private long blockedNanos;
+
+    public ResultChannel(int capacity, long maxBlockMillis) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        if (maxBlockMillis < 0) throw new IllegalArgumentException("Invalid block time: " + maxBlockMillis);
+        results = new ScanResult[capacity];
+        maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+    }
+
+    // Waits for the next result.  Returns null once the channel is closed and drained.
+    public ScanResult take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (closed) return null;
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits up to timeout for the next result, or returns null.
+    public ScanResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (closed || remaining <= 0) return null;
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wakes waiting clients; results already queued can still be taken.
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPublishedCount() {
+        lock.lock();
+        try {
+            return publishedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Total time the detection thread spent waiting for this client.
+    public long getBlockedMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(Locale.US, "%d/%d queued, %d published, %d dropped, blocked %d ms",
+                    count, results.length, publishedCount, droppedCount, TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Producer side.  Returns false when the result was dropped.
+    boolean publish(ScanResult result) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (count == results.length && !closed) {
+                long start = System.nanoTime();
+                long remaining = maxBlockNanos;
+                while (count == results.length && !closed && remaining > 0) {
+                    remaining = notFull.awaitNanos(remaining);
+                }
+                blockedNanos += System.nanoTime() - start;
+            }
+            if (closed || count == results.length) {
+                droppedCount++;
+                return false;
+            }
+            results[(head + count) % results.length] = result;
+            count++;
+            publishedCount++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ScanResult dequeue() {
+        ScanResult result = results[head];
+        results[head] = null;
+        head = (head + 1) % results.length;
+        count--;
+        notFull.signal();
+        return result;
+    }
+}
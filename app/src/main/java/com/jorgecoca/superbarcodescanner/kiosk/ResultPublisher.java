@@ -0,0 +1,79 @@
+package com.jorgecoca.superbarcodescanner.kiosk;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeConsensus;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Tracker factory that publishes every newly tracked barcode once to each subscribed channel, in
+// place of the graphics BarcodeTrackerFactory creates.  With a consensus, only values that have
+// been read often enough are published.
+public class ResultPublisher implements MultiProcessor.Factory<Barcode> {
+
+    private final CopyOnWriteArrayList<ResultChannel> channels = new CopyOnWriteArrayList<>();
+    private final BarcodeConsensus consensus;
+
+    public ResultPublisher() {
+        this(null);
+    }
+
+    public ResultPublisher(BarcodeConsensus consensus) {
+        this.consensus = consensus;
+    }
+
+    public void subscribe(ResultChannel channel) {
+        channels.add(channel);
+    }
+
+    public void unsubscribe(ResultChannel channel) {
+        channels.remove(channel);
+        channel.close();
+    }
+
+    public int getSubscriberCount() {
+        return channels.size();
+    }
+
+    public void close() {
+        for (ResultChannel channel : channels) {
+            channel.close();
+        }
+        channels.clear();
+    }
+
+    @Override
+    public Tracker<Barcode> create(Barcode barcode) {
+        Tracker<Barcode> tracker = new PublishingTracker();
+        return consensus != null ? consensus.wrap(tracker) : tracker;
+    }
+
+    private void publish(Detector.Detections<Barcode> detections, Barcode barcode) {
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        ScanResult result = new ScanResult(barcode.format, barcode.rawValue, metadata.getId(),
+                metadata.getTimestampMillis(), System.nanoTime());
+        for (ResultChannel channel : channels) {
+            try {
+                channel.publish(result);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private class PublishingTracker extends Tracker<Barcode> {
+        private boolean published;
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            // the first update carries the frame the barcode was accepted in
+            if (published) return;
+            published = true;
+            publish(detections, item);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.jorgecoca.superbarcodescanner.kiosk;
+
+import java.util.Locale;
+
+// A barcode accepted by the scanning service, with the frame it was first accepted in.
+public class ScanResult {
+
+    private final int format;
+    private final String rawValue;
+    private final int frameId;
+    private final long frameTimestampMillis;
+    private final long publishTimeNanos;
+
+    ScanResult(int format, String rawValue, int frameId, long frameTimestampMillis, long publishTimeNanos) {
+        this.format = format;
+        this.rawValue = rawValue;
+        this.frameId = frameId;
+        this.frameTimestampMillis = frameTimestampMillis;
+        this.publishTimeNanos = publishTimeNanos;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public String getRawValue() {
+        return rawValue;
+    }
+
+    public int getFrameId() {
+        return frameId;
+    }
+
+    public long getFrameTimestampMillis() {
+        return frameTimestampMillis;
+    }
+
+    // System.nanoTime() when the result was handed to the channels.
+    public long getPublishTimeNanos() {
+        return publishTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d %s (frame %d)", format, rawValue, frameId);
+    }
+}
@@ -0,0 +1,418 @@
+package com.jorgecoca.superbarcodescanner.payload;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+// Typed view of a barcode value.  GS1 element strings, as carried by GS1-128, GS1 DataMatrix and
+// GS1 QR codes, are split into their application identifiers, and the common ones are exposed as
+// typed fields.  Plain EAN/UPC/ITF-14 values report their GTIN.
+//
+// Nothing is parsed until a field is first read, so payloads can be attached to every detection
+// for free; share them through a PayloadCache so each distinct value is parsed once.
+public class BarcodePayload {
+
+    // FNC1 as it appears in decoded values
+    public static final char GROUP_SEPARATOR = '\u001D';
+
+    private static final int REFERENCE_YEAR = Calendar.getInstance(TimeZone.getTimeZone("UTC")).get(Calendar.YEAR);
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final String rawValue;
+    private volatile boolean parsed;
+
+    // written under the lock before parsed is set
+    private boolean gs1;
+    private int elementCount;
+    private String[] identifiers;
+    private String[] values;
+    private String gtin;
+    private String sscc;
+    private String batch;
+    private String serial;
+    private long productionDate = NO_DATE;
+    private long bestBeforeDate = NO_DATE;
+    private long expiryDate = NO_DATE;
+    private double netWeightKg = Double.NaN;
+    private int count = -1;
+
+    public BarcodePayload(String rawValue) {
+        if (rawValue == null) throw new IllegalArgumentException("No value supplied");
+        this.rawValue = rawValue;
+    }
+
+    public String getRawValue() {
+        return rawValue;
+    }
+
+    // True when the value is a well-formed GS1 element string.
+    public boolean isGs1() {
+        ensureParsed();
+        return gs1;
+    }
+
+    public int getElementCount() {
+        ensureParsed();
+        return elementCount;
+    }
+
+    public String getIdentifier(int index) {
+        ensureParsed();
+        return identifiers[index];
+    }
+
+    public String getValue(int index) {
+        ensureParsed();
+        return values[index];
+    }
+
+    // The data of application identifier ai, e.g. "400" for a customer purchase order, or null.
+    public String getElement(String ai) {
+        ensureParsed();
+        for (int i = 0; i < elementCount; i++) {
+            if (identifiers[i].equals(ai)) return values[i];
+        }
+        return null;
+    }
+
+    // The 14-digit GTIN from AI 01, or of an EAN/UPC/ITF-14 value padded with zeros.
+    public String getGtin() {
+        ensureParsed();
+        return gtin;
+    }
+
+    public String getSscc() {
+        ensureParsed();
+        return sscc;
+    }
+
+    public String getBatch() {
+        ensureParsed();
+        return batch;
+    }
+
+    public String getSerial() {
+        ensureParsed();
+        return serial;
+    }
+
+    public Date getProductionDate() {
+        ensureParsed();
+        return toDate(productionDate);
+    }
+
+    public Date getBestBeforeDate() {
+        ensureParsed();
+        return toDate(bestBeforeDate);
+    }
+
+    public Date getExpiryDate() {
+        ensureParsed();
+        return toDate(expiryDate);
+    }
+
+    // AI 310n, or NaN.
+    public double getNetWeightKg() {
+        ensureParsed();
+        return netWeightKg;
+    }
+
+    // AI 37, or -1.
+    public int getCount() {
+        ensureParsed();
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        ensureParsed();
+        if (!gs1) return gtin != null ? "(01)" + gtin : rawValue;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < elementCount; i++) {
+            builder.append('(').append(identifiers[i]).append(')').append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private void ensureParsed() {
+        if (parsed) return;
+        synchronized (this) {
+            if (parsed) return;
+            if (!parseGs1()) {
+                clear();
+                if (isGtin(rawValue, 0, rawValue.length())) gtin = padGtin(rawValue);
+            }
+            parsed = true;
+        }
+    }
+
+    private boolean parseGs1() {
+        int length = rawValue.length();
+        int position = 0;
+        boolean marked = false;
+        // symbology identifiers of GS1-128, GS1 DataMatrix, GS1 QR and GS1 DataBar
+        if (rawValue.startsWith("]C1") || rawValue.startsWith("]d2") || rawValue.startsWith("]Q3")
+                || rawValue.startsWith("]e0")) {
+            position = 3;
+            marked = true;
+        }
+        if (position < length && rawValue.charAt(position) == GROUP_SEPARATOR) {
+            position++;
+            marked = true;
+        }
+        if (position < length && rawValue.charAt(position) == '(') {
+            return parseBracketed(position) && applyElements();
+        }
+        // Unmarked values are only taken for element strings when they start with a valid GTIN or
+        // SSCC, so that plain numbers are not split into nonsense.
+        if (!marked && rawValue.indexOf(GROUP_SEPARATOR) < 0) {
+            boolean gtinFirst = rawValue.startsWith("01") && length >= 16 && isGtin(rawValue, 2, 16);
+            boolean ssccFirst = rawValue.startsWith("00") && length >= 20 && isCheckDigitValid(rawValue, 2, 20);
+            if (!gtinFirst && !ssccFirst) return false;
+        }
+        return parseElements(position) && applyElements();
+    }
+
+    // Element strings as encoded: predefined-length elements run on, all others end at FNC1.
+    private boolean parseElements(int position) {
+        int length = rawValue.length();
+        while (position < length) {
+            if (length - position < 2) return false;
+            int prefix = twoDigits(position);
+            if (prefix < 0) return false;
+            int aiLength = aiLength(prefix);
+            if (length - position < aiLength || !isDigits(position, position + aiLength)) return false;
+            String ai = rawValue.substring(position, position + aiLength);
+            position += aiLength;
+
+            int fixedLength = predefinedLength(prefix);
+            int end;
+            if (fixedLength > 0) {
+                end = position + fixedLength;
+                if (end > length || !isDigits(position, end)) return false;
+            } else {
+                end = rawValue.indexOf(GROUP_SEPARATOR, position);
+                if (end < 0) end = length;
+                if (end == position) return false;
+            }
+            add(ai, rawValue.substring(position, end));
+            position = end;
+            // a separator after a predefined-length element is redundant but common
+            if (position < length && rawValue.charAt(position) == GROUP_SEPARATOR) position++;
+        }
+        return elementCount > 0;
+    }
+
+    // Human-readable form, e.g. "(01)09506000134352(17)201231(10)A1".
+    private boolean parseBracketed(int position) {
+        int length = rawValue.length();
+        while (position < length) {
+            if (rawValue.charAt(position) != '(') return false;
+            int close = rawValue.indexOf(')', position);
+            if (close < 0 || close - position < 3 || !isDigits(position + 1, close)) return false;
+            int prefix = twoDigits(position + 1);
+            if (close - position - 1 != aiLength(prefix)) return false;
+            String ai = rawValue.substring(position + 1, close);
+
+            int end = close + 1;
+            int fixedLength = predefinedLength(prefix);
+            if (fixedLength > 0) {
+                end += fixedLength;
+                if (end > length || !isDigits(close + 1, end)) return false;
+            } else {
+                while (end < length && rawValue.charAt(end) != '(') end++;
+                if (end == close + 1) return false;
+            }
+            add(ai, rawValue.substring(close + 1, end));
+            position = end;
+        }
+        return elementCount > 0;
+    }
+
+    private boolean applyElements() {
+        for (int i = 0; i < elementCount; i++) {
+            String ai = identifiers[i];
+            String value = values[i];
+            switch (ai) {
+                case "00":
+                    if (!isCheckDigitValid(value, 0, 18)) return false;
+                    sscc = value;
+                    break;
+                case "01":
+                    if (!isCheckDigitValid(value, 0, 14)) return false;
+                    gtin = value;
+                    break;
+                case "10":
+                    batch = value;
+                    break;
+                case "11":
+                    if ((productionDate = parseDate(value)) == NO_DATE) return false;
+                    break;
+                case "15":
+                    if ((bestBeforeDate = parseDate(value)) == NO_DATE) return false;
+                    break;
+                case "17":
+                    if ((expiryDate = parseDate(value)) == NO_DATE) return false;
+                    break;
+                case "21":
+                    serial = value;
+                    break;
+                case "37":
+                    if (value.length() > 8 || !isDigits(value)) return false;
+                    count = Integer.parseInt(value);
+                    break;
+                default:
+                    if (ai.startsWith("310")) {
+                        netWeightKg = Long.parseLong(value) / Math.pow(10, ai.charAt(3) - '0');
+                    }
+            }
+        }
+        gs1 = true;
+        return true;
+    }
+
+    private void add(String ai, String value) {
+        if (identifiers == null) {
+            identifiers = new String[8];
+            values = new String[8];
+        } else if (elementCount == identifiers.length) {
+            String[] grownIdentifiers = new String[elementCount * 2];
+            String[] grownValues = new String[elementCount * 2];
+            System.arraycopy(identifiers, 0, grownIdentifiers, 0, elementCount);
+            System.arraycopy(values, 0, grownValues, 0, elementCount);
+            identifiers = grownIdentifiers;
+            values = grownValues;
+        }
+        identifiers[elementCount] = ai;
+        values[elementCount] = value;
+        elementCount++;
+    }
+
+    private void clear() {
+        gs1 = false;
+        elementCount = 0;
+        gtin = sscc = batch = serial = null;
+        productionDate = bestBeforeDate = expiryDate = NO_DATE;
+        netWeightKg = Double.NaN;
+        count = -1;
+    }
+
+    private int twoDigits(int position) {
+        char tens = rawValue.charAt(position);
+        char units = rawValue.charAt(position + 1);
+        if (tens < '0' || tens > '9' || units < '0' || units > '9') return -1;
+        return (tens - '0') * 10 + (units - '0');
+    }
+
+    private boolean isDigits(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = rawValue.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // Length of the application identifier starting with the two digits prefix.
+    private static int aiLength(int prefix) {
+        if (prefix <= 22 || prefix == 30 || prefix == 37 || prefix >= 90) return 2;
+        if (prefix <= 29 || (prefix >= 40 && prefix <= 42) || prefix == 71) return 3;
+        return 4;
+    }
+
+    // Data length of the elements the GS1 specifications allow to run on without FNC1, or 0.
+    private static int predefinedLength(int prefix) {
+        switch (prefix) {
+            case 0:
+                return 18;
+            case 1:
+            case 2:
+            case 3:
+                return 14;
+            case 4:
+                return 16;
+            case 20:
+                return 2;
+            case 41:
+                return 13;
+            default:
+                if (prefix >= 11 && prefix <= 19) return 6;
+                if (prefix >= 31 && prefix <= 36) return 6;
+                return 0;
+        }
+    }
+
+    // YYMMDD, DD being 00 for the last day of the month.  The century is the one that puts the
+    // year within 49 years before and 50 after the current one.
+    private static long parseDate(String value) {
+        if (value.length() != 6 || !isDigits(value)) return NO_DATE;
+        int yy = Integer.parseInt(value.substring(0, 2));
+        int month = Integer.parseInt(value.substring(2, 4));
+        int day = Integer.parseInt(value.substring(4, 6));
+        if (month < 1 || month > 12) return NO_DATE;
+
+        int difference = yy - REFERENCE_YEAR % 100;
+        int year = REFERENCE_YEAR - REFERENCE_YEAR % 100 + yy;
+        if (difference >= 51) {
+            year -= 100;
+        } else if (difference <= -50) {
+            year += 100;
+        }
+
+        int monthDays = daysInMonth(year, month);
+        if (day == 0) day = monthDays;
+        if (day > monthDays) return NO_DATE;
+        return daysFromEpoch(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    // Days from 1970-01-01 to a proleptic Gregorian date.
+    private static long daysFromEpoch(int year, int month, int day) {
+        if (month <= 2) year--;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static Date toDate(long millis) {
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isGtin(String value, int start, int end) {
+        int length = end - start;
+        return (length == 8 || length == 12 || length == 13 || length == 14) && isCheckDigitValid(value, start, end);
+    }
+
+    private static String padGtin(String value) {
+        return "00000000000000".substring(value.length()) + value;
+    }
+
+    // GS1 mod 10 check over the digits from start to end, the last being the check digit.
+    private static boolean isCheckDigitValid(String value, int start, int end) {
+        if (end > value.length() || end - start < 2) return false;
+        int sum = 0;
+        int weight = 3;
+        for (int i = end - 2; i >= start; i--) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+            sum += (c - '0') * weight;
+            weight = 4 - weight;
+        }
+        char check = value.charAt(end - 1);
+        return check >= '0' && check <= '9' && (10 - sum % 10) % 10 == check - '0';
+    }
+}
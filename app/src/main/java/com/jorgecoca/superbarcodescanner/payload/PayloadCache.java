@@ -0,0 +1,60 @@
+package com.jorgecoca.superbarcodescanner.payload;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// The payloads of the most recently seen distinct values, least recently used evicted first.  A
+// barcode held in view is reported with an equal rawValue every frame, so its payload is parsed
+// once however often it is read.  A hit neither parses nor allocates.
+public class PayloadCache {
+
+    private final LinkedHashMap<String, BarcodePayload> payloads;
+    private int hitCount;
+    private int missCount;
+
+    public PayloadCache(final int maxEntries) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+        payloads = new LinkedHashMap<String, BarcodePayload>(maxEntries * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BarcodePayload> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // The payload of rawValue, or null for a barcode without a value.
+    public synchronized BarcodePayload get(String rawValue) {
+        if (rawValue == null) return null;
+        BarcodePayload payload = payloads.get(rawValue);
+        if (payload != null) {
+            hitCount++;
+            return payload;
+        }
+        missCount++;
+        payload = new BarcodePayload(rawValue);
+        payloads.put(rawValue, payload);
+        return payload;
+    }
+
+    public synchronized int size() {
+        return payloads.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized void clear() {
+        payloads.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d payloads, %d hits, %d misses", payloads.size(), hitCount, missCount);
+    }
+}
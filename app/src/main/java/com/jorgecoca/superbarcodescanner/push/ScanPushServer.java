@@ -0,0 +1,345 @@
+package com.jorgecoca.superbarcodescanner.push;
+
+import android.util.Log;
+
+import com.jorgecoca.superbarcodescanner.bus.ResultBus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Streams ResultBus events to point-of-sale terminals on the local network over plain TCP, with
+// Nagle's algorithm off.  Every client gets its own bus subscription, so the bus ring is its
+// bounded send queue and the bus overflow policy decides what a slow client loses.  Events that
+// are already waiting when a client's writer wakes up are coalesced into one write, up to
+// maxBatch, optionally lingering a little for more.
+//
+// Each event is sent as a big-endian frame:
+//
+//   int    length of the rest of the frame
+//   byte   VERSION
+//   long   bus sequence, gaps meaning events this client missed
+//   byte   event type, ResultBus.EVENT_*
+//   int    track id
+//   int    barcode format
+//   int    frame id, -1 for EVENT_DONE
+//   long   frame timestamp in ms
+//   long   publish time, System.nanoTime() of the scanning device
+//   int    left, top, right, bottom of the bounding box in frame coordinates
+//   short  length of the value in bytes, then the value in UTF-8
+public class ScanPushServer {
+
+    public static final int VERSION = 1;
+    // frame bytes besides the value
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 1 + 4 + 4 + 4 + 8 + 8 + 16 + 2;
+    private static final int MAX_VALUE_BYTES = 0xffff;
+    // a batch is written once it holds this much, whatever maxBatch says
+    private static final int FLUSH_BYTES = 8 * 1024;
+
+    private final ResultBus bus;
+    private int port = 7468;
+    private int maxClients = 4;
+    private int maxBatch = 32;
+    private long lingerNanos = 0;
+
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean running;
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong sentEvents = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong refusedClients = new AtomicLong();
+
+    // allow only creation via builder class
+    private ScanPushServer(ResultBus bus) {
+        this.bus = bus;
+    }
+
+    public static class Builder {
+        private ScanPushServer server;
+
+        public Builder(ResultBus bus) {
+            if (bus == null) throw new IllegalArgumentException("No result bus supplied");
+            server = new ScanPushServer(bus);
+        }
+
+        // 0 picks a free port, see getPort().
+        public Builder setPort(int port) {
+            if (port < 0 || port > 0xffff) throw new IllegalArgumentException("Invalid port: " + port);
+            server.port = port;
+            return this;
+        }
+
+        public Builder setMaxClients(int maxClients) {
+            if (maxClients <= 0) throw new IllegalArgumentException("Invalid client count: " + maxClients);
+            server.maxClients = maxClients;
+            return this;
+        }
+
+        // Most events sent in a single write.
+        public Builder setMaxBatch(int maxBatch) {
+            if (maxBatch <= 0) throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+            server.maxBatch = maxBatch;
+            return this;
+        }
+
+        // How long a writer waits for more events after the first of a batch.  0, the default,
+        // only coalesces events that are already waiting.
+        public Builder setLingerMicros(long lingerMicros) {
+            if (lingerMicros < 0) throw new IllegalArgumentException("Invalid linger time: " + lingerMicros);
+            server.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+            return this;
+        }
+
+        public ScanPushServer build() {
+            return server;
+        }
+    }
+
+    public synchronized ScanPushServer start() throws IOException {
+        if (running) return this;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        running = true;
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        }, "ScanPush-Accept");
+        acceptThread.start();
+        Log.i("BARCODER", "Scan push server listening on port " + serverSocket.getLocalPort());
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        join(acceptThread);
+        for (Client client : clients) {
+            join(client.thread);
+        }
+        clients.clear();
+    }
+
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public long getSentEvents() {
+        return sentEvents.get();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    // Events connected clients never got because they fell a whole bus ring behind.
+    public long getMissedEvents() {
+        long missed = 0;
+        for (Client client : clients) {
+            missed += client.subscription.getMissedCount();
+        }
+        return missed;
+    }
+
+    @Override
+    public String toString() {
+        long batches = sentBatches.get();
+        return String.format(Locale.US, "%d clients (%d refused), %d events in %d writes (%.1f per write), %d KB, %d missed",
+                clients.size(), refusedClients.get(), sentEvents.get(), batches,
+                batches == 0 ? 0 : sentEvents.get() / (double) batches, sentBytes.get() / 1024, getMissedEvents());
+    }
+
+    private void acceptClients() {
+        int clientNumber = 0;
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) Log.e("BARCODER", "Scan push server stopped accepting clients", e);
+                return;
+            }
+            if (clients.size() >= maxClients) {
+                refusedClients.incrementAndGet();
+                closeQuietly(socket);
+                continue;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+            } catch (SocketException e) {
+                Log.w("BARCODER", "Unable to disable Nagle for push client " + socket.getRemoteSocketAddress(), e);
+            }
+            Client client = new Client(socket, bus.subscribe());
+            clients.add(client);
+            client.thread = new Thread(client, "ScanPush-Client-" + (++clientNumber));
+            client.thread.start();
+        }
+    }
+
+    private class Client implements Runnable {
+        final Socket socket;
+        final ResultBus.Subscription subscription;
+        Thread thread;
+        private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        private final ResultBus.Event event = new ResultBus.Event();
+
+        Client(Socket socket, ResultBus.Subscription subscription) {
+            this.socket = socket;
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream output = socket.getOutputStream();
+                while (running) {
+                    if (!subscription.poll(event, 1, TimeUnit.SECONDS)) continue;
+                    buffer.clear();
+                    encode(event);
+                    int batch = 1;
+                    long lingerDeadline = lingerNanos > 0 ? System.nanoTime() + lingerNanos : 0;
+                    while (batch < maxBatch && buffer.position() < FLUSH_BYTES) {
+                        long wait = lingerDeadline != 0 ? lingerDeadline - System.nanoTime() : 0;
+                        if (!subscription.poll(event, Math.max(0, wait), TimeUnit.NANOSECONDS)) break;
+                        encode(event);
+                        batch++;
+                    }
+                    output.write(buffer.array(), 0, buffer.position());
+                    sentEvents.addAndGet(batch);
+                    sentBatches.incrementAndGet();
+                    sentBytes.addAndGet(buffer.position());
+                }
+            } catch (IOException e) {
+                if (running) Log.i("BARCODER", "Push client " + socket.getRemoteSocketAddress() + " disconnected: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                clients.remove(this);
+            }
+        }
+
+        void close() {
+            subscription.close();
+            closeQuietly(socket);
+        }
+
+        private void encode(ResultBus.Event event) {
+            String value = event.getRawValue() != null ? event.getRawValue() : "";
+            if (buffer.remaining() < HEADER_SIZE + 3 * value.length()) {
+                ByteBuffer grown = ByteBuffer.allocate(buffer.position() + HEADER_SIZE + 3 * value.length());
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            int start = buffer.position();
+            buffer.putInt(0);
+            buffer.put((byte) VERSION);
+            buffer.putLong(event.getSequence());
+            buffer.put((byte) event.getType());
+            buffer.putInt(event.getTrackId());
+            buffer.putInt(event.getFormat());
+            buffer.putInt(event.getFrameId());
+            buffer.putLong(event.getTimestampMillis());
+            buffer.putLong(event.getPublishTimeNanos());
+            buffer.putInt(event.getLeft());
+            buffer.putInt(event.getTop());
+            buffer.putInt(event.getRight());
+            buffer.putInt(event.getBottom());
+            int lengthPosition = buffer.position();
+            buffer.putShort((short) 0);
+            int valueBytes = putUtf8(value);
+            buffer.putShort(lengthPosition, (short) valueBytes);
+            buffer.putInt(start, buffer.position() - start - 4);
+        }
+
+        // Encodes value without allocating, truncated to MAX_VALUE_BYTES on a character boundary.
+        private int putUtf8(String value) {
+            int start = buffer.position();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                int codePoint = c;
+                int size;
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                    size = 4;
+                } else if (c < 0x80) {
+                    size = 1;
+                } else if (c < 0x800) {
+                    size = 2;
+                } else {
+                    // a lone surrogate is encoded as is
+                    size = 3;
+                }
+                if (buffer.position() - start + size > MAX_VALUE_BYTES) break;
+                switch (size) {
+                    case 1:
+                        buffer.put((byte) codePoint);
+                        break;
+                    case 2:
+                        buffer.put((byte) (0xc0 | (codePoint >> 6)));
+                        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                        break;
+                    case 3:
+                        buffer.put((byte) (0xe0 | (codePoint >> 12)));
+                        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                        break;
+                    default:
+                        buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                        i++;
+                }
+            }
+            return buffer.position() - start;
+        }
+    }
+
+    private static void join(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
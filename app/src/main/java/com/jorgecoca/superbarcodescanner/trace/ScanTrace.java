@@ -0,0 +1,102 @@
+package com.jorgecoca.superbarcodescanner.trace;
+
+import android.os.Trace;
+
+import com.jorgecoca.superbarcodescanner.BuildConfig;
+
+import java.lang.reflect.Method;
+
+// Systrace and Perfetto instrumentation of the scan path.  Capture a trace with the app category
+// enabled for this package, e.g.
+//
+//   python systrace.py -a com.jorgecoca.superbarcodescanner -o scan.html
+//
+// and each frame shows up as nested sections on the camera, detection and UI threads, next to
+// counter tracks for the frame queue.  Section names are constants, so nothing is built per
+// frame, and while nobody traces a section costs one check of the enabled tags.
+//
+// Sections must end on the thread that began them, in reverse order; always pair begin() with
+// end() in a finally block.
+public final class ScanTrace {
+
+    // Debug logging on paths that run per frame, per detection or per layout.  A compile-time
+    // constant, so such logging and its string building are compiled out of release builds.
+    public static final boolean LOG_HOT_PATH = BuildConfig.DEBUG;
+
+    public static final String PREVIEW_FRAME = "CameraSource.onPreviewFrame";
+    public static final String SET_NEXT_FRAME = "CameraSource.setNextFrame";
+    public static final String PREPROCESS = "CameraSource.preprocess";
+    public static final String BUILD_FRAME = "Frame.Builder";
+    public static final String RECEIVE_FRAME = "Detector.receiveFrame";
+    public static final String TRACKER_NEW_ITEM = "Tracker.onNewItem";
+    public static final String TRACKER_UPDATE = "Tracker.onUpdate";
+    public static final String TRACKER_MISSING = "Tracker.onMissing";
+    public static final String TRACKER_DONE = "Tracker.onDone";
+    public static final String OVERLAY_DRAW = "GraphicOverlay.onDraw";
+
+    // frames waiting for the detection thread, 0 or 1
+    public static final String COUNTER_PENDING_FRAMES = "scan.pendingFrames";
+    // preview frames replaced by a newer one before detection got to them, since the camera started
+    public static final String COUNTER_DROPPED_FRAMES = "scan.droppedFrames";
+    // graphics on the overlay
+    public static final String COUNTER_GRAPHICS = "scan.graphics";
+
+    // Counters need Trace.traceCounter, which is public only from API 29 on but present from 18.
+    private static final Long TRACE_TAG_APP = 1L << 12;
+    private static final Object[] APP_TAG_ARGUMENT = { TRACE_TAG_APP };
+    private static final Method isTagEnabled;
+    private static final Method traceCounter;
+    // Counters re-check the app tag this often rather than on every call, which costs a boxed
+    // return on some VMs.  A trace started in between misses at most this much of the counters.
+    private static final long TAG_CHECK_INTERVAL_NANOS = 100000000L;
+    private static volatile boolean appTraced;
+    private static volatile long nextTagCheckNanos;
+
+    static {
+        Method enabled = null;
+        Method counter = null;
+        try {
+            enabled = Trace.class.getMethod("isTagEnabled", long.class);
+            counter = Trace.class.getMethod("traceCounter", long.class, String.class, int.class);
+        } catch (NoSuchMethodException | RuntimeException e) {
+            enabled = null;
+            counter = null;
+        }
+        isTagEnabled = enabled;
+        traceCounter = counter;
+    }
+
+    private ScanTrace() { }
+
+    public static void begin(String section) {
+        Trace.beginSection(section);
+    }
+
+    public static void end() {
+        Trace.endSection();
+    }
+
+    // Sets counter to value on its own track.  Costs a clock read while the app is not traced.
+    public static void counter(String counter, int value) {
+        long now = System.nanoTime();
+        if (now - nextTagCheckNanos >= 0) {
+            appTraced = isEnabled();
+            nextTagCheckNanos = now + TAG_CHECK_INTERVAL_NANOS;
+        }
+        if (!appTraced) return;
+        try {
+            traceCounter.invoke(null, TRACE_TAG_APP, counter, value);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // counters are best effort
+        }
+    }
+
+    public static boolean isEnabled() {
+        if (isTagEnabled == null) return false;
+        try {
+            return (Boolean) isTagEnabled.invoke(null, APP_TAG_ARGUMENT);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+}
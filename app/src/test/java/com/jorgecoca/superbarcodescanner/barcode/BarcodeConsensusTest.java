@@ -0,0 +1,154 @@
+package com.jorgecoca.superbarcodescanner.barcode;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class BarcodeConsensusTest {
+
+    @Test
+    public void uncheckedOneDimensionalCode_needsThreeAgreeingReads() throws Exception {
+        RecordingTracker delegate = new RecordingTracker();
+        Tracker<Barcode> tracker = new BarcodeConsensus.Builder().build().wrap(delegate);
+
+        Barcode first = barcode(Barcode.CODE_39, "ABC123");
+        tracker.onNewItem(7, first);
+        update(tracker, 1, first);
+        update(tracker, 2, barcode(Barcode.CODE_39, "ABC12B"));
+        update(tracker, 3, barcode(Barcode.CODE_39, "ABC123"));
+        assertTrue(delegate.events.isEmpty());
+
+        update(tracker, 4, barcode(Barcode.CODE_39, "ABC123"));
+        update(tracker, 5, barcode(Barcode.CODE_39, "ABC12B"));
+        update(tracker, 6, barcode(Barcode.CODE_39, "ABC123"));
+
+        // the misread never reaches the delegate, and a later one does not replace the value
+        assertEquals(3, delegate.events.size());
+        assertEquals("new 7 ABC123", delegate.events.get(0));
+        assertEquals("update 4 ABC123", delegate.events.get(1));
+        assertEquals("update 6 ABC123", delegate.events.get(2));
+    }
+
+    @Test
+    public void errorCorrectedTwoDimensionalCode_isAcceptedOnFirstRead() throws Exception {
+        RecordingTracker delegate = new RecordingTracker();
+        Tracker<Barcode> tracker = new BarcodeConsensus.Builder().build().wrap(delegate);
+
+        Barcode qr = barcode(Barcode.QR_CODE, "https://example.com");
+        tracker.onNewItem(1, qr);
+        update(tracker, 1, qr);
+
+        assertEquals(2, delegate.events.size());
+        assertEquals("update 1 https://example.com", delegate.events.get(1));
+    }
+
+    @Test
+    public void readsOutsideTheWindow_doNotCount() throws Exception {
+        RecordingTracker delegate = new RecordingTracker();
+        Tracker<Barcode> tracker = new BarcodeConsensus.Builder()
+                .setWindowFrames(4)
+                .setRequiredReads(Barcode.EAN_13, 2)
+                .build()
+                .wrap(delegate);
+
+        Barcode ean = barcode(Barcode.EAN_13, "4006381333931");
+        tracker.onNewItem(1, ean);
+        update(tracker, 1, ean);
+        update(tracker, 5, ean);
+        assertTrue(delegate.events.isEmpty());
+
+        update(tracker, 6, ean);
+        assertEquals("update 6 4006381333931", delegate.events.get(1));
+    }
+
+    @Test
+    public void missingAndDone_onlyReachTheDelegateOnceAccepted() throws Exception {
+        RecordingTracker delegate = new RecordingTracker();
+        Tracker<Barcode> tracker = new BarcodeConsensus.Builder().build().wrap(delegate);
+        Barcode ean = barcode(Barcode.EAN_13, "4006381333931");
+
+        tracker.onNewItem(1, ean);
+        update(tracker, 1, ean);
+        tracker.onMissing(detections(2, null));
+        tracker.onDone();
+
+        assertTrue(delegate.events.isEmpty());
+    }
+
+    @Test
+    public void updates_doNotAllocate() throws Exception {
+        Tracker<Barcode> tracker = new BarcodeConsensus.Builder().build().wrap(new Tracker<Barcode>());
+        Barcode[] reads = { barcode(Barcode.CODE_39, "ABC123"), barcode(Barcode.CODE_39, "ABC12B") };
+        Detector.Detections<Barcode>[] frames = new Detector.Detections[1000];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = detections(i + 1, reads[i % 3 == 0 ? 1 : 0]);
+        }
+        tracker.onNewItem(1, reads[0]);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < frames.length; i++) {
+                tracker.onUpdate(frames[i], frames[i].getDetectedItems().valueAt(0));
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        assertEquals(0, allocated);
+    }
+
+    private static void update(Tracker<Barcode> tracker, int frameId, Barcode barcode) {
+        tracker.onUpdate(detections(frameId, barcode), barcode);
+    }
+
+    private static Detector.Detections<Barcode> detections(int frameId, Barcode barcode) {
+        SparseArray<Barcode> items = new SparseArray<>();
+        if (barcode != null) items.append(1, barcode);
+        Frame frame = new Frame.Builder()
+                .setImageData(java.nio.ByteBuffer.allocate(1), 1, 1, android.graphics.ImageFormat.NV21)
+                .setId(frameId)
+                .build();
+        return new Detector.Detections<>(items, frame.getMetadata(), true);
+    }
+
+    private static class RecordingTracker extends Tracker<Barcode> {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onNewItem(int id, Barcode item) {
+            events.add("new " + id + " " + item.rawValue);
+        }
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            events.add("update " + detections.getFrameMetadata().getId() + " " + item.rawValue);
+        }
+
+        @Override
+        public void onMissing(Detector.Detections<Barcode> detections) {
+            events.add("missing " + detections.getFrameMetadata().getId());
+        }
+
+        @Override
+        public void onDone() {
+            events.add("done");
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.jorgecoca.superbarcodescanner.batch;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.common.BitMatrix;
+import com.jorgecoca.superbarcodescanner.benchmark.ZxingBarcodeDetector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { DecodingBitmapFactory.class, PixelBitmap.class })
+public class BatchDecoderTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("batch", "");
+        assertTrue(root.delete() && root.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    @Test
+    public void directoriesAreExpandedAndEveryImageReported() throws Exception {
+        writeCode(new File(root, "a.png"), "first", "png");
+        writeCode(new File(root, "nested/b.jpg"), "second", "jpg");
+        writeCode(new File(root, "nested/deeper/c.png"), "third", "png");
+        write(new File(root, "nested/notes.txt"), "not an image".getBytes("UTF-8"));
+        File single = new File(root.getParentFile(), root.getName() + "-single.png");
+        writeCode(single, "fourth", "png");
+
+        try {
+            RecordingListener listener = new RecordingListener();
+            BatchDecoder decoder = new BatchDecoder.Builder(new ZxingBarcodeDetector()).build();
+            BatchDecoder.Stats stats = decoder.decode(Arrays.asList(root, single), listener);
+            decoder.release();
+
+            assertEquals(4, stats.getImageCount());
+            assertEquals(0, stats.getFailedCount());
+            assertEquals(4, stats.getBarcodeCount());
+            assertTrue(stats.getImagesPerSecond() > 0);
+            assertSame(stats, listener.finished);
+            assertEquals("first", listener.valueOf(new File(root, "a.png")));
+            assertEquals("second", listener.valueOf(new File(root, "nested/b.jpg")));
+            assertEquals("third", listener.valueOf(new File(root, "nested/deeper/c.png")));
+            assertEquals("fourth", listener.valueOf(single));
+            assertEquals(4, listener.results.size());
+        } finally {
+            delete(single);
+        }
+    }
+
+    @Test
+    public void nonRecursiveDecodingSkipsSubdirectories() throws Exception {
+        writeCode(new File(root, "a.png"), "first", "png");
+        writeCode(new File(root, "nested/b.png"), "second", "png");
+
+        RecordingListener listener = new RecordingListener();
+        BatchDecoder decoder = new BatchDecoder.Builder(new ZxingBarcodeDetector()).setRecursive(false).build();
+        BatchDecoder.Stats stats = decoder.decode(Collections.singletonList(root), listener);
+        decoder.release();
+
+        assertEquals(1, stats.getImageCount());
+        assertEquals("first", listener.valueOf(new File(root, "a.png")));
+    }
+
+    @Test
+    public void undecodableImagesAndDetectorFailuresAreReportedAsFailures() throws Exception {
+        writeCode(new File(root, "a.png"), "first", "png");
+        write(new File(root, "b.png"), "not a png".getBytes("UTF-8"));
+        writeCode(new File(root, "c.png"), "crash", "png");
+
+        RecordingListener listener = new RecordingListener();
+        Detector<Barcode> detector = new ZxingBarcodeDetector() {
+            @Override
+            public SparseArray<Barcode> detect(Frame frame) {
+                SparseArray<Barcode> barcodes = super.detect(frame);
+                if (barcodes.size() > 0 && "crash".equals(barcodes.valueAt(0).rawValue)) {
+                    throw new IllegalStateException("Detector failed");
+                }
+                return barcodes;
+            }
+        };
+        BatchDecoder decoder = new BatchDecoder.Builder(detector).build();
+        BatchDecoder.Stats stats = decoder.decode(Collections.singletonList(root), listener);
+        decoder.release();
+
+        assertEquals(3, stats.getImageCount());
+        assertEquals(2, stats.getFailedCount());
+        assertEquals(1, stats.getBarcodeCount());
+        assertTrue(listener.resultFor(new File(root, "a.png")).isSuccessful());
+        assertEquals("Unable to decode image", listener.resultFor(new File(root, "b.png")).getError());
+        assertTrue(listener.resultFor(new File(root, "c.png")).getError().contains("Detector failed"));
+    }
+
+    @Test
+    public void resultsAreStreamedAsEachImageIsDecoded() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            writeCode(new File(root, i + ".png"), "code" + i, "png");
+        }
+
+        final RecordingListener listener = new RecordingListener();
+        final List<Integer> reportedBeforeDetect = Collections.synchronizedList(new ArrayList<Integer>());
+        Detector<Barcode> detector = new ZxingBarcodeDetector() {
+            @Override
+            public SparseArray<Barcode> detect(Frame frame) {
+                reportedBeforeDetect.add(listener.results.size());
+                return super.detect(frame);
+            }
+        };
+        BatchDecoder decoder = new BatchDecoder.Builder(detector).build();
+        decoder.decode(Collections.singletonList(root), listener);
+        decoder.release();
+
+        // with one worker, each image is handed to the listener before the next is decoded
+        assertEquals(Arrays.asList(0, 1, 2), reportedBeforeDetect);
+        assertEquals(3, listener.results.size());
+        assertTrue(listener.resultsBeforeFinished);
+    }
+
+    @Test
+    public void eachWorkerHasADetectorOfItsOwn() throws Exception {
+        int images = 16;
+        for (int i = 0; i < images; i++) {
+            writeCode(new File(root, i + ".png"), "code" + i, "png");
+        }
+
+        BatchDecoder.Builder builder = new BatchDecoder.Builder(new ExclusiveDetector());
+        for (int i = 1; i < 4; i++) {
+            builder.addDetector(new ExclusiveDetector());
+        }
+        BatchDecoder decoder = builder.build();
+        assertEquals(4, decoder.getParallelism());
+        RecordingListener listener = new RecordingListener();
+        BatchDecoder.Stats stats = decoder.decode(Collections.singletonList(root), listener);
+        decoder.release();
+
+        assertEquals(0, ExclusiveDetector.overlaps.get());
+        assertEquals(0, stats.getFailedCount());
+        assertEquals(images, stats.getBarcodeCount());
+        for (int i = 0; i < images; i++) {
+            assertEquals("code" + i, listener.valueOf(new File(root, i + ".png")));
+        }
+    }
+
+    // Counts the times it is called while already detecting on another thread.
+    private static class ExclusiveDetector extends ZxingBarcodeDetector {
+        static final AtomicInteger overlaps = new AtomicInteger();
+        private final AtomicBoolean busy = new AtomicBoolean();
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            if (!busy.compareAndSet(false, true)) overlaps.incrementAndGet();
+            try {
+                return super.detect(frame);
+            } finally {
+                busy.set(false);
+            }
+        }
+    }
+
+    private static class RecordingListener implements BatchDecoder.Listener {
+        final Map<File, BatchDecoder.Result> results = Collections.synchronizedMap(new HashMap<File, BatchDecoder.Result>());
+        volatile BatchDecoder.Stats finished;
+        volatile boolean resultsBeforeFinished;
+
+        @Override
+        public void onResult(BatchDecoder.Result result) {
+            assertNull("Result after onFinished", finished);
+            assertNull("Reported twice: " + result.getFile(), results.put(result.getFile(), result));
+        }
+
+        @Override
+        public void onFinished(BatchDecoder.Stats stats) {
+            resultsBeforeFinished = results.size() == stats.getImageCount();
+            finished = stats;
+        }
+
+        BatchDecoder.Result resultFor(File file) {
+            BatchDecoder.Result result = results.get(file);
+            assertNotNull("No result for " + file, result);
+            return result;
+        }
+
+        String valueOf(File file) {
+            BatchDecoder.Result result = resultFor(file);
+            assertTrue(file + ": " + result.getError(), result.isSuccessful());
+            assertEquals(1, result.getBarcodes().size());
+            return result.getBarcodes().valueAt(0).rawValue;
+        }
+    }
+
+    private static void writeCode(File file, String value, String format) throws Exception {
+        BitMatrix matrix = new MultiFormatWriter().encode(value, BarcodeFormat.QR_CODE, 160, 160);
+        BufferedImage image = new BufferedImage(matrix.getWidth(), matrix.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                image.setRGB(x, y, matrix.get(x, y) ? 0x000000 : 0xffffff);
+            }
+        }
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        assertTrue(ImageIO.write(image, format, file));
+    }
+
+    private static void write(File file, byte[] data) throws Exception {
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,54 @@
+package com.jorgecoca.superbarcodescanner.batch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+// Robolectric's BitmapFactory hands back blank bitmaps of a made-up size.  This one really decodes
+// the file, with ImageIO, honouring inJustDecodeBounds and inSampleSize, so the pixels reach
+// whatever reads them through PixelBitmap.  Returns null for files ImageIO cannot read, like the
+// platform does.
+@Implements(BitmapFactory.class)
+public class DecodingBitmapFactory {
+
+    @Implementation
+    public static Bitmap decodeFile(String pathName, BitmapFactory.Options options) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File(pathName));
+        } catch (IOException e) {
+            return null;
+        }
+        if (image == null) return null;
+
+        int sampleSize = options != null ? Math.max(1, options.inSampleSize) : 1;
+        int width = image.getWidth() / sampleSize;
+        int height = image.getHeight() / sampleSize;
+        if (options != null) {
+            options.outWidth = width;
+            options.outHeight = height;
+            if (options.inJustDecodeBounds) return null;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bitmap.setPixel(x, y, image.getRGB(x * sampleSize, y * sampleSize));
+            }
+        }
+        return bitmap;
+    }
+
+    @Implementation
+    public static Bitmap decodeFile(String pathName) {
+        return decodeFile(pathName, null);
+    }
+}
@@ -0,0 +1,26 @@
+package com.jorgecoca.superbarcodescanner.batch;
+
+import android.graphics.Bitmap;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowBitmap;
+
+// Robolectric's Bitmap keeps the pixels set on it but cannot read them back in bulk; this adds
+// getPixels() on top of getPixel().
+@Implements(Bitmap.class)
+public class PixelBitmap extends ShadowBitmap {
+
+    @RealObject
+    private Bitmap realBitmap;
+
+    @Implementation
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                pixels[offset + row * stride + column] = realBitmap.getPixel(x + column, y + row);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Benchmark limits from scan-benchmark.properties.  Any of them can be overridden on the command
+// line with -Dscan.benchmark.<key>=<value>.
+class BenchmarkThresholds {
+
+    private BenchmarkThresholds() { }
+
+    static Properties loadThresholds() throws IOException {
+        Properties properties = new Properties();
+        InputStream input = BenchmarkThresholds.class.getClassLoader().getResourceAsStream("scan-benchmark.properties");
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        return properties;
+    }
+
+    static String get(Properties properties, String key) {
+        return System.getProperty("scan.benchmark." + key, properties.getProperty(key));
+    }
+
+    static int getInt(Properties properties, String key) {
+        return Integer.parseInt(get(properties, key));
+    }
+
+    static float getFloat(Properties properties, String key) {
+        return Float.parseFloat(get(properties, key));
+    }
+}
@@ -0,0 +1,130 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.hardware.Camera;
+
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+// A pinch gesture driving CameraSource's zoom at touch event rate, against a camera whose
+// setParameters is as slow as a real HAL's.  SimulatedLooper runs delayed messages as soon as the
+// camera thread gets to them, so here updates are spaced by the HAL latency rather than by the
+// update interval.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class CameraParameterBenchmarkTest {
+
+    private static final long TOUCH_EVENT_NANOS = 16666667L;
+    private static final int GESTURE_EVENTS = 120;
+    private static final int MAX_ZOOM = 60;
+
+    @Test
+    public void pinchZoom_mergesUpdatesWithoutBlockingTheCaller() throws Exception {
+        Properties thresholds = loadThresholds();
+        CameraSource cameraSource = startCamera(thresholds, false);
+        try {
+            long[] requestNanos = new long[GESTURE_EVENTS];
+            int zoom = 0;
+            long nextEvent = System.nanoTime();
+            for (int i = 0; i < GESTURE_EVENTS; i++) {
+                zoom = pinch(i);
+                long startTime = System.nanoTime();
+                cameraSource.setZoom(zoom);
+                // the torch toggled mid gesture rides along with a zoom update
+                if (i % 30 == 15) {
+                    cameraSource.setFlashMode(i % 60 == 15 ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF);
+                }
+                requestNanos[i] = System.nanoTime() - startTime;
+                nextEvent += TOUCH_EVENT_NANOS;
+                LockSupport.parkNanos(nextEvent - System.nanoTime());
+            }
+            Camera.Parameters parameters = awaitZoom(zoom);
+
+            Arrays.sort(requestNanos);
+            long p99Micros = requestNanos[(int) Math.ceil(0.99 * GESTURE_EVENTS) - 1] / 1000;
+            int updates = SimulatedCamera.getSetParametersCount();
+            System.out.println(String.format(Locale.US, "Pinch zoom: %d requests, %d setParameters, request p99 %d us max %d us",
+                    GESTURE_EVENTS, updates, p99Micros, requestNanos[GESTURE_EVENTS - 1] / 1000));
+
+            assertEquals(zoom, parameters.getZoom());
+            assertEquals(Camera.Parameters.FLASH_MODE_OFF, parameters.getFlashMode());
+            assertTrue("Updates were not merged: " + updates,
+                    updates <= GESTURE_EVENTS * getFloat(thresholds, "maxParameterUpdateRatio"));
+            assertTrue("Zoom requests blocked the caller: p99 " + p99Micros + " us",
+                    p99Micros <= getInt(thresholds, "maxParameterRequestMicros"));
+        } finally {
+            cameraSource.release();
+        }
+    }
+
+    @Test
+    public void smoothZoom_followsPinchWithoutSetParameters() throws Exception {
+        Properties thresholds = loadThresholds();
+        CameraSource cameraSource = startCamera(thresholds, true);
+        try {
+            int zoom = 0;
+            long nextEvent = System.nanoTime();
+            for (int i = 0; i < GESTURE_EVENTS; i++) {
+                zoom = pinch(i);
+                cameraSource.setZoom(zoom);
+                nextEvent += TOUCH_EVENT_NANOS;
+                LockSupport.parkNanos(nextEvent - System.nanoTime());
+            }
+            Camera.Parameters parameters = awaitZoom(zoom);
+            System.out.println(String.format(Locale.US, "Smooth pinch zoom: %d requests, %d smooth zooms started, %d setParameters",
+                    GESTURE_EVENTS, SimulatedCamera.getSmoothZoomStartCount(), SimulatedCamera.getSetParametersCount()));
+
+            assertEquals(zoom, parameters.getZoom());
+            assertEquals(0, SimulatedCamera.getSetParametersCount());
+            assertTrue(SimulatedCamera.getSmoothZoomStartCount() > 0);
+            assertTrue(SimulatedCamera.getSmoothZoomStartCount() < GESTURE_EVENTS);
+        } finally {
+            cameraSource.release();
+        }
+    }
+
+    private static CameraSource startCamera(Properties thresholds, boolean smoothZoom) throws Exception {
+        ScanPipelineHarness.installSimulatedCamera(null, 640, 480);
+        SimulatedCameraParameters.setZoomSupport(MAX_ZOOM, smoothZoom);
+        SimulatedCamera.setSetParametersMillis(getFloat(thresholds, "setParametersMillis"));
+        CameraSource cameraSource = new CameraSource.Builder(RuntimeEnvironment.application, new SimulatedBarcodeDetector(null, 0))
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(640, 480)
+                .build();
+        cameraSource.start();
+        assertEquals(MAX_ZOOM, cameraSource.getMaxZoom());
+        SimulatedCamera.resetCounts();
+        return cameraSource;
+    }
+
+    // zooms all the way in, then halfway back out
+    private static int pinch(int event) {
+        int half = GESTURE_EVENTS / 2;
+        return event < half ? (event + 1) * MAX_ZOOM / half : MAX_ZOOM - (event - half + 1) * MAX_ZOOM / GESTURE_EVENTS;
+    }
+
+    private static Camera.Parameters awaitZoom(int zoom) throws InterruptedException {
+        Camera.Parameters parameters = SimulatedCamera.getLastStarted().getParameters();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (parameters.getZoom() != zoom && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // let an update still in flight finish
+        Thread.sleep(200);
+        return parameters;
+    }
+}
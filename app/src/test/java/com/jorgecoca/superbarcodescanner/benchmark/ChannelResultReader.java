@@ -0,0 +1,81 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.jorgecoca.superbarcodescanner.kiosk.ResultChannel;
+import com.jorgecoca.superbarcodescanner.kiosk.ScanResult;
+
+import java.util.Arrays;
+
+// Client of a kiosk ResultChannel, the counterpart of HeadlessGraphicOverlay for the headless
+// flow.  A reader thread takes every result as it arrives and records the time from the capture
+// of the frame it was accepted in to its arrival, i.e. time-to-result.
+public class ChannelResultReader {
+
+    private final SimulatedFrameSource frameSource;
+    private final ResultChannel channel;
+    private final long[] latencies;
+    private volatile int latencyCount;
+    private volatile boolean recording;
+    private Thread readerThread;
+
+    public ChannelResultReader(SimulatedFrameSource frameSource, ResultChannel channel, int maxSamples) {
+        this.frameSource = frameSource;
+        this.channel = channel;
+        latencies = new long[maxSamples];
+    }
+
+    public void start() {
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ScanResult result;
+                    while ((result = channel.take()) != null) {
+                        long captureTime = frameSource.getCaptureTimeNanos(result.getFrameId());
+                        int count = latencyCount;
+                        if (recording && captureTime != 0 && count < latencies.length) {
+                            latencies[count] = System.nanoTime() - captureTime;
+                            latencyCount = count + 1;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        }, "ChannelResultReader");
+        readerThread.start();
+    }
+
+    public void stop() {
+        channel.close();
+        if (readerThread == null) return;
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readerThread = null;
+    }
+
+    public void startRecording() {
+        latencyCount = 0;
+        recording = true;
+    }
+
+    public void stopRecording() {
+        recording = false;
+    }
+
+    public int getLatencyCount() {
+        return latencyCount;
+    }
+
+    // Latency percentile in nanoseconds, e.g. 0.99 for p99.
+    public long getLatencyPercentile(double percentile) {
+        int count = latencyCount;
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
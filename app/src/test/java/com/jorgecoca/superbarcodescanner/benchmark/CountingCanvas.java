@@ -0,0 +1,44 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+// Counts what is drawn instead of rasterising it, so only the overlay's own work is measured.
+public class CountingCanvas extends Canvas {
+
+    private final int width;
+    private final int height;
+    private int rectCount;
+
+    public CountingCanvas(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getRectCount() {
+        return rectCount;
+    }
+
+    public void resetCounts() {
+        rectCount = 0;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        rectCount++;
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) { }
+}
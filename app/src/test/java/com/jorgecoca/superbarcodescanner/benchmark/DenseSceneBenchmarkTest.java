@@ -0,0 +1,209 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeGraphic;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeTrackerFactory;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+// A pallet face full of labels on the overlay in dense-scene mode: once there is a code in every
+// cell, drawing should cost the same however many more are tracked, and a tap should find the code
+// under the finger without looking at the others.  In either mode, a tracker update should cost
+// the same however many codes the overlay holds.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class DenseSceneBenchmarkTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1440;
+    private static final int CELL_SIZE = 160;
+    private static final int LABEL_WIDTH = 40;
+    private static final int LABEL_HEIGHT = 24;
+    private static final int DRAWS = 2000;
+    // enough to put a code in nearly every cell, and ten times that
+    private static final int FEW_CODES = 200;
+    private static final int MANY_CODES = 2000;
+    private static final int BATCHES = 5;
+    private static final int UPDATES = 20000;
+    private static final int ROUNDS = 3;
+
+    private final Detector.Detections<Barcode> detections =
+            new Detector.Detections<>(new SparseArray<Barcode>(), new Frame.Metadata(), true);
+
+    @Test
+    public void denseScene_drawTimeStaysFlatAsCodesGrow() throws Exception {
+        Properties thresholds = loadThresholds();
+        long denseFew = drawNanos(FEW_CODES, true);
+        long denseMany = drawNanos(MANY_CODES, true);
+        long linearFew = drawNanos(FEW_CODES, false);
+        long linearMany = drawNanos(MANY_CODES, false);
+        System.out.println(String.format(Locale.US, "Dense scene draw: %.1f us for %d codes, %.1f us for %d (%.1f and %.1f us without the grid)",
+                denseFew / 1000.0, FEW_CODES, denseMany / 1000.0, MANY_CODES, linearFew / 1000.0, linearMany / 1000.0));
+
+        assertTrue("Dense scene draw time grew with the code count: " + denseFew + " ns for " + FEW_CODES + ", " + denseMany + " ns for " + MANY_CODES,
+                denseMany <= denseFew * getFloat(thresholds, "maxDenseDrawTimeRatio"));
+    }
+
+    @Test
+    public void overlay_updateTimeStaysFlatAsCodesGrow() throws Exception {
+        Properties thresholds = loadThresholds();
+        // alternating the two counts keeps JIT and cache state from favouring either
+        long few = Long.MAX_VALUE;
+        long many = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            few = Math.min(few, updateNanos(FEW_CODES));
+            many = Math.min(many, updateNanos(MANY_CODES));
+        }
+        System.out.println(String.format(Locale.US, "Overlay update: %.2f us per code update for %d codes, %.2f us for %d",
+                few / 1000.0, FEW_CODES, many / 1000.0, MANY_CODES));
+
+        assertTrue("Overlay update time grew with the code count: " + few + " ns for " + FEW_CODES + ", " + many + " ns for " + MANY_CODES,
+                many <= few * getFloat(thresholds, "maxOverlayUpdateTimeRatio"));
+    }
+
+    @Test
+    public void denseScene_cullsOffscreenAndOverlappingLabels() {
+        for (boolean dense : new boolean[] { true, false }) {
+            DrawnGraphicOverlay overlay = overlay(dense);
+            Tracker<Barcode> first = track(overlay, 1, label("first", 500, 500));
+            track(overlay, 2, label("overlapping", 505, 505));
+            track(overlay, 3, label("offscreen", WIDTH + 100, 500));
+            CountingCanvas canvas = new CountingCanvas(WIDTH, HEIGHT);
+            overlay.draw(canvas);
+            assertEquals(dense ? 1 : 3, canvas.getRectCount());
+
+            // the first label moving away from the other is drawn again
+            first.onUpdate(detections, label("first", 100, 100));
+            canvas.resetCounts();
+            overlay.draw(canvas);
+            assertEquals(dense ? 2 : 3, canvas.getRectCount());
+        }
+    }
+
+    @Test
+    public void denseScene_tapSelectsCodeUnderFinger() {
+        int columns = 20;
+        int rows = 20;
+        float spacingX = WIDTH / (float) columns;
+        float spacingY = HEIGHT / (float) rows;
+        DrawnGraphicOverlay overlay = overlay(true);
+        @SuppressWarnings("unchecked")
+        Tracker<Barcode>[] trackers = new Tracker[columns * rows];
+        for (int i = 0; i < trackers.length; i++) {
+            trackers[i] = track(overlay, i + 1, label("code" + i, (int) ((i % columns + 0.5f) * spacingX), (int) ((i / columns + 0.5f) * spacingY)));
+        }
+        overlay.draw(new CountingCanvas(WIDTH, HEIGHT));
+
+        for (int shift = 0; shift <= 1; shift++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < trackers.length; i++) {
+                float x = (i % columns + 0.5f) * spacingX - shift * spacingX / 2;
+                float y = (i / columns + 0.5f) * spacingY;
+                BarcodeGraphic graphic = overlay.getGraphicAt(x, y);
+                assertNotNull("No code at " + x + "," + y, graphic);
+                assertEquals("code" + i, graphic.getBarcode().rawValue);
+                assertNull(overlay.getGraphicAt(x + spacingX / 2, y + spacingY / 2));
+            }
+            System.out.println(String.format(Locale.US, "Dense scene hit test: %.1f us per tap among %d codes",
+                    (System.nanoTime() - startTime) / 2000.0 / trackers.length, trackers.length));
+
+            // the whole pallet slides left by half a code
+            for (int i = 0; i < trackers.length; i++) {
+                int x = (int) ((i % columns) * spacingX);
+                int y = (int) ((i / columns + 0.5f) * spacingY);
+                trackers[i].onUpdate(detections, label("code" + i, x, y));
+            }
+        }
+    }
+
+    // Fastest time of a draw with count codes spread over the view, over a few batches.
+    private long drawNanos(int count, boolean dense) {
+        DrawnGraphicOverlay overlay = overlay(dense);
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            track(overlay, i + 1, label("code" + i, random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+        }
+        CountingCanvas canvas = new CountingCanvas(WIDTH, HEIGHT);
+        for (int i = 0; i < DRAWS; i++) {
+            overlay.draw(canvas);
+        }
+        long fastest = Long.MAX_VALUE;
+        for (int batch = 0; batch < BATCHES; batch++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < DRAWS; i++) {
+                overlay.draw(canvas);
+            }
+            fastest = Math.min(fastest, (System.nanoTime() - startTime) / DRAWS);
+        }
+        return fastest;
+    }
+
+    // Fastest time, over a few batches, of a tracker update with count codes on the overlay.  Every
+    // other update follows a frame in which the code was missed, so its graphic is removed and added
+    // back, as happens to codes at the edge of detection.
+    private long updateNanos(int count) {
+        DrawnGraphicOverlay overlay = overlay(false);
+        Random random = new Random(count);
+        @SuppressWarnings("unchecked")
+        Tracker<Barcode>[] trackers = new Tracker[count];
+        Barcode[] barcodes = new Barcode[count];
+        for (int i = 0; i < count; i++) {
+            barcodes[i] = label("code" + i, random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            trackers[i] = track(overlay, i + 1, barcodes[i]);
+        }
+        long fastest = Long.MAX_VALUE;
+        for (int batch = 0; batch <= BATCHES; batch++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < UPDATES; i++) {
+                int code = random.nextInt(count);
+                if ((i & 1) == 0) trackers[code].onMissing(detections);
+                trackers[code].onUpdate(detections, barcodes[code]);
+            }
+            // the first batch warms up
+            if (batch > 0) fastest = Math.min(fastest, (System.nanoTime() - startTime) / UPDATES);
+        }
+        // every graphic is still drawn, once
+        CountingCanvas canvas = new CountingCanvas(WIDTH, HEIGHT);
+        overlay.draw(canvas);
+        assertEquals(count, canvas.getRectCount());
+        return fastest;
+    }
+
+    private static DrawnGraphicOverlay overlay(boolean dense) {
+        DrawnGraphicOverlay overlay = new DrawnGraphicOverlay(RuntimeEnvironment.application);
+        overlay.setCameraInfo(WIDTH, HEIGHT, CameraSource.CAMERA_FACING_BACK);
+        overlay.setDenseScene(dense, CELL_SIZE);
+        return overlay;
+    }
+
+    private Tracker<Barcode> track(DrawnGraphicOverlay overlay, int id, Barcode barcode) {
+        Tracker<Barcode> tracker = new BarcodeTrackerFactory(overlay).create(barcode);
+        tracker.onNewItem(id, barcode);
+        tracker.onUpdate(detections, barcode);
+        return tracker;
+    }
+
+    // A label centred on x, y in preview coordinates.
+    private static Barcode label(String value, int x, int y) {
+        return barcode(Barcode.CODE_128, value, x - LABEL_WIDTH / 2, y - LABEL_HEIGHT / 2, LABEL_WIDTH, LABEL_HEIGHT);
+    }
+}
@@ -0,0 +1,24 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.content.Context;
+import android.graphics.Canvas;
+
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeGraphic;
+import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+
+// GraphicOverlay drawn by the test on whatever canvas it passes to draw(), as there is no window
+// to invalidate.
+public class DrawnGraphicOverlay extends GraphicOverlay<BarcodeGraphic> {
+
+    public DrawnGraphicOverlay(Context context) {
+        super(context, null);
+    }
+
+    @Override
+    public void postInvalidate() { }
+
+    @Override
+    public void draw(Canvas canvas) {
+        onDraw(canvas);
+    }
+}
@@ -0,0 +1,110 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeGraphic;
+import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// GraphicOverlay with no window behind it.  Invalidations are ignored and a display thread draws
+// every graphic at a fixed refresh rate instead, which keeps the same lock traffic as the real
+// view.  The first graphic update for each frame is taken as the moment its result reached the
+// screen and is used to compute capture-to-result latency.
+public class HeadlessGraphicOverlay extends GraphicOverlay<BarcodeGraphic> {
+
+    private final SimulatedFrameSource frameSource;
+    private final SimulatedBarcodeDetector detector;
+    private final long[] latencies;
+    private volatile int latencyCount;
+    private int lastFrameId;
+    private volatile boolean recording;
+
+    private Thread displayThread;
+    private volatile boolean displaying;
+
+    public HeadlessGraphicOverlay(Context context, SimulatedFrameSource frameSource,
+                                  SimulatedBarcodeDetector detector, int maxSamples) {
+        super(context, null);
+        this.frameSource = frameSource;
+        this.detector = detector;
+        latencies = new long[maxSamples];
+    }
+
+    @Override
+    public void postInvalidate() {
+        // drawn by the display thread
+    }
+
+    @Override
+    public void add(BarcodeGraphic graphic) {
+        int frameId = detector.getCurrentFrameId();
+        if (recording && frameId != lastFrameId) {
+            long captureTime = frameSource.getCaptureTimeNanos(frameId);
+            int count = latencyCount;
+            if (captureTime != 0 && count < latencies.length) {
+                latencies[count] = System.nanoTime() - captureTime;
+                latencyCount = count + 1;
+            }
+        }
+        lastFrameId = frameId;
+        super.add(graphic);
+    }
+
+    public void startRecording() {
+        latencyCount = 0;
+        recording = true;
+    }
+
+    public void stopRecording() {
+        recording = false;
+    }
+
+    public int getLatencyCount() {
+        return latencyCount;
+    }
+
+    // Latency percentile in nanoseconds, e.g. 0.99 for p99.
+    public long getLatencyPercentile(double percentile) {
+        int count = latencyCount;
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public void startDisplay(final int width, final int height, float refreshRate) {
+        layout(0, 0, width, height);
+        final long frameIntervalNanos = (long) (1e9 / refreshRate);
+        displaying = true;
+        displayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Canvas canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+                long nextFrameTime = System.nanoTime();
+                while (displaying) {
+                    onDraw(canvas);
+                    nextFrameTime += frameIntervalNanos;
+                    long delay = nextFrameTime - System.nanoTime();
+                    if (delay > 0) LockSupport.parkNanos(delay);
+                }
+            }
+        }, "HeadlessDisplay");
+        displayThread.start();
+    }
+
+    public void stopDisplay() {
+        displaying = false;
+        if (displayThread == null) return;
+        try {
+            displayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        displayThread = null;
+    }
+}
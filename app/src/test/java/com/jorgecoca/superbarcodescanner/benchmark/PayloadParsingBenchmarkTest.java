@@ -0,0 +1,105 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.jorgecoca.superbarcodescanner.payload.BarcodePayload;
+import com.jorgecoca.superbarcodescanner.payload.PayloadCache;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+// Parses per second of the GS1-128 and GS1 DataMatrix values in gs1-corpus.txt, parsing every
+// value afresh, against reading them through a PayloadCache the way trackers do on every frame.
+public class PayloadParsingBenchmarkTest {
+
+    private static final int ROUNDS = 20000;
+
+    @Test
+    public void gs1Parsing_meetsThroughput() throws Exception {
+        Properties thresholds = loadThresholds();
+        String[] corpus = loadCorpus();
+        int gs1Count = 0;
+        for (String value : corpus) {
+            if (new BarcodePayload(value).isGs1()) gs1Count++;
+        }
+        assertTrue("Corpus has no GS1 values", gs1Count > 0);
+
+        // warm up, then parse every value afresh
+        parseAll(corpus, ROUNDS / 4);
+        long start = System.nanoTime();
+        int checksum = parseAll(corpus, ROUNDS);
+        double parsesPerSecond = (double) ROUNDS * corpus.length * 1e9 / (System.nanoTime() - start);
+
+        PayloadCache cache = new PayloadCache(64);
+        lookUpAll(cache, corpus, ROUNDS / 4);
+        start = System.nanoTime();
+        int cachedChecksum = lookUpAll(cache, corpus, ROUNDS);
+        double lookupsPerSecond = (double) ROUNDS * corpus.length * 1e9 / (System.nanoTime() - start);
+
+        System.out.println(String.format(Locale.US,
+                "Payload parsing, %d values (%d GS1): %.0f parses/s, %.0f cached reads/s, %s",
+                corpus.length, gs1Count, parsesPerSecond, lookupsPerSecond, cache));
+
+        assertEquals(checksum, cachedChecksum);
+        assertEquals(corpus.length, cache.getMissCount());
+        assertTrue("Parses per second " + parsesPerSecond,
+                parsesPerSecond >= getFloat(thresholds, "minGs1ParsesPerSecond"));
+        assertTrue("Cached reads are no faster than parsing", lookupsPerSecond > parsesPerSecond);
+    }
+
+    private static int parseAll(String[] corpus, int rounds) {
+        int checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (String value : corpus) {
+                checksum += read(new BarcodePayload(value));
+            }
+        }
+        return checksum;
+    }
+
+    private static int lookUpAll(PayloadCache cache, String[] corpus, int rounds) {
+        int checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (String value : corpus) {
+                checksum += read(cache.get(value));
+            }
+        }
+        return checksum;
+    }
+
+    // what a typical consumer reads, so parsing cannot be skipped
+    private static int read(BarcodePayload payload) {
+        int result = payload.getElementCount();
+        if (payload.getGtin() != null) result += payload.getGtin().length();
+        if (payload.getBatch() != null) result += payload.getBatch().length();
+        if (payload.getExpiryDate() != null) result++;
+        return result;
+    }
+
+    private static String[] loadCorpus() throws IOException {
+        InputStream input = PayloadParsingBenchmarkTest.class.getClassLoader().getResourceAsStream("gs1-corpus.txt");
+        if (input == null) throw new IOException("gs1-corpus.txt not found");
+        List<String> values = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                values.add(line.replace("{GS}", String.valueOf(BarcodePayload.GROUP_SEPARATOR)));
+            }
+        } finally {
+            reader.close();
+        }
+        return values.toArray(new String[values.size()]);
+    }
+}
@@ -0,0 +1,170 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+import com.jorgecoca.superbarcodescanner.camera.PowerPolicy;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+// A scanner on a cradle: it scans an item, sits with nothing in view until it idles, is woken by
+// the next item held up to it, idles again and is woken by being picked up.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class PowerPolicyBenchmarkTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float FPS = 15;
+    private static final int EMPTY_SCENE = 0;
+    private static final int ITEM_SCENE = 1;
+
+    @Test
+    public void idleCradle_downshiftsAndWakesWithoutDelayingTheFirstScan() throws Exception {
+        Properties thresholds = loadThresholds();
+        long idleTimeoutMillis = getInt(thresholds, "idleTimeoutMillis");
+        SyntheticFrameGenerator.SyntheticFrame[] scenes = {
+                generator(0).generate(0),
+                generator(1).generate(0)
+        };
+        SimulatedFrameSource frameSource = new SimulatedFrameSource(scenes, 1, FPS, 1000);
+        frameSource.pinScene(ITEM_SCENE);
+        ScanPipelineHarness.installSimulatedCamera(frameSource, WIDTH, HEIGHT);
+
+        SimulatedMotionSensor motionSensor = new SimulatedMotionSensor();
+        PowerPolicy policy = new PowerPolicy.Builder()
+                .setIdleTimeout(idleTimeoutMillis)
+                .setMotionSensor(motionSensor)
+                .build();
+        SimulatedBarcodeDetector detector = new SimulatedBarcodeDetector(frameSource,
+                (long) (getFloat(thresholds, "decodeTimeMillis") * 1000000));
+        ScanRecorder recorder = new ScanRecorder();
+        detector.setProcessor(policy.wrap(recorder));
+        CameraSource cameraSource = new CameraSource.Builder(RuntimeEnvironment.application, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(WIDTH, HEIGHT)
+                .setRequestedFps(FPS)
+                .setLumaOnly(true)
+                .setPowerPolicy(policy)
+                .build();
+        try {
+            cameraSource.start();
+            assertTrue(motionSensor.isStarted());
+            assertTrue("Item was never scanned", awaitScan(recorder, System.nanoTime() - 1, 2000) >= 0);
+
+            frameSource.pinScene(EMPTY_SCENE);
+            assertTrue("Camera never idled", awaitIdle(policy, true, idleTimeoutMillis + 2000));
+            Thread.sleep(300);
+            float[] idle = measure(frameSource, detector, 2000);
+
+            long presented = System.nanoTime();
+            frameSource.pinScene(ITEM_SCENE);
+            long firstScanMillis = awaitScan(recorder, presented, 2000);
+            assertFalse(policy.isIdle());
+
+            frameSource.pinScene(EMPTY_SCENE);
+            assertTrue("Camera never idled again", awaitIdle(policy, true, idleTimeoutMillis + 2000));
+            motionSensor.move();
+            assertFalse(policy.isIdle());
+            // measured before the idle timeout runs out again
+            Thread.sleep(100);
+            float[] woken = measure(frameSource, detector, idleTimeoutMillis / 2);
+
+            System.out.println(String.format(Locale.US,
+                    "Cradle: idle %.1f fps %.1f detections/s, first scan after idle %d ms, after motion %.1f fps %.1f detections/s, %s",
+                    idle[0], idle[1], firstScanMillis, woken[0], woken[1], policy));
+
+            assertTrue("Idle frame rate too high: " + idle[0], idle[0] <= getFloat(thresholds, "maxIdleFps"));
+            assertEquals("Frames were detected while idle", 0, idle[1], 0.0);
+            assertTrue("Item presented to the idle camera was not scanned", firstScanMillis >= 0);
+            assertTrue("First scan after idle too slow: " + firstScanMillis + " ms",
+                    firstScanMillis <= getInt(thresholds, "maxIdleFirstScanMillis"));
+            assertTrue("Frame rate not restored after motion: " + woken[0], woken[0] >= FPS * getFloat(thresholds, "minFpsRatio"));
+            assertTrue("Detection not resumed after motion", woken[1] > 0);
+            assertEquals(1, policy.getSceneWakeCount());
+            assertEquals(1, policy.getMotionWakeCount());
+        } finally {
+            cameraSource.release();
+            SimulatedCamera.setFrameSource(null);
+        }
+        assertFalse(motionSensor.isStarted());
+    }
+
+    private static SyntheticFrameGenerator generator(int codes) {
+        return new SyntheticFrameGenerator.Builder(42)
+                .setPreviewSize(WIDTH, HEIGHT)
+                .setCodesPerFrame(codes, codes)
+                .setModuleSize(3.0f, 4.0f)
+                .build();
+    }
+
+    // Camera frames and detected frames per second over the next millis.
+    private static float[] measure(SimulatedFrameSource frameSource, SimulatedBarcodeDetector detector, long millis)
+            throws InterruptedException {
+        int startTicks = frameSource.getTickCount();
+        int startProcessed = detector.getProcessedCount();
+        long startTime = System.nanoTime();
+        Thread.sleep(millis);
+        float seconds = (System.nanoTime() - startTime) / 1e9f;
+        return new float[] {
+                (frameSource.getTickCount() - startTicks) / seconds,
+                (detector.getProcessedCount() - startProcessed) / seconds
+        };
+    }
+
+    private static boolean awaitIdle(PowerPolicy policy, boolean idle, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (policy.isIdle() != idle) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Milliseconds from since until the first barcode reported after it, or -1 on timeout.
+    private static long awaitScan(ScanRecorder recorder, long since, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (recorder.lastScanNanos - since <= 0) {
+            if (System.currentTimeMillis() > deadline) return -1;
+            Thread.sleep(1);
+        }
+        return (recorder.firstScanAfter(since) - since) / 1000000L;
+    }
+
+    private static class ScanRecorder implements Detector.Processor<Barcode> {
+        private final long[] scanNanos = new long[4096];
+        private int scanCount;
+        volatile long lastScanNanos;
+
+        @Override
+        public void release() { }
+
+        @Override
+        public synchronized void receiveDetections(Detector.Detections<Barcode> detections) {
+            if (detections.getDetectedItems().size() == 0) return;
+            long now = System.nanoTime();
+            if (scanCount < scanNanos.length) scanNanos[scanCount++] = now;
+            lastScanNanos = now;
+        }
+
+        synchronized long firstScanAfter(long since) {
+            for (int i = 0; i < scanCount; i++) {
+                if (scanNanos[i] - since > 0) return scanNanos[i];
+            }
+            return lastScanNanos;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.jorgecoca.superbarcodescanner.push.ScanPushServer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+// Stand-in point-of-sale terminal for ScanPushServer: a reader thread decodes every frame and
+// records the time from its publication on the bus to its arrival.  Only meaningful with the
+// server in the same process, where both sides share System.nanoTime().
+public class PushClient {
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final long[] latencies;
+    private volatile int latencyCount;
+    private volatile long receivedCount;
+    private volatile long lastSequence = -1;
+    private volatile long gapCount;
+    private volatile String lastValue;
+    private volatile IOException error;
+    private Thread readerThread;
+
+    public PushClient(int port, int maxSamples) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        latencies = new long[maxSamples];
+    }
+
+    public void start() {
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readFrames();
+                } catch (IOException e) {
+                    if (!socket.isClosed()) error = e;
+                }
+            }
+        }, "PushClient");
+        readerThread.start();
+    }
+
+    public void close() throws InterruptedException {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        if (readerThread != null) readerThread.join();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    // Sequence numbers skipped between consecutive frames.
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    public String getLastValue() {
+        return lastValue;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    public int getLatencyCount() {
+        return latencyCount;
+    }
+
+    // Latency percentile in nanoseconds, e.g. 0.99 for p99.
+    public long getLatencyPercentile(double percentile) {
+        int count = latencyCount;
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    private void readFrames() throws IOException {
+        byte[] value = new byte[0xffff];
+        while (true) {
+            int length = input.readInt();
+            int version = input.readUnsignedByte();
+            if (version != ScanPushServer.VERSION) throw new IOException("Unknown frame version " + version);
+            long sequence = input.readLong();
+            input.readUnsignedByte();   // type
+            input.readInt();            // track id
+            input.readInt();            // format
+            input.readInt();            // frame id
+            input.readLong();           // frame timestamp
+            long publishTime = input.readLong();
+            input.skipBytes(16);        // bounding box
+            int valueLength = input.readUnsignedShort();
+            input.readFully(value, 0, valueLength);
+            if (length != 56 + valueLength) throw new IOException("Bad frame length " + length);
+
+            long latency = System.nanoTime() - publishTime;
+            int count = latencyCount;
+            if (count < latencies.length) {
+                latencies[count] = latency;
+                latencyCount = count + 1;
+            }
+            if (lastSequence >= 0 && sequence != lastSequence + 1) gapCount += sequence - lastSequence - 1;
+            lastSequence = sequence;
+            lastValue = new String(value, 0, valueLength, "UTF-8");
+            receivedCount++;
+        }
+    }
+}
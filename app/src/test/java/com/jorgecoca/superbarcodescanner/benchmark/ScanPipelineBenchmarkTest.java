@@ -0,0 +1,104 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Properties;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class ScanPipelineBenchmarkTest {
+
+    @Test
+    public void sustainedScanning_staysWithinThresholds() throws Exception {
+        Properties thresholds = loadThresholds();
+        float fps = getFloat(thresholds, "fps");
+
+        ScanPipelineHarness.Report report = new ScanPipelineHarness.Builder()
+                .setPreviewSize(getInt(thresholds, "previewWidth"), getInt(thresholds, "previewHeight"))
+                .setFps(fps)
+                .setDecodeTimeMillis(getFloat(thresholds, "decodeTimeMillis"))
+                .setUiLoadMillis(getFloat(thresholds, "uiLoadMillis"))
+                .build()
+                .run(getInt(thresholds, "durationMillis"));
+        System.out.println("Scan pipeline benchmark: " + report);
+
+        assertTrue("Throughput regressed: " + report,
+                report.getProcessedFps() >= fps * getFloat(thresholds, "minFpsRatio"));
+        assertTrue("Drop rate regressed: " + report,
+                report.getDropRate() <= getFloat(thresholds, "maxDropRate"));
+        assertTrue("No results reached the overlay: " + report, report.getLatencySamples() > 0);
+        assertTrue("p50 latency regressed: " + report,
+                report.getP50LatencyMillis() <= getFloat(thresholds, "maxP50LatencyMillis"));
+        assertTrue("p99 latency regressed: " + report,
+                report.getP99LatencyMillis() <= getFloat(thresholds, "maxP99LatencyMillis"));
+        assertTrue("Frame delivery regressed: " + report,
+                report.getP99DeliveryMillis() <= getFloat(thresholds, "maxP99DeliveryMillis"));
+        if (report.getAllocationRateBytesPerSecond() >= 0) {
+            assertTrue("Allocation rate regressed: " + report,
+                    report.getAllocationRateBytesPerSecond() / 1024 <= getFloat(thresholds, "maxAllocationKbPerSecond"));
+        }
+    }
+
+    @Test
+    public void lumaOnly_readsOnlyTheYPlane() throws Exception {
+        Properties thresholds = loadThresholds();
+        int width = getInt(thresholds, "previewWidth");
+        int height = getInt(thresholds, "previewHeight");
+        ScanPipelineHarness.Builder builder = new ScanPipelineHarness.Builder()
+                .setPreviewSize(width, height)
+                .setFps(getFloat(thresholds, "fps"))
+                .setDecodeTimeMillis(getFloat(thresholds, "decodeTimeMillis"));
+
+        ScanPipelineHarness.Report nv21 = builder.setLumaOnly(false).build().run(2000);
+        ScanPipelineHarness.Report luma = builder.setLumaOnly(true).build().run(2000);
+        System.out.println("NV21 input: " + nv21);
+        System.out.println("Luma-only input: " + luma);
+
+        assertEquals(width * height, luma.getDetectorInputBytesPerFrame(), 0.0);
+        assertTrue(nv21.getDetectorInputBytesPerFrame() >= width * height * 3 / 2);
+        assertTrue("No results reached the overlay: " + luma, luma.getLatencySamples() > 0);
+    }
+
+    @Test
+    public void headlessService_comparedWithActivityFlow() throws Exception {
+        Properties thresholds = loadThresholds();
+        ScanPipelineHarness.Builder activity = new ScanPipelineHarness.Builder()
+                .setPreviewSize(getInt(thresholds, "previewWidth"), getInt(thresholds, "previewHeight"))
+                .setFps(getFloat(thresholds, "fps"))
+                .setDecodeTimeMillis(getFloat(thresholds, "decodeTimeMillis"));
+        ScanPipelineHarness.Builder kiosk = new ScanPipelineHarness.Builder()
+                .setPreviewSize(getInt(thresholds, "previewWidth"), getInt(thresholds, "previewHeight"))
+                .setFps(getFloat(thresholds, "fps"))
+                .setDecodeTimeMillis(getFloat(thresholds, "decodeTimeMillis"))
+                .setLumaOnly(true)
+                .setHeadless(true);
+
+        // idle: nothing in view, so only the cost of keeping the pipeline running is measured
+        ScanPipelineHarness.Report activityIdle = activity.setCodesPerFrame(0, 0).build().run(2000);
+        ScanPipelineHarness.Report kioskIdle = kiosk.setCodesPerFrame(0, 0).build().run(2000);
+        ScanPipelineHarness.Report activityScanning = activity.setCodesPerFrame(1, 3).build().run(2000);
+        ScanPipelineHarness.Report kioskScanning = kiosk.setCodesPerFrame(1, 3).build().run(2000);
+        System.out.println("Activity idle: " + activityIdle);
+        System.out.println("Headless idle: " + kioskIdle);
+        System.out.println("Activity scanning: " + activityScanning);
+        System.out.println("Headless scanning: " + kioskScanning);
+
+        if (kioskIdle.getCpuMillisPerSecond() >= 0) {
+            assertTrue("Idle CPU " + kioskIdle.getCpuMillisPerSecond() + " ms/s headless vs "
+                            + activityIdle.getCpuMillisPerSecond() + " ms/s with the activity",
+                    kioskIdle.getCpuMillisPerSecond()
+                            <= activityIdle.getCpuMillisPerSecond() * getFloat(thresholds, "maxHeadlessIdleCpuRatio"));
+        }
+        assertTrue("No results reached the channel: " + kioskScanning, kioskScanning.getLatencySamples() > 0);
+        assertTrue("Time-to-result p50 " + kioskScanning.getP50LatencyMillis() + " ms",
+                kioskScanning.getP50LatencyMillis() <= getFloat(thresholds, "maxP50LatencyMillis"));
+    }
+}
@@ -0,0 +1,459 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.content.Context;
+import android.hardware.Camera;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.MultiProcessor;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeTrackerFactory;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+import com.jorgecoca.superbarcodescanner.kiosk.ResultChannel;
+import com.jorgecoca.superbarcodescanner.kiosk.ResultPublisher;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowCamera;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs the scan pipeline end to end without a device: a SimulatedFrameSource feeds CameraSource
+// through the SimulatedCamera shadow, CameraSource's processing loop hands frames to a
+// SimulatedBarcodeDetector, and detections flow through a MultiProcessor with the app's
+// BarcodeTrackerFactory into a HeadlessGraphicOverlay.  In headless mode they flow through the
+// kiosk service's ResultPublisher into a ResultChannel read by a ChannelResultReader instead, with
+// nothing drawn.
+//
+// The calling thread plays the UI thread for the whole run: it runs the main looper and, when a UI
+// load is set, spends that long busy on every vsync like a UI thread laying out and drawing.
+//
+// Must run under Robolectric with SimulatedCamera, SimulatedCameraParameters and SimulatedLooper
+// installed as shadows, see ScanPipelineBenchmarkTest.
+public class ScanPipelineHarness {
+
+    private int previewWidth = 1280;
+    private int previewHeight = 960;
+    private float fps = 15.0f;
+    private long decodeTimeNanos = 25000000L;
+    private int sceneCount = 8;
+    private int framesPerScene = 15;
+    private int minCodesPerFrame = 1;
+    private int maxCodesPerFrame = 3;
+    private long seed = 1;
+    private long warmUpMillis = 1000;
+    private long uiBusyNanos = 0;
+    private boolean lumaOnly = false;
+    private boolean headless = false;
+    private static final long VSYNC_INTERVAL_NANOS = 16666667L;
+
+    // allow only creation via builder class
+    private ScanPipelineHarness() { }
+
+    public static class Builder {
+        private ScanPipelineHarness harness = new ScanPipelineHarness();
+
+        public Builder setPreviewSize(int width, int height) {
+            harness.previewWidth = width;
+            harness.previewHeight = height;
+            return this;
+        }
+
+        public Builder setFps(float fps) {
+            if (fps <= 0) throw new IllegalArgumentException("Invalid fps: " + fps);
+            harness.fps = fps;
+            return this;
+        }
+
+        // CPU time the simulated detector spends on every frame.
+        public Builder setDecodeTimeMillis(float millis) {
+            harness.decodeTimeNanos = (long) (millis * 1000000L);
+            return this;
+        }
+
+        public Builder setScenes(int sceneCount, int framesPerScene) {
+            harness.sceneCount = sceneCount;
+            harness.framesPerScene = framesPerScene;
+            return this;
+        }
+
+        public Builder setCodesPerFrame(int min, int max) {
+            harness.minCodesPerFrame = min;
+            harness.maxCodesPerFrame = max;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            harness.seed = seed;
+            return this;
+        }
+
+        public Builder setWarmUpMillis(long millis) {
+            harness.warmUpMillis = millis;
+            return this;
+        }
+
+        // Time the UI thread is busy in every 16.7 ms vsync interval.
+        public Builder setUiLoadMillis(float millis) {
+            if (millis < 0 || millis * 1000000L >= VSYNC_INTERVAL_NANOS) {
+                throw new IllegalArgumentException("Invalid UI load: " + millis);
+            }
+            harness.uiBusyNanos = (long) (millis * 1000000L);
+            return this;
+        }
+
+        public Builder setLumaOnly(boolean lumaOnly) {
+            harness.lumaOnly = lumaOnly;
+            return this;
+        }
+
+        // Runs the KioskScanService flow instead of the activity's: no overlay, no UI load.
+        public Builder setHeadless(boolean headless) {
+            harness.headless = headless;
+            return this;
+        }
+
+        public ScanPipelineHarness build() {
+            if (harness.headless && harness.uiBusyNanos > 0) {
+                throw new IllegalArgumentException("The headless flow has no UI to load");
+            }
+            return harness;
+        }
+    }
+
+    public static class Report {
+        private final float targetFps;
+        private final long durationNanos;
+        private final int capturedFrames;
+        private final int processedFrames;
+        private final int cameraDrops;
+        private final long p50LatencyNanos;
+        private final long p99LatencyNanos;
+        private final int latencySamples;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcTimeMillis;
+        private final long p50DeliveryNanos;
+        private final long p99DeliveryNanos;
+        private final long deliveryJitterNanos;
+        private final long detectorInputFrames;
+        private final long detectorInputBytes;
+        private final long detectorInputNanos;
+        private final long cpuNanos;
+
+        Report(float targetFps, long durationNanos, int capturedFrames, int processedFrames,
+               int cameraDrops, long p50LatencyNanos, long p99LatencyNanos, int latencySamples,
+               long allocatedBytes, long gcCount, long gcTimeMillis,
+               long p50DeliveryNanos, long p99DeliveryNanos, long deliveryJitterNanos,
+               long detectorInputFrames, long detectorInputBytes, long detectorInputNanos, long cpuNanos) {
+            this.targetFps = targetFps;
+            this.durationNanos = durationNanos;
+            this.capturedFrames = capturedFrames;
+            this.processedFrames = processedFrames;
+            this.cameraDrops = cameraDrops;
+            this.p50LatencyNanos = p50LatencyNanos;
+            this.p99LatencyNanos = p99LatencyNanos;
+            this.latencySamples = latencySamples;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcTimeMillis = gcTimeMillis;
+            this.p50DeliveryNanos = p50DeliveryNanos;
+            this.p99DeliveryNanos = p99DeliveryNanos;
+            this.deliveryJitterNanos = deliveryJitterNanos;
+            this.detectorInputFrames = detectorInputFrames;
+            this.detectorInputBytes = detectorInputBytes;
+            this.detectorInputNanos = detectorInputNanos;
+            this.cpuNanos = cpuNanos;
+        }
+
+        public double getProcessedFps() {
+            return processedFrames * 1e9d / durationNanos;
+        }
+
+        // Fraction of sensor frames that never reached the detector, either because the camera
+        // had no free buffer or because a newer frame replaced them while waiting.
+        public double getDropRate() {
+            if (capturedFrames == 0) return 0;
+            return Math.max(0, capturedFrames - processedFrames) / (double) capturedFrames;
+        }
+
+        public int getCameraDrops() {
+            return cameraDrops;
+        }
+
+        public double getP50LatencyMillis() {
+            return p50LatencyNanos / 1e6d;
+        }
+
+        public double getP99LatencyMillis() {
+            return p99LatencyNanos / 1e6d;
+        }
+
+        public int getLatencySamples() {
+            return latencySamples;
+        }
+
+        // -1 when the JVM cannot measure per-thread allocation.
+        public double getAllocationRateBytesPerSecond() {
+            if (allocatedBytes < 0) return -1;
+            return allocatedBytes * 1e9d / durationNanos;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcTimeMillis() {
+            return gcTimeMillis;
+        }
+
+        // Time from sensor capture to the preview callback starting.
+        public double getP50DeliveryMillis() {
+            return p50DeliveryNanos / 1e6d;
+        }
+
+        public double getP99DeliveryMillis() {
+            return p99DeliveryNanos / 1e6d;
+        }
+
+        // Image bytes the detector had to read per processed frame.
+        public double getDetectorInputBytesPerFrame() {
+            if (detectorInputFrames == 0) return 0;
+            return detectorInputBytes / (double) detectorInputFrames;
+        }
+
+        // Memory bandwidth the detector spent on reading its input.
+        public double getDetectorInputMegabytesPerSecond() {
+            return detectorInputBytes * 1e9d / durationNanos / (1024 * 1024);
+        }
+
+        public double getDetectorInputMillisPerFrame() {
+            if (detectorInputFrames == 0) return 0;
+            return detectorInputNanos / 1e6d / detectorInputFrames;
+        }
+
+        // CPU time used by the pipeline per second of wall time, the UI thread driving the run
+        // excluded; -1 when the JVM cannot measure it.
+        public double getCpuMillisPerSecond() {
+            if (cpuNanos < 0) return -1;
+            return cpuNanos * 1e3d / durationNanos;
+        }
+
+        // Standard deviation of the capture-to-callback time, i.e. how unevenly frames arrive.
+        public double getDeliveryJitterMillis() {
+            return deliveryJitterNanos / 1e6d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%.1f/%.1f fps, %.1f%% dropped (%d at camera), latency p50 %.1f ms p99 %.1f ms (%d samples), " +
+                            "delivery p50 %.2f ms p99 %.2f ms jitter %.2f ms, " +
+                            "detector input %.0f KB/frame %.1f MB/s %.2f ms/frame, " +
+                            "%.1f KB/s allocated, %d GCs taking %d ms, CPU %.0f ms/s",
+                    getProcessedFps(), targetFps, 100 * getDropRate(), cameraDrops,
+                    getP50LatencyMillis(), getP99LatencyMillis(), latencySamples,
+                    getP50DeliveryMillis(), getP99DeliveryMillis(), getDeliveryJitterMillis(),
+                    getDetectorInputBytesPerFrame() / 1024, getDetectorInputMegabytesPerSecond(),
+                    getDetectorInputMillisPerFrame(),
+                    getAllocationRateBytesPerSecond() / 1024, gcCount, gcTimeMillis, getCpuMillisPerSecond());
+        }
+    }
+
+    public Report run(long durationMillis) throws IOException, InterruptedException {
+        int maxFrames = (int) ((warmUpMillis + durationMillis) / 1000.0 * fps * 2) + 64;
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator.Builder(seed)
+                .setPreviewSize(previewWidth, previewHeight)
+                .setCodesPerFrame(minCodesPerFrame, maxCodesPerFrame)
+                .setModuleSize(2.0f, 4.0f)
+                .build();
+        SimulatedFrameSource frameSource = new SimulatedFrameSource(generator, sceneCount, framesPerScene, fps, maxFrames);
+
+        installSimulatedCamera(frameSource, previewWidth, previewHeight);
+
+        Context context = RuntimeEnvironment.application;
+        SimulatedBarcodeDetector detector = new SimulatedBarcodeDetector(frameSource, decodeTimeNanos);
+        HeadlessGraphicOverlay overlay = null;
+        ChannelResultReader reader = null;
+        if (headless) {
+            ResultPublisher publisher = new ResultPublisher();
+            ResultChannel channel = new ResultChannel(16, 50);
+            publisher.subscribe(channel);
+            reader = new ChannelResultReader(frameSource, channel, maxFrames);
+            detector.setProcessor(new MultiProcessor.Builder<>(publisher).build());
+        } else {
+            overlay = new HeadlessGraphicOverlay(context, frameSource, detector, maxFrames);
+            detector.setProcessor(new MultiProcessor.Builder<>(new BarcodeTrackerFactory(overlay)).build());
+        }
+
+        CameraSource cameraSource = new CameraSource.Builder(context, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(previewWidth, previewHeight)
+                .setRequestedFps(fps)
+                .setLumaOnly(lumaOnly)
+                .build();
+
+        try {
+            cameraSource.start();
+            Size previewSize = cameraSource.getPreviewSize();
+            if (overlay != null) {
+                overlay.setCameraInfo(previewSize.getWidth(), previewSize.getHeight(), cameraSource.getCameraFacing());
+                overlay.startDisplay(previewSize.getWidth(), previewSize.getHeight(), 60.0f);
+            } else {
+                reader.start();
+            }
+
+            runUiThread(warmUpMillis);
+
+            int startDelivered = frameSource.getDeliveredCount();
+            int startTicks = frameSource.getTickCount();
+            int startDrops = frameSource.getDroppedCount();
+            int startProcessed = detector.getProcessedCount();
+            long[] startInput = detector.getInputTotals();
+            long startAllocated = allocatedBytes();
+            long startGcCount = gcCount();
+            long startGcTime = gcTimeMillis();
+            long startCpu = pipelineCpuNanos();
+            long startTime = System.nanoTime();
+            if (overlay != null) overlay.startRecording(); else reader.startRecording();
+
+            runUiThread(durationMillis);
+
+            if (overlay != null) overlay.stopRecording(); else reader.stopRecording();
+            long duration = System.nanoTime() - startTime;
+            long endCpu = pipelineCpuNanos();
+            long endAllocated = allocatedBytes();
+            long[] endInput = detector.getInputTotals();
+            long[] deliveryDelays = deliveryDelays(frameSource, startDelivered + 1, frameSource.getDeliveredCount());
+
+            return new Report(fps, duration,
+                    frameSource.getTickCount() - startTicks,
+                    detector.getProcessedCount() - startProcessed,
+                    frameSource.getDroppedCount() - startDrops,
+                    overlay != null ? overlay.getLatencyPercentile(0.50) : reader.getLatencyPercentile(0.50),
+                    overlay != null ? overlay.getLatencyPercentile(0.99) : reader.getLatencyPercentile(0.99),
+                    overlay != null ? overlay.getLatencyCount() : reader.getLatencyCount(),
+                    (startAllocated < 0 || endAllocated < 0) ? -1 : endAllocated - startAllocated,
+                    gcCount() - startGcCount,
+                    gcTimeMillis() - startGcTime,
+                    percentile(deliveryDelays, 0.50),
+                    percentile(deliveryDelays, 0.99),
+                    standardDeviation(deliveryDelays),
+                    endInput[0] - startInput[0],
+                    endInput[1] - startInput[1],
+                    endInput[2] - startInput[2],
+                    (startCpu < 0 || endCpu < 0) ? -1 : endCpu - startCpu);
+        } finally {
+            if (overlay != null) overlay.stopDisplay();
+            cameraSource.release();
+            if (reader != null) reader.stop();
+            SimulatedCamera.setFrameSource(null);
+        }
+    }
+
+    private void runUiThread(long millis) {
+        long endTime = System.nanoTime() + millis * 1000000L;
+        long nextVsync = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= endTime) break;
+            if (now >= nextVsync) {
+                long busyUntil = now + uiBusyNanos;
+                while (System.nanoTime() < busyUntil) {
+                    // layout and draw
+                }
+                nextVsync += VSYNC_INTERVAL_NANOS;
+            }
+            if (SimulatedLooper.runMainLooperTasks() == 0) LockSupport.parkNanos(50000L);
+        }
+    }
+
+    private static long[] deliveryDelays(SimulatedFrameSource frameSource, int firstFrameId, int lastFrameId) {
+        long[] delays = new long[Math.max(0, lastFrameId - firstFrameId + 1)];
+        int count = 0;
+        for (int frameId = firstFrameId; frameId <= lastFrameId; frameId++) {
+            long delay = frameSource.getDeliveryDelayNanos(frameId);
+            if (delay >= 0) delays[count++] = delay;
+        }
+        return Arrays.copyOf(delays, count);
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        if (values.length == 0) return 0;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static long standardDeviation(long[] values) {
+        if (values.length == 0) return 0;
+        double mean = 0;
+        for (long value : values) mean += value;
+        mean /= values.length;
+        double variance = 0;
+        for (long value : values) variance += (value - mean) * (value - mean);
+        return (long) Math.sqrt(variance / values.length);
+    }
+
+    public static void installSimulatedCamera(SimulatedFrameSource frameSource, int width, int height) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        cameraInfo.facing = Camera.CameraInfo.CAMERA_FACING_BACK;
+        cameraInfo.orientation = 90;
+        ShadowCamera.clearCameraInfo();
+        ShadowCamera.addCameraInfo(0, cameraInfo);
+        SimulatedCameraParameters.setSupportedSizes(new int[] { width, height });
+        SimulatedCameraParameters.setZoomSupport(0, false);
+        SimulatedCamera.setSetParametersMillis(0);
+        SimulatedCamera.resetCounts();
+        SimulatedCamera.setFrameSource(frameSource);
+    }
+
+    // Bytes allocated so far by all live threads, or -1 when the JVM cannot tell.
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long allocated : allocationBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    // CPU time of the whole process except the calling thread, which only drives the run, or -1.
+    private static long pipelineCpuNanos() {
+        java.lang.management.OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(osBean instanceof com.sun.management.OperatingSystemMXBean) || !threadBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        long processCpu = ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        if (processCpu < 0) return -1;
+        return processCpu - threadBean.getCurrentThreadCpuTime();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,130 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.bus.ResultBus;
+import com.jorgecoca.superbarcodescanner.push.ScanPushServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+// Publish-to-receive latency and throughput of ScanPushServer, with a PushClient over loopback
+// standing in for the point-of-sale terminal.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ScanPushBenchmarkTest {
+
+    private static final int LATENCY_EVENTS = 500;
+    private static final int THROUGHPUT_EVENTS = 200000;
+
+    @Test
+    public void pacedScans_arriveWithinLatencyBudget() throws Exception {
+        Properties thresholds = loadThresholds();
+        ResultBus bus = new ResultBus.Builder(256).setPublishUpdates(true).build();
+        ScanPushServer server = new ScanPushServer.Builder(bus).setPort(0).build().start();
+        PushClient client = connect(server, LATENCY_EVENTS);
+        try {
+            // a scan every 2 ms, far more often than a person scans, each written on its own
+            Barcode barcode = barcode(Barcode.EAN_13, "Produkt \u00e4\u00f6\u00fc \ud83d\udce6 4006381333931");
+            Tracker<Barcode> tracker = bus.wrap(new Tracker<Barcode>());
+            tracker.onNewItem(1, barcode);
+            Detector.Detections<Barcode> detections = detections(barcode);
+            for (int i = 0; i < LATENCY_EVENTS; i++) {
+                tracker.onUpdate(detections, barcode);
+                LockSupport.parkNanos(2000000L);
+            }
+            awaitReceived(client, LATENCY_EVENTS);
+
+            System.out.println(String.format(Locale.US, "Scan push latency: p50 %.3f ms p99 %.3f ms max %.3f ms, %s",
+                    client.getLatencyPercentile(0.50) / 1e6, client.getLatencyPercentile(0.99) / 1e6,
+                    client.getLatencyPercentile(1.0) / 1e6, server));
+            assertNull(client.getError());
+            assertEquals(barcode.rawValue, client.getLastValue());
+            assertEquals(0, client.getGapCount());
+            assertTrue("p99 " + client.getLatencyPercentile(0.99) / 1e6 + " ms",
+                    client.getLatencyPercentile(0.99) / 1e6 <= getFloat(thresholds, "maxPushP99LatencyMillis"));
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void burstOfScans_isCoalescedWithoutLoss() throws Exception {
+        Properties thresholds = loadThresholds();
+        ResultBus bus = new ResultBus.Builder(1024).setPublishUpdates(true)
+                .setOverflowPolicy(ResultBus.OVERFLOW_BLOCK).setMaxBlockMillis(5000).build();
+        ScanPushServer server = new ScanPushServer.Builder(bus).setPort(0).build().start();
+        PushClient client = connect(server, 0);
+        try {
+            Barcode barcode = barcode(Barcode.EAN_13, "4006381333931");
+            Tracker<Barcode> tracker = bus.wrap(new Tracker<Barcode>());
+            tracker.onNewItem(1, barcode);
+            Detector.Detections<Barcode> detections = detections(barcode);
+            long start = System.nanoTime();
+            for (int i = 0; i < THROUGHPUT_EVENTS; i++) {
+                tracker.onUpdate(detections, barcode);
+            }
+            awaitReceived(client, THROUGHPUT_EVENTS);
+            double eventsPerSecond = THROUGHPUT_EVENTS * 1e9 / (System.nanoTime() - start);
+
+            System.out.println(String.format(Locale.US, "Scan push throughput: %.0f events/s, %s", eventsPerSecond, server));
+            assertNull(client.getError());
+            assertEquals(THROUGHPUT_EVENTS, client.getReceivedCount());
+            assertEquals(0, client.getGapCount());
+            assertEquals(0, bus.getDroppedCount());
+            assertTrue("Bursts were not coalesced: " + server, server.getSentBatches() < server.getSentEvents());
+            assertTrue("Events per second " + eventsPerSecond,
+                    eventsPerSecond >= getFloat(thresholds, "minPushEventsPerSecond"));
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    private static PushClient connect(ScanPushServer server, int maxSamples) throws Exception {
+        PushClient client = new PushClient(server.getPort(), maxSamples);
+        client.start();
+        // events are only sent to clients that are subscribed when they are published
+        long deadline = System.nanoTime() + 5000000000L;
+        while (server.getClientCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, server.getClientCount());
+        return client;
+    }
+
+    private static void awaitReceived(PushClient client, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + 30000000000L;
+        while (client.getReceivedCount() < count && client.getError() == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static Detector.Detections<Barcode> detections(Barcode barcode) {
+        SparseArray<Barcode> items = new SparseArray<>();
+        items.append(1, barcode);
+        Frame frame = new Frame.Builder()
+                .setImageData(ByteBuffer.allocate(1), 1, 1, ImageFormat.NV21)
+                .setId(1)
+                .build();
+        return new Detector.Detections<>(items, frame.getMetadata(), true);
+    }
+}
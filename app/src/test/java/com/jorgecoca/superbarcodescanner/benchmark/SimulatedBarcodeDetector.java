@@ -0,0 +1,117 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stand-in for the native barcode detector, which cannot run off-device.  It reads every byte of
+// the image data it is handed, burns a fixed amount of CPU per frame on top and then reports the
+// symbols the synthetic scene really contains, so everything downstream of receiveFrame sees
+// realistic results and timing.  The bytes and time spent reading the input are recorded, which
+// is what a smaller input saves.  Set to report nothing, it only counts frames, so what a frame
+// loop allocates can be measured with the detector's own work left out.
+public class SimulatedBarcodeDetector extends Detector<Barcode> {
+
+    private final SimulatedFrameSource frameSource;
+    private final long decodeTimeNanos;
+    private final AtomicInteger processedCount = new AtomicInteger();
+    // frames read, and the bytes and time reading them took, always updated and sampled together
+    private final Object inputLock = new Object();
+    private long inputFrames;
+    private long inputBytes;
+    private long inputNanos;
+    private volatile int currentFrameId;
+    private volatile int checksum;
+    private volatile boolean reportingNothing;
+    private final SparseArray<Barcode> noBarcodes = new SparseArray<>();
+
+    public SimulatedBarcodeDetector(SimulatedFrameSource frameSource, long decodeTimeNanos) {
+        this.frameSource = frameSource;
+        this.decodeTimeNanos = decodeTimeNanos;
+    }
+
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    // Frames read so far, and the bytes and nanoseconds reading them took, sampled at one instant.
+    public long[] getInputTotals() {
+        synchronized (inputLock) {
+            return new long[] { inputFrames, inputBytes, inputNanos };
+        }
+    }
+
+    // Skips reading and decoding frames and reports no barcodes, without allocating anything.
+    public void setReportingNothing(boolean reportingNothing) {
+        this.reportingNothing = reportingNothing;
+    }
+
+    // Id of the frame whose detections are currently being handed to the processor.
+    public int getCurrentFrameId() {
+        return currentFrameId;
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        long startTime = System.nanoTime();
+        Frame.Metadata metadata = frame.getMetadata();
+        if (reportingNothing) {
+            currentFrameId = metadata.getId();
+            processedCount.incrementAndGet();
+            return noBarcodes;
+        }
+
+        ByteBuffer data = frame.getGrayscaleImageData();
+        int size = data.limit();
+        int sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += data.get(i);
+        }
+        long readTime = System.nanoTime();
+        synchronized (inputLock) {
+            inputFrames++;
+            inputBytes += size;
+            inputNanos += readTime - startTime;
+        }
+
+        while (System.nanoTime() - readTime < decodeTimeNanos) {
+            sum = sum * 31 + 1;
+        }
+        checksum = sum;
+
+        SparseArray<Barcode> barcodes = new SparseArray<>();
+        SyntheticFrameGenerator.SyntheticFrame scene = frameSource.getScene(metadata.getId());
+        if (scene != null) {
+            List<SyntheticFrameGenerator.Symbol> symbols = scene.getSymbols();
+            for (int i = 0; i < symbols.size(); i++) {
+                SyntheticFrameGenerator.Symbol symbol = symbols.get(i);
+                barcodes.append(symbol.getValue().hashCode() & 0x7fffffff, toBarcode(symbol));
+            }
+        }
+
+        currentFrameId = metadata.getId();
+        processedCount.incrementAndGet();
+        return barcodes;
+    }
+
+    private static Barcode toBarcode(SyntheticFrameGenerator.Symbol symbol) {
+        Barcode barcode = new Barcode();
+        barcode.format = symbol.getFormat();
+        barcode.rawValue = symbol.getValue();
+        barcode.displayValue = symbol.getValue();
+        float[] corners = symbol.getCorners();
+        barcode.cornerPoints = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            barcode.cornerPoints[i] = new Point(Math.round(corners[2 * i]), Math.round(corners[2 * i + 1]));
+        }
+        return barcode;
+    }
+}
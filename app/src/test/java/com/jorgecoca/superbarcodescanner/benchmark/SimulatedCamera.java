@@ -0,0 +1,290 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowCamera;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Shadow of android.hardware.Camera that behaves like the real driver as far as CameraSource can
+// tell: preview buffers handed over with addCallbackBuffer are filled by the installed
+// SimulatedFrameSource and returned through the preview callback, and frames are dropped when
+// the application is holding on to every buffer.  Like the real Camera, callbacks are delivered on
+// the looper of the thread that opened the camera, or the main looper if that thread has none.
+// setParameters takes as long as a camera HAL applying them would, and smooth zoom moves one zoom
+// step per callback, reported through the zoom change listener on that same looper.  The frame
+// source never runs faster than the upper bound of the preview fps range last set.  The bytes the
+// preview callback allocates are counted, apart from what the simulated delivery itself costs.
+// takePicture() only records the request; the test hands the JPEG over with deliverPicture().
+@Implements(Camera.class)
+public class SimulatedCamera extends ShadowCamera {
+
+    private static volatile SimulatedFrameSource frameSource;
+    private static volatile long setParametersNanos;
+    private static final AtomicInteger setParametersCount = new AtomicInteger();
+    private static final AtomicInteger smoothZoomStartCount = new AtomicInteger();
+    private static volatile SimulatedCamera lastStarted;
+    private static final AtomicInteger previewCallbackCount = new AtomicInteger();
+    private static final AtomicLong previewCallbackAllocatedBytes = new AtomicLong();
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // what reading the allocation counter allocates itself
+    private static final long ALLOCATION_PROBE_BYTES = allocationProbeBytes();
+
+    @RealObject
+    private Camera camera;
+
+    private final ConcurrentLinkedQueue<byte[]> callbackBuffers = new ConcurrentLinkedQueue<>();
+    private final Set<byte[]> addedBuffers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>()));
+    private volatile Camera.PreviewCallback previewCallback;
+    private Handler callbackHandler;
+    private Looper callbackLooper;
+    private volatile Camera.OnZoomChangeListener zoomChangeListener;
+    private volatile Camera.ShutterCallback shutterCallback;
+    private volatile Camera.PictureCallback jpegCallback;
+    private final AtomicInteger pictureRequestCount = new AtomicInteger();
+    private volatile int displayOrientation;
+    private volatile long minFrameIntervalNanos;
+    // only touched on the callback looper
+    private boolean smoothZooming;
+    private boolean smoothZoomStopRequested;
+
+    public static void setFrameSource(SimulatedFrameSource source) {
+        frameSource = source;
+    }
+
+    // How long every setParameters call blocks the calling thread.
+    public static void setSetParametersMillis(float millis) {
+        setParametersNanos = (long) (millis * 1000000);
+    }
+
+    public static int getSetParametersCount() {
+        return setParametersCount.get();
+    }
+
+    public static int getSmoothZoomStartCount() {
+        return smoothZoomStartCount.get();
+    }
+
+    public static int getPreviewCallbackCount() {
+        return previewCallbackCount.get();
+    }
+
+    // Bytes allocated by preview callbacks on the thread delivering them.
+    public static long getPreviewCallbackAllocatedBytes() {
+        return previewCallbackAllocatedBytes.get();
+    }
+
+    public static void resetCounts() {
+        setParametersCount.set(0);
+        smoothZoomStartCount.set(0);
+        previewCallbackCount.set(0);
+        previewCallbackAllocatedBytes.set(0);
+    }
+
+    @Implementation
+    public void __constructor__() {
+        super.__constructor__();
+        Looper looper = Looper.myLooper();
+        callbackLooper = looper != null ? looper : Looper.getMainLooper();
+        callbackHandler = new Handler(callbackLooper);
+    }
+
+    // The camera whose preview was started last.
+    public static SimulatedCamera getLastStarted() {
+        return lastStarted;
+    }
+
+    @Implementation
+    public void setPreviewCallbackWithBuffer(Camera.PreviewCallback callback) {
+        previewCallback = callback;
+        if (callback == null) callbackBuffers.clear();
+    }
+
+    @Implementation
+    public void addCallbackBuffer(byte[] buffer) {
+        callbackBuffers.offer(buffer);
+        addedBuffers.add(buffer);
+    }
+
+    @Implementation
+    public void setParameters(Camera.Parameters parameters) {
+        long endTime = System.nanoTime() + setParametersNanos;
+        while (System.nanoTime() < endTime) {
+            LockSupport.parkNanos(endTime - System.nanoTime());
+        }
+        super.setParameters(parameters);
+        int[] fpsRange = new int[2];
+        parameters.getPreviewFpsRange(fpsRange);
+        int maxFps = fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        minFrameIntervalNanos = maxFps > 0 ? 1000000000000L / maxFps : 0;
+        setParametersCount.incrementAndGet();
+    }
+
+    @Implementation
+    public void takePicture(Camera.ShutterCallback shutter, Camera.PictureCallback raw,
+                            Camera.PictureCallback postview, Camera.PictureCallback jpeg) {
+        shutterCallback = shutter;
+        jpegCallback = jpeg;
+        pictureRequestCount.incrementAndGet();
+    }
+
+    public int getPictureRequestCount() {
+        return pictureRequestCount.get();
+    }
+
+    // Completes the last takePicture() with the given JPEG on the callback looper, and returns once
+    // the callbacks have run.
+    public void deliverPicture(final byte[] jpeg) throws Exception {
+        final Camera.ShutterCallback shutter = shutterCallback;
+        final Camera.PictureCallback callback = jpegCallback;
+        if (callback == null) throw new IllegalStateException("No picture was requested");
+        jpegCallback = null;
+        FutureTask<Void> delivery = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                if (shutter != null) shutter.onShutter();
+                callback.onPictureTaken(jpeg, camera);
+            }
+        }, null);
+        callbackHandler.post(delivery);
+        delivery.get();
+    }
+
+    // Shortest time between frames the preview fps range allows, 0 when none was set.
+    public long getMinFrameIntervalNanos() {
+        return minFrameIntervalNanos;
+    }
+
+    // ShadowCamera also writes the display orientation into the CameraInfo of the camera, as if it
+    // were the sensor's mounting angle, which skews every rotation computed after the first.
+    @Implementation
+    public void setDisplayOrientation(int degrees) {
+        displayOrientation = degrees;
+    }
+
+    public int getDisplayOrientation() {
+        return displayOrientation;
+    }
+
+    @Implementation
+    public void setZoomChangeListener(Camera.OnZoomChangeListener listener) {
+        zoomChangeListener = listener;
+    }
+
+    @Implementation
+    public void startSmoothZoom(final int value) {
+        final Camera.Parameters parameters = getParameters();
+        if (value < 0 || value > parameters.getMaxZoom()) throw new IllegalArgumentException("invalid zoom value");
+        if (smoothZooming) throw new RuntimeException("start smooth zoom failed");
+        smoothZooming = true;
+        smoothZoomStopRequested = false;
+        smoothZoomStartCount.incrementAndGet();
+        callbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int zoom = parameters.getZoom();
+                if (!smoothZoomStopRequested && zoom != value) {
+                    zoom += zoom < value ? 1 : -1;
+                    parameters.setZoom(zoom);
+                }
+                boolean stopped = smoothZoomStopRequested || zoom == value;
+                if (stopped) smoothZooming = false;
+                Camera.OnZoomChangeListener listener = zoomChangeListener;
+                if (listener != null) listener.onZoomChange(zoom, stopped, camera);
+                if (!stopped) callbackHandler.post(this);
+            }
+        });
+    }
+
+    @Implementation
+    public void stopSmoothZoom() {
+        if (smoothZooming) smoothZoomStopRequested = true;
+    }
+
+    @Implementation
+    public void startPreview() {
+        super.startPreview();
+        lastStarted = this;
+        SimulatedFrameSource source = frameSource;
+        if (source != null) source.attach(this);
+    }
+
+    @Implementation
+    public void stopPreview() {
+        SimulatedFrameSource source = frameSource;
+        if (source != null) source.detach(this);
+        super.stopPreview();
+    }
+
+    @Implementation
+    public void release() {
+        stopPreview();
+        callbackBuffers.clear();
+        addedBuffers.clear();
+        super.release();
+    }
+
+    public Looper getCallbackLooper() {
+        return callbackLooper;
+    }
+
+    public int getCallbackBufferCount() {
+        return callbackBuffers.size();
+    }
+
+    // Distinct buffers ever handed over with addCallbackBuffer, which stays put while the same
+    // buffers keep being returned.
+    public int getAddedBufferCount() {
+        return addedBuffers.size();
+    }
+
+    byte[] pollCallbackBuffer() {
+        return callbackBuffers.poll();
+    }
+
+    void deliver(final byte[] buffer, final int frameId) {
+        callbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Camera.PreviewCallback callback = previewCallback;
+                if (callback != null) {
+                    SimulatedFrameSource source = frameSource;
+                    if (source != null) source.onDelivered(frameId);
+                    long allocated = allocatedBytes();
+                    callback.onPreviewFrame(buffer, camera);
+                    previewCallbackAllocatedBytes.addAndGet(allocatedBytes() - allocated - ALLOCATION_PROBE_BYTES);
+                    previewCallbackCount.incrementAndGet();
+                } else {
+                    callbackBuffers.offer(buffer);
+                }
+            }
+        });
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocationProbeBytes() {
+        long probe = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long first = allocatedBytes();
+            probe = Math.min(probe, allocatedBytes() - first);
+        }
+        return probe;
+    }
+}
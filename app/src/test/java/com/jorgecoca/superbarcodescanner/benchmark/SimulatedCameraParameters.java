@@ -0,0 +1,126 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.hardware.Camera;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.internal.Shadow;
+import org.robolectric.shadows.ShadowCamera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reports the preview and picture sizes the simulated sensor produces, so CameraSource selects
+// the same size it would on a device with that sensor, and the zoom range, focus and flash modes
+// it has.  Every other
+// parameter is kept in a plain key/value map, which the real Camera.Parameters accessors read and
+// write through get and set.
+@Implements(Camera.Parameters.class)
+public class SimulatedCameraParameters extends ShadowCamera.ShadowParameters {
+
+    private static volatile int[][] supportedSizes = { { 640, 480 } };
+    private static volatile int maxZoom;
+    private static volatile boolean smoothZoomSupported;
+
+    private final Map<String, String> values = new HashMap<>();
+    public static void setSupportedSizes(int[]... sizes) {
+        supportedSizes = sizes.clone();
+    }
+
+    // maxZoom 0 means the camera cannot zoom.
+    public static void setZoomSupport(int maxZoom, boolean smooth) {
+        SimulatedCameraParameters.maxZoom = maxZoom;
+        smoothZoomSupported = smooth;
+    }
+
+    @Implementation
+    public boolean isZoomSupported() {
+        return maxZoom > 0;
+    }
+
+    @Implementation
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    @Implementation
+    public boolean isSmoothZoomSupported() {
+        return smoothZoomSupported;
+    }
+
+    @Implementation
+    public int getZoom() {
+        return getInt("zoom");
+    }
+
+    @Implementation
+    public void setZoom(int value) {
+        set("zoom", value);
+    }
+
+    @Implementation
+    public List<String> getSupportedFocusModes() {
+        return Arrays.asList(Camera.Parameters.FOCUS_MODE_AUTO, Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
+                Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+    }
+
+    @Implementation
+    public List<String> getSupportedFlashModes() {
+        return Arrays.asList(Camera.Parameters.FLASH_MODE_OFF, Camera.Parameters.FLASH_MODE_AUTO,
+                Camera.Parameters.FLASH_MODE_TORCH);
+    }
+
+    @Implementation
+    public List<Camera.Size> getSupportedPreviewSizes() {
+        return createSizes();
+    }
+
+    @Implementation
+    public List<Camera.Size> getSupportedPictureSizes() {
+        return createSizes();
+    }
+
+    @Implementation
+    public List<int[]> getSupportedPreviewFpsRange() {
+        return Arrays.asList(new int[] { 7500, 7500 }, new int[] { 5000, 15000 }, new int[] { 15000, 15000 },
+                new int[] { 15000, 30000 }, new int[] { 30000, 30000 });
+    }
+
+    @Implementation
+    public void set(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Implementation
+    public void set(String key, int value) {
+        values.put(key, Integer.toString(value));
+    }
+
+    @Implementation
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    @Implementation
+    public int getInt(String key) {
+        String value = values.get(key);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    @Implementation
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    private static List<Camera.Size> createSizes() {
+        Camera camera = Shadow.newInstanceOf(Camera.class);
+        List<Camera.Size> sizes = new ArrayList<>();
+        for (int[] size : supportedSizes) {
+            sizes.add(camera.new Size(size[0], size[1]));
+        }
+        return sizes;
+    }
+}
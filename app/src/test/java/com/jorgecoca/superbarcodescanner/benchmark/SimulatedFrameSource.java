@@ -0,0 +1,169 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// A camera sensor producing frames at a fixed rate.  Each tick takes a free preview buffer from
+// the attached SimulatedCamera, copies the current scene into it and delivers it through the
+// preview callback, or counts a drop when no buffer is free.  Scenes are rendered up front so the
+// sensor thread only pays for the copy, like a real camera DMA.  Like a real sensor, it slows
+// down when the camera's preview fps range does not allow its rate.
+public class SimulatedFrameSource {
+
+    private final SyntheticFrameGenerator.SyntheticFrame[] scenes;
+    private final int framesPerScene;
+    private final long frameIntervalNanos;
+
+    // Indexed by the id CameraSource assigns to each delivered frame, which starts at 1 and
+    // increments per preview callback.
+    private final long[] captureTimeNanos;
+    private final long[] deliveryTimeNanos;
+    private final int[] sceneIndices;
+
+    private final AtomicInteger tickCount = new AtomicInteger();
+    private final AtomicInteger deliveredCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+
+    private final Object lock = new Object();
+    private SimulatedCamera camera;
+    private Thread sensorThread;
+    private volatile boolean running;
+    private volatile int pinnedScene = -1;
+
+    public SimulatedFrameSource(SyntheticFrameGenerator generator, int sceneCount, int framesPerScene,
+                                float fps, int maxFrames) {
+        this(generate(generator, sceneCount), framesPerScene, fps, maxFrames);
+    }
+
+    public SimulatedFrameSource(SyntheticFrameGenerator.SyntheticFrame[] scenes, int framesPerScene,
+                                float fps, int maxFrames) {
+        if (scenes.length == 0) throw new IllegalArgumentException("No scenes supplied");
+        if (framesPerScene <= 0) throw new IllegalArgumentException("Invalid frames per scene: " + framesPerScene);
+        if (fps <= 0) throw new IllegalArgumentException("Invalid fps: " + fps);
+
+        this.scenes = scenes.clone();
+        this.framesPerScene = framesPerScene;
+        frameIntervalNanos = (long) (1e9 / fps);
+        captureTimeNanos = new long[maxFrames + 1];
+        deliveryTimeNanos = new long[maxFrames + 1];
+        sceneIndices = new int[maxFrames + 1];
+    }
+
+    private static SyntheticFrameGenerator.SyntheticFrame[] generate(SyntheticFrameGenerator generator, int sceneCount) {
+        if (sceneCount <= 0) throw new IllegalArgumentException("Invalid scene count: " + sceneCount);
+        SyntheticFrameGenerator.SyntheticFrame[] scenes = new SyntheticFrameGenerator.SyntheticFrame[sceneCount];
+        for (int i = 0; i < sceneCount; i++) {
+            scenes[i] = generator.generate(i);
+        }
+        return scenes;
+    }
+
+    // Shows only scene sceneIndex from the next frame on, or goes back to cycling through the
+    // scenes for -1.
+    public void pinScene(int sceneIndex) {
+        if (sceneIndex < -1 || sceneIndex >= scenes.length) throw new IllegalArgumentException("Invalid scene: " + sceneIndex);
+        pinnedScene = sceneIndex;
+    }
+
+    public int getTickCount() {
+        return tickCount.get();
+    }
+
+    public int getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    // Capture time of the frame CameraSource numbered frameId, or 0 when it is unknown.
+    public long getCaptureTimeNanos(int frameId) {
+        if (frameId <= 0 || frameId >= captureTimeNanos.length) return 0;
+        return captureTimeNanos[frameId];
+    }
+
+    // Time between capture and the preview callback starting for the frame numbered frameId, or -1
+    // when it is unknown or the frame was never delivered.
+    public long getDeliveryDelayNanos(int frameId) {
+        if (frameId <= 0 || frameId >= deliveryTimeNanos.length) return -1;
+        long deliveryTime = deliveryTimeNanos[frameId];
+        if (deliveryTime == 0) return -1;
+        return deliveryTime - captureTimeNanos[frameId];
+    }
+
+    public SyntheticFrameGenerator.SyntheticFrame getScene(int frameId) {
+        if (frameId <= 0 || frameId >= sceneIndices.length) return null;
+        return scenes[sceneIndices[frameId]];
+    }
+
+    void onDelivered(int frameId) {
+        if (frameId < deliveryTimeNanos.length) deliveryTimeNanos[frameId] = System.nanoTime();
+    }
+
+    void attach(SimulatedCamera camera) {
+        synchronized (lock) {
+            detach(this.camera);
+            this.camera = camera;
+            running = true;
+            sensorThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSensor();
+                }
+            }, "SimulatedSensor");
+            sensorThread.start();
+        }
+    }
+
+    void detach(SimulatedCamera camera) {
+        synchronized (lock) {
+            if (camera == null || this.camera != camera) return;
+            running = false;
+            try {
+                sensorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sensorThread = null;
+            this.camera = null;
+        }
+    }
+
+    private void runSensor() {
+        SimulatedCamera camera = this.camera;
+        long nextFrameTime = System.nanoTime();
+        while (running) {
+            captureFrame(camera);
+            nextFrameTime += Math.max(frameIntervalNanos, camera.getMinFrameIntervalNanos());
+            long delay = nextFrameTime - System.nanoTime();
+            if (delay > 0) LockSupport.parkNanos(delay);
+        }
+    }
+
+    private void captureFrame(SimulatedCamera camera) {
+        int tick = tickCount.getAndIncrement();
+        byte[] buffer = camera.pollCallbackBuffer();
+        if (buffer == null) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+
+        int sceneIndex = pinnedScene >= 0 ? pinnedScene : (tick / framesPerScene) % scenes.length;
+        byte[] scene = scenes[sceneIndex].getData();
+        System.arraycopy(scene, 0, buffer, 0, Math.min(scene.length, buffer.length));
+
+        int frameId = deliveredCount.incrementAndGet();
+        if (frameId < captureTimeNanos.length) {
+            captureTimeNanos[frameId] = System.nanoTime();
+            sceneIndices[frameId] = sceneIndex;
+        }
+        camera.deliver(buffer, frameId);
+    }
+}
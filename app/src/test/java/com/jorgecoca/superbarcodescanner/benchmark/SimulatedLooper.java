@@ -0,0 +1,57 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.os.Looper;
+
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Shadow of android.os.Looper under which background loopers really loop.  Robolectric normally
+// runs whatever is posted to a background looper inline on the posting thread, which would hide
+// which thread camera callbacks are delivered on.  Here messages for a HandlerThread are queued
+// and run by that thread, and the main looper is left to the test, which drives it with
+// runMainLooperTasks() as if it were the UI thread.
+@Implements(Looper.class)
+public class SimulatedLooper extends ShadowLooper {
+
+    private static final long IDLE_POLL_NANOS = 50000L;
+
+    @Implementation
+    public static void loop() {
+        Looper looper = Looper.myLooper();
+        if (looper == Looper.getMainLooper()) return;
+
+        SimulatedLooper shadow = (SimulatedLooper) Shadows.shadowOf(looper);
+        Scheduler scheduler = shadow.getScheduler();
+        while (!shadow.hasQuit()) {
+            if (!scheduler.runOneTask()) LockSupport.parkNanos(IDLE_POLL_NANOS);
+        }
+    }
+
+    @Implementation
+    public void quitSafely() {
+        quit();
+    }
+
+    @Override
+    public Scheduler getScheduler() {
+        Scheduler scheduler = super.getScheduler();
+        // queue instead of running on the posting thread
+        scheduler.pause();
+        return scheduler;
+    }
+
+    // Runs every message currently queued on the main looper and returns how many ran.
+    public static int runMainLooperTasks() {
+        Scheduler scheduler = Shadows.shadowOf(Looper.getMainLooper()).getScheduler();
+        int count = 0;
+        while (scheduler.runOneTask()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,28 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import com.jorgecoca.superbarcodescanner.camera.PowerPolicy;
+
+// Stands in for the accelerometer: reports motion whenever the test moves the device.
+public class SimulatedMotionSensor implements PowerPolicy.MotionSensor {
+
+    private volatile PowerPolicy.MotionListener listener;
+
+    @Override
+    public void start(PowerPolicy.MotionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+    }
+
+    public boolean isStarted() {
+        return listener != null;
+    }
+
+    public void move() {
+        PowerPolicy.MotionListener current = listener;
+        if (current != null) current.onMotion();
+    }
+}
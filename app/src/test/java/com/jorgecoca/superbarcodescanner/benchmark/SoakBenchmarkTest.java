@@ -0,0 +1,285 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.google.android.gms.vision.MultiProcessor;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeTrackerFactory;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+import com.jorgecoca.superbarcodescanner.camera.CameraSourcePreview;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSurfaceView;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+// Hours of pause and resume compressed into a run: CameraSource is started and stopped, built and
+// released, and driven through CameraSourcePreview the way BarcodeCaptureActivity does, over and
+// over against the simulated camera and detector.  After every window of cycles the live heap,
+// the thread count and the preview buffers CameraSource has registered are sampled; a leak shows
+// as a trend across the windows however small it is per cycle.  The time from starting to the
+// first detection plus the time stop() takes is recorded every cycle, and its p99 must not drift
+// up between the first and second half of the run.
+//
+// soakCycles is kept short for the build; raise it for a real soak, e.g.
+// -Dscan.benchmark.soakCycles=5000
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class SoakBenchmarkTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final float FPS = 30;
+    private static final long DECODE_TIME_NANOS = 1000000L;
+    private static final int WINDOWS = 10;
+    // the activity is destroyed and created again this often in the preview soak
+    private static final int CYCLES_PER_ACTIVITY = 25;
+    private static final long FIRST_FRAME_TIMEOUT_NANOS = 5000000000L;
+
+    @Test
+    public void startStopCycles_holdNoGrowingState() throws Exception {
+        Properties thresholds = loadThresholds();
+        Soak soak = new Soak(thresholds);
+        SimulatedBarcodeDetector detector = soak.detector();
+        CameraSource cameraSource = build(detector);
+        try {
+            for (int cycle = 0; cycle < soak.cycles; cycle++) {
+                long startTime = System.nanoTime();
+                cameraSource.start();
+                awaitDetection(detector);
+                long startNanos = System.nanoTime() - startTime;
+                int bufferCount = cameraSource.getPreviewBufferCount();
+                long stopTime = System.nanoTime();
+                cameraSource.stop();
+                soak.endCycle(startNanos + System.nanoTime() - stopTime, bufferCount);
+            }
+        } finally {
+            cameraSource.release();
+            soak.finish();
+        }
+        soak.assertSteady("Start/stop");
+    }
+
+    @Test
+    public void buildReleaseCycles_leaveNoThreadsBehind() throws Exception {
+        Properties thresholds = loadThresholds();
+        Soak soak = new Soak(thresholds);
+        int baselineThreads = liveThreadCount();
+        for (int cycle = 0; cycle < soak.cycles; cycle++) {
+            SimulatedBarcodeDetector detector = soak.detector();
+            long startTime = System.nanoTime();
+            CameraSource cameraSource = build(detector);
+            int bufferCount;
+            try {
+                cameraSource.start();
+                awaitDetection(detector);
+                bufferCount = cameraSource.getPreviewBufferCount();
+            } finally {
+                cameraSource.release();
+            }
+            long cycleNanos = System.nanoTime() - startTime;
+            // release() returns only once every thread the source started has gone
+            assertEquals("Threads left running after release() in cycle " + cycle, baselineThreads, liveThreadCount());
+            soak.endCycle(cycleNanos, bufferCount);
+        }
+        soak.finish();
+        soak.assertSteady("Build/release");
+    }
+
+    @Test
+    public void previewLifecycle_holdsNoGrowingState() throws Exception {
+        Properties thresholds = loadThresholds();
+        Soak soak = new Soak(thresholds);
+        CameraSourcePreview preview = null;
+        CameraSource cameraSource = null;
+        SimulatedBarcodeDetector detector = null;
+        try {
+            for (int cycle = 0; cycle < soak.cycles; cycle++) {
+                if (cycle % CYCLES_PER_ACTIVITY == 0) {
+                    // onDestroy, then onCreate of the next activity
+                    if (preview != null) preview.release();
+                    preview = new CameraSourcePreview(RuntimeEnvironment.application, null);
+                    detector = soak.detector();
+                    cameraSource = build(detector);
+                }
+                SurfaceHolder holder = ((SurfaceView) preview.getChildAt(0)).getHolder();
+
+                // onResume, with the surface created once the window is shown
+                long startTime = System.nanoTime();
+                preview.start(cameraSource, soak.overlay);
+                for (SurfaceHolder.Callback callback : callbacks(holder)) callback.surfaceCreated(holder);
+                awaitDetection(detector);
+                long startNanos = System.nanoTime() - startTime;
+                int bufferCount = cameraSource.getPreviewBufferCount();
+
+                // onPause, and the surface goes with the window
+                long stopTime = System.nanoTime();
+                preview.stop();
+                long stopNanos = System.nanoTime() - stopTime;
+                for (SurfaceHolder.Callback callback : callbacks(holder)) callback.surfaceDestroyed(holder);
+                soak.endCycle(startNanos + stopNanos, bufferCount);
+            }
+        } finally {
+            if (preview != null) preview.release();
+            soak.finish();
+        }
+        soak.assertSteady("Preview lifecycle");
+    }
+
+    private static CameraSource build(SimulatedBarcodeDetector detector) {
+        return new CameraSource.Builder(RuntimeEnvironment.application, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(WIDTH, HEIGHT)
+                .setRequestedFps(FPS)
+                .build();
+    }
+
+    private static void awaitDetection(SimulatedBarcodeDetector detector) {
+        int processed = detector.getProcessedCount();
+        long deadline = System.nanoTime() + FIRST_FRAME_TIMEOUT_NANOS;
+        while (detector.getProcessedCount() == processed) {
+            if (System.nanoTime() > deadline) throw new AssertionError("No frame detected after start");
+            // anything posted to the main looper would pile up there otherwise
+            if (SimulatedLooper.runMainLooperTasks() == 0) LockSupport.parkNanos(100000L);
+        }
+    }
+
+    private static List<SurfaceHolder.Callback> callbacks(SurfaceHolder holder) {
+        return new ArrayList<>(((ShadowSurfaceView.FakeSurfaceHolder) holder).getCallbacks());
+    }
+
+    private static int liveThreadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    // Cycle latencies and the samples taken after every window of cycles.  Detections go through
+    // the app's trackers to an overlay shared by every cycle, so its graphics are soaked as well.
+    private static class Soak {
+        private final int cycles;
+        private final int cyclesPerWindow;
+        private final Properties thresholds;
+        private final SimulatedFrameSource frameSource;
+        private final DrawnGraphicOverlay overlay = new DrawnGraphicOverlay(RuntimeEnvironment.application);
+        private final long[] cycleNanos;
+        private final long[] heapBytes = new long[WINDOWS];
+        private final long[] threadCounts = new long[WINDOWS];
+        private final long[] bufferCounts = new long[WINDOWS];
+        private int cycle;
+
+        Soak(Properties thresholds) {
+            this.thresholds = thresholds;
+            cycles = Math.max(WINDOWS * 2, getInt(thresholds, "soakCycles"));
+            cyclesPerWindow = cycles / WINDOWS;
+            cycleNanos = new long[cyclesPerWindow * WINDOWS];
+            SyntheticFrameGenerator generator = new SyntheticFrameGenerator.Builder(7)
+                    .setPreviewSize(WIDTH, HEIGHT)
+                    .setCodesPerFrame(1, 2)
+                    .build();
+            frameSource = new SimulatedFrameSource(generator, 4, 5, FPS, 1000);
+            ScanPipelineHarness.installSimulatedCamera(frameSource, WIDTH, HEIGHT);
+        }
+
+        SimulatedBarcodeDetector detector() {
+            SimulatedBarcodeDetector detector = new SimulatedBarcodeDetector(frameSource, DECODE_TIME_NANOS);
+            detector.setProcessor(new MultiProcessor.Builder<>(new BarcodeTrackerFactory(overlay)).build());
+            return detector;
+        }
+
+        void endCycle(long nanos, int bufferCount) {
+            if (cycle >= cycleNanos.length) return;
+            cycleNanos[cycle++] = nanos;
+            if (cycle % cyclesPerWindow != 0) return;
+
+            int window = cycle / cyclesPerWindow - 1;
+            heapBytes[window] = liveHeapBytes();
+            threadCounts[window] = liveThreadCount();
+            bufferCounts[window] = bufferCount;
+        }
+
+        void finish() {
+            SimulatedCamera.setFrameSource(null);
+        }
+
+        void assertSteady(String name) {
+            // the first window warms up the JIT and the pools
+            int half = WINDOWS / 2;
+            long earlyP99 = percentile(Arrays.copyOfRange(cycleNanos, cyclesPerWindow, half * cyclesPerWindow), 0.99);
+            long lateP99 = percentile(Arrays.copyOfRange(cycleNanos, half * cyclesPerWindow, cycleNanos.length), 0.99);
+            double heapGrowthKb = fittedGrowth(Arrays.copyOfRange(heapBytes, 1, WINDOWS)) / 1024;
+            double threadGrowth = fittedGrowth(Arrays.copyOfRange(threadCounts, 1, WINDOWS));
+            System.out.println(String.format(Locale.US,
+                    "%s soak, %d cycles: live heap %s KB (trend %+.0f KB), threads %s, preview buffers %s, " +
+                            "cycle p99 %.1f ms then %.1f ms",
+                    name, cycleNanos.length, Arrays.toString(divide(heapBytes, 1024)), heapGrowthKb,
+                    Arrays.toString(threadCounts), Arrays.toString(bufferCounts), earlyP99 / 1e6d, lateP99 / 1e6d));
+
+            for (int i = 1; i < WINDOWS; i++) {
+                assertEquals(name + " preview buffers registered grew: " + Arrays.toString(bufferCounts),
+                        bufferCounts[0], bufferCounts[i]);
+            }
+            assertTrue(name + " thread count grew: " + Arrays.toString(threadCounts), threadGrowth < 1);
+            assertTrue(name + " live heap grew by " + heapGrowthKb + " KB",
+                    heapGrowthKb <= getInt(thresholds, "maxSoakHeapGrowthKb"));
+            assertTrue(name + " cycle p99 drifted from " + earlyP99 + " ns to " + lateP99 + " ns",
+                    lateP99 <= earlyP99 * getFloat(thresholds, "maxSoakP99DriftRatio"));
+        }
+
+        private static long liveHeapBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            long live = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                live = Math.min(live, runtime.totalMemory() - runtime.freeMemory());
+            }
+            return live;
+        }
+
+        // Rise over the samples of a least-squares line through them, so one noisy sample neither
+        // hides a steady leak nor fails the run on its own.
+        private static double fittedGrowth(long[] samples) {
+            int n = samples.length;
+            double meanX = (n - 1) / 2.0;
+            double meanY = 0;
+            for (long sample : samples) meanY += sample;
+            meanY /= n;
+            double covariance = 0;
+            double variance = 0;
+            for (int i = 0; i < n; i++) {
+                covariance += (i - meanX) * (samples[i] - meanY);
+                variance += (i - meanX) * (i - meanX);
+            }
+            return covariance / variance * (n - 1);
+        }
+
+        private static long percentile(long[] values, double percentile) {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        private static long[] divide(long[] values, long divisor) {
+            long[] divided = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                divided[i] = values[i] / divisor;
+            }
+            return divided;
+        }
+    }
+}
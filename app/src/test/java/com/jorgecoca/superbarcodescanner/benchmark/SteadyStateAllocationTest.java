@@ -0,0 +1,195 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.Canvas;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeGraphic;
+import com.jorgecoca.superbarcodescanner.barcode.BarcodeTrackerFactory;
+import com.jorgecoca.superbarcodescanner.camera.CameraSource;
+import com.jorgecoca.superbarcodescanner.camera.GraphicOverlay;
+import com.jorgecoca.superbarcodescanner.camera.LowLightPreprocessor;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Properties;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+// Bytes allocated per frame once scanning has settled, on the threads GC pauses hurt: the camera
+// thread in CameraSource's preview callback, the detection thread, and the UI thread updating and
+// drawing the overlay.  The detector here reports nothing and allocates nothing itself, so what the
+// detection thread is charged for is CameraSource and the vision library's per-frame bookkeeping.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class SteadyStateAllocationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float FPS = 60;
+    private static final int WARMUP_FRAMES = 60;
+    private static final int MEASURED_FRAMES = 120;
+    private static final int GRAPHICS = 8;
+    private static final int DRAWS = 1000;
+
+    @Test
+    public void frameLoop_staysWithinAllocationBudget() throws Exception {
+        long[] perFrame = measureFrameLoop(null);
+        assertFrameBudget("Frame loop", perFrame);
+    }
+
+    @Test
+    public void preprocessedFrameLoop_staysWithinAllocationBudget() throws Exception {
+        LowLightPreprocessor preprocessor = new LowLightPreprocessor.Builder()
+                .setMode(LowLightPreprocessor.MODE_ALWAYS)
+                .build();
+        long[] perFrame = measureFrameLoop(preprocessor);
+        assertFrameBudget("Preprocessed frame loop", perFrame);
+    }
+
+    @Test
+    public void overlayUpdateAndDraw_staysWithinAllocationBudget() throws Exception {
+        Properties thresholds = loadThresholds();
+        DrawnGraphicOverlay overlay = new DrawnGraphicOverlay(RuntimeEnvironment.application);
+        overlay.setCameraInfo(WIDTH, HEIGHT, CameraSource.CAMERA_FACING_BACK);
+        BarcodeTrackerFactory factory = new BarcodeTrackerFactory(overlay);
+        Detector.Detections<Barcode> detections = new Detector.Detections<>(new SparseArray<Barcode>(), new Frame.Metadata(), true);
+        Barcode[] barcodes = new Barcode[GRAPHICS];
+        @SuppressWarnings("unchecked")
+        Tracker<Barcode>[] trackers = new Tracker[GRAPHICS];
+        for (int i = 0; i < GRAPHICS; i++) {
+            barcodes[i] = barcode(Barcode.EAN_13, "400638133393" + i, 100 + i * 70, 100, 200, 60);
+            trackers[i] = factory.create(barcodes[i]);
+            trackers[i].onNewItem(i + 1, barcodes[i]);
+        }
+        CountingCanvas canvas = new CountingCanvas(1280, 960);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < DRAWS; i++) {
+            updateAndDraw(overlay, trackers, barcodes, detections, canvas);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < DRAWS; i++) {
+            updateAndDraw(overlay, trackers, barcodes, detections, canvas);
+        }
+        long perDraw = (threads.getThreadAllocatedBytes(threadId) - before) / DRAWS;
+        System.out.println(String.format(Locale.US, "Overlay: %d graphics updated and drawn, %d bytes allocated per frame, %d rects drawn",
+                GRAPHICS, perDraw, canvas.getRectCount()));
+
+        assertEquals(GRAPHICS * DRAWS * 2, canvas.getRectCount());
+        assertTrue("Overlay update and draw allocated " + perDraw + " bytes per frame",
+                perDraw <= getInt(thresholds, "maxDrawAllocationBytes"));
+    }
+
+    @Test
+    public void trackedBarcodes_reusePooledGraphics() {
+        GraphicOverlay<BarcodeGraphic> overlay = new DrawnGraphicOverlay(RuntimeEnvironment.application);
+        BarcodeTrackerFactory factory = new BarcodeTrackerFactory(overlay);
+        Detector.Detections<Barcode> detections = new Detector.Detections<>(new SparseArray<Barcode>(), new Frame.Metadata(), true);
+        for (int i = 0; i < 100; i++) {
+            Barcode barcode = barcode(Barcode.EAN_13, "400638133393" + (i % 10), 100, 100, 200, 60);
+            Tracker<Barcode> tracker = factory.create(barcode);
+            tracker.onNewItem(i + 1, barcode);
+            tracker.onUpdate(detections, barcode);
+            assertSame(barcode, overlay.getFirstGraphic().getBarcode());
+            assertEquals(i + 1, overlay.getFirstGraphic().getID());
+            tracker.onMissing(detections);
+            tracker.onDone();
+            assertNull(overlay.getFirstGraphic());
+        }
+        assertEquals(1, factory.getCreatedGraphicCount());
+    }
+
+    // Bytes allocated per frame on the camera and detection threads.
+    private static long[] measureFrameLoop(LowLightPreprocessor preprocessor) throws Exception {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator.Builder(42)
+                .setPreviewSize(WIDTH, HEIGHT)
+                .setCodesPerFrame(1, 1)
+                .build();
+        SimulatedFrameSource frameSource = new SimulatedFrameSource(generator, 2, 10, FPS, 10000);
+        ScanPipelineHarness.installSimulatedCamera(frameSource, WIDTH, HEIGHT);
+        SimulatedBarcodeDetector detector = new SimulatedBarcodeDetector(frameSource, 0);
+        detector.setReportingNothing(true);
+        detector.setProcessor(new Detector.Processor<Barcode>() {
+            @Override
+            public void release() { }
+
+            @Override
+            public void receiveDetections(Detector.Detections<Barcode> detections) { }
+        });
+        CameraSource.Builder builder = new CameraSource.Builder(RuntimeEnvironment.application, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(WIDTH, HEIGHT)
+                .setRequestedFps(FPS)
+                .setLumaOnly(true);
+        if (preprocessor != null) builder.setPreprocessor(preprocessor);
+        CameraSource cameraSource = builder.build();
+        try {
+            cameraSource.start();
+            awaitFrames(detector, WARMUP_FRAMES);
+            Thread detectionThread = findThread("CameraSource-Detection");
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            SimulatedCamera.resetCounts();
+            long detectionBefore = threads.getThreadAllocatedBytes(detectionThread.getId());
+            int firstFrame = detector.getProcessedCount();
+            awaitFrames(detector, firstFrame + MEASURED_FRAMES);
+            int frames = detector.getProcessedCount() - firstFrame;
+            long detectionBytes = threads.getThreadAllocatedBytes(detectionThread.getId()) - detectionBefore;
+            // the camera thread also sees the frames the detection thread drops
+            long cameraBytes = SimulatedCamera.getPreviewCallbackAllocatedBytes() / SimulatedCamera.getPreviewCallbackCount();
+            return new long[] { cameraBytes, detectionBytes / frames };
+        } finally {
+            cameraSource.release();
+        }
+    }
+
+    private static void assertFrameBudget(String name, long[] perFrame) throws Exception {
+        Properties thresholds = loadThresholds();
+        System.out.println(String.format(Locale.US, "%s: %d bytes allocated per frame on the camera thread, %d on the detection thread",
+                name, perFrame[0], perFrame[1]));
+        assertTrue(name + " allocated " + perFrame[0] + " bytes per frame on the camera thread",
+                perFrame[0] <= getInt(thresholds, "maxCameraThreadFrameAllocationBytes"));
+        assertTrue(name + " allocated " + perFrame[1] + " bytes per frame on the detection thread",
+                perFrame[1] <= getInt(thresholds, "maxDetectionThreadFrameAllocationBytes"));
+    }
+
+    private static void updateAndDraw(DrawnGraphicOverlay overlay, Tracker<Barcode>[] trackers, Barcode[] barcodes,
+                                      Detector.Detections<Barcode> detections, Canvas canvas) {
+        for (int i = 0; i < trackers.length; i++) {
+            trackers[i].onUpdate(detections, barcodes[i]);
+        }
+        overlay.draw(canvas);
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName())) return thread;
+        }
+        throw new AssertionError("No thread named " + name);
+    }
+
+    private static void awaitFrames(SimulatedBarcodeDetector detector, int frames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (detector.getProcessedCount() < frames) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Only " + detector.getProcessedCount() + " frames detected");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
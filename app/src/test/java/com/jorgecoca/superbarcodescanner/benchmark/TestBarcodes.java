@@ -0,0 +1,29 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.Point;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+// Barcodes as a detector would report them, for tests that feed results in without decoding.
+public final class TestBarcodes {
+
+    private TestBarcodes() { }
+
+    // An 80 x 40 code near the top left corner, for tests that do not care where it is.
+    public static Barcode barcode(int format, String value) {
+        return barcode(format, value, 10, 20, 80, 40);
+    }
+
+    // An upright code whose corner points, clockwise from the top left, outline the given box.
+    public static Barcode barcode(int format, String value, int left, int top, int width, int height) {
+        Barcode barcode = new Barcode();
+        barcode.format = format;
+        barcode.rawValue = value;
+        barcode.displayValue = value;
+        barcode.cornerPoints = new Point[] {
+                new Point(left, top), new Point(left + width, top),
+                new Point(left + width, top + height), new Point(left, top + height)
+        };
+        return barcode;
+    }
+}
@@ -0,0 +1,116 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.camera.TiledBarcodeDecoder;
+import com.jorgecoca.superbarcodescanner.camera.TiledBarcodeDetector;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Properties;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getFloat;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.getInt;
+import static com.jorgecoca.superbarcodescanner.benchmark.BenchmarkThresholds.loadThresholds;
+import static org.junit.Assert.*;
+
+// Time per frame of tiled detection with 1 to N decoding threads, N being the number of cores (at
+// least 2), against decoding the whole frame with a single detector.  Detection runs ZXing, whose
+// cost grows with the pixels it is given like the native detector's.  Speedup is only enforced
+// for thread counts the machine has cores for.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class TiledDetectionBenchmarkTest {
+
+    private static final int FRAMES = 4;
+
+    @Test
+    public void tiledDetection_scalesWithCores() throws Exception {
+        Properties thresholds = loadThresholds();
+        int width = getInt(thresholds, "tiledPreviewWidth");
+        int height = getInt(thresholds, "tiledPreviewHeight");
+        int tileSize = getInt(thresholds, "tileSize");
+        int overlap = getInt(thresholds, "tileOverlap");
+
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator.Builder(17)
+                .setPreviewSize(width, height)
+                .setFormats(Barcode.QR_CODE)
+                .setMaxRotation(10)
+                .setModuleSize(3.0f, 4.0f)
+                .setCodesPerFrame(4, 6)
+                .build();
+        Frame[] frames = new Frame[FRAMES];
+        int expected = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            SyntheticFrameGenerator.SyntheticFrame frame = generator.generate(i);
+            frames[i] = new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(frame.getData()), width, height, ImageFormat.NV21)
+                    .setId(i)
+                    .build();
+            expected += frame.getSymbols().size();
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "Tiled detection %dx%d, %d px tiles, %d px overlap, %d cores: ", width, height, tileSize, overlap, cores));
+
+        ZxingBarcodeDetector wholeFrameDetector = new ZxingBarcodeDetector();
+        detectAll(wholeFrameDetector, frames);
+        long start = System.nanoTime();
+        int wholeFrameFound = detectAll(wholeFrameDetector, frames);
+        report.append(String.format(Locale.US, "whole frame %.1f ms/frame (%d/%d codes)",
+                (System.nanoTime() - start) / 1e6 / FRAMES, wholeFrameFound, expected));
+
+        double singleThreadMillis = 0;
+        int singleThreadFound = 0;
+        for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) {
+            TiledBarcodeDecoder.Builder builder = new TiledBarcodeDecoder.Builder(new ZxingBarcodeDetector())
+                    .setTileSize(tileSize)
+                    .setOverlap(overlap);
+            for (int i = 1; i < threads; i++) {
+                builder.addDetector(new ZxingBarcodeDetector());
+            }
+            TiledBarcodeDetector detector = new TiledBarcodeDetector(builder.build());
+
+            detectAll(detector, frames);
+            start = System.nanoTime();
+            int found = detectAll(detector, frames);
+            double millis = (System.nanoTime() - start) / 1e6 / FRAMES;
+            detector.release();
+
+            if (threads == 1) {
+                singleThreadMillis = millis;
+                singleThreadFound = found;
+            }
+            double speedup = singleThreadMillis / millis;
+            report.append(String.format(Locale.US, ", %d thread%s %.1f ms/frame (%.2fx, %d/%d codes)",
+                    threads, threads == 1 ? "" : "s", millis, speedup, found, expected));
+
+            assertTrue("Tiling lost codes: " + report, found >= wholeFrameFound);
+            assertEquals("Results depend on the thread count: " + report, singleThreadFound, found);
+            if (threads > 1 && threads <= cores) {
+                assertTrue("Tiled detection does not scale: " + report,
+                        speedup >= threads * getFloat(thresholds, "minTiledEfficiency"));
+            }
+        }
+        System.out.println(report);
+    }
+
+    private static int detectAll(com.google.android.gms.vision.Detector<Barcode> detector, Frame[] frames) {
+        int found = 0;
+        for (Frame frame : frames) {
+            SparseArray<Barcode> barcodes = detector.detect(frame);
+            found += barcodes.size();
+        }
+        return found;
+    }
+}
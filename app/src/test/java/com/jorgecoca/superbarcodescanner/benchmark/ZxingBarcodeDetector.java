@@ -0,0 +1,88 @@
+package com.jorgecoca.superbarcodescanner.benchmark;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+// A detector that really decodes, with ZXing, for tests where what the detector can resolve in
+// the pixels it is given matters.  Corner points are ZXing's result points (finder patterns for 2D
+// codes, end points for 1D codes), so they lie on the symbol but are not its exact corners.
+// One instance per thread: ZXing readers are not thread safe.
+public class ZxingBarcodeDetector extends Detector<Barcode> {
+
+    private final MultiFormatReader reader = new MultiFormatReader();
+    private final Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+
+    public ZxingBarcodeDetector() {
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        Frame.Metadata metadata = frame.getMetadata();
+        ByteBuffer data = frame.getGrayscaleImageData();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(data.array(), width, height,
+                0, 0, width, height, false);
+        if (data.arrayOffset() != 0) {
+            byte[] luma = new byte[width * height];
+            System.arraycopy(data.array(), data.arrayOffset(), luma, 0, luma.length);
+            source = new PlanarYUVLuminanceSource(luma, width, height, 0, 0, width, height, false);
+        }
+
+        SparseArray<Barcode> barcodes = new SparseArray<>();
+        Result[] results;
+        try {
+            results = new GenericMultipleBarcodeReader(reader).decodeMultiple(
+                    new BinaryBitmap(new HybridBinarizer(source)), hints);
+        } catch (NotFoundException e) {
+            return barcodes;
+        }
+        for (Result result : results) {
+            Barcode barcode = new Barcode();
+            barcode.format = toBarcodeFormat(result.getBarcodeFormat());
+            barcode.rawValue = result.getText();
+            barcode.displayValue = result.getText();
+            ResultPoint[] points = result.getResultPoints();
+            barcode.cornerPoints = new Point[points.length];
+            for (int i = 0; i < points.length; i++) {
+                barcode.cornerPoints[i] = new Point(Math.round(points[i].getX()), Math.round(points[i].getY()));
+            }
+            barcodes.append(result.getText().hashCode() & 0x7fffffff, barcode);
+        }
+        return barcodes;
+    }
+
+    private static int toBarcodeFormat(BarcodeFormat format) {
+        switch (format) {
+            case CODE_128:
+                return Barcode.CODE_128;
+            case EAN_13:
+                return Barcode.EAN_13;
+            case QR_CODE:
+                return Barcode.QR_CODE;
+            case DATA_MATRIX:
+                return Barcode.DATA_MATRIX;
+            default:
+                return Barcode.ALL_FORMATS;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.jorgecoca.superbarcodescanner.bus;
+
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ResultBusTest {
+
+    @Test
+    public void subscribers_readWithIndependentCursors() throws Exception {
+        ResultBus bus = new ResultBus.Builder(8).build();
+        ResultBus.Subscription fast = bus.subscribe();
+        ResultBus.Subscription slow = bus.subscribe();
+        ResultBus.Event event = new ResultBus.Event();
+
+        Tracker<Barcode> tracker = bus.wrap(new Tracker<Barcode>());
+        Barcode barcode = barcode(Barcode.EAN_13, "4006381333931");
+        tracker.onNewItem(5, barcode);
+        tracker.onUpdate(detections(1, barcode), barcode);
+        tracker.onUpdate(detections(2, barcode), barcode);
+        tracker.onDone();
+
+        assertTrue(fast.poll(event, 0, TimeUnit.MILLISECONDS));
+        assertEquals(ResultBus.EVENT_NEW, event.getType());
+        assertEquals(5, event.getTrackId());
+        assertEquals(1, event.getFrameId());
+        assertEquals(10, event.getLeft());
+        assertEquals(60, event.getBottom());
+        assertTrue(fast.poll(event, 0, TimeUnit.MILLISECONDS));
+        // updates are not published unless asked for
+        assertEquals(ResultBus.EVENT_DONE, event.getType());
+        assertFalse(fast.poll(event, 0, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, fast.getLag());
+        assertEquals(2, slow.getLag());
+        assertTrue(slow.poll(event, 0, TimeUnit.MILLISECONDS));
+        assertEquals(ResultBus.EVENT_NEW, event.getType());
+    }
+
+    @Test
+    public void dropOldest_overrunSubscriberSkipsToOldestRetained() throws Exception {
+        ResultBus bus = new ResultBus.Builder(4).setPublishUpdates(true).build();
+        ResultBus.Subscription subscription = bus.subscribe();
+        publishUpdates(bus, 10);
+
+        ResultBus.Event event = new ResultBus.Event();
+        assertTrue(subscription.isLagging());
+        assertTrue(subscription.poll(event, 0, TimeUnit.MILLISECONDS));
+        assertEquals(6, event.getSequence());
+        assertEquals(6, subscription.getMissedCount());
+        assertEquals(10, subscription.getMaxLag());
+    }
+
+    @Test
+    public void sample_overrunSubscriberSkipsToNewest() throws Exception {
+        ResultBus bus = new ResultBus.Builder(4).setPublishUpdates(true)
+                .setOverflowPolicy(ResultBus.OVERFLOW_SAMPLE).build();
+        ResultBus.Subscription subscription = bus.subscribe();
+        publishUpdates(bus, 10);
+
+        ResultBus.Event event = new ResultBus.Event();
+        assertTrue(subscription.poll(event, 0, TimeUnit.MILLISECONDS));
+        assertEquals(9, event.getSequence());
+        assertEquals(9, subscription.getMissedCount());
+        assertEquals(0, subscription.getLag());
+    }
+
+    @Test
+    public void block_holdsThePublisherBackThenDrops() throws Exception {
+        ResultBus bus = new ResultBus.Builder(4).setPublishUpdates(true)
+                .setOverflowPolicy(ResultBus.OVERFLOW_BLOCK).setMaxBlockMillis(20).build();
+        final ResultBus.Subscription subscription = bus.subscribe();
+        publishUpdates(bus, 6);
+
+        // nothing was overwritten: the subscriber gets the first four and the rest were dropped
+        assertEquals(4, bus.getPublishedCount());
+        assertEquals(2, bus.getDroppedCount());
+        assertTrue(bus.getBlockedMillis() >= 40);
+        ResultBus.Event event = new ResultBus.Event();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(subscription.poll(event, 0, TimeUnit.MILLISECONDS));
+            assertEquals(i, event.getSequence());
+        }
+        assertEquals(0, subscription.getMissedCount());
+
+        // a subscriber that catches up releases the publisher
+        ResultBus blocking = new ResultBus.Builder(1).setOverflowPolicy(ResultBus.OVERFLOW_BLOCK)
+                .setMaxBlockMillis(10000).build();
+        final ResultBus.Subscription reader = blocking.subscribe();
+        Barcode barcode = barcode(Barcode.EAN_13, "A");
+        blocking.publish(ResultBus.EVENT_NEW, 1, barcode, null);
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    reader.poll(new ResultBus.Event(), 0, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // test fails on the assertions below
+                }
+            }
+        });
+        client.start();
+        assertTrue(blocking.publish(ResultBus.EVENT_NEW, 2, barcode, null));
+        client.join();
+        assertTrue(blocking.getBlockedMillis() < 5000);
+    }
+
+    @Test
+    public void publishing_doesNotAllocate() throws Exception {
+        ResultBus bus = new ResultBus.Builder(64).setPublishUpdates(true).build();
+        ResultBus.Subscription subscription = bus.subscribe();
+        Tracker<Barcode> tracker = bus.wrap(new Tracker<Barcode>());
+        Barcode barcode = barcode(Barcode.EAN_13, "4006381333931");
+        Detector.Detections<Barcode> detections = detections(1, barcode);
+        ResultBus.Event event = new ResultBus.Event();
+        tracker.onNewItem(1, barcode);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 10000; i++) {
+                tracker.onUpdate(detections, barcode);
+                subscription.poll(event, 0, TimeUnit.MILLISECONDS);
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        assertEquals(0, allocated);
+        assertEquals(0, subscription.getMissedCount());
+    }
+
+    private static void publishUpdates(ResultBus bus, int count) {
+        Tracker<Barcode> tracker = bus.wrap(new Tracker<Barcode>());
+        Barcode barcode = barcode(Barcode.EAN_13, "4006381333931");
+        tracker.onNewItem(1, barcode);
+        for (int i = 0; i < count; i++) {
+            tracker.onUpdate(detections(i + 1, barcode), barcode);
+        }
+    }
+
+    private static Detector.Detections<Barcode> detections(int frameId, Barcode barcode) {
+        SparseArray<Barcode> items = new SparseArray<>();
+        items.append(1, barcode);
+        Frame frame = new Frame.Builder()
+                .setImageData(ByteBuffer.allocate(1), 1, 1, ImageFormat.NV21)
+                .setId(frameId)
+                .build();
+        return new Detector.Detections<>(items, frame.getMetadata(), true);
+    }
+}
@@ -0,0 +1,112 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.benchmark.ScanPipelineHarness;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedCamera;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedCameraParameters;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedFrameSource;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedLooper;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class })
+public class CameraSourceRotationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private CameraSource cameraSource;
+
+    @After
+    public void tearDown() {
+        if (cameraSource != null) cameraSource.release();
+        setDisplayRotation(Surface.ROTATION_0);
+    }
+
+    @Test
+    public void displayRotation_isFollowedWithoutReopeningTheCamera() throws Exception {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator.Builder(3)
+                .setPreviewSize(WIDTH, HEIGHT)
+                .setCodesPerFrame(1, 1)
+                .build();
+        ScanPipelineHarness.installSimulatedCamera(new SimulatedFrameSource(generator, 1, 1, 30, 100000), WIDTH, HEIGHT);
+        Detector<Barcode> detector = new Detector<Barcode>() {
+            @Override
+            public SparseArray<Barcode> detect(Frame frame) {
+                return new SparseArray<>();
+            }
+        };
+        RotationProcessor processor = new RotationProcessor();
+        detector.setProcessor(processor);
+        cameraSource = new CameraSource.Builder(RuntimeEnvironment.application, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(WIDTH, HEIGHT)
+                .build();
+        cameraSource.start();
+
+        // the simulated back camera is mounted at 90 degrees
+        awaitRotation(processor, Frame.ROTATION_90);
+        SimulatedCamera camera = SimulatedCamera.getLastStarted();
+        int bufferCount = cameraSource.getPreviewBufferCount();
+        int addedBuffers = camera.getAddedBufferCount();
+
+        // Robolectric has no display manager to report the change, so make the call its listener
+        // makes
+        setDisplayRotation(Surface.ROTATION_90);
+        cameraSource.updateRotation();
+        awaitRotation(processor, Frame.ROTATION_0);
+        setDisplayRotation(Surface.ROTATION_270);
+        cameraSource.updateRotation();
+        awaitRotation(processor, Frame.ROTATION_180);
+
+        assertSame("Camera was reopened", camera, SimulatedCamera.getLastStarted());
+        assertEquals(bufferCount, cameraSource.getPreviewBufferCount());
+        assertEquals("Preview buffers were replaced", addedBuffers, camera.getAddedBufferCount());
+        assertEquals(180, camera.getDisplayOrientation());
+    }
+
+    private static void setDisplayRotation(int rotation) {
+        WindowManager windowManager = (WindowManager) RuntimeEnvironment.application.getSystemService(Context.WINDOW_SERVICE);
+        Shadows.shadowOf(windowManager.getDefaultDisplay()).setRotation(rotation);
+    }
+
+    private static void awaitRotation(RotationProcessor processor, int rotation) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (processor.rotation != rotation) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Frames still have rotation " + processor.rotation + ", expected " + rotation);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    // Remembers the rotation of the last frame detections were reported for.
+    private static class RotationProcessor implements Detector.Processor<Barcode> {
+        volatile int rotation = -1;
+
+        @Override
+        public void release() { }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Barcode> detections) {
+            rotation = detections.getFrameMetadata().getRotation();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.internal.Shadow;
+import org.robolectric.internal.ShadowExtractor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+// BitmapRegionDecoder is all native and has no Robolectric shadow.  This one decodes the image
+// with ImageIO and copies the requested region into a bitmap; read the pixels back with
+// PixelBitmap installed.
+@Implements(BitmapRegionDecoder.class)
+public class DecodingBitmapRegionDecoder {
+
+    private BufferedImage image;
+    private boolean recycled;
+
+    @Implementation
+    public static BitmapRegionDecoder newInstance(byte[] data, int offset, int length, boolean isShareable) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+        if (image == null) throw new IOException("Image format not supported");
+        BitmapRegionDecoder decoder = Shadow.newInstanceOf(BitmapRegionDecoder.class);
+        ((DecodingBitmapRegionDecoder) ShadowExtractor.extract(decoder)).image = image;
+        return decoder;
+    }
+
+    @Implementation
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Implementation
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Implementation
+    public Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) {
+        if (recycled) throw new IllegalStateException("decodeRegion called on a recycled region decoder");
+        Bitmap bitmap = Bitmap.createBitmap(rect.width(), rect.height(), Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < rect.height(); y++) {
+            for (int x = 0; x < rect.width(); x++) {
+                bitmap.setPixel(x, y, image.getRGB(rect.left + x, rect.top + y));
+            }
+        }
+        return bitmap;
+    }
+
+    @Implementation
+    public void recycle() {
+        recycled = true;
+    }
+
+    @Implementation
+    public boolean isRecycled() {
+        return recycled;
+    }
+}
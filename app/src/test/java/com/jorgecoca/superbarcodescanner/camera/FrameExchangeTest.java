@@ -0,0 +1,85 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class FrameExchangeTest {
+
+    private static final int FRAMES = 200000;
+
+    @Test
+    public void everyFrameIsConsumedOrDisplacedExactlyOnce_park() throws Exception {
+        assertExactlyOnce(new FrameExchange<Integer>(0));
+    }
+
+    @Test
+    public void everyFrameIsConsumedOrDisplacedExactlyOnce_spinThenPark() throws Exception {
+        assertExactlyOnce(new FrameExchange<Integer>(50000L));
+    }
+
+    @Test
+    public void take_returnsNullOnceDeactivated() throws Exception {
+        final FrameExchange<Integer> exchange = new FrameExchange<>(0);
+        exchange.offer(1);
+        exchange.setActive(false);
+
+        assertNull(exchange.take());
+        assertEquals(Integer.valueOf(1), exchange.clear());
+        assertNull(exchange.clear());
+    }
+
+    @Test
+    public void setActive_wakesParkedConsumer() throws Exception {
+        final FrameExchange<Integer> exchange = new FrameExchange<>(0);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertNull(exchange.take());
+                } catch (InterruptedException e) {
+                    fail();
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        exchange.setActive(false);
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+    }
+
+    private static void assertExactlyOnce(final FrameExchange<Integer> exchange) throws Exception {
+        final AtomicIntegerArray owners = new AtomicIntegerArray(FRAMES);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Integer frame;
+                    while ((frame = exchange.take()) != null) {
+                        owners.incrementAndGet(frame);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < FRAMES; i++) {
+            Integer displaced = exchange.offer(i);
+            if (displaced != null) owners.incrementAndGet(displaced);
+        }
+        exchange.setActive(false);
+        consumer.join();
+        Integer left = exchange.clear();
+        if (left != null) owners.incrementAndGet(left);
+
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals("frame " + i, 1, owners.get(i));
+        }
+    }
+}
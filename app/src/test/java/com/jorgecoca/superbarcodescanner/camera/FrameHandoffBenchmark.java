@@ -0,0 +1,160 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Latency of handing a preview frame to the detection thread, comparing FrameExchange with the
+// synchronized/wait/notifyAll handoff CameraSource used before.  Each operation publishes a frame
+// and waits until the consumer has taken it and given the buffer back, the way the camera gets
+// its buffer back after detection.
+//
+// Not a unit test: run main() with the unit test classpath, e.g. from the IDE.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FrameHandoffBenchmark {
+
+    interface Handoff {
+        Object offer(Object frame);
+
+        Object take() throws InterruptedException;
+
+        void setActive(boolean active);
+    }
+
+    @Param({ "locking", "park", "spinThenPark" })
+    public String handoff;
+
+    private Handoff exchange;
+    private final AtomicReference<Object> returned = new AtomicReference<>();
+    private final Object frame = new Object();
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void startConsumer() {
+        if ("locking".equals(handoff)) {
+            exchange = new LockingHandoff();
+        } else {
+            exchange = new ExchangeHandoff("spinThenPark".equals(handoff) ? 50000L : 0);
+        }
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object taken;
+                    while ((taken = exchange.take()) != null) {
+                        returned.set(taken);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "FrameHandoffConsumer");
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopConsumer() throws InterruptedException {
+        exchange.setActive(false);
+        consumer.join();
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        exchange.offer(frame);
+        Object buffer;
+        while ((buffer = returned.getAndSet(null)) == null) {
+            Thread.yield();
+        }
+        return buffer;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FrameHandoffBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static class ExchangeHandoff implements Handoff {
+        private final FrameExchange<Object> exchange;
+
+        ExchangeHandoff(long spinNanos) {
+            exchange = new FrameExchange<>(spinNanos);
+        }
+
+        @Override
+        public Object offer(Object frame) {
+            return exchange.offer(frame);
+        }
+
+        @Override
+        public Object take() throws InterruptedException {
+            return exchange.take();
+        }
+
+        @Override
+        public void setActive(boolean active) {
+            exchange.setActive(active);
+        }
+    }
+
+    // The handoff FrameExchange replaced.
+    private static class LockingHandoff implements Handoff {
+        private final Object lock = new Object();
+        private boolean active = true;
+        private Object pending;
+
+        @Override
+        public Object offer(Object frame) {
+            synchronized (lock) {
+                Object displaced = pending;
+                pending = frame;
+                lock.notifyAll();
+                return displaced;
+            }
+        }
+
+        @Override
+        public Object take() throws InterruptedException {
+            synchronized (lock) {
+                while (active && pending == null) {
+                    lock.wait();
+                }
+                if (!active) {
+                    return null;
+                }
+                Object frame = pending;
+                pending = null;
+                return frame;
+            }
+        }
+
+        @Override
+        public void setActive(boolean active) {
+            synchronized (lock) {
+                this.active = active;
+                lock.notifyAll();
+            }
+        }
+    }
+}
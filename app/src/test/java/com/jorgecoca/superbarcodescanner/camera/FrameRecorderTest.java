@@ -0,0 +1,199 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+
+import com.google.android.gms.vision.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class FrameRecorderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAMES = 20;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("frames", ".sbsc");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void rawRecording_roundTrips() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void deflatedRecording_roundTrips() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void rawRecording_storesTheYPlaneAsIs() throws Exception {
+        byte[] nv21 = frameData(WIDTH, HEIGHT, 3);
+        FrameRecorder recorder = new FrameRecorder(file, false, FRAMES);
+        recorder.record(nv21, metadata(nv21, WIDTH, HEIGHT, 3, 100L, Frame.ROTATION_0));
+        recorder.close();
+
+        FrameRecordingReader reader = new FrameRecordingReader(file);
+        try {
+            ByteBuffer stored = reader.getStoredFrame(0);
+            assertEquals(WIDTH * HEIGHT, stored.remaining());
+            byte[] luma = new byte[WIDTH * HEIGHT];
+            stored.get(luma);
+            assertArrayEquals(Arrays.copyOf(nv21, WIDTH * HEIGHT), luma);
+        } finally {
+            reader.close();
+        }
+        // header, one Y plane, one index entry and the footer
+        assertEquals(FrameRecorder.HEADER_SIZE + WIDTH * HEIGHT + FrameRecorder.INDEX_ENTRY_SIZE + FrameRecorder.FOOTER_SIZE,
+                file.length());
+    }
+
+    @Test
+    public void framesAreDroppedWhileEveryBufferWaitsToBeWritten() throws Exception {
+        int width = 1280;
+        int height = 960;
+        byte[] nv21 = frameData(width, height, 1);
+        FrameRecorder recorder = new FrameRecorder(file, true, 1);
+        int offered = 200;
+        for (int i = 1; i <= offered; i++) {
+            recorder.record(nv21, metadata(nv21, width, height, i, i, Frame.ROTATION_0));
+        }
+        recorder.close();
+
+        assertTrue("No frame was dropped", recorder.getDroppedFrameCount() > 0);
+        assertEquals(offered, recorder.getRecordedFrameCount() + recorder.getDroppedFrameCount());
+
+        FrameRecordingReader reader = new FrameRecordingReader(file);
+        try {
+            assertEquals(recorder.getRecordedFrameCount(), reader.getFrameCount());
+            // the frames that made it are stored in order
+            for (int i = 1; i < reader.getFrameCount(); i++) {
+                assertTrue(reader.getFrameId(i) > reader.getFrameId(i - 1));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void recordingsThatWereNotClosedAreRejected() throws Exception {
+        byte[] nv21 = frameData(WIDTH, HEIGHT, 1);
+        FrameRecorder recorder = new FrameRecorder(file, false, FRAMES);
+        recorder.record(nv21, metadata(nv21, WIDTH, HEIGHT, 1, 0, Frame.ROTATION_0));
+        recorder.close();
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() - 4);
+        truncated.close();
+        try {
+            new FrameRecordingReader(file).close();
+            fail("Truncated recording was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Recording was not closed properly"));
+        }
+    }
+
+    @Test
+    public void recordAfterClose_isIgnored() throws Exception {
+        byte[] nv21 = frameData(WIDTH, HEIGHT, 1);
+        FrameRecorder recorder = new FrameRecorder(file, false, FRAMES);
+        recorder.close();
+        recorder.record(nv21, metadata(nv21, WIDTH, HEIGHT, 1, 0, Frame.ROTATION_0));
+
+        assertEquals(0, recorder.getRecordedFrameCount());
+        FrameRecordingReader reader = new FrameRecordingReader(file);
+        assertEquals(0, reader.getFrameCount());
+        reader.close();
+    }
+
+    // Frames of varying size, id, timestamp and rotation written and read back by index.
+    private void assertRoundTrip(boolean compress) throws Exception {
+        byte[][] frames = new byte[FRAMES][];
+        int[] widths = new int[FRAMES];
+        int[] heights = new int[FRAMES];
+        // enough buffers for every frame, so none is dropped
+        FrameRecorder recorder = new FrameRecorder(file, compress, FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            widths[i] = WIDTH + 8 * (i % 3);
+            heights[i] = HEIGHT + 4 * (i % 2);
+            frames[i] = frameData(widths[i], heights[i], i);
+            recorder.record(frames[i], metadata(frames[i], widths[i], heights[i], 1000 + i, 5000L + 33 * i, i % 4));
+        }
+        recorder.close();
+        assertEquals(FRAMES, recorder.getRecordedFrameCount());
+        assertEquals(0, recorder.getDroppedFrameCount());
+
+        FrameRecordingReader reader = new FrameRecordingReader(file);
+        try {
+            assertEquals(compress, reader.isCompressed());
+            assertEquals(FRAMES, reader.getFrameCount());
+            // read back out of order, as the index allows
+            for (int n = 0; n < FRAMES; n++) {
+                int i = (n * 7) % FRAMES;
+                assertEquals(1000 + i, reader.getFrameId(i));
+                assertEquals(5000L + 33 * i, reader.getTimestampMillis(i));
+                assertEquals(i % 4, reader.getRotation(i));
+                assertEquals(widths[i], reader.getWidth(i));
+                assertEquals(heights[i], reader.getHeight(i));
+
+                int lumaSize = widths[i] * heights[i];
+                byte[] luma = new byte[lumaSize];
+                reader.readLuma(i, luma);
+                assertArrayEquals("Frame " + i, Arrays.copyOf(frames[i], lumaSize), luma);
+            }
+            if (compress) {
+                assertTrue(reader.getStoredFrame(0).remaining() < widths[0] * heights[0]);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // An NV21 frame whose Y plane is a gradient with some noise, so it deflates but not to nothing,
+    // and whose chroma planes must not end up in the recording.
+    private static byte[] frameData(int width, int height, int seed) {
+        Random random = new Random(seed);
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[y * width + x] = (byte) (x + y + seed + random.nextInt(4));
+            }
+        }
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 0x7f);
+        return nv21;
+    }
+
+    private static Frame.Metadata metadata(byte[] nv21, int width, int height, int id, long timestampMillis, int rotation) {
+        return new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(nv21), width, height, ImageFormat.NV21)
+                .setId(id)
+                .setTimestampMillis(timestampMillis)
+                .setRotation(rotation)
+                .build()
+                .getMetadata();
+    }
+}
@@ -0,0 +1,125 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LowLightPreprocessorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void parallelBands_matchSingleThreadedOutput() throws Exception {
+        byte[] frame = darken(generator(3).generate(0).getData());
+
+        for (boolean binarize : new boolean[] { false, true }) {
+            byte[] sequential = new byte[WIDTH * HEIGHT];
+            byte[] parallel = new byte[WIDTH * HEIGHT];
+            new LowLightPreprocessor.Builder().setBinarize(binarize, 8).build()
+                    .apply(frame, sequential, WIDTH, HEIGHT);
+            LowLightPreprocessor parallelPreprocessor = new LowLightPreprocessor.Builder()
+                    .setBinarize(binarize, 8).setParallelism(4).build();
+            parallelPreprocessor.apply(frame, parallel, WIDTH, HEIGHT);
+            parallelPreprocessor.release();
+
+            assertArrayEquals(sequential, parallel);
+        }
+    }
+
+    @Test
+    public void autoMode_onlyProcessesDarkOrFlatFrames() throws Exception {
+        SyntheticFrameGenerator generator = generator(5);
+        LowLightPreprocessor preprocessor = new LowLightPreprocessor.Builder().build();
+
+        assertNull(preprocessor.process(generator.generate(0).getData(), WIDTH, HEIGHT, 1));
+        byte[] processed = preprocessor.process(darken(generator.generate(1).getData()), WIDTH, HEIGHT, 2);
+        assertNotNull(processed);
+        preprocessor.recycle(processed);
+
+        LowLightPreprocessor.Stats stats = preprocessor.getStats();
+        assertEquals(2, stats.getFramesSeen());
+        assertEquals(1, stats.getFramesGated());
+        assertEquals(1, stats.getFramesProcessed());
+    }
+
+    @Test
+    public void autoMode_probesTheRawPathAmongDarkFrames() throws Exception {
+        byte[] dark = darken(generator(5).generate(0).getData());
+        LowLightPreprocessor preprocessor = new LowLightPreprocessor.Builder().setProbeInterval(4).build();
+
+        int raw = 0;
+        for (int frameId = 1; frameId <= 16; frameId++) {
+            byte[] processed = preprocessor.process(dark, WIDTH, HEIGHT, frameId);
+            if (processed == null) raw++;
+            else preprocessor.recycle(processed);
+        }
+
+        assertEquals(4, raw);
+        assertEquals(12, preprocessor.getStats().getFramesProcessed());
+    }
+
+    @Test
+    public void darkLowContrastFrames_decodeMoreOftenAfterProcessing() throws Exception {
+        SyntheticFrameGenerator generator = generator(9);
+        LowLightPreprocessor preprocessor = new LowLightPreprocessor.Builder().setMode(LowLightPreprocessor.MODE_ALWAYS).build();
+        byte[] processed = new byte[WIDTH * HEIGHT];
+
+        int frames = 30;
+        int rawDecoded = 0;
+        int processedDecoded = 0;
+        for (int index = 0; index < frames; index++) {
+            byte[] dark = darken(generator.generate(index).getData());
+            if (decodes(dark)) rawDecoded++;
+            preprocessor.apply(dark, processed, WIDTH, HEIGHT);
+            if (decodes(processed)) processedDecoded++;
+        }
+        System.out.println("Dark frames decoded: " + rawDecoded + "/" + frames + " raw, "
+                + processedDecoded + "/" + frames + " preprocessed");
+
+        assertTrue(processedDecoded > rawDecoded);
+    }
+
+    private static SyntheticFrameGenerator generator(long seed) {
+        return new SyntheticFrameGenerator.Builder(seed)
+                .setPreviewSize(WIDTH, HEIGHT)
+                .setModuleSize(2.0f, 3.0f)
+                .setCodesPerFrame(1, 1)
+                .setBlurRadius(1)
+                .setGlare(0.4f)
+                .build();
+    }
+
+    // Underexposes the Y plane of a frame into a dark, compressed luma range.
+    private static byte[] darken(byte[] nv21) {
+        byte[] dark = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < dark.length; i++) {
+            dark[i] = (byte) (12 + (nv21[i] & 0xff) / 6);
+        }
+        return dark;
+    }
+
+    private static boolean decodes(byte[] luma) {
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(luma, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false);
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        try {
+            return new GenericMultipleBarcodeReader(new MultiFormatReader())
+                    .decodeMultiple(new BinaryBitmap(new HybridBinarizer(source)), hints).length > 0;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.jorgecoca.superbarcodescanner.batch.PixelBitmap;
+import com.jorgecoca.superbarcodescanner.benchmark.ScanPipelineHarness;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedCamera;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedCameraParameters;
+import com.jorgecoca.superbarcodescanner.benchmark.SimulatedLooper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import static com.jorgecoca.superbarcodescanner.benchmark.TestBarcodes.barcode;
+import static org.junit.Assert.*;
+
+// Drives the fallback the way the detection thread does, against a CameraSource on the simulated
+// camera: the test hands over the JPEG for every still the fallback asks for, and the still is
+// "decoded" by a detector that reports fixed codes in still coordinates.
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21, shadows = { SimulatedCamera.class, SimulatedCameraParameters.class, SimulatedLooper.class,
+        DecodingBitmapRegionDecoder.class, PixelBitmap.class })
+public class StillCaptureFallbackTest {
+
+    private static final int PREVIEW_WIDTH = 640;
+    private static final int PREVIEW_HEIGHT = 480;
+    private static final int TRIGGER_FRAMES = 3;
+    private static final long CAPTURE_TIMEOUT_MILLIS = 10000;
+
+    private StillDetector stillDetector;
+    private StillCaptureFallback fallback;
+    private CameraSource cameraSource;
+    private Detector.Processor<Barcode> processor;
+    private Detector.Detections<Barcode> received;
+
+    @Before
+    public void setUp() throws Exception {
+        ScanPipelineHarness.installSimulatedCamera(null, PREVIEW_WIDTH, PREVIEW_HEIGHT);
+
+        stillDetector = new StillDetector();
+        // one tile covers the whole still
+        TiledBarcodeDecoder decoder = new TiledBarcodeDecoder.Builder(stillDetector)
+                .setTileSize(2048)
+                .setOverlap(0)
+                .build();
+        fallback = new StillCaptureFallback.Builder(decoder)
+                .setTriggerFrames(TRIGGER_FRAMES)
+                .build();
+        cameraSource = new CameraSource.Builder(RuntimeEnvironment.application, new StillDetector())
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(PREVIEW_WIDTH, PREVIEW_HEIGHT)
+                .setStillCaptureFallback(fallback)
+                .build();
+        cameraSource.start();
+        processor = fallback.wrap(new Detector.Processor<Barcode>() {
+            @Override
+            public void release() { }
+
+            @Override
+            public void receiveDetections(Detector.Detections<Barcode> detections) {
+                received = detections;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        stillDetector.open();
+        cameraSource.release();
+    }
+
+    @Test
+    public void stillIsTakenAfterTriggerFramesWithoutADecode() throws Exception {
+        SimulatedCamera camera = SimulatedCamera.getLastStarted();
+        emptyFrames(TRIGGER_FRAMES - 1);
+        // a decode starts the count over
+        receive(detections(Frame.ROTATION_90, barcode(Barcode.QR_CODE, "preview", 10, 10, 20, 20)));
+        emptyFrames(TRIGGER_FRAMES - 1);
+        assertEquals(0, fallback.getCaptureCount());
+
+        emptyFrames(1);
+        awaitPictureRequests(camera, 1);
+        assertEquals(1, fallback.getCaptureCount());
+
+        // no second still while the first is on its way
+        emptyFrames(TRIGGER_FRAMES * 4);
+        assertEquals(1, fallback.getCaptureCount());
+
+        // nor after it was decoded, until the count has run up again
+        camera.deliverPicture(jpeg(1280, 960));
+        awaitDecodes(0, 1);
+        emptyFrames(TRIGGER_FRAMES - 1);
+        assertEquals(1, fallback.getCaptureCount());
+        emptyFrames(1);
+        awaitPictureRequests(camera, 2);
+    }
+
+    @Test
+    public void stillResultsAreMergedIntoTheNextDetections() throws Exception {
+        stillDetector.setCodes(barcode(Barcode.QR_CODE, "shared", 100, 50, 20, 20),
+                barcode(Barcode.QR_CODE, "small", 600, 400, 20, 20));
+        captureStill(jpeg(1280, 960), Frame.ROTATION_90);
+
+        // the next frame gets the still's codes, once
+        receive(detections(Frame.ROTATION_90));
+        assertEquals(2, received.getDetectedItems().size());
+        int smallId = idOf(received.getDetectedItems(), "small");
+        receive(detections(Frame.ROTATION_90));
+        assertEquals(0, received.getDetectedItems().size());
+
+        // a code the preview found itself is not added twice, and a still code whose id the preview
+        // already uses gets another one
+        captureStill(jpeg(1280, 960), Frame.ROTATION_90);
+        Detector.Detections<Barcode> preview = detections(Frame.ROTATION_90,
+                barcode(Barcode.QR_CODE, "shared", 1, 1, 20, 20), barcode(Barcode.QR_CODE, "other", 2, 2, 20, 20));
+        SparseArray<Barcode> previewItems = new SparseArray<>();
+        previewItems.put(7, preview.getDetectedItems().valueAt(0));
+        previewItems.put(smallId, preview.getDetectedItems().valueAt(1));
+        receive(new Detector.Detections<>(previewItems, preview.getFrameMetadata(), true));
+
+        SparseArray<Barcode> merged = received.getDetectedItems();
+        assertEquals(3, merged.size());
+        assertEquals("shared", merged.get(7).rawValue);
+        assertEquals(new Point(1, 1), merged.get(7).cornerPoints[0]);
+        assertEquals("other", merged.get(smallId).rawValue);
+        int newSmallId = idOf(merged, "small");
+        assertTrue(newSmallId != smallId && newSmallId != 7);
+    }
+
+    @Test
+    public void stillCoordinatesAreScaledAndRotatedIntoThePreview() throws Exception {
+        stillDetector.setCodes(barcode(Barcode.QR_CODE, "code", 100, 50, 20, 20));
+
+        // a landscape still tagged with the preview's rotation is rotated like the preview frames
+        captureStill(jpeg(1280, 960), Frame.ROTATION_90);
+        receive(detections(Frame.ROTATION_90));
+        Point rotated = received.getDetectedItems().valueAt(0).cornerPoints[0];
+        // (100, 50) in the 1280x960 still is (960 - 50, 100) upright, halved for the 480 wide preview
+        assertEquals(new Point(455, 50), rotated);
+
+        // a portrait still is upright already and only scaled
+        captureStill(jpeg(960, 1280), Frame.ROTATION_90);
+        receive(detections(Frame.ROTATION_90));
+        assertEquals(new Point(50, 25), received.getDetectedItems().valueAt(0).cornerPoints[0]);
+
+        // an unrotated preview maps the landscape still straight across
+        captureStill(jpeg(1280, 960), Frame.ROTATION_0);
+        receive(detections(Frame.ROTATION_0));
+        assertEquals(new Point(50, 25), received.getDetectedItems().valueAt(0).cornerPoints[0]);
+    }
+
+    @Test
+    public void stillArrivingWhileTheDecodeThreadIsBusy_doesNotHoldBackTheNext() throws Exception {
+        SimulatedCamera camera = SimulatedCamera.getLastStarted();
+        stillDetector.setCodes(barcode(Barcode.QR_CODE, "code", 100, 50, 20, 20));
+        stillDetector.close();
+        emptyFrames(TRIGGER_FRAMES);
+        awaitPictureRequests(camera, 1);
+        camera.deliverPicture(jpeg(1280, 960));
+        assertTrue(stillDetector.awaitBlocked());
+
+        // the first still's decode outlasts the capture timeout, so a second one is taken, and its
+        // JPEG arrives while the first is still being decoded
+        SystemClock.sleep(CAPTURE_TIMEOUT_MILLIS + 1);
+        emptyFrames(TRIGGER_FRAMES);
+        awaitPictureRequests(camera, 2);
+        camera.deliverPicture(jpeg(1280, 960));
+
+        // the dropped still does not count as being captured
+        emptyFrames(TRIGGER_FRAMES);
+        awaitPictureRequests(camera, 3);
+
+        stillDetector.open();
+        awaitDecodes(1, 0);
+    }
+
+    // Triggers a still from preview frames with the given rotation, hands it the JPEG and waits for
+    // it to be decoded.
+    private void captureStill(byte[] jpeg, int rotation) throws Exception {
+        SimulatedCamera camera = SimulatedCamera.getLastStarted();
+        int requests = camera.getPictureRequestCount();
+        int decoded = fallback.getDecodedCount();
+        for (int i = 0; i < TRIGGER_FRAMES; i++) {
+            receive(detections(rotation));
+        }
+        awaitPictureRequests(camera, requests + 1);
+        camera.deliverPicture(jpeg);
+        awaitDecodes(decoded + 1, 0);
+    }
+
+    private void emptyFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            receive(detections(Frame.ROTATION_90));
+        }
+    }
+
+    private void receive(Detector.Detections<Barcode> detections) {
+        processor.receiveDetections(detections);
+    }
+
+    private static void awaitPictureRequests(SimulatedCamera camera, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (camera.getPictureRequestCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(camera.getPictureRequestCount() + " pictures requested, expected " + count);
+            }
+            Thread.sleep(1);
+        }
+        assertEquals(count, camera.getPictureRequestCount());
+    }
+
+    // Waits until decodedCount stills have been decoded with a result and emptyCount without.
+    private void awaitDecodes(int decodedCount, int emptyCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fallback.getDecodedCount() < decodedCount || stillDetector.getDetectCount() < decodedCount + emptyCount) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Still not decoded: " + fallback);
+            Thread.sleep(1);
+        }
+        // the result is handed over after the detector returns
+        Thread.sleep(20);
+    }
+
+    private static int idOf(SparseArray<Barcode> items, String value) {
+        for (int i = 0; i < items.size(); i++) {
+            if (value.equals(items.valueAt(i).rawValue)) return items.keyAt(i);
+        }
+        throw new AssertionError("No " + value);
+    }
+
+    private static Detector.Detections<Barcode> detections(int rotation, Barcode... barcodes) {
+        SparseArray<Barcode> items = new SparseArray<>();
+        for (int i = 0; i < barcodes.length; i++) {
+            items.put(i + 1, barcodes[i]);
+        }
+        Frame.Metadata metadata = new Frame.Builder()
+                .setImageData(ByteBuffer.allocate(PREVIEW_WIDTH * PREVIEW_HEIGHT), PREVIEW_WIDTH, PREVIEW_HEIGHT, ImageFormat.NV21)
+                .setRotation(rotation)
+                .build()
+                .getMetadata();
+        return new Detector.Detections<>(items, metadata, true);
+    }
+
+    private static byte[] jpeg(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpg", out));
+        return out.toByteArray();
+    }
+
+    // Reports copies of its codes for every image, optionally holding the caller until opened.
+    private static class StillDetector extends Detector<Barcode> {
+        private volatile Barcode[] codes = new Barcode[0];
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile int detectCount;
+
+        void setCodes(Barcode... codes) {
+            this.codes = codes;
+        }
+
+        int getDetectCount() {
+            return detectCount;
+        }
+
+        void close() {
+            gate = new CountDownLatch(1);
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return blocked.await(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            blocked.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            SparseArray<Barcode> barcodes = new SparseArray<>();
+            for (int i = 0; i < codes.length; i++) {
+                Point corner = codes[i].cornerPoints[0];
+                barcodes.put(i + 1, barcode(Barcode.QR_CODE, codes[i].rawValue, corner.x, corner.y, 20, 20));
+            }
+            detectCount++;
+            return barcodes;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.jorgecoca.superbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.common.BitMatrix;
+import com.jorgecoca.superbarcodescanner.benchmark.ZxingBarcodeDetector;
+import com.jorgecoca.superbarcodescanner.synthetic.SyntheticFrameGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class TiledBarcodeDecoderTest {
+
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 1536;
+
+    @Test
+    public void everyCodeIsReportedOnceInFullFrameCoordinates() throws Exception {
+        TiledBarcodeDecoder decoder = decoder();
+        for (int index = 0; index < 3; index++) {
+            SyntheticFrameGenerator.SyntheticFrame frame = generator().generate(index);
+            SparseArray<Barcode> barcodes = decoder.decode(frame.getData(), WIDTH, HEIGHT, Frame.ROTATION_0);
+
+            // matched by place as well as value, so a code reported twice or two equal codes merged
+            // into one would show
+            List<SyntheticFrameGenerator.Symbol> expected = new ArrayList<>(frame.getSymbols());
+            assertEquals(expected.size(), barcodes.size());
+            for (int i = 0; i < barcodes.size(); i++) {
+                Barcode barcode = barcodes.valueAt(i);
+                SyntheticFrameGenerator.Symbol symbol = symbolAt(expected, barcode);
+                assertNotNull(barcode.rawValue, symbol);
+                expected.remove(symbol);
+                for (Point point : barcode.cornerPoints) {
+                    assertInside(symbol.getCorners(), point.x, point.y);
+                }
+            }
+        }
+        decoder.release();
+    }
+
+    @Test
+    public void tilesFindCodesAWholeFrameDecodeMisses() throws Exception {
+        TiledBarcodeDecoder decoder = decoder();
+        ZxingBarcodeDetector wholeFrameDetector = new ZxingBarcodeDetector();
+        int expected = 0;
+        int wholeFrame = 0;
+        int tiled = 0;
+        for (int index = 0; index < 3; index++) {
+            SyntheticFrameGenerator.SyntheticFrame frame = generator().generate(index);
+            expected += frame.getSymbols().size();
+            wholeFrame += wholeFrameDetector.detect(new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(frame.getData()), WIDTH, HEIGHT, ImageFormat.NV21)
+                    .build()).size();
+            tiled += decoder.decode(frame.getData(), WIDTH, HEIGHT, Frame.ROTATION_0).size();
+        }
+        decoder.release();
+        System.out.println("Codes decoded: " + wholeFrame + "/" + expected + " whole frame, "
+                + tiled + "/" + expected + " tiled");
+
+        assertEquals(expected, tiled);
+        assertTrue(tiled > wholeFrame);
+    }
+
+    @Test
+    public void resultsFollowTheFrameRotation() throws Exception {
+        TiledBarcodeDecoder decoder = decoder();
+        SyntheticFrameGenerator.SyntheticFrame frame = generator().generate(0);
+        SparseArray<Barcode> upright = decoder.decode(frame.getData(), WIDTH, HEIGHT, Frame.ROTATION_0);
+        SparseArray<Barcode> rotated = decoder.decode(frame.getData(), WIDTH, HEIGHT, Frame.ROTATION_90);
+        decoder.release();
+
+        assertEquals(upright.size(), rotated.size());
+        for (int i = 0; i < upright.size(); i++) {
+            Point[] expected = upright.valueAt(i).cornerPoints;
+            Point[] actual = rotated.get(upright.keyAt(i)).cornerPoints;
+            for (int corner = 0; corner < expected.length; corner++) {
+                assertEquals(HEIGHT - expected[corner].y, actual[corner].x);
+                assertEquals(expected[corner].x, actual[corner].y);
+            }
+        }
+    }
+
+    @Test
+    public void equalCodesInDifferentPlacesAreEachReported() throws Exception {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) 0xff);
+        // the first lies in the overlap of four tiles, the second is in a tile of its own
+        int size = drawCode(luma, "same", 300, 300);
+        drawCode(luma, "same", 1600, 1100);
+        drawCode(luma, "other", 1000, 200);
+
+        TiledBarcodeDecoder decoder = decoder();
+        SparseArray<Barcode> barcodes = decoder.decode(luma, WIDTH, HEIGHT, Frame.ROTATION_0);
+        decoder.release();
+
+        assertEquals(3, barcodes.size());
+        List<Barcode> same = new ArrayList<>();
+        for (int i = 0; i < barcodes.size(); i++) {
+            if ("same".equals(barcodes.valueAt(i).rawValue)) same.add(barcodes.valueAt(i));
+        }
+        assertEquals(2, same.size());
+        float[] first = { 300, 300, 300 + size, 300, 300 + size, 300 + size, 300, 300 + size };
+        float[] second = { 1600, 1100, 1600 + size, 1100, 1600 + size, 1100 + size, 1600, 1100 + size };
+        for (Point point : same.get(0).cornerPoints) {
+            assertInside(first, point.x, point.y);
+        }
+        for (Point point : same.get(1).cornerPoints) {
+            assertInside(second, point.x, point.y);
+        }
+    }
+
+    private static TiledBarcodeDecoder decoder() {
+        return new TiledBarcodeDecoder.Builder(new ZxingBarcodeDetector())
+                .addDetector(new ZxingBarcodeDetector())
+                .setTileSize(512)
+                .setOverlap(224)
+                .build();
+    }
+
+    private static SyntheticFrameGenerator generator() {
+        return new SyntheticFrameGenerator.Builder(11)
+                .setPreviewSize(WIDTH, HEIGHT)
+                .setFormats(Barcode.QR_CODE)
+                .setMaxRotation(10)
+                .setModuleSize(3.0f, 4.0f)
+                .setCodesPerFrame(4, 6)
+                .build();
+    }
+
+    private static SyntheticFrameGenerator.Symbol symbolAt(List<SyntheticFrameGenerator.Symbol> symbols, Barcode barcode) {
+        for (SyntheticFrameGenerator.Symbol symbol : symbols) {
+            if (symbol.getValue().equals(barcode.rawValue) && contains(symbol.getCorners(), barcode.cornerPoints[0])) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+
+    // Draws a QR code with 4 pixel modules and its quiet zone at x, y, and returns its size.
+    private static int drawCode(byte[] luma, String value, int x, int y) throws Exception {
+        BitMatrix matrix = new MultiFormatWriter().encode(value, BarcodeFormat.QR_CODE, 0, 0);
+        final int moduleSize = 4;
+        for (int row = 0; row < matrix.getHeight() * moduleSize; row++) {
+            for (int column = 0; column < matrix.getWidth() * moduleSize; column++) {
+                if (matrix.get(column / moduleSize, row / moduleSize)) luma[(y + row) * WIDTH + x + column] = 0;
+            }
+        }
+        return matrix.getWidth() * moduleSize;
+    }
+
+    private static boolean contains(float[] corners, Point point) {
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < 8; i += 2) {
+            left = Math.min(left, corners[i]);
+            right = Math.max(right, corners[i]);
+            top = Math.min(top, corners[i + 1]);
+            bottom = Math.max(bottom, corners[i + 1]);
+        }
+        final int slack = 2;
+        return point.x >= left - slack && point.x <= right + slack && point.y >= top - slack && point.y <= bottom + slack;
+    }
+
+    private static void assertInside(float[] corners, int x, int y) {
+        assertTrue(x + "," + y, contains(corners, new Point(x, y)));
+    }
+}
@@ -0,0 +1,105 @@
+package com.jorgecoca.superbarcodescanner.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class CatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void find_returnsRecordsOfKnownValuesOnly() throws Exception {
+        File file = folder.newFile("catalog.idx");
+        new CatalogIndexWriter()
+                .add("5901234123457", "Ibuprofen 400 mg, 24 tablets")
+                .add("4006381333931", "Stabilo Point 88")
+                .add("ABC-123", "Sterile gauze 10x10 cm, 100 St\u00fcck")
+                .add("40063813", "EAN-8 sample")
+                .write(file);
+        CatalogIndex index = CatalogIndex.open(file);
+
+        assertEquals(4, index.size());
+        assertEquals("Ibuprofen 400 mg, 24 tablets", index.getRecord(index.find("5901234123457")));
+        assertEquals("Sterile gauze 10x10 cm, 100 St\u00fcck", index.getRecord(index.find("ABC-123")));
+        assertEquals("EAN-8 sample", index.getRecord(index.find("40063813")));
+        assertEquals(-1, index.find("4006381333932"));
+        // prefixes and extensions of stored values are different values
+        assertEquals(-1, index.find("400638"));
+        assertEquals(-1, index.find("40063813339310"));
+        assertEquals(-1, index.find("59012341234570000"));
+        assertEquals(-1, index.find(""));
+        assertEquals(-1, index.find("\u00e9"));
+
+        byte[] truncated = new byte[4];
+        int length = index.readRecord(index.find("4006381333931"), truncated);
+        assertEquals("Stabilo Point 88".length(), length);
+        assertEquals("Stab", new String(truncated, "UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_rejectsDuplicateValues() throws Exception {
+        new CatalogIndexWriter()
+                .add("5901234123457", "one")
+                .add("5901234123457", "two")
+                .write(folder.newFile("duplicate.idx"));
+    }
+
+    @Test
+    public void lookupsInAMillionProducts_areFastAndAllocationFree() throws Exception {
+        final int products = 1000000;
+        Random random = new Random(3);
+        TreeSet<String> unique = new TreeSet<>();
+        while (unique.size() < products) {
+            unique.add(String.format(Locale.US, "%013d", (long) (random.nextDouble() * 1e13)));
+        }
+        String[] values = unique.toArray(new String[products]);
+        CatalogIndexWriter writer = new CatalogIndexWriter();
+        for (int i = 0; i < values.length; i++) {
+            writer.add(values[i], "Product " + i);
+        }
+        File file = folder.newFile("million.idx");
+        writer.write(file);
+        CatalogIndex index = CatalogIndex.open(file);
+        System.out.println("Catalog of " + index.size() + " products: " + file.length() / 1024 + " KB");
+
+        String[] misses = new String[1000];
+        for (int i = 0; i < misses.length; i++) {
+            misses[i] = values[i].substring(0, 12) + "X";
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and pages the index in
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (index.find(values[i]) >= 0) found++;
+            }
+            for (int i = 0; i < misses.length; i++) {
+                if (index.find(misses[i]) >= 0) found++;
+            }
+            long elapsed = System.nanoTime() - startTime;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            assertEquals(values.length, found);
+            if (round == 1) {
+                System.out.println(String.format(Locale.US, "Catalog lookup: %.0f ns/lookup, %d bytes allocated",
+                        (double) elapsed / (values.length + misses.length), allocated));
+                assertEquals(0, allocated);
+            }
+        }
+        assertEquals("Product 42", index.getRecord(index.find(values[42])));
+    }
+}
@@ -0,0 +1,94 @@
+package com.jorgecoca.superbarcodescanner.filter;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class BarcodeFilterTest {
+
+    @Test
+    public void prefixTrie_matchesValuesStartingWithAPrefix() throws Exception {
+        PrefixTrie trie = new PrefixTrie().add("761234").add("40063813").add("50");
+
+        assertTrue(trie.matches("7612345678905"));
+        assertTrue(trie.matches("4006381333931"));
+        assertTrue(trie.matches("5012345678900"));
+        assertFalse(trie.matches("7612354678905"));
+        assertFalse(trie.matches("4006382333931"));
+        assertFalse(trie.matches("76123"));
+        assertFalse(trie.matches("ABC-761234"));
+        assertEquals(3, trie.size());
+    }
+
+    @Test
+    public void allowMode_onlyPassesMatchingCodes() throws Exception {
+        RecordingProcessor downstream = new RecordingProcessor();
+        BarcodeFilter filter = new BarcodeFilter.Builder(downstream, new PrefixTrie().add("761234")).build();
+
+        filter.receiveDetections(detections("7612345678905", "4006381333931", "7612340000005"));
+
+        assertEquals(2, downstream.last.getDetectedItems().size());
+        assertEquals("7612345678905", downstream.last.getDetectedItems().get(1).rawValue);
+        assertEquals("7612340000005", downstream.last.getDetectedItems().get(3).rawValue);
+        assertEquals(2, filter.getPassedCount());
+        assertEquals(1, filter.getRejectedCount());
+    }
+
+    @Test
+    public void denyMode_dropsMatchingCodes() throws Exception {
+        RecordingProcessor downstream = new RecordingProcessor();
+        BarcodeFilter filter = new BarcodeFilter.Builder(downstream, new PrefixTrie().add("761234"))
+                .setMode(BarcodeFilter.MODE_DENY)
+                .build();
+
+        filter.receiveDetections(detections("7612345678905", "4006381333931"));
+
+        assertEquals(1, downstream.last.getDetectedItems().size());
+        assertEquals("4006381333931", downstream.last.getDetectedItems().get(2).rawValue);
+    }
+
+    @Test
+    public void nothingRejected_forwardsDetectionsUntouched() throws Exception {
+        RecordingProcessor downstream = new RecordingProcessor();
+        BarcodeFilter filter = new BarcodeFilter.Builder(downstream, new PrefixTrie().add("40")).build();
+        Detector.Detections<Barcode> detections = detections("4006381333931");
+
+        filter.receiveDetections(detections);
+
+        assertSame(detections, downstream.last);
+    }
+
+    private static Detector.Detections<Barcode> detections(String... values) {
+        SparseArray<Barcode> items = new SparseArray<>();
+        for (int i = 0; i < values.length; i++) {
+            Barcode barcode = new Barcode();
+            barcode.rawValue = values[i];
+            items.append(i + 1, barcode);
+        }
+        return new Detector.Detections<>(items, new Frame.Metadata(), true);
+    }
+
+    private static class RecordingProcessor implements Detector.Processor<Barcode> {
+        Detector.Detections<Barcode> last;
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Barcode> detections) {
+            last = detections;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.jorgecoca.superbarcodescanner.filter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+
+    private static final int ENTRIES = 100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addedValuesAlwaysMatch_othersAtTheConfiguredRate() throws Exception {
+        for (float rate : new float[] { 0.01f, 0.001f }) {
+            BloomFilter filter = new BloomFilter.Builder(ENTRIES).setFalsePositiveRate(rate).build();
+            for (int i = 0; i < ENTRIES; i++) {
+                filter.add(gtin(i));
+            }
+            for (int i = 0; i < ENTRIES; i++) {
+                assertTrue(filter.matches(gtin(i)));
+            }
+
+            double measured = falsePositiveRate(filter);
+            System.out.println("Bloom filter " + filter + ", measured " + String.format(Locale.US, "%.4f%%", measured * 100));
+            assertTrue("False positive rate " + measured + " for " + rate, measured < rate * 1.5);
+        }
+    }
+
+    @Test
+    public void maxBytes_capsMemoryAtTheCostOfFalsePositives() throws Exception {
+        BloomFilter unbounded = new BloomFilter.Builder(ENTRIES).setFalsePositiveRate(0.001f).build();
+        BloomFilter capped = new BloomFilter.Builder(ENTRIES).setFalsePositiveRate(0.001f).setMaxBytes(64 * 1024).build();
+        for (int i = 0; i < ENTRIES; i++) {
+            unbounded.add(gtin(i));
+            capped.add(gtin(i));
+        }
+
+        assertEquals(64 * 1024, capped.getSizeBytes());
+        assertTrue(unbounded.getSizeBytes() > capped.getSizeBytes());
+        assertTrue(falsePositiveRate(capped) > falsePositiveRate(unbounded));
+        assertEquals(capped.getExpectedFalsePositiveRate(), falsePositiveRate(capped), 0.01);
+    }
+
+    @Test
+    public void prefixLengths_matchValuesStartingWithAnAddedPrefix() throws Exception {
+        BloomFilter filter = new BloomFilter.Builder(100).setPrefixLengths(6, 9).build()
+                .add("761234")
+                .add("400638133");
+
+        assertTrue(filter.matches("7612345678905"));
+        assertTrue(filter.matches("4006381333931"));
+        assertFalse(filter.matches("4006381"));
+        assertFalse(filter.matches("76123"));
+    }
+
+    @Test
+    public void writeAndRead_roundTrip() throws Exception {
+        BloomFilter filter = new BloomFilter.Builder(1000).setPrefixLengths(7, 7).build();
+        for (int i = 0; i < 1000; i++) {
+            filter.add(gtin(i).substring(0, 7));
+        }
+        File file = folder.newFile("prefixes.bloom");
+        filter.write(file);
+        BloomFilter read = BloomFilter.read(file);
+
+        assertEquals(filter.getEntryCount(), read.getEntryCount());
+        assertEquals(filter.getSizeBytes(), read.getSizeBytes());
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(filter.matches(gtin(i)), read.matches(gtin(i)));
+        }
+    }
+
+    private static double falsePositiveRate(BloomFilter filter) {
+        int falsePositives = 0;
+        int probes = 200000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.matches(gtin(ENTRIES + i))) falsePositives++;
+        }
+        return (double) falsePositives / probes;
+    }
+
+    private static String gtin(int i) {
+        return String.format(Locale.US, "%013d", 4000000000000L + i * 7919L);
+    }
+}
@@ -0,0 +1,82 @@
+package com.jorgecoca.superbarcodescanner.kiosk;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ResultChannelTest {
+
+    @Test
+    public void fullChannel_holdsThePublisherBackThenDrops() throws Exception {
+        ResultChannel channel = new ResultChannel(2, 50);
+        assertTrue(channel.publish(result(1)));
+        assertTrue(channel.publish(result(2)));
+
+        long start = System.nanoTime();
+        assertFalse(channel.publish(result(3)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(2, channel.getPublishedCount());
+        assertEquals(1, channel.getDroppedCount());
+        assertEquals(1, channel.take().getFrameId());
+        assertEquals(2, channel.take().getFrameId());
+    }
+
+    @Test
+    public void takingFromAFullChannel_releasesTheBlockedPublisher() throws Exception {
+        final ResultChannel channel = new ResultChannel(1, 10000);
+        channel.publish(result(1));
+
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    channel.take();
+                } catch (InterruptedException e) {
+                    // test failed anyway
+                }
+            }
+        });
+        client.start();
+        long start = System.nanoTime();
+        assertTrue(channel.publish(result(2)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        client.join();
+
+        assertEquals(2, channel.poll(0, TimeUnit.MILLISECONDS).getFrameId());
+        assertNull(channel.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void close_wakesWaitingClient() throws Exception {
+        final ResultChannel channel = new ResultChannel(4, 0);
+        final AtomicReference<ScanResult> taken = new AtomicReference<>(result(-1));
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(channel.take());
+                } catch (InterruptedException e) {
+                    // leaves the marker result in place
+                }
+                done.countDown();
+            }
+        }).start();
+
+        Thread.sleep(20);
+        channel.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(taken.get());
+        assertFalse(channel.publish(result(1)));
+    }
+
+    private static ScanResult result(int frameId) {
+        return new ScanResult(0, "value " + frameId, frameId, 0, System.nanoTime());
+    }
+}
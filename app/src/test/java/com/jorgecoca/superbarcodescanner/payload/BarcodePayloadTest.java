@@ -0,0 +1,90 @@
+package com.jorgecoca.superbarcodescanner.payload;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class BarcodePayloadTest {
+
+    @Test
+    public void gs1DataMatrix_exposesTypedFields() throws Exception {
+        BarcodePayload payload = new BarcodePayload("]d201095011010209171725123110ABC123\u001D21XYZ9876543");
+
+        assertTrue(payload.isGs1());
+        assertEquals(4, payload.getElementCount());
+        assertEquals("09501101020917", payload.getGtin());
+        assertEquals("ABC123", payload.getBatch());
+        assertEquals("XYZ9876543", payload.getSerial());
+        assertEquals("2025-12-31", format(payload.getExpiryDate()));
+        assertNull(payload.getBestBeforeDate());
+    }
+
+    @Test
+    public void gs1128_parsesMeasuresCountsAndVariableElements() throws Exception {
+        BarcodePayload weight = new BarcodePayload("]C1010950110102091731030013251526032010BATCH77");
+        assertEquals(1.325, weight.getNetWeightKg(), 1e-9);
+        assertEquals("2026-03-20", format(weight.getBestBeforeDate()));
+        assertEquals("BATCH77", weight.getBatch());
+
+        BarcodePayload pallet = new BarcodePayload("]C10205012345678900370024\u001D400PO-4471-BX\u001D");
+        assertEquals("05012345678900", pallet.getElement("02"));
+        assertEquals(24, pallet.getCount());
+        assertEquals("PO-4471-BX", pallet.getElement("400"));
+        assertEquals("(02)05012345678900(37)0024(400)PO-4471-BX", pallet.toString());
+    }
+
+    @Test
+    public void bracketedAndEncodedForms_parseAlike() throws Exception {
+        BarcodePayload encoded = new BarcodePayload("01006141411234521124091517290915108832X");
+        BarcodePayload bracketed = new BarcodePayload("(01)00614141123452(11)240915(17)290915(10)8832X");
+
+        assertEquals(bracketed.toString(), encoded.toString());
+        assertEquals("2024-09-15", format(bracketed.getProductionDate()));
+        // DD 00 is the last day of the month
+        assertEquals("2026-02-28", format(new BarcodePayload("(01)09506000134352(17)260200").getExpiryDate()));
+    }
+
+    @Test
+    public void nonGs1Values_areNotSplit() throws Exception {
+        BarcodePayload ean = new BarcodePayload("4006381333931");
+        assertFalse(ean.isGs1());
+        assertEquals("04006381333931", ean.getGtin());
+
+        // starts like an element string, but 0123456789012 is not a valid GTIN
+        BarcodePayload number = new BarcodePayload("0101234567890121");
+        assertFalse(number.isGs1());
+        assertNull(number.getGtin());
+
+        BarcodePayload badCheckDigit = new BarcodePayload("]d20109501101020918");
+        assertFalse(badCheckDigit.isGs1());
+        assertEquals(0, badCheckDigit.getElementCount());
+
+        assertFalse(new BarcodePayload("https://id.gs1.org/01/09506000134352").isGs1());
+    }
+
+    @Test
+    public void cache_parsesEachDistinctValueOnce() throws Exception {
+        PayloadCache cache = new PayloadCache(2);
+        BarcodePayload first = cache.get("]C100106141411234567897");
+        assertSame(first, cache.get("]C100106141411234567897"));
+        cache.get("4006381333931");
+        cache.get("96385074");
+
+        // the least recently used value was evicted
+        assertEquals(2, cache.size());
+        assertNotSame(first, cache.get("]C100106141411234567897"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    private static String format(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
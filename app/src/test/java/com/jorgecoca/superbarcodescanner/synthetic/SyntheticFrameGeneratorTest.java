@@ -0,0 +1,62 @@
+package com.jorgecoca.superbarcodescanner.synthetic;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyntheticFrameGeneratorTest {
+
+    private static SyntheticFrameGenerator.Builder degradedGenerator(long seed) {
+        return new SyntheticFrameGenerator.Builder(seed)
+                .setPreviewSize(1280, 960)
+                .setModuleSize(2.0f, 4.0f)
+                .setCodesPerFrame(1, 3)
+                .setPerspective(0.1f)
+                .setBlurRadius(1)
+                .setNoise(4.0f)
+                .setGlare(0.3f);
+    }
+
+    @Test
+    public void sameSeedAndIndex_rendersIdenticalFrames() throws Exception {
+        SyntheticFrameGenerator.SyntheticFrame first = degradedGenerator(7).build().generate(3);
+        SyntheticFrameGenerator.SyntheticFrame second = degradedGenerator(7).build().generate(3);
+
+        assertArrayEquals(first.getData(), second.getData());
+        assertEquals(first.getSymbols().size(), second.getSymbols().size());
+        for (int i = 0; i < first.getSymbols().size(); i++) {
+            assertEquals(first.getSymbols().get(i).getValue(), second.getSymbols().get(i).getValue());
+        }
+    }
+
+    @Test
+    public void differentIndex_rendersDifferentFrames() throws Exception {
+        SyntheticFrameGenerator generator = degradedGenerator(7).build();
+
+        assertFalse(Arrays.equals(generator.generate(0).getData(), generator.generate(1).getData()));
+    }
+
+    @Test
+    public void symbols_lieInsideTheFrame() throws Exception {
+        SyntheticFrameGenerator generator = degradedGenerator(11)
+                .setFormats(Barcode.QR_CODE, Barcode.DATA_MATRIX, Barcode.EAN_13, Barcode.CODE_128)
+                .build();
+
+        for (int index = 0; index < 20; index++) {
+            List<SyntheticFrameGenerator.Symbol> symbols = generator.generate(index).getSymbols();
+            assertFalse(symbols.isEmpty());
+            for (SyntheticFrameGenerator.Symbol symbol : symbols) {
+                float[] corners = symbol.getCorners();
+                for (int i = 0; i < corners.length; i += 2) {
+                    assertTrue(corners[i] >= 0 && corners[i] < generator.getWidth());
+                    assertTrue(corners[i + 1] >= 0 && corners[i + 1] < generator.getHeight());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.jorgecoca.superbarcodescanner.trace;
+
+import android.os.Trace;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ScanTraceTest {
+
+    // longer than the interval between tag checks
+    private static final long TAG_CHECK_WAIT_MILLIS = 150;
+
+    @Test
+    @Config(shadows = { SwitchableTrace.class })
+    public void counter_checksTheTagOnlyEveryInterval() throws Exception {
+        ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, 0);
+        Thread.sleep(TAG_CHECK_WAIT_MILLIS);
+        ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, 0);
+        SwitchableTrace.tagChecks.set(0);
+
+        for (int i = 0; i < 1000; i++) {
+            ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, 1);
+        }
+        assertTrue("Tag checked " + SwitchableTrace.tagChecks.get() + " times", SwitchableTrace.tagChecks.get() <= 1);
+        assertEquals(0, SwitchableTrace.counterCount.get());
+
+        // a trace started in between is picked up by the next check
+        SwitchableTrace.appTraced = true;
+        try {
+            Thread.sleep(TAG_CHECK_WAIT_MILLIS);
+            ScanTrace.counter(ScanTrace.COUNTER_DROPPED_FRAMES, 7);
+            assertEquals(1, SwitchableTrace.counterCount.get());
+            assertEquals(ScanTrace.COUNTER_DROPPED_FRAMES, SwitchableTrace.lastCounter);
+            assertEquals(7, SwitchableTrace.lastValue);
+        } finally {
+            // ScanTrace remembers the tag, so let it see the trace stop before other tests run
+            SwitchableTrace.reset();
+            Thread.sleep(TAG_CHECK_WAIT_MILLIS);
+            ScanTrace.counter(ScanTrace.COUNTER_DROPPED_FRAMES, 0);
+        }
+    }
+
+    @Test
+    public void untraced_sectionsAndCountersDoNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 1000; i++) {
+            ScanTrace.begin(ScanTrace.RECEIVE_FRAME);
+            ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, i & 1);
+            ScanTrace.end();
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            ScanTrace.begin(ScanTrace.RECEIVE_FRAME);
+            ScanTrace.counter(ScanTrace.COUNTER_PENDING_FRAMES, i & 1);
+            ScanTrace.end();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("Untraced sections and counters allocated " + allocated + " bytes", allocated < 64 * 1024);
+    }
+
+    // Trace whose app tag is switched on and off by the test, counting tag checks and counters.
+    @Implements(Trace.class)
+    public static class SwitchableTrace {
+        static volatile boolean appTraced;
+        static final AtomicInteger tagChecks = new AtomicInteger();
+        static final AtomicInteger counterCount = new AtomicInteger();
+        static volatile String lastCounter;
+        static volatile int lastValue;
+
+        static void reset() {
+            appTraced = false;
+            tagChecks.set(0);
+            counterCount.set(0);
+            lastCounter = null;
+        }
+
+        @Implementation
+        public static boolean isTagEnabled(long traceTag) {
+            tagChecks.incrementAndGet();
+            return appTraced;
+        }
+
+        @Implementation
+        public static void traceCounter(long traceTag, String counterName, int counterValue) {
+            lastCounter = counterName;
+            lastValue = counterValue;
+            counterCount.incrementAndGet();
+        }
+    }
+}
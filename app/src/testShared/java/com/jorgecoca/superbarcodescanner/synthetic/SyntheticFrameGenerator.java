@@ -0,0 +1,593 @@
+package com.jorgecoca.superbarcodescanner.synthetic;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.datamatrix.encoder.SymbolShapeHint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Renders Code 128, EAN-13, QR and DataMatrix symbols into NV21 frames together with the ground
+// truth of what was drawn.  Frame n of a generator is a pure function of (seed, n), so benchmarks
+// and accuracy tests see the same input on every run and can generate frames in any order.
+public class SyntheticFrameGenerator {
+
+    // Preview sizes CameraSource typically ends up selecting for the sizes requested by the app.
+    public static final int[][] COMMON_PREVIEW_SIZES = {
+            { 640, 480 },
+            { 1024, 768 },
+            { 1280, 720 },
+            { 1280, 960 },
+            { 1600, 1200 },
+            { 1920, 1080 }
+    };
+
+    private static final int[] ALL_FORMATS = {
+            Barcode.CODE_128, Barcode.EAN_13, Barcode.QR_CODE, Barcode.DATA_MATRIX
+    };
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int MAX_PLACEMENT_ATTEMPTS = 20;
+
+    private long seed;
+    private int width = 1024;
+    private int height = 768;
+    private int[] formats = ALL_FORMATS;
+    private int minCodesPerFrame = 1;
+    private int maxCodesPerFrame = 1;
+    private float minModuleSize = 3.0f;
+    private float maxModuleSize = 6.0f;
+    private float maxRotationDegrees = 20.0f;
+    private float perspective = 0.0f;
+    private int blurRadius = 0;
+    private float noiseSigma = 0.0f;
+    private float glare = 0.0f;
+    private float contrast = 1.0f;
+
+    private final MultiFormatWriter writer = new MultiFormatWriter();
+
+    // allow only creation via builder class
+    private SyntheticFrameGenerator() { }
+
+    public static class Builder {
+        private SyntheticFrameGenerator generator = new SyntheticFrameGenerator();
+
+        public Builder(long seed) {
+            generator.seed = seed;
+        }
+
+        public Builder setPreviewSize(int width, int height) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+            }
+            generator.width = width;
+            generator.height = height;
+            return this;
+        }
+
+        // Any of Barcode.CODE_128, Barcode.EAN_13, Barcode.QR_CODE and Barcode.DATA_MATRIX.
+        public Builder setFormats(int... formats) {
+            if (formats.length == 0) throw new IllegalArgumentException("No formats supplied");
+            for (int format : formats) {
+                toZxingFormat(format);
+            }
+            generator.formats = formats.clone();
+            return this;
+        }
+
+        public Builder setCodesPerFrame(int min, int max) {
+            if (min < 0 || max < min) throw new IllegalArgumentException("Invalid codes per frame: " + min + "-" + max);
+            generator.minCodesPerFrame = min;
+            generator.maxCodesPerFrame = max;
+            return this;
+        }
+
+        // Size in pixels of a single module (narrowest bar or 2D cell) before perspective.
+        public Builder setModuleSize(float min, float max) {
+            if (min <= 0 || max < min) throw new IllegalArgumentException("Invalid module size: " + min + "-" + max);
+            generator.minModuleSize = min;
+            generator.maxModuleSize = max;
+            return this;
+        }
+
+        public Builder setMaxRotation(float degrees) {
+            generator.maxRotationDegrees = Math.abs(degrees);
+            return this;
+        }
+
+        // Maximum displacement of each symbol corner, as a fraction of the symbol size.
+        public Builder setPerspective(float perspective) {
+            if (perspective < 0 || perspective > 0.4f) throw new IllegalArgumentException("Invalid perspective: " + perspective);
+            generator.perspective = perspective;
+            return this;
+        }
+
+        public Builder setBlurRadius(int radius) {
+            if (radius < 0) throw new IllegalArgumentException("Invalid blur radius: " + radius);
+            generator.blurRadius = radius;
+            return this;
+        }
+
+        // Standard deviation of additive gaussian sensor noise, in luma levels.
+        public Builder setNoise(float sigma) {
+            if (sigma < 0) throw new IllegalArgumentException("Invalid noise: " + sigma);
+            generator.noiseSigma = sigma;
+            return this;
+        }
+
+        // Peak brightness of a specular highlight as a fraction of full scale, 0 for none.
+        public Builder setGlare(float glare) {
+            if (glare < 0 || glare > 1) throw new IllegalArgumentException("Invalid glare: " + glare);
+            generator.glare = glare;
+            return this;
+        }
+
+        // Scales the difference between ink and paper; 1 prints near black on near white.
+        public Builder setContrast(float contrast) {
+            if (contrast <= 0 || contrast > 1) throw new IllegalArgumentException("Invalid contrast: " + contrast);
+            generator.contrast = contrast;
+            return this;
+        }
+
+        public SyntheticFrameGenerator build() {
+            return generator;
+        }
+    }
+
+    public static class Symbol {
+        private final int format;
+        private final String value;
+        private final float[] corners;
+
+        Symbol(int format, String value, float[] corners) {
+            this.format = format;
+            this.value = value;
+            this.corners = corners;
+        }
+
+        // One of the Barcode format constants, so results can be compared with detector output.
+        public int getFormat() {
+            return format;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        // Frame coordinates of the top-left, top-right, bottom-right and bottom-left corners of
+        // the symbol, quiet zone excluded, as x0, y0, x1, y1, ...
+        public float[] getCorners() {
+            return corners.clone();
+        }
+
+        public float getCenterX() {
+            return (corners[0] + corners[2] + corners[4] + corners[6]) / 4;
+        }
+
+        public float getCenterY() {
+            return (corners[1] + corners[3] + corners[5] + corners[7]) / 4;
+        }
+    }
+
+    public static class SyntheticFrame {
+        private final int index;
+        private final int width;
+        private final int height;
+        private final byte[] data;
+        private final List<Symbol> symbols;
+
+        SyntheticFrame(int index, int width, int height, byte[] data, List<Symbol> symbols) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+            this.symbols = symbols;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // NV21 image data with neutral chroma.
+        public byte[] getData() {
+            return data;
+        }
+
+        public List<Symbol> getSymbols() {
+            return symbols;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public SyntheticFrame generate(int index) {
+        byte[] data = new byte[nv21Size(width, height)];
+        List<Symbol> symbols = generate(index, data);
+        return new SyntheticFrame(index, width, height, data, symbols);
+    }
+
+    // Renders frame number index into an existing NV21 buffer and returns what was drawn.
+    public List<Symbol> generate(int index, byte[] data) {
+        if (data.length < nv21Size(width, height)) throw new IllegalArgumentException("Buffer too small");
+
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+        drawBackground(data, random);
+
+        int codeCount = minCodesPerFrame + random.nextInt(maxCodesPerFrame - minCodesPerFrame + 1);
+        List<Symbol> symbols = new ArrayList<>(codeCount);
+        List<float[]> occupied = new ArrayList<>(codeCount);
+        for (int i = 0; i < codeCount; i++) {
+            int format = formats[random.nextInt(formats.length)];
+            String value = randomValue(format, random);
+            BitMatrix matrix = encode(format, value);
+            float[] quad = placeSymbol(matrix, format, random, occupied);
+            if (quad == null) continue;
+
+            drawSymbol(data, matrix, format, quad, random);
+            symbols.add(new Symbol(format, value, innerCorners(matrix, format, quad)));
+        }
+
+        if (glare > 0) applyGlare(data, random);
+        if (blurRadius > 0) blur(data);
+        if (noiseSigma > 0) applyNoise(data, random);
+        Arrays.fill(data, width * height, nv21Size(width, height), (byte) 128);
+        return symbols;
+    }
+
+    private static BarcodeFormat toZxingFormat(int format) {
+        switch (format) {
+            case Barcode.CODE_128:
+                return BarcodeFormat.CODE_128;
+            case Barcode.EAN_13:
+                return BarcodeFormat.EAN_13;
+            case Barcode.QR_CODE:
+                return BarcodeFormat.QR_CODE;
+            case Barcode.DATA_MATRIX:
+                return BarcodeFormat.DATA_MATRIX;
+            default:
+                throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+    }
+
+    private static boolean isLinear(int format) {
+        return format == Barcode.CODE_128 || format == Barcode.EAN_13;
+    }
+
+    // Quiet zone around the symbol in modules, as required by each symbology.
+    private static int quietZone(int format) {
+        switch (format) {
+            case Barcode.CODE_128:
+            case Barcode.EAN_13:
+                return 10;
+            case Barcode.QR_CODE:
+                return 4;
+            default:
+                return 2;
+        }
+    }
+
+    private static String randomValue(int format, Random random) {
+        StringBuilder value = new StringBuilder();
+        switch (format) {
+            case Barcode.EAN_13:
+                int sum = 0;
+                for (int i = 0; i < 12; i++) {
+                    int digit = random.nextInt(10);
+                    value.append(digit);
+                    sum += (i % 2 == 0) ? digit : 3 * digit;
+                }
+                value.append((10 - sum % 10) % 10);
+                return value.toString();
+            case Barcode.CODE_128:
+                return randomAlphanumeric(value, 6 + random.nextInt(11), random);
+            case Barcode.DATA_MATRIX:
+                value.append("01");
+                for (int i = 0; i < 14; i++) {
+                    value.append(random.nextInt(10));
+                }
+                value.append("10");
+                return randomAlphanumeric(value, 4 + random.nextInt(8), random);
+            default:
+                return randomAlphanumeric(value, 12 + random.nextInt(50), random);
+        }
+    }
+
+    private static String randomAlphanumeric(StringBuilder value, int length, Random random) {
+        for (int i = 0; i < length; i++) {
+            value.append(ALPHANUMERIC.charAt(random.nextInt(ALPHANUMERIC.length())));
+        }
+        return value.toString();
+    }
+
+    private BitMatrix encode(int format, String value) {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, 0);
+        if (format == Barcode.DATA_MATRIX) {
+            hints.put(EncodeHintType.DATA_MATRIX_SHAPE, SymbolShapeHint.FORCE_SQUARE);
+        }
+        try {
+            // A zero size makes the writers emit one pixel per module.
+            return writer.encode(value, toZxingFormat(format), 0, 0, hints);
+        } catch (WriterException e) {
+            throw new IllegalStateException("Unable to encode " + value, e);
+        }
+    }
+
+    // Symbol size in modules, quiet zone excluded.  Linear symbols are given a bar height of a
+    // quarter of their length, which is within the range real labels use.
+    private static int modulesWide(BitMatrix matrix) {
+        return matrix.getWidth();
+    }
+
+    private static int modulesHigh(BitMatrix matrix, int format) {
+        return isLinear(format) ? Math.max(20, matrix.getWidth() / 4) : matrix.getHeight();
+    }
+
+    // Picks an on-screen quadrilateral, quiet zone included, that does not overlap previously
+    // placed symbols.  Corners are in top-left, top-right, bottom-right, bottom-left order.
+    private float[] placeSymbol(BitMatrix matrix, int format, Random random, List<float[]> occupied) {
+        int quietZone = quietZone(format);
+        float totalWide = modulesWide(matrix) + 2 * quietZone;
+        float totalHigh = modulesHigh(matrix, format) + 2 * quietZone;
+
+        for (int attempt = 0; attempt < MAX_PLACEMENT_ATTEMPTS; attempt++) {
+            double angle = Math.toRadians((random.nextFloat() * 2 - 1) * maxRotationDegrees);
+            float cos = (float) Math.cos(angle);
+            float sin = (float) Math.sin(angle);
+
+            // Half extents of the rotated symbol's bounding box per pixel of module size, with
+            // room for every corner to move by the perspective jitter in both directions.
+            float jitterScale = perspective * Math.max(totalWide, totalHigh) * 1.42f;
+            float extentX = (totalWide * Math.abs(cos) + totalHigh * Math.abs(sin)) / 2 + jitterScale;
+            float extentY = (totalWide * Math.abs(sin) + totalHigh * Math.abs(cos)) / 2 + jitterScale;
+
+            float moduleSize = minModuleSize + random.nextFloat() * (maxModuleSize - minModuleSize);
+            moduleSize = Math.min(moduleSize, Math.min((width - 2) / (2 * extentX), (height - 2) / (2 * extentY)));
+            if (moduleSize < minModuleSize) continue;
+
+            float halfWidth = totalWide * moduleSize / 2;
+            float halfHeight = totalHigh * moduleSize / 2;
+            extentX *= moduleSize;
+            extentY *= moduleSize;
+            float centerX = extentX + random.nextFloat() * (width - 2 * extentX);
+            float centerY = extentY + random.nextFloat() * (height - 2 * extentY);
+            float[] box = { centerX - extentX, centerY - extentY, centerX + extentX, centerY + extentY };
+            if (overlaps(box, occupied)) continue;
+
+            float[] signsX = { -1, 1, 1, -1 };
+            float[] signsY = { -1, -1, 1, 1 };
+            float jitter = perspective * 2 * Math.max(halfWidth, halfHeight);
+            float[] quad = new float[8];
+            for (int corner = 0; corner < 4; corner++) {
+                float x = signsX[corner] * halfWidth + (random.nextFloat() * 2 - 1) * jitter;
+                float y = signsY[corner] * halfHeight + (random.nextFloat() * 2 - 1) * jitter;
+                quad[2 * corner] = centerX + x * cos - y * sin;
+                quad[2 * corner + 1] = centerY + x * sin + y * cos;
+            }
+            occupied.add(box);
+            return quad;
+        }
+        return null;
+    }
+
+    private static boolean overlaps(float[] box, List<float[]> occupied) {
+        for (float[] other : occupied) {
+            if (box[0] < other[2] && other[0] < box[2] && box[1] < other[3] && other[1] < box[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private float[] innerCorners(BitMatrix matrix, int format, float[] quad) {
+        float[] homography = squareToQuad(quad);
+        int quietZone = quietZone(format);
+        float totalWide = modulesWide(matrix) + 2 * quietZone;
+        float totalHigh = modulesHigh(matrix, format) + 2 * quietZone;
+        float u0 = quietZone / totalWide;
+        float v0 = quietZone / totalHigh;
+        float[] square = { u0, v0, 1 - u0, v0, 1 - u0, 1 - v0, u0, 1 - v0 };
+
+        float[] corners = new float[8];
+        for (int i = 0; i < 8; i += 2) {
+            float u = square[i];
+            float v = square[i + 1];
+            float w = homography[6] * u + homography[7] * v + 1;
+            corners[i] = (homography[0] * u + homography[1] * v + homography[2]) / w;
+            corners[i + 1] = (homography[3] * u + homography[4] * v + homography[5]) / w;
+        }
+        return corners;
+    }
+
+    private void drawBackground(byte[] data, Random random) {
+        int top = 60 + random.nextInt(120);
+        int bottom = 60 + random.nextInt(120);
+        for (int y = 0; y < height; y++) {
+            byte level = (byte) (top + (bottom - top) * y / height);
+            Arrays.fill(data, y * width, (y + 1) * width, level);
+        }
+    }
+
+    private void drawSymbol(byte[] data, BitMatrix matrix, int format, float[] quad, Random random) {
+        int paper = 215 + random.nextInt(30);
+        int ink = Math.round(paper - contrast * (paper - 15 - random.nextInt(25)));
+
+        boolean linear = isLinear(format);
+        int quietZone = quietZone(format);
+        int modulesWide = modulesWide(matrix);
+        int modulesHigh = modulesHigh(matrix, format);
+        float totalWide = modulesWide + 2 * quietZone;
+        float totalHigh = modulesHigh + 2 * quietZone;
+
+        boolean[] modules = new boolean[modulesWide * (linear ? 1 : modulesHigh)];
+        for (int y = 0; y < (linear ? 1 : modulesHigh); y++) {
+            for (int x = 0; x < modulesWide; x++) {
+                modules[y * modulesWide + x] = matrix.get(x, y);
+            }
+        }
+
+        float[] inverse = invert(squareToQuad(quad));
+        int minX = Math.max(0, (int) Math.floor(Math.min(Math.min(quad[0], quad[2]), Math.min(quad[4], quad[6]))));
+        int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(Math.max(quad[0], quad[2]), Math.max(quad[4], quad[6]))));
+        int minY = Math.max(0, (int) Math.floor(Math.min(Math.min(quad[1], quad[3]), Math.min(quad[5], quad[7]))));
+        int maxY = Math.min(height - 1, (int) Math.ceil(Math.max(Math.max(quad[1], quad[3]), Math.max(quad[5], quad[7]))));
+
+        // 2x2 supersampling keeps module edges anti-aliased like a real optical image.
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                int covered = 0;
+                int dark = 0;
+                for (int sample = 0; sample < 4; sample++) {
+                    float sx = x + 0.25f + 0.5f * (sample & 1);
+                    float sy = y + 0.25f + 0.5f * (sample >> 1);
+                    float w = inverse[6] * sx + inverse[7] * sy + inverse[8];
+                    float u = (inverse[0] * sx + inverse[1] * sy + inverse[2]) / w;
+                    float v = (inverse[3] * sx + inverse[4] * sy + inverse[5]) / w;
+                    if (u < 0 || u >= 1 || v < 0 || v >= 1) continue;
+
+                    covered++;
+                    int moduleX = (int) (u * totalWide) - quietZone;
+                    int moduleY = (int) (v * totalHigh) - quietZone;
+                    if (moduleX < 0 || moduleX >= modulesWide || moduleY < 0 || moduleY >= modulesHigh) continue;
+                    if (modules[(linear ? 0 : moduleY) * modulesWide + moduleX]) dark++;
+                }
+                if (covered == 0) continue;
+
+                int index = y * width + x;
+                int background = data[index] & 0xff;
+                int symbol = (dark * ink + (covered - dark) * paper) / covered;
+                data[index] = (byte) ((symbol * covered + background * (4 - covered)) / 4);
+            }
+        }
+    }
+
+    private void applyGlare(byte[] data, Random random) {
+        float centerX = random.nextFloat() * width;
+        float centerY = random.nextFloat() * height;
+        float radius = (0.1f + 0.2f * random.nextFloat()) * Math.min(width, height);
+        float peak = glare * 255;
+        float scale = -1.0f / (radius * radius);
+
+        int minY = Math.max(0, (int) (centerY - 3 * radius));
+        int maxY = Math.min(height, (int) (centerY + 3 * radius));
+        int minX = Math.max(0, (int) (centerX - 3 * radius));
+        int maxX = Math.min(width, (int) (centerX + 3 * radius));
+        for (int y = minY; y < maxY; y++) {
+            float dy = y - centerY;
+            for (int x = minX; x < maxX; x++) {
+                float dx = x - centerX;
+                int index = y * width + x;
+                int value = (data[index] & 0xff) + (int) (peak * Math.exp((dx * dx + dy * dy) * scale));
+                data[index] = (byte) Math.min(255, value);
+            }
+        }
+    }
+
+    // Two passes of a separable box blur, which is close enough to a gaussian defocus.
+    private void blur(byte[] data) {
+        int[] line = new int[Math.max(width, height)];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int y = 0; y < height; y++) {
+                blurLine(data, y * width, 1, width, line);
+            }
+            for (int x = 0; x < width; x++) {
+                blurLine(data, x, width, height, line);
+            }
+        }
+    }
+
+    private void blurLine(byte[] data, int start, int stride, int length, int[] line) {
+        for (int i = 0; i < length; i++) {
+            line[i] = data[start + i * stride] & 0xff;
+        }
+        int window = 2 * blurRadius + 1;
+        int sum = 0;
+        for (int i = -blurRadius; i <= blurRadius; i++) {
+            sum += line[clamp(i, length)];
+        }
+        for (int i = 0; i < length; i++) {
+            data[start + i * stride] = (byte) (sum / window);
+            sum += line[clamp(i + blurRadius + 1, length)] - line[clamp(i - blurRadius, length)];
+        }
+    }
+
+    private static int clamp(int index, int length) {
+        return index < 0 ? 0 : (index >= length ? length - 1 : index);
+    }
+
+    private void applyNoise(byte[] data, Random random) {
+        // Sampling a precomputed table keeps noise generation far cheaper than rendering.
+        float[] table = new float[4096];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (float) random.nextGaussian() * noiseSigma;
+        }
+        int state = random.nextInt() | 1;
+        for (int i = 0; i < width * height; i++) {
+            state ^= state << 13;
+            state ^= state >>> 17;
+            state ^= state << 5;
+            int value = (data[i] & 0xff) + Math.round(table[state & 4095]);
+            data[i] = (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+        }
+    }
+
+    // Homography mapping the unit square onto the quadrilateral, as a row-major 3x3 matrix with
+    // the last element fixed at 1 (Heckbert, "Fundamentals of Texture Mapping").
+    private static float[] squareToQuad(float[] quad) {
+        float x0 = quad[0], y0 = quad[1], x1 = quad[2], y1 = quad[3];
+        float x2 = quad[4], y2 = quad[5], x3 = quad[6], y3 = quad[7];
+        float dx3 = x0 - x1 + x2 - x3;
+        float dy3 = y0 - y1 + y2 - y3;
+
+        float g = 0;
+        float h = 0;
+        if (dx3 != 0 || dy3 != 0) {
+            float dx1 = x1 - x2;
+            float dx2 = x3 - x2;
+            float dy1 = y1 - y2;
+            float dy2 = y3 - y2;
+            float denominator = dx1 * dy2 - dx2 * dy1;
+            g = (dx3 * dy2 - dx2 * dy3) / denominator;
+            h = (dx1 * dy3 - dx3 * dy1) / denominator;
+        }
+        return new float[] {
+                x1 - x0 + g * x1, x3 - x0 + h * x3, x0,
+                y1 - y0 + g * y1, y3 - y0 + h * y3, y0,
+                g, h, 1
+        };
+    }
+
+    // Inverse up to scale, which is all a projective transform needs.
+    private static float[] invert(float[] m) {
+        return new float[] {
+                m[4] * m[8] - m[5] * m[7], m[2] * m[7] - m[1] * m[8], m[1] * m[5] - m[2] * m[4],
+                m[5] * m[6] - m[3] * m[8], m[0] * m[8] - m[2] * m[6], m[2] * m[3] - m[0] * m[5],
+                m[3] * m[7] - m[4] * m[6], m[1] * m[6] - m[0] * m[7], m[0] * m[4] - m[1] * m[3]
+        };
+    }
+}